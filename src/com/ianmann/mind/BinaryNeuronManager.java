@@ -0,0 +1,50 @@
+package com.ianmann.mind;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.json.simple.parser.ParseException;
+
+/**
+ * <p>
+ * Neuron storage that writes each Neuron's file in the binary layout of
+ * {@link NeuronRecord} and reads it back in one read. Files that
+ * are still json are parsed as json so existing minds keep loading.
+ * </p>
+ */
+class BinaryNeuronManager extends NeuronManager {
+
+	/**
+	 * Encode _object as a {@link NeuronRecord}.
+	 * 
+	 * @see com.ianmann.mind.NeuronManager#encode(com.ianmann.mind.Neuron)
+	 */
+	@Override
+	public byte[] encode(Neuron _object) throws IOException {
+		return NeuronRecord.encode(_object);
+	}
+
+	/**
+	 * Bind the stored record for _object into its attributes, falling
+	 * back to json for files that have not been converted yet.
+	 * 
+	 * @see com.ianmann.mind.NeuronManager#load(com.ianmann.mind.Neuron)
+	 */
+	@Override
+	public void load(Neuron _object) throws FileNotFoundException, ParseException {
+		NeuronManager.replayJournal();
+		try {
+			long generation = NeuralPathway.writeBehind.generation();
+			NeuronRecord record = NeuronRecord.read(_object);
+			if (record == null) {
+				super.load(_object);
+				return;
+			}
+			record.bind(_object, generation);
+		} catch (FileNotFoundException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new FileNotFoundException(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.ianmann.mind;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>
+ * Marker file kept in the directory of an index to show that the index
+ * was closed after every change to it was synced. Index writes are not
+ * made in the same unit of work as the Neuron writes they follow, so an
+ * index that was open when the program stopped may be missing changes
+ * or hold changes whose Neuron was never written.
+ * </p>
+ * <p>
+ * The marker is removed when the index is opened and written back when
+ * it is closed. An index whose directory has no marker is rebuilt from
+ * storage.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+final class CleanShutdownMarker {
+
+	private static final String NAME = "clean";
+
+	private CleanShutdownMarker() {}
+
+	/**
+	 * Remove the marker from _directory before the index in it is
+	 * changed. The removal is forced to disk.
+	 * @param _directory
+	 * @return
+	 * true - if the index in _directory was closed cleanly. <br>
+	 * false - if it must be rebuilt.
+	 * @throws IOException if the marker could not be removed.
+	 */
+	static boolean clear(File _directory) throws IOException {
+		File marker = new File(_directory, NAME);
+		if (!marker.exists()) {
+			return false;
+		}
+		if (!marker.delete()) {
+			throw new IOException("Could not remove " + marker.getPath());
+		}
+		CleanShutdownMarker.force(_directory);
+		return true;
+	}
+
+	/**
+	 * Write the marker to _directory once the index in it has been synced
+	 * and closed.
+	 * @param _directory
+	 * @throws IOException
+	 */
+	static void set(File _directory) throws IOException {
+		FileOutputStream out = new FileOutputStream(new File(_directory, NAME));
+		try {
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		CleanShutdownMarker.force(_directory);
+	}
+
+	/**
+	 * Force the entries of _directory to disk.
+	 * @param _directory
+	 */
+	private static void force(File _directory) {
+		try {
+			FileChannel directory = FileChannel.open(_directory.toPath(), StandardOpenOption.READ);
+			try {
+				directory.force(true);
+			} finally {
+				directory.close();
+			}
+		} catch (IOException e) {
+			// Not every platform can open a folder to force it.
+		}
+	}
+}
@@ -0,0 +1,352 @@
+package com.ianmann.mind;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.core.Constants;
+
+/**
+ * <p>
+ * Read-only copy of the whole network packed into primitive arrays in
+ * compressed sparse row form. Neurons are rows sorted by id and the
+ * pathways in each Neuron's axon are the consecutive edges from
+ * {@link GraphSnapshot#edgeStart(int)} up to {@link GraphSnapshot#edgeEnd(int)}.
+ * </p>
+ * <p>
+ * Every Neuron and pathway is read once when the snapshot is built.
+ * After that, looking up a Neuron and walking its pathways only reads
+ * the arrays, so traversals allocate nothing and never touch storage.
+ * Changes made to the network after the snapshot is built are not seen
+ * until {@link GraphSnapshot#refresh(long[])} is called with the ids
+ * of the Neurons that changed.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class GraphSnapshot {
+
+	/**
+	 * Called for each pathway by {@link GraphSnapshot#forEachPathway(long, PathwayVisitor)}.
+	 */
+	public interface PathwayVisitor {
+
+		/**
+		 * @param _edge Index of the pathway in the snapshot.
+		 * @param _recieverId Id of the Neuron the pathway leads to.
+		 * @param _dendriteGroup Index of the dendrite group the pathway is in.
+		 * @param _connectionSize Size of the pathway when the snapshot was built.
+		 */
+		public void visit(int _edge, long _recieverId, int _dendriteGroup, double _connectionSize);
+	}
+
+	/**
+	 * Id of each Neuron in ascending order.
+	 */
+	private final long[] neuronIds;
+
+	/**
+	 * {@link com.ianmann.mind.storage.organization.NeuronType} of each Neuron.
+	 */
+	private final int[] types;
+
+	/**
+	 * Index of the first pathway of each Neuron. Has one more entry than
+	 * there are Neurons so the pathways of Neuron i end at offsets[i + 1].
+	 */
+	private final int[] offsets;
+
+	private final long[] pathwayIds;
+	private final long[] recieverIds;
+	private final int[] dendriteGroups;
+	private final double[] connectionSizes;
+
+	private GraphSnapshot(Builder _builder) {
+		this.neuronIds = Arrays.copyOf(_builder.neuronIds, _builder.neuronCount);
+		this.types = Arrays.copyOf(_builder.types, _builder.neuronCount);
+		this.offsets = Arrays.copyOf(_builder.offsets, _builder.neuronCount + 1);
+		this.pathwayIds = Arrays.copyOf(_builder.pathwayIds, _builder.edgeCount);
+		this.recieverIds = Arrays.copyOf(_builder.recieverIds, _builder.edgeCount);
+		this.dendriteGroups = Arrays.copyOf(_builder.dendriteGroups, _builder.edgeCount);
+		this.connectionSizes = Arrays.copyOf(_builder.connectionSizes, _builder.edgeCount);
+	}
+
+	/**
+	 * Build a snapshot of the Neurons with the ids in _neuronIds and
+	 * their pathways. Ids of Neurons that are not in storage are skipped.
+	 * @param _neuronIds
+	 * @return
+	 * @throws ParseException
+	 */
+	public static GraphSnapshot build(long[] _neuronIds) throws ParseException {
+		long[] ids = GraphSnapshot.sortedUnique(_neuronIds);
+		Builder builder = new Builder(ids.length);
+		for (long id : ids) {
+			builder.addFromStorage(id);
+		}
+		return new GraphSnapshot(builder);
+	}
+
+	/**
+	 * Build a snapshot of every Neuron file in {@link Constants#NEURON_ROOT}.
+	 * @return
+	 * @throws ParseException
+	 * @throws IOException if the labels of labeled Neurons could not be read.
+	 */
+	public static GraphSnapshot build() throws ParseException, IOException {
+		ArrayList<Long> ids = StorageIds.listNeuronIds();
+		long[] neuronIds = new long[ids.size()];
+		for (int i = 0; i < neuronIds.length; i++) {
+			neuronIds[i] = ids.get(i);
+		}
+		return GraphSnapshot.build(neuronIds);
+	}
+
+	/**
+	 * Returns a new snapshot in which the Neurons with the ids in
+	 * _changedNeuronIds and their pathways are read from storage again.
+	 * Changed ids that are not in this snapshot are added and changed
+	 * Neurons that are no longer in storage are left out. The rows of
+	 * every other Neuron are copied from this snapshot without reading
+	 * storage.
+	 * @param _changedNeuronIds
+	 * @return
+	 * @throws ParseException
+	 */
+	public GraphSnapshot refresh(long[] _changedNeuronIds) throws ParseException {
+		long[] changed = GraphSnapshot.sortedUnique(_changedNeuronIds);
+		Builder builder = new Builder(this.neuronIds.length + changed.length);
+		builder.reserveEdges(this.recieverIds.length);
+
+		int i = 0;
+		int c = 0;
+		while (i < this.neuronIds.length || c < changed.length) {
+			if (c < changed.length && (i >= this.neuronIds.length || changed[c] <= this.neuronIds[i])) {
+				if (i < this.neuronIds.length && changed[c] == this.neuronIds[i]) {
+					i++;
+				}
+				builder.addFromStorage(changed[c++]);
+			} else {
+				builder.copyRow(this, i++);
+			}
+		}
+		return new GraphSnapshot(builder);
+	}
+
+	/**
+	 * Returns the number of Neurons in the snapshot.
+	 * @return
+	 */
+	public int getNeuronCount() {
+		return this.neuronIds.length;
+	}
+
+	/**
+	 * Returns the number of pathways in the snapshot.
+	 * @return
+	 */
+	public int getPathwayCount() {
+		return this.recieverIds.length;
+	}
+
+	/**
+	 * Returns the row of the Neuron with _id or -1 if it is not in the snapshot.
+	 * @param _id
+	 * @return
+	 */
+	public int indexOf(long _id) {
+		int index = Arrays.binarySearch(this.neuronIds, _id);
+		return index < 0 ? -1 : index;
+	}
+
+	/**
+	 * Returns the id of the Neuron in row _neuron.
+	 * @param _neuron
+	 * @return
+	 */
+	public long getNeuronId(int _neuron) {
+		return this.neuronIds[_neuron];
+	}
+
+	/**
+	 * Returns the type of the Neuron in row _neuron.
+	 * @param _neuron
+	 * @return
+	 */
+	public int getType(int _neuron) {
+		return this.types[_neuron];
+	}
+
+	/**
+	 * Returns the index of the first pathway of the Neuron in row _neuron.
+	 * @param _neuron
+	 * @return
+	 */
+	public int edgeStart(int _neuron) {
+		return this.offsets[_neuron];
+	}
+
+	/**
+	 * Returns the index after the last pathway of the Neuron in row _neuron.
+	 * @param _neuron
+	 * @return
+	 */
+	public int edgeEnd(int _neuron) {
+		return this.offsets[_neuron + 1];
+	}
+
+	public long getPathwayId(int _edge) {
+		return this.pathwayIds[_edge];
+	}
+
+	public long getRecieverId(int _edge) {
+		return this.recieverIds[_edge];
+	}
+
+	public int getDendriteGroup(int _edge) {
+		return this.dendriteGroups[_edge];
+	}
+
+	public double getConnectionSize(int _edge) {
+		return this.connectionSizes[_edge];
+	}
+
+	/**
+	 * Call _visitor for each pathway of the Neuron with _neuronId in
+	 * axon order. Nothing is called if the Neuron is not in the snapshot.
+	 * @param _neuronId
+	 * @param _visitor
+	 */
+	public void forEachPathway(long _neuronId, PathwayVisitor _visitor) {
+		int neuron = this.indexOf(_neuronId);
+		if (neuron < 0) {
+			return;
+		}
+		for (int e = this.offsets[neuron]; e < this.offsets[neuron + 1]; e++) {
+			_visitor.visit(e, this.recieverIds[e], this.dendriteGroups[e], this.connectionSizes[e]);
+		}
+	}
+
+	/**
+	 * Returns a sorted copy of _ids without duplicates.
+	 * @param _ids
+	 * @return
+	 */
+	private static long[] sortedUnique(long[] _ids) {
+		long[] ids = Arrays.copyOf(_ids, _ids.length);
+		Arrays.sort(ids);
+		int unique = 0;
+		for (int i = 0; i < ids.length; i++) {
+			if (i == 0 || ids[i] != ids[unique - 1]) {
+				ids[unique++] = ids[i];
+			}
+		}
+		return Arrays.copyOf(ids, unique);
+	}
+
+	/**
+	 * Growable arrays that a snapshot is filled in from one row at a time.
+	 */
+	private static class Builder {
+
+		private long[] neuronIds;
+		private int[] types;
+		private int[] offsets;
+		private int neuronCount = 0;
+
+		private long[] pathwayIds = new long[16];
+		private long[] recieverIds = new long[16];
+		private int[] dendriteGroups = new int[16];
+		private double[] connectionSizes = new double[16];
+		private int edgeCount = 0;
+
+		Builder(int _neurons) {
+			this.neuronIds = new long[_neurons];
+			this.types = new int[_neurons];
+			this.offsets = new int[_neurons + 1];
+		}
+
+		/**
+		 * Grow the pathway arrays to hold at least _edges pathways.
+		 * @param _edges
+		 */
+		void reserveEdges(int _edges) {
+			if (_edges <= this.recieverIds.length) {
+				return;
+			}
+			int capacity = Math.max(_edges, this.recieverIds.length * 2);
+			this.pathwayIds = Arrays.copyOf(this.pathwayIds, capacity);
+			this.recieverIds = Arrays.copyOf(this.recieverIds, capacity);
+			this.dendriteGroups = Arrays.copyOf(this.dendriteGroups, capacity);
+			this.connectionSizes = Arrays.copyOf(this.connectionSizes, capacity);
+		}
+
+		/**
+		 * Read the Neuron with _id and its pathways from storage and add
+		 * them as the next row. The Neuron is skipped if it is not in
+		 * storage. The Neurons and pathways are not put in the caches so
+		 * building a snapshot does not evict the working set.
+		 * @param _id
+		 * @throws ParseException
+		 */
+		void addFromStorage(long _id) throws ParseException {
+			Neuron neuron;
+			try {
+				neuron = Neuron.detached(_id);
+			} catch (IOException e) {
+				// The Neuron was deleted.
+				return;
+			}
+
+			int start = this.edgeCount;
+			ArrayList<ArrayList<NeuralPathway>> axon = neuron.getAxon();
+			for (int g = 0; g < axon.size(); g++) {
+				for (NeuralPathway pathway : axon.get(g)) {
+					long recieverId;
+					try {
+						recieverId = pathway.getRecieverId();
+					} catch (FileNotFoundException e) {
+						// The pathway was deleted after the Neuron was read.
+						continue;
+					}
+					this.reserveEdges(this.edgeCount + 1);
+					this.pathwayIds[this.edgeCount] = pathway.getId();
+					this.recieverIds[this.edgeCount] = recieverId;
+					this.dendriteGroups[this.edgeCount] = g;
+					this.connectionSizes[this.edgeCount] = pathway.getConnectionSize();
+					this.edgeCount++;
+				}
+			}
+			this.addRow(_id, neuron.getType(), start);
+		}
+
+		/**
+		 * Add row _neuron of _snapshot as the next row.
+		 * @param _snapshot
+		 * @param _neuron
+		 */
+		void copyRow(GraphSnapshot _snapshot, int _neuron) {
+			int from = _snapshot.offsets[_neuron];
+			int count = _snapshot.offsets[_neuron + 1] - from;
+			int start = this.edgeCount;
+			this.reserveEdges(start + count);
+			System.arraycopy(_snapshot.pathwayIds, from, this.pathwayIds, start, count);
+			System.arraycopy(_snapshot.recieverIds, from, this.recieverIds, start, count);
+			System.arraycopy(_snapshot.dendriteGroups, from, this.dendriteGroups, start, count);
+			System.arraycopy(_snapshot.connectionSizes, from, this.connectionSizes, start, count);
+			this.edgeCount += count;
+			this.addRow(_snapshot.neuronIds[_neuron], _snapshot.types[_neuron], start);
+		}
+
+		private void addRow(long _id, int _type, int _start) {
+			this.neuronIds[this.neuronCount] = _id;
+			this.types[this.neuronCount] = _type;
+			this.offsets[this.neuronCount] = _start;
+			this.neuronCount++;
+			this.offsets[this.neuronCount] = this.edgeCount;
+		}
+	}
+}
@@ -0,0 +1,264 @@
+package com.ianmann.mind;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.core.Constants;
+import com.ianmann.utils.storage.RecordStore;
+import com.ianmann.utils.storage.SegmentLog;
+
+/**
+ * <p>
+ * Reverse adjacency of the network. For each Neuron this index holds
+ * every pathway that leads to it and the Neuron whose axon the pathway
+ * is in, so finding what links to a Neuron does not read every Neuron.
+ * </p>
+ * <p>
+ * Records are kept in a {@link RecordStore} opened by the
+ * {@link StorageEngine} in use, a {@link SegmentLog} for the engines
+ * that write to disk. There is one record per pathway, keyed
+ * {@code recieverId/pathwayId} and holding the id of the Neuron whose
+ * axon the pathway is in, so adding or removing a pathway writes one
+ * small record whatever the in-degree of the Neuron it leads to. Like
+ * {@link NeuronIndex}, the pathways of each Neuron are also kept in
+ * memory, read from the store when the index is opened.
+ * </p>
+ * <p>
+ * The store is rebuilt when it is opened unless it was closed cleanly,
+ * as shown by a {@link CleanShutdownMarker}.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class IncomingIndex {
+
+	private RecordStore log;
+
+	/**
+	 * Directory the store is kept in, or null if the {@link StorageEngine}
+	 * it was opened with is not persistent.
+	 */
+	private File directory;
+
+	/**
+	 * Id of the Neuron holding each pathway that leads to a Neuron, by
+	 * the id of the pathway, by the id of the Neuron it leads to.
+	 */
+	private HashMap<Long, LinkedHashMap<Long, Long>> incoming = new HashMap<Long, LinkedHashMap<Long, Long>>();
+
+	private IncomingIndex(RecordStore _log, File _directory) {
+		this.log = _log;
+		this.directory = _directory;
+	}
+
+	/**
+	 * Open the index stored in _directory. If the {@link StorageEngine}
+	 * in use is persistent and the index was not closed cleanly, it is
+	 * built again from the axon of every Neuron in {@link Constants#NEURON_ROOT}.
+	 * @param _directory
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static IncomingIndex open(File _directory) throws IOException, ParseException {
+		StorageEngine engine = StorageEngine.current();
+		boolean clean = !engine.isPersistent() || CleanShutdownMarker.clear(_directory);
+		IncomingIndex index = new IncomingIndex(engine.openStore(_directory), engine.isPersistent() ? _directory : null);
+		if (clean) {
+			for (String key : index.log.keys()) {
+				byte[] record = index.log.get(key);
+				int slash = key.indexOf('/');
+				if (record != null && slash > 0) {
+					index.link(
+							Long.parseLong(key.substring(0, slash)),
+							Long.parseLong(key.substring(slash + 1)),
+							ByteBuffer.wrap(record).getLong()
+					);
+				}
+			}
+		} else {
+			index.rebuild();
+		}
+		return index;
+	}
+
+	/**
+	 * Throw away every record and index the axon of every Neuron file
+	 * in {@link Constants#NEURON_ROOT} again.
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public synchronized void rebuild() throws IOException, ParseException {
+		for (String key : this.log.keys()) {
+			this.log.remove(key);
+		}
+		this.incoming.clear();
+
+		for (long senderId : StorageIds.listNeuronIds()) {
+			Neuron sender;
+			try {
+				sender = Neuron.detached(senderId);
+			} catch (FileNotFoundException e) {
+				continue;
+			}
+			for (ArrayList<NeuralPathway> dendriteGroup : sender.getAxon()) {
+				for (NeuralPathway handle : dendriteGroup) {
+					long recieverId;
+					try {
+						recieverId = new NeuralPathway(handle.getId(), true).getRecieverId();
+					} catch (FileNotFoundException e) {
+						continue;
+					}
+					this.add(recieverId, handle.getId(), senderId);
+				}
+			}
+		}
+		this.log.sync();
+	}
+
+	/**
+	 * Record that the pathway with _pathwayId in the axon of the Neuron
+	 * with _senderId leads to the Neuron with _recieverId.
+	 * @param _recieverId
+	 * @param _pathwayId
+	 * @param _senderId
+	 * @throws IOException
+	 */
+	public synchronized void add(long _recieverId, long _pathwayId, long _senderId) throws IOException {
+		LinkedHashMap<Long, Long> pathways = this.incoming.get(_recieverId);
+		if (pathways != null && pathways.containsKey(_pathwayId)) {
+			return;
+		}
+		this.log.put(IncomingIndex.key(_recieverId, _pathwayId), ByteBuffer.allocate(8).putLong(_senderId).array());
+		this.link(_recieverId, _pathwayId, _senderId);
+	}
+
+	/**
+	 * Record every pathway in _pathwayIds, held by the Neuron at the same
+	 * position in _senderIds, as leading to the Neuron with _recieverId.
+	 * @param _recieverId
+	 * @param _pathwayIds
+	 * @param _senderIds
+	 * @throws IOException
+	 */
+	public synchronized void addAll(long _recieverId, long[] _pathwayIds, long[] _senderIds) throws IOException {
+		for (int i = 0; i < _pathwayIds.length; i++) {
+			this.add(_recieverId, _pathwayIds[i], _senderIds[i]);
+		}
+	}
+	
+	/**
+	 * Forget the pathway with _pathwayId that leads to the Neuron with _recieverId.
+	 * @param _recieverId
+	 * @param _pathwayId
+	 * @throws IOException
+	 */
+	public synchronized void remove(long _recieverId, long _pathwayId) throws IOException {
+		LinkedHashMap<Long, Long> pathways = this.incoming.get(_recieverId);
+		if (pathways == null || !pathways.containsKey(_pathwayId)) {
+			return;
+		}
+		this.log.remove(IncomingIndex.key(_recieverId, _pathwayId));
+		pathways.remove(_pathwayId);
+		if (pathways.isEmpty()) {
+			this.incoming.remove(_recieverId);
+		}
+	}
+
+	/**
+	 * Forget every pathway that leads to the Neuron with _recieverId.
+	 * @param _recieverId
+	 * @throws IOException
+	 */
+	public synchronized void removeAll(long _recieverId) throws IOException {
+		LinkedHashMap<Long, Long> pathways = this.incoming.get(_recieverId);
+		if (pathways == null) {
+			return;
+		}
+		for (long pathwayId : pathways.keySet()) {
+			this.log.remove(IncomingIndex.key(_recieverId, pathwayId));
+		}
+		this.incoming.remove(_recieverId);
+	}
+
+	/**
+	 * Returns the ids of the pathways that lead to the Neuron with _recieverId.
+	 * @param _recieverId
+	 * @return
+	 */
+	public synchronized long[] getPathwayIds(long _recieverId) {
+		LinkedHashMap<Long, Long> pathways = this.incoming.get(_recieverId);
+		return pathways == null ? new long[0] : IncomingIndex.toArray(pathways.keySet());
+	}
+
+	/**
+	 * Returns the id of the Neuron that holds each pathway returned by
+	 * {@link IncomingIndex#getPathwayIds(long)}, in the same order. A
+	 * Neuron with more than one pathway to _recieverId is listed once
+	 * for each.
+	 * @param _recieverId
+	 * @return
+	 */
+	public synchronized long[] getSenderIds(long _recieverId) {
+		LinkedHashMap<Long, Long> pathways = this.incoming.get(_recieverId);
+		return pathways == null ? new long[0] : IncomingIndex.toArray(pathways.values());
+	}
+
+	/**
+	 * Force every change to disk.
+	 * @throws IOException
+	 */
+	public void sync() throws IOException {
+		this.log.sync();
+	}
+
+	/**
+	 * Sync and close the store. The next time it is opened it is read
+	 * as it is instead of being rebuilt.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		this.log.sync();
+		this.log.close();
+		if (this.directory != null) {
+			CleanShutdownMarker.set(this.directory);
+		}
+	}
+
+	private void link(long _recieverId, long _pathwayId, long _senderId) {
+		LinkedHashMap<Long, Long> pathways = this.incoming.get(_recieverId);
+		if (pathways == null) {
+			pathways = new LinkedHashMap<Long, Long>();
+			this.incoming.put(_recieverId, pathways);
+		}
+		pathways.put(_pathwayId, _senderId);
+	}
+
+	/**
+	 * Returns the key of the record for the pathway with _pathwayId that
+	 * leads to the Neuron with _recieverId.
+	 * @param _recieverId
+	 * @param _pathwayId
+	 * @return
+	 */
+	private static String key(long _recieverId, long _pathwayId) {
+		return _recieverId + "/" + _pathwayId;
+	}
+
+	private static long[] toArray(Collection<Long> _ids) {
+		long[] ids = new long[_ids.size()];
+		int i = 0;
+		for (long id : _ids) {
+			ids[i++] = id;
+		}
+		return ids;
+	}
+}
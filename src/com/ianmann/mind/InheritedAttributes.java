@@ -0,0 +1,237 @@
+package com.ianmann.mind;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.storage.organization.NeuronType;
+
+/**
+ * <p>
+ * The attributes of every entity structure flattened with those it
+ * inherits from its parent structures. An entity structure is a
+ * {@link NeuronType#NOUN_DEFINITION} Neuron laid out as described in
+ * {@link OntologyLoader}: its attributes are the Neurons led to by
+ * {@link OntologyLoader#NETWORK_GROUP} and its parent is the Neuron led
+ * to by {@link OntologyLoader#PARENT_GROUP}.
+ * </p>
+ * <p>
+ * A structure's set is worked out the first time it is asked for by
+ * reading each structure up the parent chain once. Only the ids of the
+ * attribute Neurons are read, none of the attribute Neurons themselves.
+ * After that the set is kept up to date by {@link Neuron}:
+ * </p>
+ * <ul>
+ * <li>An attribute added to a structure is added to its set and to the
+ * set of every structure worked out below it.</li>
+ * <li>When an attribute is removed from a structure or its parent
+ * changes, its set and those of the structures below it are dropped and
+ * worked out again the next time they are asked for.</li>
+ * </ul>
+ * <p>
+ * Changes made to an axon through {@link Neuron#getAxon()} are not seen.
+ * Call {@link InheritedAttributes#invalidate(long)} after making them.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class InheritedAttributes {
+
+	/**
+	 * Own and inherited attribute ids of each structure that has been
+	 * worked out, by the structure's id.
+	 */
+	private final ConcurrentHashMap<Long, Set<Long>> attributes = new ConcurrentHashMap<Long, Set<Long>>();
+
+	/**
+	 * Ids of the worked out structures whose parent is each structure,
+	 * by the parent's id.
+	 */
+	private final ConcurrentHashMap<Long, Set<Long>> children = new ConcurrentHashMap<Long, Set<Long>>();
+
+	/**
+	 * Parent of each worked out structure that has one.
+	 */
+	private final ConcurrentHashMap<Long, Long> parents = new ConcurrentHashMap<Long, Long>();
+
+	/**
+	 * Returns whether the structure with _structureId has the attribute
+	 * with _attributeId, either itself or through a parent.
+	 * @param _structureId
+	 * @param _attributeId
+	 * @return
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
+	public boolean has(long _structureId, long _attributeId) throws FileNotFoundException, ParseException {
+		Set<Long> attributes = this.attributes.get(_structureId);
+		if (attributes == null) {
+			synchronized (this) {
+				attributes = this.materialize(_structureId, new HashSet<Long>());
+			}
+		}
+		return attributes.contains(_attributeId);
+	}
+
+	/**
+	 * Returns the ids of the attributes of the structure with
+	 * _structureId and of every structure above it. The set can not be
+	 * changed and is kept up to date as attributes are added.
+	 * @param _structureId
+	 * @return
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
+	public Set<Long> get(long _structureId) throws FileNotFoundException, ParseException {
+		Set<Long> attributes = this.attributes.get(_structureId);
+		if (attributes != null) {
+			return Collections.unmodifiableSet(attributes);
+		}
+		synchronized (this) {
+			return Collections.unmodifiableSet(this.materialize(_structureId, new HashSet<Long>()));
+		}
+	}
+
+	/**
+	 * Drop the set of the structure with _structureId and of every
+	 * structure worked out below it.
+	 * @param _structureId
+	 */
+	public synchronized void invalidate(long _structureId) {
+		Long parentId = this.parents.remove(_structureId);
+		if (parentId != null) {
+			Set<Long> siblings = this.children.get(parentId);
+			if (siblings != null) {
+				siblings.remove(_structureId);
+			}
+		}
+		this.drop(_structureId);
+	}
+
+	/**
+	 * Forget every set.
+	 */
+	public synchronized void clear() {
+		this.attributes.clear();
+		this.children.clear();
+		this.parents.clear();
+	}
+
+	/**
+	 * Called when a pathway to the Neuron with _targetId is added to
+	 * _dendriteGroup of _neuron.
+	 * @param _neuron
+	 * @param _dendriteGroup
+	 * @param _targetId
+	 */
+	synchronized void pathwayAdded(Neuron _neuron, int _dendriteGroup, long _targetId) {
+		if (_neuron.getType() != NeuronType.NOUN_DEFINITION) {
+			return;
+		}
+		if (_dendriteGroup == OntologyLoader.NETWORK_GROUP) {
+			this.addInherited(_neuron.getId(), _targetId);
+		} else if (_dendriteGroup == OntologyLoader.PARENT_GROUP) {
+			this.invalidate(_neuron.getId());
+		}
+	}
+
+	/**
+	 * Called when a pathway is removed from _dendriteGroup of _neuron.
+	 * @param _neuron
+	 * @param _dendriteGroup
+	 */
+	void pathwayRemoved(Neuron _neuron, int _dendriteGroup) {
+		if (_neuron.getType() != NeuronType.NOUN_DEFINITION) {
+			return;
+		}
+		if (_dendriteGroup == OntologyLoader.NETWORK_GROUP || _dendriteGroup == OntologyLoader.PARENT_GROUP) {
+			this.invalidate(_neuron.getId());
+		}
+	}
+
+	/**
+	 * Add _attributeId to the set of _structureId and every structure
+	 * worked out below it.
+	 * @param _structureId
+	 * @param _attributeId
+	 */
+	private void addInherited(long _structureId, long _attributeId) {
+		Set<Long> attributes = this.attributes.get(_structureId);
+		if (attributes == null) {
+			// Not worked out, so neither is anything below it.
+			return;
+		}
+		attributes.add(_attributeId);
+		Set<Long> children = this.children.get(_structureId);
+		if (children != null) {
+			for (long childId : children) {
+				this.addInherited(childId, _attributeId);
+			}
+		}
+	}
+
+	/**
+	 * Drop the set of _structureId and those below it without
+	 * unlinking it from its parent.
+	 * @param _structureId
+	 */
+	private void drop(long _structureId) {
+		this.attributes.remove(_structureId);
+		Set<Long> children = this.children.remove(_structureId);
+		if (children != null) {
+			for (long childId : children) {
+				this.parents.remove(childId);
+				this.drop(childId);
+			}
+		}
+	}
+
+	/**
+	 * Work out the set of _structureId, working out its parents first.
+	 * @param _structureId
+	 * @param _visiting Structures being worked out further down the
+	 * chain, so a cycle of parents ends.
+	 * @return
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
+	private Set<Long> materialize(long _structureId, HashSet<Long> _visiting) throws FileNotFoundException, ParseException {
+		Set<Long> attributes = this.attributes.get(_structureId);
+		if (attributes != null) {
+			return attributes;
+		}
+		attributes = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+		if (!_visiting.add(_structureId)) {
+			return attributes;
+		}
+
+		Neuron structure = Neuron.fromStorage(_structureId);
+		ArrayList<ArrayList<NeuralPathway>> axon = structure.getAxon();
+		if (axon.size() > OntologyLoader.NETWORK_GROUP) {
+			for (NeuralPathway pathway : axon.get(OntologyLoader.NETWORK_GROUP)) {
+				attributes.add(pathway.getRecieverId());
+			}
+		}
+		if (axon.size() > OntologyLoader.PARENT_GROUP && !axon.get(OntologyLoader.PARENT_GROUP).isEmpty()) {
+			long parentId = axon.get(OntologyLoader.PARENT_GROUP).get(0).getRecieverId();
+			Set<Long> inherited = this.materialize(parentId, _visiting);
+			attributes.addAll(inherited);
+			if (this.attributes.containsKey(parentId)) {
+				Set<Long> siblings = this.children.get(parentId);
+				if (siblings == null) {
+					siblings = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+					this.children.put(parentId, siblings);
+				}
+				siblings.add(_structureId);
+				this.parents.put(_structureId, parentId);
+			}
+		}
+		this.attributes.put(_structureId, attributes);
+		return attributes;
+	}
+}
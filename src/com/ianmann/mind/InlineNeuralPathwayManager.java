@@ -0,0 +1,103 @@
+package com.ianmann.mind;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.utils.storage.StorageException;
+
+/**
+ * <p>
+ * NeuralPathway storage for {@link InlineNeuronManager}. Every pathway is
+ * kept in the record of the Neuron whose axon holds it, so it is written
+ * when that Neuron is saved and has no file of its own. Saving a pathway
+ * on its own, as {@link SynapseWriteBehind} does, only rewrites its
+ * connection size in that record.
+ * </p>
+ * <p>
+ * Pathways still stored in their own file from before the Neuron that
+ * holds them was saved inline are read from and written to that file
+ * until the Neuron is saved again.
+ * </p>
+ */
+class InlineNeuralPathwayManager extends NeuralPathwayManager {
+	
+	/**
+	 * Manager of the Neuron records the pathways are stored in.
+	 */
+	private InlineNeuronManager neurons;
+	
+	/**
+	 * Creates a manager that stores NeuralPathways in the records written by _neurons.
+	 * @param _neurons
+	 */
+	InlineNeuralPathwayManager(InlineNeuronManager _neurons) {
+		this.neurons = _neurons;
+	}
+
+	/**
+	 * Store the connection size of _object in the record of the Neuron
+	 * that holds it. A pathway that has just been created is not in
+	 * any record yet and is written with its Neuron instead.
+	 * 
+	 * @see com.ianmann.mind.NeuralPathwayManager#write(com.ianmann.mind.NeuralPathway)
+	 */
+	@Override
+	protected void write(NeuralPathway _object) {
+		try {
+			if (!this.neurons.writeInline(_object) && _object.getFile().exists()) {
+				super.write(_object);
+			}
+		} catch (IOException e) {
+			throw new StorageException("Could not write " + _object.getFile().getPath() + " into the record of its Neuron", e);
+		}
+	}
+
+	/**
+	 * @see com.ianmann.mind.NeuralPathwayManager#isStoredWithNeuron()
+	 */
+	@Override
+	public boolean isStoredWithNeuron() {
+		return true;
+	}
+
+	/**
+	 * Forget which Neuron _object is stored with and delete any file left
+	 * over from before it was stored inline. The Neuron drops the pathway
+	 * from its record when it is next saved, so this is always true.
+	 * 
+	 * @see com.ianmann.mind.NeuralPathwayManager#remove(com.ianmann.mind.NeuralPathway)
+	 */
+	@Override
+	protected boolean remove(NeuralPathway _object) {
+		try {
+			this.neurons.forget(_object.getId());
+		} catch (IOException e) {
+			throw new StorageException("Could not forget which Neuron " + _object.getFile().getPath() + " is stored with", e);
+		}
+		super.remove(_object);
+		return true;
+	}
+
+	/**
+	 * Read _object from the record of the Neuron that holds it, falling
+	 * back to its own file if no record holds it yet.
+	 * 
+	 * @see com.ianmann.mind.NeuralPathwayManager#load(com.ianmann.mind.NeuralPathway)
+	 */
+	@Override
+	public void load(NeuralPathway _object) throws FileNotFoundException, ParseException {
+		NeuronManager.replayJournal();
+		try {
+			if (this.neurons.loadInline(_object)) {
+				return;
+			}
+		} catch (FileNotFoundException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new FileNotFoundException(e.getMessage());
+		}
+		super.load(_object);
+	}
+}
@@ -0,0 +1,176 @@
+package com.ianmann.mind;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import com.ianmann.utils.storage.RecordStore;
+
+/**
+ * <p>
+ * Neuron storage that keeps every pathway inside the record of the
+ * Neuron whose axon holds it, in the inline layout of {@link NeuronRecord}.
+ * Loading a Neuron reads its type, morpheme and whole axon, receivers
+ * and connection sizes included, in one read.
+ * </p>
+ * <p>
+ * The id of the Neuron each pathway is stored with is kept in
+ * {@link InlineNeuronManager#owners} so a pathway can still be loaded or
+ * saved by its id alone, which is how {@link InlineNeuralPathwayManager}
+ * finds the record to read or rewrite.
+ * </p>
+ */
+class InlineNeuronManager extends BinaryNeuronManager {
+	
+	/**
+	 * Id of the Neuron each pathway is stored with, keyed by the pathway's id.
+	 */
+	private RecordStore owners;
+	
+	/**
+	 * Creates a manager that records the Neuron each pathway is stored with in _owners.
+	 * @param _owners
+	 */
+	InlineNeuronManager(RecordStore _owners) {
+		this.owners = _owners;
+	}
+
+	/**
+	 * Write _object to its file with its pathways inline. Encoding is
+	 * done under the same lock as the write so the record it starts
+	 * from is still the newest.
+	 * 
+	 * @see com.ianmann.mind.NeuronManager#write(com.ianmann.mind.Neuron)
+	 */
+	@Override
+	protected synchronized void write(Neuron _object) {
+		super.write(_object);
+	}
+
+	/**
+	 * Encode _object in the inline layout. Pathways it held before keep
+	 * the connection size already in its record.
+	 * 
+	 * @see com.ianmann.mind.BinaryNeuronManager#encode(com.ianmann.mind.Neuron)
+	 */
+	@Override
+	public byte[] encode(Neuron _object) throws IOException {
+		return NeuronRecord.encodeInline(_object, this.current(new File(_object.getPath())));
+	}
+
+	/**
+	 * Record that every pathway of _object is stored with it and write _data.
+	 * 
+	 * @see com.ianmann.mind.NeuronManager#write(com.ianmann.mind.Neuron, byte[])
+	 */
+	@Override
+	protected synchronized void write(Neuron _object, byte[] _data) throws IOException {
+		byte[] owner = ByteBuffer.allocate(8).putLong(_object.getId()).array();
+		for (ArrayList<NeuralPathway> dendriteGroup : _object.axon) {
+			for (NeuralPathway pathway : dendriteGroup) {
+				String key = String.valueOf(pathway.getId());
+				if (!this.owners.contains(key)) {
+					this.owners.put(key, owner);
+				}
+			}
+		}
+		Neuron.journal().write(new File(_object.getPath()), _data);
+	}
+	
+	/**
+	 * Load the receiver and connection size of _pathway from the record
+	 * of the Neuron it is stored with.
+	 * @param _pathway
+	 * @return
+	 * true - if _pathway was loaded. <br>
+	 * false - if it is not stored inline.
+	 * @throws FileNotFoundException if the Neuron it was stored with no longer holds it.
+	 * @throws IOException
+	 */
+	boolean loadInline(NeuralPathway _pathway) throws IOException {
+		long owner = this.owner(_pathway.getId());
+		if (owner < 0) {
+			return false;
+		}
+		NeuronRecord record = this.current(new File(StorageIds.neuronPath(owner)));
+		if (record == null || !record.loadPathway(_pathway)) {
+			throw new FileNotFoundException("Pathway " + _pathway.getId() + " is not stored with neuron " + owner);
+		}
+		return true;
+	}
+	
+	/**
+	 * Rewrite the connection size stored for _pathway in the record of
+	 * the Neuron it is stored with.
+	 * @param _pathway
+	 * @return
+	 * true - if the record was rewritten. <br>
+	 * false - if _pathway is not stored inline.
+	 * @throws IOException
+	 */
+	synchronized boolean writeInline(NeuralPathway _pathway) throws IOException {
+		long owner = this.owner(_pathway.getId());
+		if (owner < 0) {
+			return false;
+		}
+		File file = new File(StorageIds.neuronPath(owner));
+		NeuronRecord record = this.current(file);
+		byte[] contents = record == null ? null : record.withConnectionSize(_pathway.getId(), _pathway.getConnectionSize());
+		if (contents == null) {
+			return false;
+		}
+		Neuron.journal().write(file, contents);
+		return true;
+	}
+	
+	/**
+	 * Forget which Neuron the pathway with _pathwayId is stored with.
+	 * @param _pathwayId
+	 * @throws IOException
+	 */
+	void forget(long _pathwayId) throws IOException {
+		this.owners.remove(String.valueOf(_pathwayId));
+	}
+	
+	/**
+	 * @see com.ianmann.mind.NeuronManager#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		this.owners.close();
+	}
+	
+	/**
+	 * Returns the id of the Neuron the pathway with _pathwayId is stored
+	 * with or -1 if it is not stored inline.
+	 * @param _pathwayId
+	 * @return
+	 * @throws IOException
+	 */
+	private long owner(long _pathwayId) throws IOException {
+		byte[] owner = this.owners.get(String.valueOf(_pathwayId));
+		return owner == null ? -1 : ByteBuffer.wrap(owner).getLong();
+	}
+	
+	/**
+	 * Returns the newest record of the Neuron stored in _file, including
+	 * one waiting in this thread's batch of {@link Neuron#journal()}, or
+	 * null if the Neuron has no binary record.
+	 * @param _file
+	 * @return
+	 * @throws IOException
+	 */
+	private NeuronRecord current(File _file) throws IOException {
+		byte[] queued = Neuron.journal().queued(_file);
+		if (queued != null) {
+			return NeuronRecord.wrap(queued);
+		}
+		try {
+			return NeuronRecord.read(_file);
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,708 @@
+package com.ianmann.mind;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.core.Constants;
+import com.ianmann.mind.core.navigation.CategoryIndex;
+import com.ianmann.utils.utilities.Files;
+import com.ianmann.utils.utilities.JSONUtils;
+
+/**
+ * <p>
+ * Offline check of everything stored on disk: every Neuron, every pathway
+ * file, the category files and folders, morphemes.json and the ids
+ * counters. Files are read on a {@link ForkJoinPool}, so a store is
+ * checked in about the time it takes to read it once on every core.
+ * </p>
+ * <p>
+ * Each file is read the same way the program reads it, so anything that
+ * would make {@link Neuron#loadAttributes()} throw mid-conversation is
+ * reported here instead. Once every file is read, the results are
+ * compared to find pathways that lead to Neurons that are gone, axons
+ * that hold pathways that are gone, pathway files no axon holds and ids
+ * counters that have fallen behind the ids in storage.
+ * </p>
+ * <p>
+ * With repair on, the problems that can be fixed without guessing are
+ * fixed after the check: broken pathways are taken out of their axons,
+ * orphaned pathway files are deleted, labeled Neurons with no recorded
+ * id are given one, counters are moved past the
+ * largest id in use and morphemes stored in missing Neurons are dropped
+ * from morphemes.json. Files that can not be read are only reported.
+ * </p>
+ * <p>
+ * Only the file based {@link StorageEngine}s keep anything to check.
+ * Run it with {@code --repair} to fix what it finds.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class IntegrityChecker {
+
+	/**
+	 * Number of files each task reads before it stops splitting.
+	 */
+	public static final int DEFAULT_THRESHOLD = 64;
+
+	public static final String UNREADABLE_NEURON = "unreadable neuron";
+	public static final String UNRECORDED_LABEL = "labeled neuron without recorded id";
+	public static final String UNREADABLE_PATHWAY = "unreadable pathway";
+	public static final String SHARED_PATHWAY = "pathway in more than one axon";
+	public static final String MISSING_PATHWAY = "axon holds missing pathway";
+	public static final String DANGLING_RECIEVER = "pathway leads to missing neuron";
+	public static final String ORPHANED_PATHWAY = "pathway in no axon";
+	public static final String STALE_COUNTER = "ids counter behind stored ids";
+	public static final String UNREADABLE_COUNTER = "unreadable ids counter";
+	public static final String UNREADABLE_CATEGORY = "unreadable category";
+	public static final String MISSING_CATEGORY = "category folder without category";
+	public static final String UNREADABLE_CATEGORY_INDEX = "unreadable category index";
+	public static final String UNREADABLE_MORPHEMES = "unreadable morphemes.json";
+	public static final String DANGLING_MORPHEME = "morpheme stored in missing neuron";
+
+	/**
+	 * One thing found wrong with the store.
+	 */
+	public static class Problem {
+
+		private final String kind;
+		private final String path;
+		private final String detail;
+		private volatile boolean repaired = false;
+
+		Problem(String _kind, String _path, String _detail) {
+			this.kind = _kind;
+			this.path = _path;
+			this.detail = _detail;
+		}
+
+		/**
+		 * Returns one of the problem constants in {@link IntegrityChecker}.
+		 * @return
+		 */
+		public String getKind() {
+			return this.kind;
+		}
+
+		/**
+		 * Returns the file the problem is in.
+		 * @return
+		 */
+		public String getPath() {
+			return this.path;
+		}
+
+		public String getDetail() {
+			return this.detail;
+		}
+
+		/**
+		 * Returns whether the problem was fixed.
+		 * @return
+		 */
+		public boolean isRepaired() {
+			return this.repaired;
+		}
+
+		public String toString() {
+			return (this.repaired ? "[repaired] " : "") + this.kind + ": " + this.path
+					+ (this.detail == null ? "" : " (" + this.detail + ")");
+		}
+	}
+
+	/**
+	 * What a check found and how long it took.
+	 */
+	public static class Report {
+
+		private final List<Problem> problems;
+		private final long filesChecked;
+		private final long elapsedMillis;
+
+		Report(List<Problem> _problems, long _filesChecked, long _elapsedMillis) {
+			this.problems = _problems;
+			this.filesChecked = _filesChecked;
+			this.elapsedMillis = _elapsedMillis;
+		}
+
+		public List<Problem> getProblems() {
+			return this.problems;
+		}
+
+		/**
+		 * Returns whether nothing was found or everything found was repaired.
+		 * @return
+		 */
+		public boolean isClean() {
+			for (Problem problem : this.problems) {
+				if (!problem.isRepaired()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public long getFilesChecked() {
+			return this.filesChecked;
+		}
+
+		public long getElapsedMillis() {
+			return this.elapsedMillis;
+		}
+
+		/**
+		 * Returns the number of files checked each second.
+		 * @return
+		 */
+		public double getFilesPerSecond() {
+			return this.filesChecked * 1000.0 / Math.max(1, this.elapsedMillis);
+		}
+
+		public String toString() {
+			StringBuilder report = new StringBuilder();
+			for (Problem problem : this.problems) {
+				report.append(problem).append("\r\n");
+			}
+			report.append(this.problems.size()).append(" problems in ")
+					.append(this.filesChecked).append(" files, ")
+					.append(this.elapsedMillis).append(" ms (")
+					.append(Math.round(this.getFilesPerSecond())).append(" files/s)");
+			return report.toString();
+		}
+	}
+
+	private ForkJoinPool pool;
+
+	private boolean repair;
+
+	private ConcurrentLinkedQueue<Problem> problems;
+
+	/**
+	 * Id of the Neuron whose axon holds each pathway.
+	 */
+	private ConcurrentHashMap<Long, Long> owners;
+
+	/**
+	 * Id of the Neuron each readable pathway leads to.
+	 */
+	private ConcurrentHashMap<Long, Long> recievers;
+
+	/**
+	 * Ids of the pathways that have their own file.
+	 */
+	private ConcurrentHashMap<Long, Boolean> pathwayFiles;
+
+	/**
+	 * Creates a checker that uses every available processor.
+	 * @param _repair Whether to fix what can be fixed.
+	 */
+	public IntegrityChecker(boolean _repair) {
+		this(_repair, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a checker that reads files on _parallelism threads.
+	 * @param _repair Whether to fix what can be fixed.
+	 * @param _parallelism
+	 */
+	public IntegrityChecker(boolean _repair, int _parallelism) {
+		this.repair = _repair;
+		this.pool = new ForkJoinPool(_parallelism);
+	}
+
+	/**
+	 * Check the store {@link Constants} points to and repair it if this
+	 * checker was created to.
+	 * @return
+	 * @throws IOException if a folder could not be listed.
+	 */
+	public synchronized Report check() throws IOException {
+		long start = System.currentTimeMillis();
+		this.problems = new ConcurrentLinkedQueue<Problem>();
+		this.owners = new ConcurrentHashMap<Long, Long>();
+		this.recievers = new ConcurrentHashMap<Long, Long>();
+		this.pathwayFiles = new ConcurrentHashMap<Long, Boolean>();
+
+		ArrayList<String> unrecorded = new ArrayList<String>();
+		final HashSet<Long> live = new HashSet<Long>(StorageIds.listNeuronIds(unrecorded));
+		this.checkLabels(unrecorded, live);
+		ArrayList<Long> neuronIds = new ArrayList<Long>(live);
+		ArrayList<File> pathwayFiles = IntegrityChecker.listFiles(new File(Constants.PATHWAY_ROOT), StorageIds.PATHWAY_EXTENSION);
+		ArrayList<File> categoryFiles = IntegrityChecker.listFiles(new File(Constants.PATH_TO_CATEGORIES_FOLDER), ".ctgry");
+		ArrayList<File> categoryFolders = new ArrayList<File>();
+		IntegrityChecker.collectFolders(new File(Constants.NEURON_ROOT), categoryFolders);
+
+		this.pool.invoke(new Scan<Long>(neuronIds) {
+			@Override
+			void check(Long _id) {
+				IntegrityChecker.this.checkNeuron(_id);
+			}
+		});
+		this.pool.invoke(new Scan<File>(pathwayFiles) {
+			@Override
+			void check(File _file) {
+				IntegrityChecker.this.checkPathway(_file);
+			}
+		});
+		this.pool.invoke(new Scan<File>(categoryFiles) {
+			@Override
+			void check(File _file) {
+				IntegrityChecker.this.checkCategory(_file);
+			}
+		});
+		this.pool.invoke(new Scan<File>(categoryFolders) {
+			@Override
+			void check(File _folder) {
+				IntegrityChecker.this.checkCategoryFolder(_folder);
+			}
+		});
+
+		LinkedHashMap<Long, Problem> edges = this.checkEdges(live);
+		this.checkCounter(new File(Constants.NEURON_ROOT + "ids"), IntegrityChecker.max(live));
+		HashSet<Long> pathwayIds = new HashSet<Long>(this.owners.keySet());
+		pathwayIds.addAll(this.pathwayFiles.keySet());
+		this.checkCounter(new File(Constants.PATHWAY_ROOT + "ids"), IntegrityChecker.max(pathwayIds));
+		this.checkCategoryIndex();
+		this.checkMorphemes();
+
+		if (this.repair) {
+			this.repairEdges(edges);
+		}
+
+		long files = neuronIds.size() + pathwayFiles.size() + categoryFiles.size() + categoryFolders.size() + 4;
+		return new Report(
+				new ArrayList<Problem>(this.problems),
+				files,
+				System.currentTimeMillis() - start
+		);
+	}
+
+	/**
+	 * Stop the threads files are read on.
+	 */
+	public void close() {
+		this.pool.shutdown();
+	}
+
+	/**
+	 * Report every labeled Neuron file in _unrecorded, which has no id in
+	 * the labels file. When repairing, each is given an id, which is
+	 * added to _live so the Neuron is checked like the others.
+	 * @param _unrecorded Paths relative to {@link Constants#NEURON_ROOT}.
+	 * @param _live
+	 */
+	private void checkLabels(ArrayList<String> _unrecorded, HashSet<Long> _live) {
+		for (String path : _unrecorded) {
+			Problem problem = this.report(UNRECORDED_LABEL, Constants.NEURON_ROOT + path, null);
+			if (this.repair) {
+				try {
+					_live.add(StorageIds.assignNeuronId(path));
+					problem.repaired = true;
+				} catch (IOException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read the Neuron with _id and record the pathways in its axon.
+	 * @param _id
+	 */
+	private void checkNeuron(long _id) {
+		String path = IntegrityChecker.neuronPath(_id);
+		Neuron neuron;
+		try {
+			// Read around the cache so what is checked is what is stored.
+			neuron = Neuron.detached(_id);
+		} catch (IOException | ParseException | RuntimeException e) {
+			this.report(UNREADABLE_NEURON, path, e.toString());
+			return;
+		}
+		for (ArrayList<NeuralPathway> dendriteGroup : neuron.getAxon()) {
+			for (NeuralPathway handle : dendriteGroup) {
+				Long other = this.owners.putIfAbsent(handle.getId(), _id);
+				if (other != null && other != _id) {
+					this.report(SHARED_PATHWAY, StorageIds.pathwayPath(handle.getId()), "neurons " + other + " and " + _id);
+				}
+				if (handle.isLoaded()) {
+					// Stored inline in this Neuron's record.
+					try {
+						this.recievers.put(handle.getId(), handle.getRecieverId());
+					} catch (FileNotFoundException | ParseException e) {
+						// Loaded handles are not read again.
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read the pathway in _file and record the Neuron it leads to.
+	 * @param _file
+	 */
+	private void checkPathway(File _file) {
+		long id;
+		try {
+			id = StorageIds.pathwayId(_file.getName());
+		} catch (IllegalArgumentException e) {
+			this.report(UNREADABLE_PATHWAY, _file.getPath(), e.getMessage());
+			return;
+		}
+		this.pathwayFiles.put(id, true);
+		try {
+			this.recievers.put(id, new NeuralPathway(id, true).getRecieverId());
+		} catch (FileNotFoundException | ParseException | RuntimeException e) {
+			this.report(UNREADABLE_PATHWAY, _file.getPath(), e.toString());
+		}
+	}
+
+	/**
+	 * Make sure the category in _file is valid json.
+	 * @param _file
+	 */
+	private void checkCategory(File _file) {
+		try {
+			Files.json(_file);
+		} catch (FileNotFoundException | ParseException | RuntimeException e) {
+			this.report(UNREADABLE_CATEGORY, _file.getPath(), e.toString());
+		}
+	}
+
+	/**
+	 * Make sure there is a category file for the category folder _folder.
+	 * @param _folder
+	 */
+	private void checkCategoryFolder(File _folder) {
+		File category = new File(Constants.PATH_TO_CATEGORIES_FOLDER + _folder.getName() + ".ctgry");
+		if (!category.exists()) {
+			this.report(MISSING_CATEGORY, _folder.getPath(), "no " + category.getPath());
+		}
+	}
+
+	/**
+	 * Make sure the category index can be read if there is one.
+	 */
+	private void checkCategoryIndex() {
+		File index = new File(Constants.INDEX_ROOT + "categories/" + CategoryIndex.FILE_NAME);
+		if (!index.exists()) {
+			return;
+		}
+		try {
+			CategoryIndex.load(index);
+		} catch (IOException | RuntimeException e) {
+			this.report(UNREADABLE_CATEGORY_INDEX, index.getPath(), e.toString());
+		}
+	}
+
+	/**
+	 * Compare the axons read with the pathways read.
+	 * @param _live Ids of every stored Neuron.
+	 * @return The problems that can be fixed by taking a pathway out of
+	 * its axon, by the id of the pathway.
+	 */
+	private LinkedHashMap<Long, Problem> checkEdges(HashSet<Long> _live) {
+		LinkedHashMap<Long, Problem> edges = new LinkedHashMap<Long, Problem>();
+		for (Entry<Long, Long> edge : this.owners.entrySet()) {
+			long pathwayId = edge.getKey();
+			Long reciever = this.recievers.get(pathwayId);
+			Problem problem = null;
+			if (reciever == null && !this.pathwayFiles.containsKey(pathwayId)) {
+				problem = this.report(MISSING_PATHWAY, IntegrityChecker.neuronPath(edge.getValue()), "pathway " + pathwayId);
+			} else if (reciever != null && !_live.contains(reciever)) {
+				problem = this.report(DANGLING_RECIEVER, StorageIds.pathwayPath(pathwayId), "neuron " + reciever);
+			}
+			if (problem != null) {
+				edges.put(pathwayId, problem);
+			}
+		}
+		for (long pathwayId : this.pathwayFiles.keySet()) {
+			if (!this.owners.containsKey(pathwayId)) {
+				Problem problem = this.report(ORPHANED_PATHWAY, StorageIds.pathwayPath(pathwayId), null);
+				if (this.repair) {
+					try {
+						NeuralPathway.storage.delete(NeuralPathway.handle(pathwayId));
+						problem.repaired = true;
+					} catch (FileNotFoundException | ParseException e) {
+						// Left for the next check.
+					}
+				}
+			}
+		}
+		return edges;
+	}
+
+	/**
+	 * Make sure the counter in _checkpointFile is past _largestId.
+	 * @param _checkpointFile
+	 * @param _largestId
+	 */
+	private void checkCounter(File _checkpointFile, long _largestId) {
+		if (_largestId < 0) {
+			return;
+		}
+		long counter = 0;
+		if (_checkpointFile.exists()) {
+			try {
+				Scanner s = new Scanner(_checkpointFile, "UTF-8");
+				try {
+					counter = s.nextLong();
+				} finally {
+					s.close();
+				}
+			} catch (IOException | RuntimeException e) {
+				this.report(UNREADABLE_COUNTER, _checkpointFile.getPath(), e.toString());
+				return;
+			}
+		}
+		if (counter > _largestId) {
+			return;
+		}
+		Problem problem = this.report(STALE_COUNTER, _checkpointFile.getPath(), counter + " <= " + _largestId);
+		if (this.repair) {
+			try {
+				StorageEngine.current().idAllocator(_checkpointFile).skipPast(_largestId);
+				problem.repaired = true;
+			} catch (IOException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Make sure morphemes.json can be read and every morpheme in it is
+	 * stored in a Neuron that exists.
+	 */
+	private void checkMorphemes() {
+		File morphemes = new File(Constants.NEURON_ROOT + "morphemes.json");
+		if (!morphemes.exists()) {
+			return;
+		}
+		JSONObject root;
+		try {
+			root = (JSONObject) Files.json(morphemes);
+		} catch (FileNotFoundException | ParseException | RuntimeException e) {
+			this.report(UNREADABLE_MORPHEMES, morphemes.getPath(), e.toString());
+			return;
+		}
+		ArrayList<Problem> dangling = new ArrayList<Problem>();
+		this.checkMorphemes(root, "", morphemes.getPath(), dangling);
+		if (this.repair && !dangling.isEmpty()) {
+			try {
+				Neuron.journal().write(morphemes, JSONUtils.encodeJSON(root, 0));
+				for (Problem problem : dangling) {
+					problem.repaired = true;
+				}
+			} catch (IOException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Check the morpheme spelled _spelling and every morpheme below it in
+	 * the letter tree. Missing Neurons are removed from _node so it can be
+	 * written back if repairing.
+	 * @param _node
+	 * @param _spelling
+	 * @param _path
+	 * @param _dangling
+	 */
+	private void checkMorphemes(JSONObject _node, String _spelling, String _path, ArrayList<Problem> _dangling) {
+		Object stored = _node.get("stored");
+		if (stored instanceof String && !new File(Constants.NEURON_ROOT + stored).exists()) {
+			_dangling.add(this.report(DANGLING_MORPHEME, _path, _spelling + " -> " + stored));
+			if (this.repair) {
+				_node.remove("stored");
+			}
+		}
+		for (Object key : new ArrayList<Object>((Set<?>) _node.keySet())) {
+			Object child = _node.get(key);
+			if (child instanceof JSONObject) {
+				this.checkMorphemes((JSONObject) child, _spelling + key, _path, _dangling);
+			}
+		}
+	}
+
+	/**
+	 * Take every pathway in _edges out of the axon that holds it and
+	 * delete it, in one unit of work.
+	 * @param _edges
+	 */
+	private void repairEdges(LinkedHashMap<Long, Problem> _edges) {
+		Neuron.storage.begin();
+		try {
+			for (Entry<Long, Problem> edge : _edges.entrySet()) {
+				if (this.removeEdge(this.owners.get(edge.getKey()), edge.getKey())) {
+					edge.getValue().repaired = true;
+				}
+			}
+		} finally {
+			Neuron.storage.commit();
+		}
+	}
+
+	/**
+	 * Remove the pathway with _pathwayId from the axon of the Neuron with
+	 * _neuronId even if the pathway itself can not be read.
+	 * @param _neuronId
+	 * @param _pathwayId
+	 * @return Whether the pathway was in the axon.
+	 */
+	private boolean removeEdge(long _neuronId, long _pathwayId) {
+		Neuron neuron;
+		try {
+			neuron = Neuron.fromStorage(_neuronId);
+			NeuralPathway.storage.delete(NeuralPathway.handle(_pathwayId));
+		} catch (FileNotFoundException | ParseException e) {
+			return false;
+		}
+		for (ArrayList<NeuralPathway> dendriteGroup : neuron.getAxon()) {
+			for (int j = dendriteGroup.size() - 1; j >= 0; j--) {
+				if (dendriteGroup.get(j).getId() == _pathwayId) {
+					dendriteGroup.remove(j);
+					neuron.save();
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private Problem report(String _kind, String _path, String _detail) {
+		Problem problem = new Problem(_kind, _path, _detail);
+		this.problems.add(problem);
+		return problem;
+	}
+
+	private static String neuronPath(long _id) {
+		try {
+			return StorageIds.neuronPath(_id);
+		} catch (IOException e) {
+			return "neuron " + _id;
+		}
+	}
+
+	private static long max(Iterable<Long> _ids) {
+		long max = -1;
+		for (long id : _ids) {
+			max = Math.max(max, id);
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the files directly in _folder whose names end with _extension.
+	 * @param _folder
+	 * @param _extension
+	 * @return
+	 */
+	private static ArrayList<File> listFiles(File _folder, String _extension) {
+		ArrayList<File> found = new ArrayList<File>();
+		File[] files = _folder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isFile() && file.getName().endsWith(_extension)) {
+					found.add(file);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Add every folder below _folder to _folders.
+	 * @param _folder
+	 * @param _folders
+	 */
+	private static void collectFolders(File _folder, ArrayList<File> _folders) {
+		File[] files = _folder.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				_folders.add(file);
+				IntegrityChecker.collectFolders(file, _folders);
+			}
+		}
+	}
+
+	/**
+	 * Checks a list of items by splitting it in half until each task
+	 * holds no more than {@link IntegrityChecker#DEFAULT_THRESHOLD}.
+	 * @param <T>
+	 */
+	private abstract static class Scan<T> extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<T> items;
+
+		Scan(List<T> _items) {
+			this.items = _items;
+		}
+
+		abstract void check(T _item);
+
+		@Override
+		protected void compute() {
+			if (this.items.size() <= DEFAULT_THRESHOLD) {
+				for (T item : this.items) {
+					this.check(item);
+				}
+				return;
+			}
+			int middle = this.items.size() / 2;
+			final Scan<T> parent = this;
+			Scan<T> left = new Scan<T>(this.items.subList(0, middle)) {
+				@Override
+				void check(T _item) {
+					parent.check(_item);
+				}
+			};
+			Scan<T> right = new Scan<T>(this.items.subList(middle, this.items.size())) {
+				@Override
+				void check(T _item) {
+					parent.check(_item);
+				}
+			};
+			RecursiveAction.invokeAll(left, right);
+		}
+	}
+
+	/**
+	 * Check the store named in constants.json and print what was found.
+	 * Pass {@code --repair} to fix what can be fixed.
+	 * @param _args
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static void main(String[] _args) throws IOException, ParseException {
+		Constants.readStorageVariables();
+		IntegrityChecker checker = new IntegrityChecker(_args.length > 0 && _args[0].equals("--repair"));
+		try {
+			System.out.println(checker.check());
+		} finally {
+			checker.close();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.ianmann.mind;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import com.ianmann.mind.core.Constants;
+import com.ianmann.utils.storage.RecordStore;
+import com.ianmann.utils.storage.SegmentLog;
+import com.ianmann.utils.storage.StorageException;
+
+/**
+ * <p>
+ * NeuralPathway storage that puts every save in a {@link RecordStore},
+ * usually a {@link SegmentLog}, instead of rewriting the file for the
+ * pathway's id. That file's path relative to {@link Constants#STORAGE_ROOT}
+ * is used as the key of its record.
+ * </p>
+ */
+class LogStructuredNeuralPathwayManager extends NeuralPathwayManager {
+	
+	/**
+	 * Store that every NeuralPathway record is put in.
+	 */
+	private RecordStore log;
+	
+	/**
+	 * Creates a manager that stores NeuralPathways in _log.
+	 * @param _log
+	 */
+	LogStructuredNeuralPathwayManager(RecordStore _log) {
+		this.log = _log;
+	}
+	
+	/**
+	 * Records are never written in place, so there is nothing to journal.
+	 * 
+	 * @see com.ianmann.mind.NeuralPathwayManager#usesJournal()
+	 */
+	@Override
+	public boolean usesJournal() {
+		return false;
+	}
+	
+	/**
+	 * Returns the key of the record for _object in the log.
+	 * @param _object
+	 * @return
+	 */
+	private String key(NeuralPathway _object) {
+		return _object.getFile().getAbsolutePath().split(Constants.STORAGE_ROOT)[1];
+	}
+
+	/**
+	 * Force the records appended to the log to disk. Until then a save
+	 * made outside a unit of work is not durable.
+	 * 
+	 * @see com.ianmann.mind.NeuralPathwayManager#sync()
+	 */
+	@Override
+	public void sync() throws IOException {
+		this.log.sync();
+	}
+
+	/**
+	 * @see com.ianmann.mind.NeuralPathwayManager#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		this.log.close();
+	}
+
+	/**
+	 * Records are stored as compact json.
+	 * 
+	 * @see com.ianmann.mind.NeuralPathwayManager#encode(com.ianmann.mind.NeuralPathway)
+	 */
+	@Override
+	public byte[] encode(NeuralPathway _object) {
+		return _object.jsonify().toJSONString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Append _data to the log as the newest record for _object.
+	 * 
+	 * @see com.ianmann.mind.NeuralPathwayManager#write(com.ianmann.mind.NeuralPathway, byte[])
+	 */
+	@Override
+	protected void write(NeuralPathway _object, byte[] _data) throws IOException {
+		this.log.put(this.key(_object), _data);
+	}
+
+	/**
+	 * Append a tombstone for _object to the log.
+	 * 
+	 * @see com.ianmann.mind.NeuralPathwayManager#remove(com.ianmann.mind.NeuralPathway)
+	 */
+	@Override
+	protected boolean remove(NeuralPathway _object) {
+		try {
+			return this.log.remove(this.key(_object));
+		} catch (IOException e) {
+			throw new StorageException("Could not append a tombstone for " + this.key(_object), e);
+		}
+	}
+
+	/**
+	 * Open the newest record for _object in the log.
+	 * 
+	 * @see com.ianmann.mind.NeuralPathwayManager#open(com.ianmann.mind.NeuralPathway)
+	 */
+	@Override
+	protected Reader open(NeuralPathway _object) throws FileNotFoundException {
+		byte[] record;
+		try {
+			record = this.log.get(this.key(_object));
+		} catch (IOException e) {
+			throw new FileNotFoundException(e.getMessage());
+		}
+		if (record == null) {
+			throw new FileNotFoundException("No record stored for " + this.key(_object));
+		}
+		return new InputStreamReader(new ByteArrayInputStream(record), StandardCharsets.UTF_8);
+	}
+}
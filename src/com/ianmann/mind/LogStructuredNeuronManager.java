@@ -0,0 +1,166 @@
+package com.ianmann.mind;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import com.ianmann.mind.core.Constants;
+import com.ianmann.utils.storage.RecordStore;
+import com.ianmann.utils.storage.SegmentLog;
+import com.ianmann.utils.storage.StorageException;
+
+/**
+ * <p>
+ * Neuron storage that puts every save in a {@link RecordStore}, usually
+ * a {@link SegmentLog}, instead of rewriting the file at the Neuron's
+ * path. The Neuron's path relative to {@link Constants#STORAGE_ROOT} is
+ * used as the key of its record.
+ * </p>
+ */
+class LogStructuredNeuronManager extends NeuronManager {
+	
+	/**
+	 * Store that every Neuron record is put in.
+	 */
+	private RecordStore log;
+	
+	/**
+	 * Creates a manager that stores Neurons in _log.
+	 * @param _log
+	 */
+	LogStructuredNeuronManager(RecordStore _log) {
+		this.log = _log;
+	}
+	
+	/**
+	 * Records are never written in place, so there is nothing to journal.
+	 * 
+	 * @see com.ianmann.mind.NeuronManager#usesJournal()
+	 */
+	@Override
+	public boolean usesJournal() {
+		return false;
+	}
+	
+	/**
+	 * Returns the key of the record for the Neuron whose file is _file
+	 * in the log.
+	 * @param _file
+	 * @return
+	 */
+	private String key(File _file) {
+		return _file.getAbsolutePath().split(Constants.STORAGE_ROOT)[1];
+	}
+
+	/**
+	 * Returns whether the log has a record for _file.
+	 * 
+	 * @see com.ianmann.mind.NeuronManager#contains(java.io.File)
+	 */
+	@Override
+	protected boolean contains(File _file) {
+		return this.log.contains(this.key(_file));
+	}
+
+	/**
+	 * Returns the id of every Neuron with a record in the log.
+	 * 
+	 * @see com.ianmann.mind.NeuronManager#listIds(java.util.ArrayList)
+	 */
+	@Override
+	public ArrayList<Long> listIds(ArrayList<String> _unrecorded) throws IOException {
+		String neuronRoot = new File(Constants.NEURON_ROOT).getAbsolutePath() + File.separator;
+		ArrayList<Long> ids = new ArrayList<Long>();
+		for (String key : this.log.keys()) {
+			String path = new File(Constants.STORAGE_ROOT + key).getAbsolutePath();
+			if (!path.startsWith(neuronRoot) || !path.endsWith(StorageIds.NEURON_EXTENSION)) {
+				continue;
+			}
+			String pathFromNeuronRoot = path.substring(neuronRoot.length()).replace(File.separatorChar, '/');
+			Long id = StorageIds.recordedNeuronId(pathFromNeuronRoot);
+			if (id == null) {
+				_unrecorded.add(pathFromNeuronRoot);
+			} else {
+				ids.add(id);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Force the records appended to the log to disk. Until then a save
+	 * made outside a unit of work is not durable.
+	 * 
+	 * @see com.ianmann.mind.NeuronManager#sync()
+	 */
+	@Override
+	public void sync() throws IOException {
+		this.log.sync();
+	}
+
+	/**
+	 * @see com.ianmann.mind.NeuronManager#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		this.log.close();
+	}
+
+	/**
+	 * Records are stored as compact json.
+	 * 
+	 * @see com.ianmann.mind.NeuronManager#encode(com.ianmann.mind.Neuron)
+	 */
+	@Override
+	public byte[] encode(Neuron _object) {
+		return _object.jsonify().toJSONString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Append _data to the log as the newest record for _object.
+	 * 
+	 * @see com.ianmann.mind.NeuronManager#write(com.ianmann.mind.Neuron, byte[])
+	 */
+	@Override
+	protected void write(Neuron _object, byte[] _data) throws IOException {
+		this.log.put(this.key(_object), _data);
+	}
+
+	/**
+	 * Append a tombstone for _object to the log.
+	 * 
+	 * @see com.ianmann.mind.NeuronManager#remove(com.ianmann.mind.Neuron)
+	 */
+	@Override
+	protected boolean remove(Neuron _object) {
+		try {
+			return this.log.remove(this.key(_object));
+		} catch (IOException e) {
+			throw new StorageException("Could not append a tombstone for " + this.key(_object), e);
+		}
+	}
+
+	/**
+	 * Open the newest record for _object in the log.
+	 * 
+	 * @see com.ianmann.mind.NeuronManager#open(com.ianmann.mind.Neuron)
+	 */
+	@Override
+	protected Reader open(Neuron _object) throws FileNotFoundException {
+		byte[] record;
+		try {
+			record = this.log.get(this.key(_object));
+		} catch (IOException e) {
+			throw new FileNotFoundException(e.getMessage());
+		}
+		if (record == null) {
+			throw new FileNotFoundException("No record stored for " + this.key(_object));
+		}
+		return new InputStreamReader(new ByteArrayInputStream(record), StandardCharsets.UTF_8);
+	}
+}
@@ -3,27 +3,80 @@ package com.ianmann.mind;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Scanner;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import org.json.simple.JSONObject;
 import org.json.simple.parser.ParseException;
 
 import com.ianmann.mind.core.Constants;
+import com.ianmann.utils.storage.IdAllocator;
+import com.ianmann.utils.storage.IdentityCache;
+import com.ianmann.utils.storage.SegmentLog;
 import com.ianmann.utils.storage.StorageManageable;
-import com.ianmann.utils.utilities.Files;
-import com.ianmann.utils.utilities.JSONUtils;
+import com.ianmann.utils.storage.UnitOfWork;
+import com.ianmann.utils.utilities.JSONReader;
 
-public class NeuralPathway extends File {
+/**
+ * <p>
+ * Connection from one Neuron to another. A NeuralPathway is addressed by
+ * its numeric id and refers to the Neuron it leads to by that Neuron's
+ * id, so an axon holds no paths. The file a pathway is stored in is
+ * worked out from its id by {@link StorageIds} when it is read or written.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class NeuralPathway {
 	
 	/**
 	 * Contains CRUD operations for the NeuralPathway class. This class
-	 * implements the interface {@link StorageManageable}.
+	 * implements the interface {@link NeuralPathwayStorage}, which extends
+	 * {@link StorageManageable}. Set by {@link StorageEngine#use(String)}.
 	 */
-	public static NeuralPathwayManager storage = new NeuralPathwayManager();
+	public static NeuralPathwayStorage storage = new NeuralPathwayManager();
+	
+	/**
+	 * Holds the changes made to connection sizes by {@link NeuralPathway#fireSynapse()}
+	 * until they are written in a batch. Call {@link SynapseWriteBehind#close()}
+	 * before the program exits so no change is lost.
+	 */
+	public static SynapseWriteBehind writeBehind = new SynapseWriteBehind();
+	
+	/**
+	 * Memory budget in bytes of {@link NeuralPathway#cache} until
+	 * {@link Constants#PATHWAY_CACHE_BYTES} is read.
+	 */
+	public static final long DEFAULT_CACHE_BYTES = 16L * 1024L * 1024L;
+	
+	/**
+	 * Estimates the heap used by a NeuralPathway for {@link NeuralPathway#cache}.
+	 */
+	private static final IdentityCache.Weigher<NeuralPathway> CACHE_WEIGHER = new IdentityCache.Weigher<NeuralPathway>() {
+
+		@Override
+		public long weigh(NeuralPathway _pathway) {
+			return 48;
+		}
+	};
+	
+	/**
+	 * NeuralPathways by id. Every axon that contains the same
+	 * pathway shares the instance in here so it is only loaded once.
+	 * Entries are dropped when their pathway is saved or deleted.
+	 */
+	public static IdentityCache<Long, NeuralPathway> cache = new IdentityCache<Long, NeuralPathway>(DEFAULT_CACHE_BYTES, CACHE_WEIGHER);
+	
+	/**
+	 * Value of {@link NeuralPathway#recieverId} before the pathway is loaded.
+	 */
+	private static final long NOT_LOADED = -1;
+	
+	/**
+	 * Id of this pathway. The file it is stored in is named with this id.
+	 */
+	private final long id;
 	
 	/**
 	 * double used to represent size of pathway. If the value of this
@@ -31,6 +84,12 @@ public class NeuralPathway extends File {
 	 * smaller connection.
 	 */
 	private double connectionSize;
+	
+	/**
+	 * Connection size of a new pathway.
+	 */
+	static final double INITIAL_CONNECTION_SIZE = 0.00001;
+	
 	/**
 	 * The amount of size that {@code NeuralPathway.connectionSize}
 	 * goes up or down by.
@@ -38,10 +97,16 @@ public class NeuralPathway extends File {
 	private static final double INCREMENTATION_STEP = 0.00001;
 
 	/**
-	 * This will be returned when the AI processor accesses this
-	 * thought link and calls {@link this.FireSynapse()}.
+	 * Id of the Neuron that will be returned when the AI processor
+	 * accesses this thought link and calls {@link NeuralPathway#fireSynapse()}.
 	 */
-	private Neuron recieverNeuron;
+	private long recieverId = NOT_LOADED;
+	
+	/**
+	 * Ranking of the dendrite group that holds this pathway, if its
+	 * Neuron has ranked it. Kept in order by {@link NeuralPathway#grow(double)}.
+	 */
+	volatile PathwayRanking ranking;
 	
 	/**
 	 * Comparator object for comparing two NeuralPathway objects. This allows arrays of NeuralPathway
@@ -62,20 +127,20 @@ public class NeuralPathway extends File {
 	};
 	
 	/**
-	 * Instantiates a NeuralPathway with the path to a file that currently
-	 * contains a NeuralPathway instances data.
+	 * Instantiates a NeuralPathway with the id of a NeuralPathway that is
+	 * currently in storage.
 	 * 
 	 * It is assumed that this pathway already exists in memory. This
 	 * constructor merely wraps it in a NeuralPathway class for use in the
 	 * program.
 	 * 
 	 * If _doReadFile is true, this constructor will read the data in
-	 * the file at _path into the attributes for this NeuralPathway.
+	 * the stored data into the attributes for this NeuralPathway.
 	 * @throws ParseException 
 	 * @throws FileNotFoundException 
 	 */
-	protected NeuralPathway(String _path, boolean _doLoadAttributes) throws FileNotFoundException, ParseException {
-		super(_path);
+	protected NeuralPathway(long _id, boolean _doLoadAttributes) throws FileNotFoundException, ParseException {
+		this.id = _id;
 		if (_doLoadAttributes) {
 			this.loadAttributes();
 		}
@@ -84,7 +149,7 @@ public class NeuralPathway extends File {
 	/**
 	 * <p>
 	 * Creates a NeuralPathway instance that connects to the Neuron in _resultThoughtFile.
-	 * The NeuralPathway will be stored at _path.
+	 * The NeuralPathway will be stored under _id.
 	 * </p>
 	 * <p>
 	 * The connection size is set to the default: 0.00001.
@@ -92,38 +157,59 @@ public class NeuralPathway extends File {
 	 * <p>
 	 * This constructor calls the save method for this NeuralPathway.
 	 * </p>
-	 * @param _path
+	 * @param _id
 	 * @param _resultThoughtFile
 	 */
-	protected NeuralPathway(String _path, Neuron _resultThoughtFile) {
-		super(_path);
-		this.recieverNeuron = _resultThoughtFile;
-		this.connectionSize = 0.00001;
+	protected NeuralPathway(long _id, Neuron _resultThoughtFile) {
+		this.id = _id;
+		this.recieverId = _resultThoughtFile.getId();
+		this.connectionSize = INITIAL_CONNECTION_SIZE;
 		this.save();
 	}
 	
 	/**
-	 * Retrieve the location to the file containing this Thought Link. The new
-	 * location will always be named with the next highest id, using the file
-	 * in the NeuralPathway storage root folder.
+	 * Retrieve the id for a new Thought Link. The id is the next one from
+	 * the {@link IdAllocator} backed by the ids file in the NeuralPathway
+	 * storage root folder.
 	 */
-	protected static String getNewFileLocation() {
-		Scanner s;
+	protected static long getNewId() {
 		try {
-			s = new Scanner(new File(Constants.PATHWAY_ROOT + "ids"));
-			int next = s.nextInt();
-			s.close();
-			PrintWriter p = new PrintWriter(new File(Constants.PATHWAY_ROOT + "ids"));
-			p.print(next+1);
-			p.close();
-			return Constants.PATHWAY_ROOT + String.valueOf(next) + ".tlink";
-		} catch (FileNotFoundException e) {
+			return StorageIds.newPathwayId();
+		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
-			return null;
+			return NOT_LOADED;
 		}
 	}
 	
+	/**
+	 * Returns the NeuralPathway stored under _id. The instance in
+	 * {@link NeuralPathway#cache} is returned if there is one, otherwise
+	 * a new instance is cached. The attributes are loaded the first
+	 * time the pathway is fired.
+	 * @param _id
+	 * @return
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
+	static NeuralPathway handle(long _id) throws FileNotFoundException, ParseException {
+		NeuralPathway cached = NeuralPathway.cache.get(_id);
+		if (cached != null) {
+			return cached;
+		}
+		return NeuralPathway.cache.putIfAbsent(_id, new NeuralPathway(_id, false));
+	}
+	
+	/**
+	 * Store every NeuralPathway in _log instead of in its own file.
+	 * Pathways that have already been saved to files are not copied
+	 * into the log.
+	 * @param _log
+	 */
+	public static void useSegmentLog(SegmentLog _log) {
+		NeuralPathway.storage = new LogStructuredNeuralPathwayManager(_log);
+	}
+	
 	/**
 	 * <p>
 	 * Retrieve Thought from file pointed to by this link.
@@ -137,8 +223,7 @@ public class NeuralPathway extends File {
 	 */
 	private Neuron getNeuronFromFile() {
 		try {
-			this.recieverNeuron.loadAttributes();
-			return this.recieverNeuron;
+			return Neuron.fromStorage(this.recieverId);
 		} catch (FileNotFoundException | ParseException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -149,87 +234,129 @@ public class NeuralPathway extends File {
 	/**
 	 * Activate this link and retrieve the thought
 	 * that is linked by this. This also increments
-	 * the size of the synaptic path.
+	 * the size of the synaptic path. The new size is
+	 * written later by {@link NeuralPathway#writeBehind}.
 	 * @return
 	 */
 	public Neuron fireSynapse() {
-		this.connectionSize += NeuralPathway.INCREMENTATION_STEP;
-		this.save();
+		if (!this.isLoaded()) {
+			try {
+				this.loadAttributes();
+			} catch (FileNotFoundException | ParseException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+				return null;
+			}
+		}
+		this.grow(NeuralPathway.INCREMENTATION_STEP);
+		NeuralPathway.writeBehind.add(this, NeuralPathway.INCREMENTATION_STEP);
 		return this.getNeuronFromFile();
 	}
 	
 	/**
-	 * <p>
-	 * Print this object to the file at this objects file path.
-	 * </p>
-	 * <p>
-	 * If the pathway file already exists, just rewrite the data
-	 * in the file, overwriting the old data with the new data.
-	 * </p>
+	 * Add _delta to the size of this pathway, keeping its place in
+	 * {@link NeuralPathway#ranking} if it is ranked and telling
+	 * {@link Neuron#reflexes} its new size.
+	 * @param _delta
 	 */
-	private void save() {
-		NeuralPathway.storage.save(this);
+	private void grow(double _delta) {
+		PathwayRanking ranking = this.ranking;
+		if (ranking == null) {
+			this.connectionSize += _delta;
+		} else {
+			synchronized (ranking) {
+				boolean ranked = ranking.detach(this);
+				this.connectionSize += _delta;
+				if (ranked) {
+					ranking.attach(this);
+				}
+			}
+		}
+		Neuron.reflexes.pathwayChanged(this.id, this.connectionSize);
+	}
+	
+	/**
+	 * Returns whether the attributes of this pathway have been read from storage.
+	 * @return
+	 */
+	protected boolean isLoaded() {
+		return this.recieverId != NOT_LOADED;
 	}
 	
 	/**
-	 * Returns the path to the file containing this NeuralPathway objects
-	 * data. The path will start after the folder that contains all of the
-	 * NeuralPathway files.
+	 * Returns the id of this pathway.
 	 * @return
 	 */
-	protected String getPathFromPathwayRoot() {
-		return this.getAbsolutePath().split(Constants.PATHWAY_ROOT)[1];
+	public long getId() {
+		return this.id;
 	}
 	
 	/**
+	 * Returns the id of the Neuron this pathway leads to without loading
+	 * that Neuron.
+	 * @return
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
+	public long getRecieverId() throws FileNotFoundException, ParseException {
+		if (!this.isLoaded()) {
+			this.loadAttributes();
+		}
+		return this.recieverId;
+	}
+	
+	/**
+	 * Returns the type of the Neuron this pathway leads to, or
+	 * {@link NeuronIndex#NOT_INDEXED} if that Neuron has been deleted.
+	 * Unlike {@link NeuralPathway#fireSynapse()} this never changes the
+	 * size of this pathway.
 	 * <p>
-	 * Parse json data in this NeuralPathways file into this objects attributes.
+	 * A save or delete buffered in the {@link UnitOfWork} open on this
+	 * thread is seen first. Otherwise the type is looked up in
+	 * {@link Neuron#index()}, so that Neuron is not read. Only a Neuron
+	 * the index has no entry for yet, such as one written by
+	 * {@link OntologyLoader} before it indexes what it wrote, is read
+	 * to find its type.
 	 * </p>
-	 * @throws FileNotFoundException
+	 * @return
+	 * @throws IOException
 	 * @throws ParseException
 	 */
-	protected void loadAttributes() throws FileNotFoundException, ParseException {
-		JSONObject jsonNeuralPathway = (JSONObject) Files.json(this);
-		
-		this.connectionSize = (double) jsonNeuralPathway.get("connectionSize");
-		
-		this.recieverNeuron = new Neuron((String) jsonNeuralPathway.get("recieverNeuron"), false);
+	public int peekRecieverType() throws IOException, ParseException {
+		long recieverId = this.getRecieverId();
+		Integer pending = NeuronManager.pendingType(recieverId);
+		if (pending != null) {
+			return pending;
+		}
+		int type = Neuron.index().getType(recieverId);
+		if (type != NeuronIndex.NOT_INDEXED) {
+			return type;
+		}
+		try {
+			return Neuron.fromStorage(recieverId).getType();
+		} catch (FileNotFoundException e) {
+			return NeuronIndex.NOT_INDEXED;
+		}
 	}
 	
 	/**
-	 * Returns a json object that contains the properties for this instance
-	 * of NeuralPathway.
+	 * Returns the file this pathway is stored in. Only storage code
+	 * should need this.
 	 * @return
 	 */
-	protected JSONObject jsonify() {
-		JSONObject jsonNeuralPathway = new JSONObject();
-		
-		jsonNeuralPathway.put("connectionSize", this.connectionSize);
-		
-		jsonNeuralPathway.put("recieverNeuron", this.recieverNeuron.getPathFromNeuronRoot());
-		
-		return jsonNeuralPathway;
+	protected File getFile() {
+		return new File(StorageIds.pathwayPath(this.id));
 	}
-}
-
-class NeuralPathwayManager implements StorageManageable<NeuralPathway> {
-
+	
 	/**
-	 * <p>
-	 * Creates a new NeuralPathway to the given Neuron.
-	 * </p>
-	 * <p>
-	 * This method expects one parameter: the Neuron object to connect to.
-	 * </p>
-	 * @see com.ianmann.utils.storage.StorageManageable#create(java.lang.Object[])
+	 * Returns the size of this pathway, including any change that
+	 * has not been written to storage yet.
+	 * @return
 	 */
-	@Override
-	public NeuralPathway create(Object... _params) {
-		String location = NeuralPathway.getNewFileLocation();
-		NeuralPathway dendrite = new NeuralPathway(location, (Neuron) _params[0]);
-		return dendrite;
+	public double getConnectionSize() {
+		return this.connectionSize;
 	}
-
+	
 	/**
 	 * <p>
 	 * Print this object to the file at this objects file path.
@@ -238,59 +365,136 @@ class NeuralPathwayManager implements StorageManageable<NeuralPathway> {
 	 * If the pathway file already exists, just rewrite the data
 	 * in the file, overwriting the old data with the new data.
 	 * </p>
-	 * @see com.ianmann.utils.storage.StorageManageable#save(java.lang.Object)
 	 */
-	@Override
-	public void save(NeuralPathway _object) {
+	private void save() {
+		NeuralPathway.storage.save(this);
+	}
+	
+	/**
+	 * <p>
+	 * Parse json data in this NeuralPathways file into this objects attributes.
+	 * </p>
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
+	protected void loadAttributes() throws FileNotFoundException, ParseException {
+		Double size;
+		do {
+			long generation = NeuralPathway.writeBehind.generation();
+			if (!NeuralPathwayManager.loadPending(this)) {
+				NeuralPathway.storage.load(this);
+			}
+			size = NeuralPathway.writeBehind.connectionSize(this.id, this.connectionSize, generation);
+		} while (size == null);
+		this.connectionSize = size;
+	}
+	
+	/**
+	 * Set this NeuralPathway's attributes from the json representation
+	 * produced by {@link NeuralPathway#jsonify()} as it is read from
+	 * _reader. Keys this pathway does not know about are skipped.
+	 * @param _reader
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	protected void loadAttributes(JSONReader _reader) throws IOException, ParseException {
+		_reader.beginObject();
+		while (_reader.hasNext()) {
+			String key = _reader.nextName();
+			if (key.equals("connectionSize")) {
+				this.connectionSize = _reader.nextDouble();
+			} else if (key.equals("recieverNeuron")) {
+				this.recieverId = StorageIds.neuronId(_reader.nextString());
+			} else {
+				_reader.skipValue();
+			}
+		}
+		_reader.endObject();
+	}
+	
+	/**
+	 * Set this NeuralPathway's attributes to the values stored for it in
+	 * the record of the Neuron whose axon holds it. Used when pathways
+	 * are stored inline, see {@link NeuronRecord}.
+	 * @param _recieverId
+	 * @param _connectionSize
+	 */
+	protected void loadAttributes(long _recieverId, double _connectionSize) {
+		this.connectionSize = _connectionSize;
+		this.recieverId = _recieverId;
+	}
+	
+	/**
+	 * Add each change in _deltas to the connection size stored for the
+	 * pathway with its id. Every pathway is saved in one unit of work,
+	 * and the size it is saved with is passed to _writeBehind before
+	 * that is committed. Cached pathways are kept, since they already
+	 * hold these changes. Used by {@link SynapseWriteBehind} to write its batches.
+	 * @param _deltas
+	 * @param _writeBehind
+	 */
+	static void applyStoredDeltas(Map<Long, Double> _deltas, SynapseWriteBehind _writeBehind) {
+		NeuralPathway.storage.begin();
 		try {
-			try {
-				if (!_object.exists()) {
-					java.nio.file.Files.createFile(_object.toPath());
+			for (Entry<Long, Double> change : _deltas.entrySet()) {
+				NeuralPathway pathway;
+				try {
+					pathway = new NeuralPathway(change.getKey(), false);
+					NeuralPathway.storage.load(pathway);
+				} catch (FileNotFoundException e) {
+					// The pathway was deleted after it was fired.
+					continue;
+				} catch (ParseException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+					continue;
 				}
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				pathway.connectionSize += change.getValue();
+				_writeBehind.staged(pathway.id, pathway.connectionSize);
+				NeuralPathway.storage.saveBehind(pathway);
 			}
-			
-			PrintWriter objWriter = new PrintWriter(_object);
-			objWriter.print(JSONUtils.formatJSON(_object.jsonify(), 0));
-			objWriter.close();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		} catch (RuntimeException e) {
+			UnitOfWork.abandon();
+			throw e;
 		}
+		NeuralPathway.storage.commit();
 	}
-
+	
 	/**
-	 * Removes the file that contains this NeuralPathway.
-	 * 
-	 * NOTE: This method calls the delete method on _object.
-	 * @see com.ianmann.utils.storage.StorageManageable#delete(java.lang.Object)
+	 * Returns a json object that contains the properties for this instance
+	 * of NeuralPathway.
+	 * @return
 	 */
-	@Override
-	public boolean delete(NeuralPathway _object) {
-		// TODO Auto-generated method stub
-		return _object.delete();
+	protected JSONObject jsonify() {
+		JSONObject jsonNeuralPathway = new JSONObject();
+		
+		jsonNeuralPathway.put("connectionSize", this.connectionSize);
+		
+		try {
+			jsonNeuralPathway.put("recieverNeuron", StorageIds.neuronPath(this.recieverId).split(Constants.NEURON_ROOT)[1]);
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		
+		return jsonNeuralPathway;
 	}
-
+	
 	/**
-	 * DON'T USE THIS!
-	 * @see com.ianmann.utils.storage.StorageManageable#get(java.util.HashMap)
+	 * Determines whether this pathway is the same as o. This is true if
+	 * they have the same id.
 	 */
 	@Override
-	public ArrayList<NeuralPathway> get(HashMap<String, Object> _params) {
-		// TODO Auto-generated method stub
-		return null;
+	public boolean equals(Object o) {
+		return o instanceof NeuralPathway && ((NeuralPathway) o).id == this.id;
 	}
-
-	/**
-	 * DON'T USE THIS!
-	 * @see com.ianmann.utils.storage.StorageManageable#getAll()
-	 */
+	
 	@Override
-	public ArrayList<NeuralPathway> getAll() {
-		// TODO Auto-generated method stub
-		return null;
+	public int hashCode() {
+		return (int) (this.id ^ (this.id >>> 32));
 	}
 	
+	public String toString() {
+		return "<NeuralPathway: id(" + this.id + ");connectionSize(" + this.connectionSize + ")>";
+	}
 }
@@ -0,0 +1,459 @@
+package com.ianmann.mind;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.utils.storage.StorageException;
+import com.ianmann.utils.storage.UnitOfWork;
+import com.ianmann.utils.utilities.JSONReader;
+import com.ianmann.utils.utilities.JSONUtils;
+
+class NeuralPathwayManager implements NeuralPathwayStorage {
+
+	/**
+	 * <p>
+	 * Creates a new NeuralPathway to the given Neuron.
+	 * </p>
+	 * <p>
+	 * This method expects one parameter: the Neuron object to connect to.
+	 * </p>
+	 * @see com.ianmann.utils.storage.StorageManageable#create(java.lang.Object[])
+	 */
+	@Override
+	public NeuralPathway create(Object... _params) {
+		NeuralPathway dendrite = new NeuralPathway(NeuralPathway.getNewId(), (Neuron) _params[0]);
+		return dendrite;
+	}
+
+	/**
+	 * <p>
+	 * Print this object to the file at this objects file path.
+	 * </p>
+	 * <p>
+	 * If the pathway file already exists, just rewrite the data
+	 * in the file, overwriting the old data with the new data.
+	 * </p>
+	 * @see com.ianmann.utils.storage.StorageManageable#save(java.lang.Object)
+	 */
+	@Override
+	public void save(NeuralPathway _object) {
+		NeuralPathway.cache.invalidate(_object.getId());
+		this.saveBehind(_object);
+	}
+	
+	/**
+	 * Save _object without dropping the cached instance of it. Used for
+	 * changes the cached instance already has, which are the ones made by
+	 * {@link NeuralPathway#writeBehind}.
+	 * @param _object
+	 */
+	public void saveBehind(NeuralPathway _object) {
+		UnitOfWork unit = UnitOfWork.current();
+		if (unit != null) {
+			unit.put(NeuralPathwayManager.pendingKey(_object.getId()), new PendingSave(this, _object));
+			return;
+		}
+		this.store(_object);
+	}
+	
+	/**
+	 * Save every NeuralPathway in _objects in one unit of work.
+	 * @see com.ianmann.utils.storage.StorageManageable#saveAll(java.util.Collection)
+	 */
+	@Override
+	public void saveAll(Collection<NeuralPathway> _objects) {
+		this.begin();
+		try {
+			for (NeuralPathway pathway : _objects) {
+				this.save(pathway);
+			}
+		} finally {
+			this.commit();
+		}
+	}
+	
+	/**
+	 * Start a {@link UnitOfWork} on this thread. Saves and deletes of
+	 * NeuralPathways and of Neurons are buffered until it is committed.
+	 * @see com.ianmann.utils.storage.StorageManageable#begin()
+	 */
+	@Override
+	public void begin() {
+		UnitOfWork.begin();
+	}
+	
+	/**
+	 * @see com.ianmann.utils.storage.StorageManageable#commit()
+	 */
+	@Override
+	public void commit() {
+		NeuronManager.commitThroughJournal();
+	}
+	
+	/**
+	 * Write _object, already encoded as _data by
+	 * {@link NeuralPathwayManager#encode(NeuralPathway)}. Inside a
+	 * {@link UnitOfWork} the write is buffered like a save. Used by
+	 * {@link OntologyLoader}, which encodes pathways on many threads.
+	 * @param _object
+	 * @param _data
+	 */
+	public void saveEncoded(NeuralPathway _object, byte[] _data) {
+		NeuralPathway.cache.invalidate(_object.getId());
+		UnitOfWork unit = UnitOfWork.current();
+		if (unit != null) {
+			unit.put(NeuralPathwayManager.pendingKey(_object.getId()), new PendingSave(this, _object, _data));
+			return;
+		}
+		this.storeEncoded(_object, _data);
+	}
+	
+	/**
+	 * Write the current state of _object to its file through
+	 * {@link Neuron#journal()}.
+	 * @param _object
+	 */
+	protected void write(NeuralPathway _object) {
+		try {
+			this.write(_object, this.encode(_object));
+		} catch (IOException e) {
+			throw new StorageException("Could not write " + _object.getFile().getPath(), e);
+		}
+	}
+	
+	/**
+	 * Returns the data {@link NeuralPathwayManager#write(NeuralPathway)}
+	 * stores for _object. May be called for different pathways on many
+	 * threads at once, so it must not change anything.
+	 * @param _object
+	 * @return
+	 */
+	public byte[] encode(NeuralPathway _object) {
+		return JSONUtils.encodeJSON(_object.jsonify(), 0);
+	}
+	
+	/**
+	 * Store _data, returned by {@link NeuralPathwayManager#encode(NeuralPathway)},
+	 * as the data for _object.
+	 * @param _object
+	 * @param _data
+	 * @throws IOException
+	 */
+	protected void write(NeuralPathway _object, byte[] _data) throws IOException {
+		Neuron.journal().write(_object.getFile(), _data);
+	}
+	
+	/**
+	 * Returns whether pathways are stored in the record of the Neuron
+	 * whose axon holds them, so a new pathway is written with its Neuron
+	 * and has nothing of its own to write.
+	 * @return
+	 */
+	public boolean isStoredWithNeuron() {
+		return false;
+	}
+
+	/**
+	 * Removes the file that contains this NeuralPathway.
+	 * 
+	 * NOTE: This method calls the delete method on the file of _object.
+	 * The pathway is also taken out of {@link Neuron#incoming()}.
+	 * Inside a {@link UnitOfWork} the delete is buffered like a save
+	 * and true is returned.
+	 * @see com.ianmann.utils.storage.StorageManageable#delete(java.lang.Object)
+	 */
+	@Override
+	public boolean delete(NeuralPathway _object) {
+		try {
+			Neuron.incoming().remove(_object.getRecieverId(), _object.getId());
+		} catch (FileNotFoundException e) {
+			// Already deleted, so it was already taken out of the index.
+		} catch (IOException | ParseException e) {
+			throw new StorageException("Could not take " + _object.getFile().getPath() + " out of the incoming index", e);
+		}
+		NeuralPathway.writeBehind.discard(_object.getId());
+		NeuralPathway.cache.invalidate(_object.getId());
+		Neuron.reflexes.pathwayDeleted(_object.getId());
+		UnitOfWork unit = UnitOfWork.current();
+		if (unit != null) {
+			unit.put(NeuralPathwayManager.pendingKey(_object.getId()), new PendingDelete(this, _object));
+			return true;
+		}
+		return this.erase(_object);
+	}
+	
+	/**
+	 * Publish _object to {@link Neuron#versions()} and write it. If it
+	 * could not be written, the version published for it is taken back.
+	 * @param _object
+	 * @throws StorageException if _object could not be written.
+	 */
+	private void store(NeuralPathway _object) {
+		VersionStore versions = Neuron.versions();
+		versions.beginCommit();
+		boolean written = false;
+		try {
+			versions.publishPathway(_object.getId(), _object);
+			this.write(_object);
+			written = true;
+		} finally {
+			if (!written) {
+				versions.unpublishPathway(_object.getId());
+			}
+			versions.endCommit();
+		}
+	}
+	
+	/**
+	 * Publish _object to {@link Neuron#versions()} and write it as _data.
+	 * If it could not be written, the version published for it is taken
+	 * back.
+	 * @param _object
+	 * @param _data
+	 * @throws StorageException if _object could not be written.
+	 */
+	private void storeEncoded(NeuralPathway _object, byte[] _data) {
+		VersionStore versions = Neuron.versions();
+		versions.beginCommit();
+		boolean written = false;
+		try {
+			versions.publishPathway(_object.getId(), _object);
+			this.write(_object, _data);
+			written = true;
+		} catch (IOException e) {
+			throw new StorageException("Could not write " + _object.getFile().getPath(), e);
+		} finally {
+			if (!written) {
+				versions.unpublishPathway(_object.getId());
+			}
+			versions.endCommit();
+		}
+	}
+	
+	/**
+	 * Publish that _object is deleted to {@link Neuron#versions()} and
+	 * remove its data. If it could not be removed, the delete published
+	 * for it is taken back.
+	 * @param _object
+	 * @return
+	 * @throws StorageException if _object could not be removed.
+	 */
+	private boolean erase(NeuralPathway _object) {
+		VersionStore versions = Neuron.versions();
+		versions.beginCommit();
+		boolean removed = false;
+		try {
+			versions.publishPathway(_object.getId(), null);
+			boolean existed = this.remove(_object);
+			removed = true;
+			return existed;
+		} finally {
+			if (!removed) {
+				versions.unpublishPathway(_object.getId());
+			}
+			versions.endCommit();
+		}
+	}
+	
+	/**
+	 * Remove the data stored for _object.
+	 * @param _object
+	 * @return
+	 * true - if anything was stored for _object. <br>
+	 * false - if there was nothing to remove.
+	 * @throws StorageException if it could not be removed.
+	 */
+	protected boolean remove(NeuralPathway _object) {
+		try {
+			return Neuron.journal().delete(_object.getFile());
+		} catch (IOException e) {
+			throw new StorageException("Could not delete " + _object.getFile().getPath(), e);
+		}
+	}
+	
+	/**
+	 * Returns whether NeuralPathways are written through {@link Neuron#journal()}.
+	 * @return
+	 */
+	public boolean usesJournal() {
+		return true;
+	}
+	
+	/**
+	 * NeuralPathways are written through {@link Neuron#journal()}, which makes
+	 * them durable itself.
+	 * @throws IOException
+	 */
+	public void sync() throws IOException {
+	}
+	
+	/**
+	 * Close anything this manager keeps open. Called by
+	 * {@link StorageEngine} when it stops using this manager.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+	}
+	
+	/**
+	 * Read the data stored for _object into its attributes.
+	 * @param _object
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
+	public void load(NeuralPathway _object) throws FileNotFoundException, ParseException {
+		if (this.usesJournal()) {
+			NeuronManager.replayJournal();
+		}
+		JSONReader reader = new JSONReader(this.open(_object));
+		try {
+			_object.loadAttributes(reader);
+		} catch (FileNotFoundException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new FileNotFoundException(e.getMessage());
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				// Nothing was written so there is nothing to lose.
+			}
+		}
+	}
+	
+	/**
+	 * Open the json stored for _object.
+	 * @param _object
+	 * @return
+	 * @throws FileNotFoundException
+	 */
+	protected Reader open(NeuralPathway _object) throws FileNotFoundException {
+		return new InputStreamReader(new FileInputStream(_object.getFile()), StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * If the {@link UnitOfWork} open on this thread has a change for
+	 * _object that has not been written yet, load _object from it.
+	 * @param _object
+	 * @return
+	 * true - if _object was loaded from a buffered save. <br>
+	 * false - if _object should be loaded from storage.
+	 * @throws FileNotFoundException if _object has a buffered delete.
+	 * @throws ParseException
+	 */
+	static boolean loadPending(NeuralPathway _object) throws FileNotFoundException, ParseException {
+		UnitOfWork unit = UnitOfWork.current();
+		if (unit == null) {
+			return false;
+		}
+		UnitOfWork.Operation pending = unit.get(NeuralPathwayManager.pendingKey(_object.getId()));
+		if (pending instanceof PendingDelete) {
+			throw new FileNotFoundException(_object.getFile().getPath() + " has been deleted.");
+		}
+		if (!(pending instanceof PendingSave)) {
+			return false;
+		}
+		NeuralPathway saved = ((PendingSave) pending).pathway;
+		if (saved != _object) {
+			try {
+				_object.loadAttributes(new JSONReader(new StringReader(saved.jsonify().toJSONString())));
+			} catch (IOException e) {
+				throw new FileNotFoundException(e.getMessage());
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the key that changes to the NeuralPathway with _id are
+	 * buffered under in a {@link UnitOfWork}.
+	 * @param _id
+	 * @return
+	 */
+	private static String pendingKey(long _id) {
+		return "pathway/" + _id;
+	}
+	
+	/**
+	 * Save of a NeuralPathway buffered in a {@link UnitOfWork}.
+	 */
+	private static class PendingSave implements UnitOfWork.Operation {
+		
+		private final NeuralPathwayManager manager;
+		private final NeuralPathway pathway;
+		
+		/**
+		 * Data the pathway was already encoded as, or null.
+		 */
+		private final byte[] data;
+		
+		PendingSave(NeuralPathwayManager _manager, NeuralPathway _pathway) {
+			this(_manager, _pathway, null);
+		}
+		
+		PendingSave(NeuralPathwayManager _manager, NeuralPathway _pathway, byte[] _data) {
+			this.manager = _manager;
+			this.pathway = _pathway;
+			this.data = _data;
+		}
+		
+		@Override
+		public void apply() {
+			if (this.data == null) {
+				this.manager.store(this.pathway);
+			} else {
+				this.manager.storeEncoded(this.pathway, this.data);
+			}
+		}
+	}
+	
+	/**
+	 * Delete of a NeuralPathway buffered in a {@link UnitOfWork}.
+	 */
+	private static class PendingDelete implements UnitOfWork.Operation {
+		
+		private final NeuralPathwayManager manager;
+		private final NeuralPathway pathway;
+		
+		PendingDelete(NeuralPathwayManager _manager, NeuralPathway _pathway) {
+			this.manager = _manager;
+			this.pathway = _pathway;
+		}
+		
+		@Override
+		public void apply() {
+			this.manager.erase(this.pathway);
+		}
+	}
+
+	/**
+	 * DON'T USE THIS!
+	 * @see com.ianmann.utils.storage.StorageManageable#get(java.util.HashMap)
+	 */
+	@Override
+	public ArrayList<NeuralPathway> get(HashMap<String, Object> _params) {
+		// TODO Auto-generated method stub
+		return null;
+	}
+
+	/**
+	 * DON'T USE THIS!
+	 * @see com.ianmann.utils.storage.StorageManageable#getAll()
+	 */
+	@Override
+	public ArrayList<NeuralPathway> getAll() {
+		// TODO Auto-generated method stub
+		return null;
+	}
+	
+}
@@ -0,0 +1,86 @@
+package com.ianmann.mind;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.utils.storage.StorageManageable;
+
+/**
+ * <p>
+ * Where NeuralPathways are stored. Returned by
+ * {@link StorageEngine#createNeuralPathwayStorage()} and kept in
+ * {@link NeuralPathway#storage} while its engine is in use.
+ * </p>
+ * <p>
+ * Besides the CRUD operations of {@link StorageManageable} the mind
+ * needs to read a pathway into an instance it already has and to save
+ * the changes {@link NeuralPathway#writeBehind} holds without dropping
+ * the cached instance.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public interface NeuralPathwayStorage extends StorageManageable<NeuralPathway> {
+
+	/**
+	 * Read the data stored for _object into its attributes.
+	 * @param _object
+	 * @throws FileNotFoundException if nothing is stored for _object.
+	 * @throws ParseException
+	 */
+	public void load(NeuralPathway _object) throws FileNotFoundException, ParseException;
+
+	/**
+	 * Save _object without dropping the cached instance of it.
+	 * @param _object
+	 */
+	public void saveBehind(NeuralPathway _object);
+
+	/**
+	 * Returns the data stored for _object. May be called for different
+	 * pathways on many threads at once, so it must not change anything.
+	 * @param _object
+	 * @return
+	 */
+	public byte[] encode(NeuralPathway _object);
+
+	/**
+	 * Store _object, already encoded as _data by
+	 * {@link NeuralPathwayStorage#encode(NeuralPathway)}. Inside a unit
+	 * of work the write is buffered like a save.
+	 * @param _object
+	 * @param _data
+	 */
+	public void saveEncoded(NeuralPathway _object, byte[] _data);
+
+	/**
+	 * Returns whether pathways are stored in the record of the Neuron
+	 * whose axon holds them, so a new pathway is written with its Neuron
+	 * and has nothing of its own to write.
+	 * @return
+	 */
+	public boolean isStoredWithNeuron();
+
+	/**
+	 * Returns whether NeuralPathways are written through
+	 * {@link Neuron#journal()}.
+	 * @return
+	 */
+	public boolean usesJournal();
+
+	/**
+	 * Make everything stored so far durable. Called when a unit of work
+	 * is committed.
+	 * @throws IOException
+	 */
+	public void sync() throws IOException;
+
+	/**
+	 * Close anything kept open. Called by {@link StorageEngine} when it
+	 * stops using this storage.
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+}
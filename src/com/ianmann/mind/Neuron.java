@@ -6,21 +6,26 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Scanner;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.ParseException;
 
 import com.ianmann.mind.core.Constants;
+import com.ianmann.mind.core.navigation.CategoryIndex;
 import com.ianmann.mind.storage.organization.NeuronType;
 import com.ianmann.mind.storage.organization.basicNetwork.AttributeStructure;
 import com.ianmann.mind.storage.organization.basicNetwork.Description;
 import com.ianmann.mind.storage.organization.basicNetwork.EntityStructure;
 import com.ianmann.mind.storage.organization.basicNetwork.NeuralNetwork;
+import com.ianmann.utils.storage.IdAllocator;
+import com.ianmann.utils.storage.IdentityCache;
+import com.ianmann.utils.storage.SegmentLog;
+import com.ianmann.utils.storage.StorageException;
 import com.ianmann.utils.storage.StorageManageable;
-import com.ianmann.utils.utilities.Files;
+import com.ianmann.utils.storage.WriteAheadLog;
 import com.ianmann.utils.utilities.GeneralUtils;
+import com.ianmann.utils.utilities.JSONReader;
 import com.ianmann.utils.utilities.JSONUtils;
 
 /**
@@ -38,9 +43,96 @@ public class Neuron extends File {
 
 	/**
 	 * Contains CRUD operations for the Neuron class. This class
-	 * implements the interface {@link StorageManageable}.
+	 * implements the interface {@link NeuronStorage}, which extends
+	 * {@link StorageManageable}. Set by {@link StorageEngine#use(String)}.
 	 */
-	public static NeuronManager storage = new NeuronManager();
+	public static NeuronStorage storage = new NeuronManager();
+	
+	/**
+	 * Secondary indexes used by {@link NeuronManager#get(HashMap)} and
+	 * {@link NeuronManager#getAll()}. Opened in {@link Constants#INDEX_ROOT}
+	 * the first time it is needed.
+	 */
+	private static NeuronIndex index;
+	
+	/**
+	 * Pathways that lead to each Neuron. Opened in
+	 * {@link Constants#INDEX_ROOT} the first time it is needed.
+	 */
+	private static IncomingIndex incoming;
+	
+	/**
+	 * Categories and the Neurons in each. Opened in
+	 * {@link Constants#INDEX_ROOT} the first time it is needed.
+	 */
+	private static CategoryIndex categories;
+	
+	/**
+	 * Journal that every Neuron and NeuralPathway file is written through.
+	 * Opened in {@link Constants#STORAGE_ROOT} the first time it is needed.
+	 */
+	private static WriteAheadLog journal;
+	
+	/**
+	 * Versions of Neurons and NeuralPathways kept for open {@link Snapshot}s.
+	 */
+	private static volatile VersionStore versions;
+	
+	/**
+	 * Memory budget in bytes of {@link Neuron#cache} until
+	 * {@link Constants#NEURON_CACHE_BYTES} is read.
+	 */
+	public static final long DEFAULT_CACHE_BYTES = 32L * 1024L * 1024L;
+	
+	/**
+	 * Estimates the heap used by a loaded Neuron for {@link Neuron#cache}.
+	 */
+	private static final IdentityCache.Weigher<Neuron> CACHE_WEIGHER = new IdentityCache.Weigher<Neuron>() {
+
+		@Override
+		public long weigh(Neuron _neuron) {
+			long weight = 96 + 2L * _neuron.getPath().length();
+			if (_neuron.associatedMorpheme != null) {
+				weight += 40 + 2L * _neuron.associatedMorpheme.length();
+			}
+			if (_neuron.axon != null) {
+				for (ArrayList<NeuralPathway> dendriteGroup : _neuron.axon) {
+					weight += 40 + 8L * dendriteGroup.size();
+				}
+			}
+			return weight;
+		}
+	};
+	
+	/**
+	 * Loaded Neurons by id. {@link Neuron#fromStorage(long)} returns
+	 * the instance in here instead of reading the Neuron again.
+	 * Entries are dropped when their Neuron is saved or deleted.
+	 */
+	public static IdentityCache<Long, Neuron> cache = new IdentityCache<Long, Neuron>(DEFAULT_CACHE_BYTES, CACHE_WEIGHER);
+	
+	/**
+	 * Reactions that each stimulus Neuron leads to once the chain of
+	 * thought to them has been followed often enough.
+	 */
+	public static ReflexCache reflexes = new ReflexCache();
+	
+	/**
+	 * Attributes of each entity structure flattened with those of its
+	 * parents. Kept up to date as pathways are added and removed.
+	 */
+	public static InheritedAttributes inheritedAttributes = new InheritedAttributes();
+	
+	/**
+	 * Value of {@link Neuron#id} until it is first asked for.
+	 */
+	private static final long NO_ID = -1;
+	
+	/**
+	 * Id that this Neuron is addressed by. Worked out from the file
+	 * name by {@link StorageIds} the first time it is needed.
+	 */
+	private long id = NO_ID;
 	
 	/**
 	 * Denotes the structural layout of the network of neurons
@@ -57,6 +149,13 @@ public class Neuron extends File {
 	 */
 	protected ArrayList<ArrayList<NeuralPathway>> axon;
 	
+	/**
+	 * Ranking of each dendrite group that has been asked for its
+	 * strongest pathways, by the index of the group. Built by
+	 * {@link Neuron#getStrongestPathways(int, int)}.
+	 */
+	private ArrayList<PathwayRanking> rankings;
+	
 	/**
 	 * Used by developers or other users looking into the AI
 	 * to get a sense of what this neuron actually stands for.
@@ -66,6 +165,19 @@ public class Neuron extends File {
 	 */
 	protected String associatedMorpheme;
 	
+	/**
+	 * Whether this Neuron was read by {@link Neuron#detached(long)}. Its
+	 * pathways are then instances of their own rather than the ones in
+	 * {@link NeuralPathway#cache}.
+	 */
+	private boolean detached = false;
+	
+	/**
+	 * What this Neuron was last read from or written to storage as while
+	 * {@link Neuron#versions()} was publishing, or null.
+	 */
+	private VersionStore.Stored stored;
+	
 	/**
 	 * Instantiates a Neuron with the path to a file that currently
 	 * contains a Neuron's data.
@@ -86,6 +198,21 @@ public class Neuron extends File {
 		}
 	}
 	
+	/**
+	 * Instantiates a Neuron with the id of a Neuron that is currently
+	 * in storage. If _doLoadAttributes is true, the stored data is read
+	 * into the attributes for this Neuron.
+	 * @param _id
+	 * @param _doLoadAttributes
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 * @throws IOException if the labels file could not be read.
+	 */
+	protected Neuron(long _id, boolean _doLoadAttributes) throws FileNotFoundException, ParseException, IOException {
+		this(StorageIds.neuronPath(_id), _doLoadAttributes);
+		this.id = _id;
+	}
+	
 	/**
 	 * Create Neuron with an existing neuron linked to it.
 	 * This takes a string that can later be used by a developer
@@ -123,6 +250,40 @@ public class Neuron extends File {
 		return this.type;
 	}
 	
+	/**
+	 * Returns the id that this Neuron is addressed by. A labeled Neuron
+	 * only has an id once it has been saved.
+	 * @return
+	 * @throws StorageException if the labels file could not be read or
+	 * has no id for this Neuron.
+	 */
+	public long getId() {
+		if (this.id == NO_ID) {
+			try {
+				this.id = StorageIds.neuronId(this.getPathFromNeuronRoot());
+			} catch (IOException e) {
+				throw new StorageException("Could not find the id of " + this.getPath(), e);
+			}
+		}
+		return this.id;
+	}
+	
+	/**
+	 * Give this Neuron an id if it does not have one yet, recording it
+	 * in the labels file if this Neuron is labeled. Called before this
+	 * Neuron is saved.
+	 * @throws StorageException if the id could not be recorded.
+	 */
+	void assignId() {
+		if (this.id == NO_ID) {
+			try {
+				this.id = StorageIds.assignNeuronId(this.getPathFromNeuronRoot());
+			} catch (IOException e) {
+				throw new StorageException("Could not record an id for " + this.getPath(), e);
+			}
+		}
+	}
+	
 	/**
 	 * Returns all synaptic endings related to this neuron.
 	 * Use fireSynapse() on the objects to get the actual
@@ -154,7 +315,7 @@ public class Neuron extends File {
 	 * <br><br>
 	 * This method does the logic for deciding what to name the file.
 	 * If no label is provided in the parameters, it will
-	 * use an id from neuron ids file.
+	 * use an id from the {@link IdAllocator} backed by the neuron ids file.
 	 * <br><br>
 	 * NOTE: _label is optional. If it is null, then the next
 	 * id will be used instead of _label.
@@ -165,22 +326,216 @@ public class Neuron extends File {
 			if (_label != null) {
 				return pathToNeurons + _label + ".nrn";
 			} else {
-				Scanner s;
-				s = new Scanner(new File(Constants.NEURON_ROOT + "ids"));
-				int next = s.nextInt();
-				s.close();
-				PrintWriter p = new PrintWriter(new File(Constants.NEURON_ROOT + "ids"));
-				p.print(next+1);
-				p.close();
-				return pathToNeurons + String.valueOf(next) + ".nrn";
+				return pathToNeurons + String.valueOf(StorageIds.newNeuronId()) + StorageIds.NEURON_EXTENSION;
 			}
-		} catch (FileNotFoundException e) {
+		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 			return null;
 		}
 	}
 	
+	/**
+	 * Return the loaded Neuron with _id. If the Neuron is in
+	 * {@link Neuron#cache} the cached instance is returned, otherwise
+	 * it is loaded from storage and cached.
+	 * @param _id
+	 * @return
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
+	public static Neuron fromStorage(long _id) throws FileNotFoundException, ParseException {
+		Neuron neuron = Neuron.cache.get(_id);
+		if (neuron == null) {
+			try {
+				neuron = Neuron.cache.putIfAbsent(_id, new Neuron(_id, true));
+			} catch (FileNotFoundException e) {
+				throw e;
+			} catch (IOException e) {
+				throw new FileNotFoundException(e.getMessage());
+			}
+		}
+		return neuron;
+	}
+	
+	/**
+	 * Return the loaded Neuron stored at _neuronFile.
+	 * @see Neuron#fromStorage(long)
+	 * @param _neuronFile
+	 * @return
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
+	public static Neuron fromStorage(File _neuronFile) throws FileNotFoundException, ParseException {
+		return Neuron.fromStorage(new Neuron(_neuronFile.getPath(), false).getId());
+	}
+	
+	/**
+	 * Read the Neuron with _id from storage without putting it or any of
+	 * its pathways in {@link Neuron#cache} or {@link NeuralPathway#cache}.
+	 * Used by code that reads every Neuron in storage, so that doing so
+	 * does not evict the working set or hand out stale pathways.
+	 * @param _id
+	 * @return
+	 * @throws FileNotFoundException if the Neuron is not stored.
+	 * @throws ParseException
+	 * @throws IOException if the labels file could not be read.
+	 */
+	static Neuron detached(long _id) throws FileNotFoundException, ParseException, IOException {
+		Neuron neuron = new Neuron(_id, false);
+		neuron.detached = true;
+		neuron.loadAttributes();
+		return neuron;
+	}
+	
+	/**
+	 * Returns the pathway with _id to put in this Neuron's axon as it is
+	 * loaded: the instance in {@link NeuralPathway#cache}, or a new one
+	 * if this Neuron was read by {@link Neuron#detached(long)}.
+	 * @param _id
+	 * @return
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
+	NeuralPathway pathway(long _id) throws FileNotFoundException, ParseException {
+		if (this.detached) {
+			return new NeuralPathway(_id, false);
+		}
+		return NeuralPathway.handle(_id);
+	}
+	
+	/**
+	 * Returns the secondary indexes over every stored Neuron, opening
+	 * them if this is the first time they are used.
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static synchronized NeuronIndex index() throws IOException, ParseException {
+		if (Neuron.index == null) {
+			Neuron.index = NeuronIndex.open(new File(Constants.INDEX_ROOT + "neurons/"));
+		}
+		return Neuron.index;
+	}
+	
+	/**
+	 * Returns the index of the pathways that lead to each Neuron,
+	 * opening it if this is the first time it is used.
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static synchronized IncomingIndex incoming() throws IOException, ParseException {
+		if (Neuron.incoming == null) {
+			Neuron.incoming = IncomingIndex.open(new File(Constants.INDEX_ROOT + "incoming/"));
+		}
+		return Neuron.incoming;
+	}
+	
+	/**
+	 * Returns the index of the categories and the Neurons in each,
+	 * opening it if this is the first time it is used.
+	 * @return
+	 * @throws IOException
+	 */
+	public static synchronized CategoryIndex categories() throws IOException {
+		if (Neuron.categories == null) {
+			Neuron.categories = NeuronIndex.openCategories(new File(Constants.INDEX_ROOT + "categories/"));
+		}
+		return Neuron.categories;
+	}
+	
+	/**
+	 * Returns the journal that Neuron and NeuralPathway files are written
+	 * through. The first time it is opened, any writes that were logged
+	 * but may not have reached their files are replayed.
+	 * @return
+	 * @throws IOException
+	 */
+	public static synchronized WriteAheadLog journal() throws IOException {
+		if (Neuron.journal == null) {
+			Neuron.journal = new WriteAheadLog(new File(Constants.STORAGE_ROOT + "journal/"));
+		}
+		return Neuron.journal;
+	}
+	
+	/**
+	 * Returns the versions kept for open {@link Snapshot}s.
+	 * @return
+	 */
+	static synchronized VersionStore versions() {
+		if (Neuron.versions == null) {
+			Neuron.versions = new VersionStore();
+		}
+		return Neuron.versions;
+	}
+	
+	/**
+	 * Close the open indexes and forget the cached Neurons and
+	 * NeuralPathways so they are read again from the {@link StorageEngine}
+	 * in use.
+	 * @throws IOException if an index could not be closed. Everything
+	 * is forgotten anyway.
+	 */
+	static synchronized void resetStorage() throws IOException {
+		try {
+			Neuron.closeIndexes();
+		} finally {
+			Neuron.versions = null;
+			Neuron.cache.clear();
+			NeuralPathway.cache.clear();
+			Neuron.reflexes.clear();
+			Neuron.inheritedAttributes.clear();
+		}
+	}
+	
+	/**
+	 * Close the open indexes so the next time they are opened they are
+	 * read as they are instead of being rebuilt.
+	 * @throws IOException
+	 */
+	static synchronized void closeIndexes() throws IOException {
+		try {
+			if (Neuron.index != null) {
+				Neuron.index.close();
+			}
+		} finally {
+			Neuron.index = null;
+			try {
+				if (Neuron.incoming != null) {
+					Neuron.incoming.close();
+				}
+			} finally {
+				Neuron.incoming = null;
+				try {
+					if (Neuron.categories != null) {
+						NeuronIndex.closeCategories(Neuron.categories);
+					}
+				} finally {
+					Neuron.categories = null;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Store every Neuron in _log instead of in its own file. Neurons
+	 * that have already been saved to files are not copied into the log.
+	 * @param _log
+	 */
+	public static void useSegmentLog(SegmentLog _log) {
+		Neuron.storage = new LogStructuredNeuronManager(_log);
+	}
+	
+	/**
+	 * Store every Neuron in the fixed-width binary layout described in
+	 * {@link NeuronRecord}. Neurons still stored as json are read as json
+	 * until they are saved again.
+	 */
+	public static void useBinaryRecords() {
+		Neuron.storage = new BinaryNeuronManager();
+	}
+	
 	/**
 	 * Make new pathway to a thought. This automatically saves the changes to storage.
 	 * @param _thought
@@ -188,8 +543,22 @@ public class Neuron extends File {
 	public NeuralPathway addNeuralPathway(Integer _dendriteGroup, Neuron _thought) {
 		if (_thought != null) {
 			NeuralPathway t = NeuralPathway.storage.create(_thought);
+			PathwayRanking ranking = this.ranking(_dendriteGroup);
 			this.axon.get(_dendriteGroup).add(t);
+			if (ranking != null) {
+				try {
+					ranking.add(t);
+				} catch (FileNotFoundException | ParseException e) {
+					throw new StorageException("Could not read the size of " + t.getFile().getPath(), e);
+				}
+			}
 			this.save();
+			try {
+				Neuron.incoming().add(_thought.getId(), t.getId(), this.getId());
+			} catch (IOException | ParseException e) {
+				throw new StorageException("Could not record the pathway from " + this.getPath() + " in the incoming index", e);
+			}
+			Neuron.inheritedAttributes.pathwayAdded(this, _dendriteGroup, _thought.getId());
 			return t;
 		} else {
 			return null;
@@ -204,15 +573,156 @@ public class Neuron extends File {
 	public void removeNeuralPathway(int _dendriteGroupIndex, int _indexInGroup) {
 		NeuralPathway pathway = this.axon.get(_dendriteGroupIndex).get(_indexInGroup);
 		if (pathway != null) {
+			PathwayRanking ranking = this.ranking(_dendriteGroupIndex);
 			if (NeuralPathway.storage.delete(pathway)) {
 				this.axon.get(_dendriteGroupIndex).remove(_indexInGroup);
+				if (ranking != null) {
+					ranking.remove(pathway);
+				}
 				this.save();
+				Neuron.inheritedAttributes.pathwayRemoved(this, _dendriteGroupIndex);
 			}
 		} else {
 			return;
 		}
 	}
 	
+	/**
+	 * <p>
+	 * Returns the _k pathways in _dendriteGroup with the largest
+	 * connection size, strongest first. None of the Neurons they lead to
+	 * are loaded and none of the pathways are fired.
+	 * </p>
+	 * <p>
+	 * The first call for a dendrite group ranks every pathway in it.
+	 * The ranking is kept up to date as pathways are added, removed and
+	 * fired, so later calls only cost O(k log n). It is built again if
+	 * the group is changed through {@link Neuron#getAxon()}.
+	 * </p>
+	 * @param _dendriteGroup
+	 * @param _k
+	 * @return
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
+	public ArrayList<NeuralPathway> getStrongestPathways(int _dendriteGroup, int _k) throws FileNotFoundException, ParseException {
+		PathwayRanking ranking = this.ranking(_dendriteGroup);
+		if (ranking == null) {
+			ranking = new PathwayRanking(this.axon.get(_dendriteGroup));
+			while (this.rankings.size() <= _dendriteGroup) {
+				this.rankings.add(null);
+			}
+			this.rankings.set(_dendriteGroup, ranking);
+		}
+		return ranking.strongest(_k);
+	}
+	
+	/**
+	 * Returns the pathways in _dendriteGroup that lead to a Neuron of
+	 * one of _types, in the order they are in the group. The types are
+	 * looked up with {@link NeuralPathway#peekRecieverType()}, so nothing
+	 * is written and only Neurons {@link Neuron#index()} has no entry for
+	 * yet are read. This is how a {@link NeuralNetwork} sorts the axon
+	 * when it is parsed.
+	 * @param _dendriteGroup
+	 * @param _types
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public ArrayList<NeuralPathway> peek(int _dendriteGroup, int... _types) throws IOException, ParseException {
+		ArrayList<NeuralPathway> peeked = new ArrayList<NeuralPathway>();
+		if (_dendriteGroup >= this.axon.size()) {
+			return peeked;
+		}
+		for (NeuralPathway pathway : this.axon.get(_dendriteGroup)) {
+			int type = pathway.peekRecieverType();
+			for (int t : _types) {
+				if (type == t) {
+					peeked.add(pathway);
+					break;
+				}
+			}
+		}
+		return peeked;
+	}
+	
+	/**
+	 * Returns the ranking of _dendriteGroup if it has one that still
+	 * matches the group in the axon, otherwise null.
+	 * @param _dendriteGroup
+	 * @return
+	 */
+	private PathwayRanking ranking(int _dendriteGroup) {
+		if (this.rankings == null) {
+			this.rankings = new ArrayList<PathwayRanking>();
+		}
+		if (_dendriteGroup >= this.rankings.size()) {
+			return null;
+		}
+		PathwayRanking ranking = this.rankings.get(_dendriteGroup);
+		if (ranking != null && !ranking.ranks(this.axon.get(_dendriteGroup))) {
+			this.rankings.set(_dendriteGroup, null);
+			return null;
+		}
+		return ranking;
+	}
+	
+	/**
+	 * Returns every pathway that leads to this Neuron, looked up in
+	 * {@link Neuron#incoming()}.
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public ArrayList<NeuralPathway> getIncomingPathways() throws IOException, ParseException {
+		long[] pathwayIds = Neuron.incoming().getPathwayIds(this.getId());
+		ArrayList<NeuralPathway> pathways = new ArrayList<NeuralPathway>(pathwayIds.length);
+		for (long pathwayId : pathwayIds) {
+			pathways.add(NeuralPathway.handle(pathwayId));
+		}
+		return pathways;
+	}
+	
+	/**
+	 * Returns every Neuron with a pathway to this Neuron in its axon.
+	 * Each Neuron is returned once.
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public ArrayList<Neuron> getIncomingNeurons() throws IOException, ParseException {
+		ArrayList<Neuron> senders = new ArrayList<Neuron>();
+		java.util.HashSet<Long> seen = new java.util.HashSet<Long>();
+		for (long senderId : Neuron.incoming().getSenderIds(this.getId())) {
+			if (seen.add(senderId)) {
+				try {
+					senders.add(Neuron.fromStorage(senderId));
+				} catch (FileNotFoundException e) {
+					// Deleted since its pathway was indexed.
+				}
+			}
+		}
+		return senders;
+	}
+	
+	/**
+	 * Remove the pathway with _pathwayId from this Neuron's axon and
+	 * delete it. Nothing happens if the axon does not hold it.
+	 * @param _pathwayId
+	 */
+	public void removeNeuralPathway(long _pathwayId) {
+		for (int i = 0; i < this.axon.size(); i++) {
+			ArrayList<NeuralPathway> dendriteGroup = this.axon.get(i);
+			for (int j = dendriteGroup.size() - 1; j >= 0; j--) {
+				if (dendriteGroup.get(j).getId() == _pathwayId) {
+					this.removeNeuralPathway(i, j);
+					return;
+				}
+			}
+		}
+	}
+	
 	public NeuralNetwork parsed() {
 		if (this.getType() == NeuronType.NOUN_DEFINITION) {
 			return new EntityStructure(this);
@@ -236,13 +746,25 @@ public class Neuron extends File {
 	}
 	
 	/**
-	 * Determines whether this neuron is the same as that in o. This is true if o's path is
-	 * the same as this Neuron's path.
+	 * Determines whether this neuron is the same as that in o. This is true if o is
+	 * stored at the same path as this Neuron, which is the case exactly when they
+	 * have the same id. Nothing is read, so a labeled Neuron that has no id yet can
+	 * be compared and hashed too.
 	 * @param o
 	 * @return
 	 */
 	public boolean equals(Neuron o) {
-		return this.getAbsolutePath().equals(o.getAbsolutePath());
+		return o != null && this.getAbsolutePath().equals(o.getAbsolutePath());
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof Neuron && this.equals((Neuron) o);
+	}
+	
+	@Override
+	public int hashCode() {
+		return this.getAbsolutePath().hashCode();
 	}
 	
 	/**
@@ -262,26 +784,66 @@ public class Neuron extends File {
 	 * @throws ParseException
 	 */
 	public void loadAttributes() throws FileNotFoundException, ParseException {
-		JSONObject jsonNeuron = (JSONObject) Files.json(this);
-		
-		this.axon = new ArrayList<ArrayList<NeuralPathway>>();
-		JSONArray axon = (JSONArray) jsonNeuron.get("axon");
-		for (int i = 0; i < axon.size(); i++) {
-			JSONArray dendriteGroup = (JSONArray) axon.get(i);
-			this.axon.add(new ArrayList<NeuralPathway>());
-			for (Object pathway : dendriteGroup) {
-				String filePath = Constants.PATHWAY_ROOT + ((NeuralPathway) pathway).getPathFromPathwayRoot();
-				this.axon.get(i).add(new NeuralPathway(filePath, false));
+		VersionStore versions = this.detached ? null : Neuron.versions;
+		long stamp = versions == null ? -1 : versions.stamp();
+		this.stored = null;
+		if (!NeuronManager.loadPending(this)) {
+			Neuron.storage.load(this);
+			if (versions != null) {
+				this.stored = versions.stored(this, stamp);
 			}
 		}
+	}
+	
+	/**
+	 * Returns what this Neuron was last read from or written to storage
+	 * as, or null if that is not known.
+	 * @return
+	 */
+	VersionStore.Stored stored() {
+		return this.stored;
+	}
+	
+	void setStored(VersionStore.Stored _stored) {
+		this.stored = _stored;
+	}
+	
+	/**
+	 * Set this Neuron's attributes from the json representation
+	 * produced by {@link Neuron#jsonify()} as it is read from _reader.
+	 * Keys this Neuron does not know about are skipped.
+	 * @param _reader
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	protected void loadAttributes(JSONReader _reader) throws IOException, ParseException {
+		this.axon = new ArrayList<ArrayList<NeuralPathway>>();
+		this.associatedMorpheme = null;
 		
-		this.type = (int) ((long) jsonNeuron.get("type"));
-		
-		if (!(jsonNeuron.get("associatedMorpheme") instanceof Long)) {
-			this.associatedMorpheme = (String) jsonNeuron.get("associatedMorpheme");
-		} else {
-			this.associatedMorpheme = null;
+		_reader.beginObject();
+		while (_reader.hasNext()) {
+			String key = _reader.nextName();
+			if (key.equals("axon")) {
+				_reader.beginArray();
+				while (_reader.hasNext()) {
+					ArrayList<NeuralPathway> dendriteGroup = new ArrayList<NeuralPathway>();
+					_reader.beginArray();
+					while (_reader.hasNext()) {
+						dendriteGroup.add(this.pathway(StorageIds.pathwayId(_reader.nextString())));
+					}
+					_reader.endArray();
+					this.axon.add(dendriteGroup);
+				}
+				_reader.endArray();
+			} else if (key.equals("type")) {
+				this.type = (int) _reader.nextLong();
+			} else if (key.equals("associatedMorpheme") && _reader.peek() == JSONReader.STRING) {
+				this.associatedMorpheme = _reader.nextString();
+			} else {
+				_reader.skipValue();
+			}
 		}
+		_reader.endObject();
 	}
 	
 	/**
@@ -300,7 +862,7 @@ public class Neuron extends File {
 				(
 					(JSONArray) ((JSONArray) neuronJson.get("axon"))
 						.get(i)
-				).add(synapse.getAbsolutePath().split(Constants.PATHWAY_ROOT)[1]);
+				).add(StorageIds.pathwayName(synapse.getId()));
 			}
 		}
 		
@@ -315,6 +877,18 @@ public class Neuron extends File {
 		return neuronJson;
 	}
 	
+	/**
+	 * Write this Neuron as formatted json to _file regardless of
+	 * the format it is stored in.
+	 * @param _file
+	 * @throws IOException
+	 */
+	public void exportJSON(File _file) throws IOException {
+		PrintWriter objWriter = new PrintWriter(_file);
+		JSONUtils.writeJSON(this.jsonify(), 0, objWriter);
+		objWriter.close();
+	}
+	
 	/**
 	 * Returns the path starting from the path to the folder containing
 	 * all Neuron files (not including that folder name).
@@ -333,93 +907,3 @@ public class Neuron extends File {
 		return str;
 	}
 }
-
-class NeuronManager implements StorageManageable<Neuron> {
-
-	/**
-	 * The parameters for this method should be treated like so:
-	 * (Integer _type, String _associatedMorpheme)
-	 * This is what the method expects in it's parameters.
-	 * 
-	 * @see com.ianmann.utils.storage.StorageManageable#create()
-	 */
-	@Override
-	public Neuron create(Object... _params) {
-		String location = Neuron.getNewFileLocation((String) _params[1]);
-		Neuron neuron = new Neuron(
-				location,
-				(Integer) _params[0],
-				(String) _params[1]
-		);
-		this.save(neuron);
-		return neuron;
-	}
-
-	/**
-	 * Print this object to the file at this objects file path.
-	 * <br><br>
-	 * If the neuron file already exists, just rewrite the data
-	 * in the file, overwriting the old data with the new data.
-	 * 
-	 * @see com.ianmann.utils.storage.StorageManageable#save(java.lang.Object)
-	 */
-	@Override
-	public void save(Neuron _object) {
-		try {
-			try {
-				if (!_object.exists()) {
-					java.nio.file.Files.createFile(_object.toPath());
-				}
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			
-			PrintWriter objWriter = new PrintWriter(_object);
-			objWriter.print(JSONUtils.formatJSON(_object.jsonify(), 0));
-			objWriter.close();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-	}
-
-	/**
-	 * Removes this Neuron from memory. First, this will delete all of the
-	 * NeuralPathway objects that are contained in this Neuron. Then the actual
-	 * Neuron file will be deleted.
-	 * </p>
-	 * <p>
-	 * NOTE: This method calls the delete method on _object.
-	 * </p>
-	 * @see com.ianmann.utils.storage.StorageManageable#delete(java.lang.Object)
-	 */
-	@Override
-	public boolean delete(Neuron _object) {
-		for (int i = 0; i < _object.axon.size(); i++) {
-			for (int j = 0; j < _object.axon.get(i).size(); j++) {
-				_object.removeNeuralPathway(i, j);
-			}
-		}
-		return _object.delete();
-	}
-
-	/**
-	 * DON'T USE THIS!
-	 * @see com.ianmann.utils.storage.StorageManageable#get(java.util.HashMap)
-	 */
-	@Override
-	public ArrayList<Neuron> get(HashMap<String, Object> _params) {
-		return null;
-	}
-
-	/** 
-	 * DON'T USE THIS!
-	 * @see com.ianmann.utils.storage.StorageManageable#getAll()
-	 */
-	@Override
-	public ArrayList<Neuron> getAll() {
-		return null;
-	}
-	
-}
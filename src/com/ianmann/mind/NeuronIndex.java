@@ -0,0 +1,476 @@
+package com.ianmann.mind;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.core.Constants;
+import com.ianmann.mind.core.navigation.CategoryIndex;
+import com.ianmann.utils.storage.RecordStore;
+import com.ianmann.utils.storage.SegmentLog;
+
+/**
+ * <p>
+ * Secondary indexes over every stored Neuron by type, associated morpheme
+ * and parent category, used by {@link NeuronManager#get(HashMap)} and
+ * {@link NeuronManager#getAll()}. The parent category of a Neuron is the
+ * folder its file is in relative to {@link Constants#NEURON_ROOT}, as laid
+ * out by {@link com.ianmann.mind.core.navigation.Category}; Neurons in the
+ * root folder have the category "".
+ * </p>
+ * <p>
+ * The indexed values of each Neuron are kept in a {@link RecordStore}
+ * keyed by the Neuron's id, so saving or deleting a Neuron writes one
+ * small record instead of rewriting the index. The store is opened by
+ * the {@link StorageEngine} in use, which is a {@link SegmentLog} for
+ * the engines that write to disk. The lookup tables are rebuilt in
+ * memory from the store when the index is opened.
+ * </p>
+ * <p>
+ * Records are written after the Neuron they describe, outside its unit
+ * of work, so the store is only trusted if it was closed cleanly, as
+ * shown by a {@link CleanShutdownMarker}. Otherwise it is rebuilt from
+ * every stored Neuron when it is opened.
+ * </p>
+ * <p>
+ * The category tree itself, with the categories that have no Neurons
+ * yet, is kept in a {@link CategoryIndex} opened by
+ * {@link NeuronIndex#openCategories(File)} and kept up to date by
+ * {@link NeuronIndex#categorize(Neuron)} and
+ * {@link NeuronIndex#uncategorize(Neuron)}.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class NeuronIndex {
+
+	/*
+	 * Keys that can be passed to NeuronManager.get(HashMap).
+	 */
+	public static final String TYPE = "type";
+	public static final String MORPHEME = "associatedMorpheme";
+	public static final String CATEGORY = "category";
+
+	/**
+	 * Returned by {@link NeuronIndex#getType(long)} for a Neuron that
+	 * is not indexed.
+	 */
+	public static final int NOT_INDEXED = -1;
+
+	/**
+	 * Indexed values of one Neuron.
+	 */
+	private static class Values {
+		int type;
+		String morpheme;
+		String category;
+
+		Values(int _type, String _morpheme, String _category) {
+			this.type = _type;
+			this.morpheme = _morpheme;
+			this.category = _category;
+		}
+
+		boolean matches(Values _other) {
+			return this.type == _other.type
+					&& (this.morpheme == null ? _other.morpheme == null : this.morpheme.equals(_other.morpheme))
+					&& this.category.equals(_other.category);
+		}
+	}
+
+	private RecordStore log;
+
+	/**
+	 * Directory the store is kept in, or null if the {@link StorageEngine}
+	 * it was opened with is not persistent.
+	 */
+	private File directory;
+
+	private HashMap<Long, Values> values = new HashMap<Long, Values>();
+	private HashMap<Integer, HashSet<Long>> byType = new HashMap<Integer, HashSet<Long>>();
+	private HashMap<String, HashSet<Long>> byMorpheme = new HashMap<String, HashSet<Long>>();
+
+	/**
+	 * Sorted so a category and everything below it is one range of keys.
+	 */
+	private TreeMap<String, HashSet<Long>> byCategory = new TreeMap<String, HashSet<Long>>();
+
+	private NeuronIndex(RecordStore _log, File _directory) {
+		this.log = _log;
+		this.directory = _directory;
+	}
+
+	/**
+	 * Open the index stored in _directory. If the {@link StorageEngine}
+	 * in use is persistent and the index was not closed cleanly, it is
+	 * built again from every Neuron file in {@link Constants#NEURON_ROOT}.
+	 * @param _directory
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static NeuronIndex open(File _directory) throws IOException, ParseException {
+		StorageEngine engine = StorageEngine.current();
+		boolean clean = !engine.isPersistent() || CleanShutdownMarker.clear(_directory);
+		NeuronIndex index = new NeuronIndex(engine.openStore(_directory), engine.isPersistent() ? _directory : null);
+		if (clean) {
+			for (String key : index.log.keys()) {
+				byte[] record = index.log.get(key);
+				if (record != null) {
+					index.link(Long.parseLong(key), NeuronIndex.decode(record));
+				}
+			}
+		} else {
+			index.rebuild();
+		}
+		return index;
+	}
+
+	/**
+	 * Throw away every entry and index every Neuron file in
+	 * {@link Constants#NEURON_ROOT} again.
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public synchronized void rebuild() throws IOException, ParseException {
+		for (Long id : new ArrayList<Long>(this.values.keySet())) {
+			this.remove(id);
+		}
+		for (long id : StorageIds.listNeuronIds()) {
+			try {
+				this.put(Neuron.detached(id));
+			} catch (java.io.FileNotFoundException e) {
+				// Deleted while the index was being built.
+			}
+		}
+		this.log.sync();
+	}
+
+	/**
+	 * Record the current type, morpheme and category of _neuron.
+	 * Nothing is written if none of them changed.
+	 * @param _neuron
+	 * @throws IOException
+	 */
+	public synchronized void put(Neuron _neuron) throws IOException {
+		long id = _neuron.getId();
+		Values current = new Values(_neuron.type, _neuron.associatedMorpheme, NeuronIndex.categoryOf(_neuron));
+		Values old = this.values.get(id);
+		if (old != null && old.matches(current)) {
+			return;
+		}
+		this.log.put(String.valueOf(id), NeuronIndex.encode(current));
+		if (old != null) {
+			this.unlink(id, old);
+		}
+		this.link(id, current);
+	}
+
+	/**
+	 * Forget the Neuron with _id.
+	 * @param _id
+	 * @throws IOException
+	 */
+	public synchronized void remove(long _id) throws IOException {
+		Values old = this.values.get(_id);
+		if (old == null) {
+			return;
+		}
+		this.log.remove(String.valueOf(_id));
+		this.unlink(_id, old);
+	}
+
+	/**
+	 * Returns the ids of every Neuron that matches all of _params. The
+	 * keys can be {@link NeuronIndex#TYPE} (a Number),
+	 * {@link NeuronIndex#MORPHEME} (a String, or null for Neurons with no
+	 * morpheme) and {@link NeuronIndex#CATEGORY} (a category path such as
+	 * "being/animal", matching Neurons in it or in any category below it).
+	 * @param _params
+	 * @return
+	 */
+	public synchronized ArrayList<Long> find(HashMap<String, Object> _params) {
+		ArrayList<HashSet<Long>> postings = new ArrayList<HashSet<Long>>();
+		for (Entry<String, Object> param : _params.entrySet()) {
+			if (param.getKey().equals(TYPE)) {
+				postings.add(this.byType.get(((Number) param.getValue()).intValue()));
+			} else if (param.getKey().equals(MORPHEME)) {
+				postings.add(this.byMorpheme.get((String) param.getValue()));
+			} else if (param.getKey().equals(CATEGORY)) {
+				postings.add(this.inCategory((String) param.getValue()));
+			} else {
+				throw new IllegalArgumentException("Neurons are not indexed by " + param.getKey());
+			}
+		}
+		if (postings.isEmpty()) {
+			return this.getAll();
+		}
+
+		HashSet<Long> smallest = null;
+		for (HashSet<Long> posting : postings) {
+			if (posting == null || posting.isEmpty()) {
+				return new ArrayList<Long>();
+			}
+			if (smallest == null || posting.size() < smallest.size()) {
+				smallest = posting;
+			}
+		}
+		ArrayList<Long> ids = new ArrayList<Long>();
+		for (Long id : smallest) {
+			boolean inAll = true;
+			for (HashSet<Long> posting : postings) {
+				if (posting != smallest && !posting.contains(id)) {
+					inAll = false;
+					break;
+				}
+			}
+			if (inAll) {
+				ids.add(id);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the type of the Neuron with _id, or {@link NeuronIndex#NOT_INDEXED}
+	 * if it is not stored, without reading the Neuron.
+	 * @param _id
+	 * @return
+	 */
+	public synchronized int getType(long _id) {
+		Values values = this.values.get(_id);
+		return values == null ? NOT_INDEXED : values.type;
+	}
+
+	/**
+	 * Returns the id of every indexed Neuron.
+	 * @return
+	 */
+	public synchronized ArrayList<Long> getAll() {
+		return new ArrayList<Long>(this.values.keySet());
+	}
+
+	/**
+	 * Force every change to disk.
+	 * @throws IOException
+	 */
+	public void sync() throws IOException {
+		this.log.sync();
+	}
+
+	/**
+	 * Sync and close the store. The next time it is opened it is read
+	 * as it is instead of being rebuilt.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		this.log.sync();
+		this.log.close();
+		if (this.directory != null) {
+			CleanShutdownMarker.set(this.directory);
+		}
+	}
+
+	/**
+	 * Returns the ids of the Neurons in _category or any category below it.
+	 * @param _category
+	 * @return
+	 */
+	private HashSet<Long> inCategory(String _category) {
+		String category = _category.endsWith("/") ? _category.substring(0, _category.length() - 1) : _category;
+		if (category.isEmpty()) {
+			return new HashSet<Long>(this.values.keySet());
+		}
+		HashSet<Long> ids = new HashSet<Long>();
+		HashSet<Long> direct = this.byCategory.get(category);
+		if (direct != null) {
+			ids.addAll(direct);
+		}
+		// Every sub category starts with "category/" and sorts before "category0".
+		for (HashSet<Long> below : this.byCategory.subMap(category + "/", category + "0").values()) {
+			ids.addAll(below);
+		}
+		return ids;
+	}
+
+	private void link(long _id, Values _values) {
+		this.values.put(_id, _values);
+		NeuronIndex.add(this.byType, _values.type, _id);
+		NeuronIndex.add(this.byMorpheme, _values.morpheme, _id);
+		NeuronIndex.add(this.byCategory, _values.category, _id);
+	}
+
+	private void unlink(long _id, Values _values) {
+		this.values.remove(_id);
+		NeuronIndex.remove(this.byType, _values.type, _id);
+		NeuronIndex.remove(this.byMorpheme, _values.morpheme, _id);
+		NeuronIndex.remove(this.byCategory, _values.category, _id);
+	}
+
+	private static <K> void add(java.util.Map<K, HashSet<Long>> _postings, K _key, long _id) {
+		HashSet<Long> ids = _postings.get(_key);
+		if (ids == null) {
+			ids = new HashSet<Long>();
+			_postings.put(_key, ids);
+		}
+		ids.add(_id);
+	}
+
+	private static <K> void remove(java.util.Map<K, HashSet<Long>> _postings, K _key, long _id) {
+		HashSet<Long> ids = _postings.get(_key);
+		if (ids != null && ids.remove(_id) && ids.isEmpty()) {
+			_postings.remove(_key);
+		}
+	}
+
+	/**
+	 * Returns the folder of _neuron relative to {@link Constants#NEURON_ROOT}
+	 * without a trailing slash.
+	 * @param _neuron
+	 * @return
+	 */
+	static String categoryOf(Neuron _neuron) {
+		return NeuronIndex.categoryOf(NeuronIndex.memberOf(_neuron.getPathFromNeuronRoot()));
+	}
+
+	/**
+	 * Returns the folder of the member _member without a trailing slash.
+	 * @param _member
+	 * @return
+	 */
+	private static String categoryOf(String _member) {
+		int slash = _member.lastIndexOf('/');
+		return slash < 0 ? "" : _member.substring(0, slash);
+	}
+
+	/**
+	 * Returns the path _pathFromNeuronRoot as it is recorded in a
+	 * {@link CategoryIndex}.
+	 * @param _pathFromNeuronRoot
+	 * @return
+	 */
+	private static String memberOf(String _pathFromNeuronRoot) {
+		return _pathFromNeuronRoot.replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Open the category index kept in _directory. If the
+	 * {@link StorageEngine} in use is not persistent it is only kept in
+	 * memory. If it was not closed cleanly it is built again from the
+	 * category folders in {@link Constants#NEURON_ROOT} and every stored
+	 * Neuron.
+	 * @param _directory
+	 * @return
+	 * @throws IOException
+	 */
+	static CategoryIndex openCategories(File _directory) throws IOException {
+		if (!StorageEngine.current().isPersistent()) {
+			return CategoryIndex.empty(null);
+		}
+		_directory.mkdirs();
+		File indexFile = new File(_directory, CategoryIndex.FILE_NAME);
+		if (CleanShutdownMarker.clear(_directory)) {
+			return CategoryIndex.load(indexFile);
+		}
+		CategoryIndex categories = CategoryIndex.empty(indexFile);
+		NeuronIndex.collectCategories(new File(Constants.NEURON_ROOT), "", categories);
+		for (long id : StorageIds.listNeuronIds(new ArrayList<String>())) {
+			String path = StorageIds.neuronPath(id);
+			if (path.startsWith(Constants.NEURON_ROOT)) {
+				NeuronIndex.categorize(categories, NeuronIndex.memberOf(path.substring(Constants.NEURON_ROOT.length())));
+			}
+		}
+		categories.save();
+		return categories;
+	}
+
+	/**
+	 * Save _categories and mark it as closed cleanly.
+	 * @param _categories
+	 * @throws IOException
+	 */
+	static void closeCategories(CategoryIndex _categories) throws IOException {
+		File indexFile = _categories.getIndexFile();
+		if (indexFile == null) {
+			return;
+		}
+		_categories.save();
+		CleanShutdownMarker.set(indexFile.getParentFile());
+	}
+
+	/**
+	 * Put _neuron in the category of the folder it is stored in.
+	 * @param _neuron
+	 * @throws IOException
+	 */
+	static void categorize(Neuron _neuron) throws IOException {
+		NeuronIndex.categorize(Neuron.categories(), NeuronIndex.memberOf(_neuron.getPathFromNeuronRoot()));
+	}
+
+	/**
+	 * Take _neuron out of every category.
+	 * @param _neuron
+	 * @throws IOException
+	 */
+	static void uncategorize(Neuron _neuron) throws IOException {
+		Neuron.categories().removeFromAll(NeuronIndex.memberOf(_neuron.getPathFromNeuronRoot()));
+	}
+
+	private static void categorize(CategoryIndex _categories, String _member) {
+		String category = NeuronIndex.categoryOf(_member);
+		if (!category.isEmpty()) {
+			_categories.addMember(_categories.createCategoryAt(category), _member);
+		}
+	}
+
+	/**
+	 * Create a category in _categories for every folder below _folder.
+	 * @param _folder
+	 * @param _path Path of _folder from {@link Constants#NEURON_ROOT}.
+	 * @param _categories
+	 */
+	private static void collectCategories(File _folder, String _path, CategoryIndex _categories) {
+		File[] files = _folder.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				String path = _path + file.getName();
+				_categories.createCategoryAt(path);
+				NeuronIndex.collectCategories(file, path + "/", _categories);
+			}
+		}
+	}
+
+	private static byte[] encode(Values _values) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(_values.type);
+		out.writeBoolean(_values.morpheme != null);
+		if (_values.morpheme != null) {
+			out.writeUTF(_values.morpheme);
+		}
+		out.writeUTF(_values.category);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static Values decode(byte[] _record) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(_record));
+		int type = in.readInt();
+		String morpheme = in.readBoolean() ? in.readUTF() : null;
+		String category = in.readUTF();
+		return new Values(type, morpheme, category);
+	}
+}
@@ -0,0 +1,678 @@
+package com.ianmann.mind;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.core.Constants;
+import com.ianmann.mind.storage.organization.NeuronType;
+import com.ianmann.utils.storage.StorageException;
+import com.ianmann.utils.storage.UnitOfWork;
+import com.ianmann.utils.storage.WriteAheadLog;
+import com.ianmann.utils.utilities.JSONReader;
+import com.ianmann.utils.utilities.JSONUtils;
+
+class NeuronManager implements NeuronStorage {
+
+	/**
+	 * The parameters for this method should be treated like so:
+	 * (Integer _type, String _associatedMorpheme)
+	 * This is what the method expects in it's parameters.
+	 * 
+	 * @see com.ianmann.utils.storage.StorageManageable#create()
+	 */
+	@Override
+	public Neuron create(Object... _params) {
+		String location = Neuron.getNewFileLocation((String) _params[1]);
+		Neuron neuron = new Neuron(
+				location,
+				(Integer) _params[0],
+				(String) _params[1]
+		);
+		this.save(neuron);
+		return neuron;
+	}
+
+	/**
+	 * Print this object to the file at this objects file path.
+	 * <br><br>
+	 * If the neuron file already exists, just rewrite the data
+	 * in the file, overwriting the old data with the new data.
+	 * 
+	 * @see com.ianmann.utils.storage.StorageManageable#save(java.lang.Object)
+	 */
+	@Override
+	public void save(Neuron _object) {
+		_object.assignId();
+		Neuron.cache.invalidate(_object.getId());
+		UnitOfWork unit = UnitOfWork.current();
+		if (unit != null) {
+			unit.put(NeuronManager.pendingKey(_object.getId()), new PendingSave(this, _object));
+			return;
+		}
+		this.store(_object);
+	}
+	
+	/**
+	 * Save every Neuron in _objects in one unit of work.
+	 * @see com.ianmann.utils.storage.StorageManageable#saveAll(java.util.Collection)
+	 */
+	@Override
+	public void saveAll(Collection<Neuron> _objects) {
+		this.begin();
+		try {
+			for (Neuron neuron : _objects) {
+				this.save(neuron);
+			}
+		} finally {
+			this.commit();
+		}
+	}
+	
+	/**
+	 * Start a {@link UnitOfWork} on this thread. Saves and deletes of
+	 * Neurons and of NeuralPathways are buffered until it is committed.
+	 * @see com.ianmann.utils.storage.StorageManageable#begin()
+	 */
+	@Override
+	public void begin() {
+		UnitOfWork.begin();
+	}
+	
+	/**
+	 * @see com.ianmann.utils.storage.StorageManageable#commit()
+	 */
+	@Override
+	public void commit() {
+		NeuronManager.commitThroughJournal();
+	}
+	
+	/**
+	 * Commit the {@link UnitOfWork} open on this thread with every file
+	 * it writes logged behind a single sync of {@link Neuron#journal()}.
+	 * Everything it writes is one commit of {@link Neuron#versions()}, so
+	 * a {@link Snapshot} sees all of it or none of it.
+	 * @throws StorageException if the journal could not make the writes
+	 * durable. None of them were written.
+	 */
+	static void commitThroughJournal() {
+		VersionStore versions = Neuron.versions();
+		versions.beginCommit();
+		try {
+			NeuronManager.commitUnit();
+		} finally {
+			versions.endCommit();
+		}
+	}
+	
+	private static void commitUnit() {
+		if (!Neuron.storage.usesJournal() && !NeuralPathway.storage.usesJournal()) {
+			UnitOfWork.commit();
+			NeuronManager.syncStorage();
+			return;
+		}
+		WriteAheadLog journal;
+		try {
+			journal = Neuron.journal();
+		} catch (IOException e) {
+			UnitOfWork.abandon();
+			throw new StorageException("Could not open the journal to commit a unit of work.", e);
+		}
+		journal.begin();
+		boolean applied = false;
+		try {
+			UnitOfWork.commit();
+			applied = true;
+		} finally {
+			if (!applied) {
+				// Nothing in the batch is written, so nothing it published stands.
+				journal.abort();
+				Neuron.versions().rollback();
+			}
+		}
+		try {
+			journal.commit();
+		} catch (IOException e) {
+			Neuron.versions().rollback();
+			throw new StorageException("Could not commit a unit of work to the journal.", e);
+		}
+		NeuronManager.syncStorage();
+	}
+	
+	/**
+	 * Make what a committed unit of work wrote durable in the stores that
+	 * do not write through {@link Neuron#journal()}.
+	 * @throws StorageException if it could not be made durable. It has
+	 * been written, so what it published to {@link Neuron#versions()}
+	 * stands.
+	 */
+	private static void syncStorage() {
+		try {
+			Neuron.storage.sync();
+			NeuralPathway.storage.sync();
+		} catch (IOException e) {
+			throw new StorageException("Could not sync a committed unit of work.", e);
+		}
+	}
+	
+	/**
+	 * Open {@link Neuron#journal()} so that writes from before a crash are
+	 * in their files before anything is read.
+	 * @throws FileNotFoundException
+	 */
+	static void replayJournal() throws FileNotFoundException {
+		try {
+			Neuron.journal();
+		} catch (IOException e) {
+			throw new FileNotFoundException(e.getMessage());
+		}
+	}
+	
+	/**
+	 * Returns whether Neurons are written through {@link Neuron#journal()}.
+	 * @return
+	 */
+	public boolean usesJournal() {
+		return true;
+	}
+	
+	/**
+	 * Returns the id of every Neuron this manager has stored and adds the
+	 * path of every labeled Neuron with no recorded id to _unrecorded.
+	 * Neurons stored in files are found in {@link Constants#NEURON_ROOT}
+	 * and the category folders below it.
+	 * @param _unrecorded
+	 * @return
+	 * @throws IOException
+	 */
+	public ArrayList<Long> listIds(ArrayList<String> _unrecorded) throws IOException {
+		return StorageIds.listNeuronFiles(_unrecorded);
+	}
+	
+	/**
+	 * Returns whether the Neuron with _id is stored, counting a save or
+	 * delete of it buffered in the {@link UnitOfWork} open on this thread.
+	 * Nothing is read.
+	 * @param _id
+	 * @return
+	 * @throws IOException if the labels file could not be read.
+	 */
+	public boolean isStored(long _id) throws IOException {
+		Integer pending = NeuronManager.pendingType(_id);
+		if (pending != null) {
+			return pending != NeuronIndex.NOT_INDEXED;
+		}
+		return this.contains(new File(StorageIds.neuronPath(_id)));
+	}
+	
+	/**
+	 * Returns whether anything is stored for the Neuron whose file is _file.
+	 * @param _file
+	 * @return
+	 */
+	protected boolean contains(File _file) {
+		return _file.exists();
+	}
+	
+	/**
+	 * Neurons are written through {@link Neuron#journal()}, which makes
+	 * them durable itself.
+	 * @throws IOException
+	 */
+	public void sync() throws IOException {
+	}
+	
+	/**
+	 * Close anything this manager keeps open. Called by
+	 * {@link StorageEngine} when it stops using this manager.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+	}
+	
+	/**
+	 * Publish _object to {@link Neuron#versions()}, write it and record
+	 * it in the index. If it could not be written, the version published
+	 * for it is taken back.
+	 * @param _object
+	 * @throws StorageException if _object could not be written or indexed.
+	 */
+	private void store(Neuron _object) {
+		VersionStore versions = Neuron.versions();
+		versions.beginCommit();
+		boolean written = false;
+		try {
+			long stamp = versions.stamp();
+			versions.publishNeuron(_object.getId(), _object);
+			this.write(_object);
+			written = true;
+			_object.setStored(versions.stored(_object, stamp));
+			Neuron.index().put(_object);
+			NeuronIndex.categorize(_object);
+		} catch (IOException | ParseException e) {
+			throw new StorageException("Could not index " + _object.getPath(), e);
+		} finally {
+			if (!written) {
+				versions.unpublishNeuron(_object.getId());
+			}
+			versions.endCommit();
+		}
+	}
+	
+	/**
+	 * Write _object, already encoded as _data by
+	 * {@link NeuronManager#encode(Neuron)}, without recording it in the
+	 * index. Inside a {@link UnitOfWork} the write is buffered like a
+	 * save. Used by {@link OntologyLoader}, which encodes Neurons on many
+	 * threads and indexes everything it wrote at the end.
+	 * @param _object
+	 * @param _data
+	 */
+	public void saveEncoded(Neuron _object, byte[] _data) {
+		_object.assignId();
+		Neuron.cache.invalidate(_object.getId());
+		UnitOfWork unit = UnitOfWork.current();
+		if (unit != null) {
+			unit.put(NeuronManager.pendingKey(_object.getId()), new PendingSave(this, _object, _data));
+			return;
+		}
+		this.storeEncoded(_object, _data);
+	}
+	
+	/**
+	 * Publish _object to {@link Neuron#versions()} and write it as _data.
+	 * If it could not be written, the version published for it is taken
+	 * back.
+	 * @param _object
+	 * @param _data
+	 * @throws StorageException if _object could not be written.
+	 */
+	private void storeEncoded(Neuron _object, byte[] _data) {
+		VersionStore versions = Neuron.versions();
+		versions.beginCommit();
+		boolean written = false;
+		try {
+			long stamp = versions.stamp();
+			versions.publishNeuron(_object.getId(), _object);
+			this.write(_object, _data);
+			written = true;
+			_object.setStored(versions.stored(_object, stamp));
+		} catch (IOException e) {
+			throw new StorageException("Could not write " + _object.getPath(), e);
+		} finally {
+			if (!written) {
+				versions.unpublishNeuron(_object.getId());
+			}
+			versions.endCommit();
+		}
+	}
+	
+	/**
+	 * Write the current state of _object to its file through
+	 * {@link Neuron#journal()}.
+	 * @param _object
+	 */
+	protected void write(Neuron _object) {
+		try {
+			this.write(_object, this.encode(_object));
+		} catch (IOException e) {
+			throw new StorageException("Could not write " + _object.getPath(), e);
+		}
+	}
+	
+	/**
+	 * Returns the data {@link NeuronManager#write(Neuron)} stores for
+	 * _object. May be called for different Neurons on many threads at
+	 * once, so it must not change anything.
+	 * @param _object
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] encode(Neuron _object) throws IOException {
+		return JSONUtils.encodeJSON(_object.jsonify(), 0);
+	}
+	
+	/**
+	 * Store _data, returned by {@link NeuronManager#encode(Neuron)}, as
+	 * the data for _object.
+	 * @param _object
+	 * @param _data
+	 * @throws IOException
+	 */
+	protected void write(Neuron _object, byte[] _data) throws IOException {
+		Neuron.journal().write(new File(_object.getPath()), _data);
+	}
+
+	/**
+	 * Removes this Neuron from memory. First, this will delete all of the
+	 * NeuralPathway objects that are contained in this Neuron and every
+	 * pathway in another Neuron's axon that leads to it, found through
+	 * {@link Neuron#incoming()}. Then the actual Neuron file will be deleted.
+	 * </p>
+	 * <p>
+	 * NOTE: This method calls the delete method on _object.
+	 * </p>
+	 * <p>
+	 * Inside a {@link UnitOfWork} the delete is buffered like a save
+	 * and true is returned.
+	 * </p>
+	 * @see com.ianmann.utils.storage.StorageManageable#delete(java.lang.Object)
+	 */
+	@Override
+	public boolean delete(Neuron _object) {
+		Neuron.cache.invalidate(_object.getId());
+		Neuron.inheritedAttributes.invalidate(_object.getId());
+		this.begin();
+		try {
+			for (int i = 0; i < _object.axon.size(); i++) {
+				for (int j = _object.axon.get(i).size() - 1; j >= 0; j--) {
+					_object.removeNeuralPathway(i, j);
+				}
+			}
+			this.removeIncoming(_object.getId());
+		} finally {
+			this.commit();
+		}
+		UnitOfWork unit = UnitOfWork.current();
+		if (unit != null) {
+			unit.put(NeuronManager.pendingKey(_object.getId()), new PendingDelete(this, _object));
+			return true;
+		}
+		return this.erase(_object);
+	}
+	
+	/**
+	 * Remove every pathway that leads to the Neuron with _id from the
+	 * axon it is in.
+	 * @param _id
+	 * @throws StorageException if the incoming index could not be read
+	 * or changed.
+	 */
+	private void removeIncoming(long _id) {
+		try {
+			long[] pathwayIds = Neuron.incoming().getPathwayIds(_id);
+			long[] senderIds = Neuron.incoming().getSenderIds(_id);
+			for (int k = 0; k < pathwayIds.length; k++) {
+				try {
+					Neuron.fromStorage(senderIds[k]).removeNeuralPathway(pathwayIds[k]);
+				} catch (FileNotFoundException e) {
+					// The sender was deleted without its pathways.
+				}
+			}
+			Neuron.incoming().removeAll(_id);
+		} catch (IOException | ParseException e) {
+			throw new StorageException("Could not remove the pathways that lead to the Neuron with id " + _id, e);
+		}
+	}
+	
+	/**
+	 * Remove _object from storage and from the index. If it could not be
+	 * removed, the delete published for it is taken back.
+	 * @param _object
+	 * @return
+	 * @throws StorageException if _object could not be removed or taken
+	 * out of the index.
+	 */
+	private boolean erase(Neuron _object) {
+		VersionStore versions = Neuron.versions();
+		versions.beginCommit();
+		boolean removed = false;
+		try {
+			versions.publishNeuron(_object.getId(), null);
+			if (!this.remove(_object)) {
+				return false;
+			}
+			removed = true;
+			_object.setStored(null);
+			Neuron.index().remove(_object.getId());
+			NeuronIndex.uncategorize(_object);
+		} catch (IOException | ParseException e) {
+			throw new StorageException("Could not take " + _object.getPath() + " out of the index", e);
+		} finally {
+			if (!removed) {
+				versions.unpublishNeuron(_object.getId());
+			}
+			versions.endCommit();
+		}
+		return true;
+	}
+	
+	/**
+	 * Remove the data stored for _object.
+	 * @param _object
+	 * @return
+	 * true - if anything was stored for _object. <br>
+	 * false - if there was nothing to remove.
+	 * @throws StorageException if it could not be removed.
+	 */
+	protected boolean remove(Neuron _object) {
+		try {
+			return Neuron.journal().delete(new File(_object.getPath()));
+		} catch (IOException e) {
+			throw new StorageException("Could not delete " + _object.getPath(), e);
+		}
+	}
+	
+	/**
+	 * Read the data stored for _object into its attributes.
+	 * @param _object
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
+	public void load(Neuron _object) throws FileNotFoundException, ParseException {
+		if (this.usesJournal()) {
+			NeuronManager.replayJournal();
+		}
+		JSONReader reader = new JSONReader(this.open(_object));
+		try {
+			_object.loadAttributes(reader);
+		} catch (FileNotFoundException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new FileNotFoundException(e.getMessage());
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				// Nothing was written so there is nothing to lose.
+			}
+		}
+	}
+	
+	/**
+	 * Open the json stored for _object.
+	 * @param _object
+	 * @return
+	 * @throws FileNotFoundException
+	 */
+	protected Reader open(Neuron _object) throws FileNotFoundException {
+		return new InputStreamReader(new FileInputStream(_object), StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * If the {@link UnitOfWork} open on this thread has a change for
+	 * _object that has not been written yet, load _object from it.
+	 * @param _object
+	 * @return
+	 * true - if _object was loaded from a buffered save. <br>
+	 * false - if _object should be loaded from storage.
+	 * @throws FileNotFoundException if _object has a buffered delete.
+	 * @throws ParseException
+	 */
+	static boolean loadPending(Neuron _object) throws FileNotFoundException, ParseException {
+		UnitOfWork unit = UnitOfWork.current();
+		if (unit == null) {
+			return false;
+		}
+		UnitOfWork.Operation pending = unit.get(NeuronManager.pendingKey(_object.getId()));
+		if (pending instanceof PendingDelete) {
+			throw new FileNotFoundException(_object.getPath() + " has been deleted.");
+		}
+		if (!(pending instanceof PendingSave)) {
+			return false;
+		}
+		Neuron saved = ((PendingSave) pending).neuron;
+		if (saved != _object) {
+			try {
+				_object.loadAttributes(new JSONReader(new StringReader(saved.jsonify().toJSONString())));
+			} catch (IOException e) {
+				throw new FileNotFoundException(e.getMessage());
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the type of the Neuron with _id as buffered in the
+	 * {@link UnitOfWork} open on this thread.
+	 * @param _id
+	 * @return The type of the buffered save, {@link NeuronIndex#NOT_INDEXED}
+	 * if the Neuron has a buffered delete, or null if nothing is buffered
+	 * for it.
+	 */
+	static Integer pendingType(long _id) {
+		UnitOfWork unit = UnitOfWork.current();
+		if (unit == null) {
+			return null;
+		}
+		UnitOfWork.Operation pending = unit.get(NeuronManager.pendingKey(_id));
+		if (pending instanceof PendingDelete) {
+			return NeuronIndex.NOT_INDEXED;
+		}
+		if (pending instanceof PendingSave) {
+			return ((PendingSave) pending).neuron.getType();
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the key that changes to the Neuron with _id are buffered
+	 * under in a {@link UnitOfWork}.
+	 * @param _id
+	 * @return
+	 */
+	private static String pendingKey(long _id) {
+		return "neuron/" + _id;
+	}
+	
+	/**
+	 * Save of a Neuron buffered in a {@link UnitOfWork}.
+	 */
+	private static class PendingSave implements UnitOfWork.Operation {
+		
+		private final NeuronManager manager;
+		private final Neuron neuron;
+		
+		/**
+		 * Data the Neuron was already encoded as, or null.
+		 */
+		private final byte[] data;
+		
+		PendingSave(NeuronManager _manager, Neuron _neuron) {
+			this(_manager, _neuron, null);
+		}
+		
+		PendingSave(NeuronManager _manager, Neuron _neuron, byte[] _data) {
+			this.manager = _manager;
+			this.neuron = _neuron;
+			this.data = _data;
+		}
+		
+		@Override
+		public void apply() {
+			if (this.data == null) {
+				this.manager.store(this.neuron);
+			} else {
+				this.manager.storeEncoded(this.neuron, this.data);
+			}
+		}
+	}
+	
+	/**
+	 * Delete of a Neuron buffered in a {@link UnitOfWork}.
+	 */
+	private static class PendingDelete implements UnitOfWork.Operation {
+		
+		private final NeuronManager manager;
+		private final Neuron neuron;
+		
+		PendingDelete(NeuronManager _manager, Neuron _neuron) {
+			this.manager = _manager;
+			this.neuron = _neuron;
+		}
+		
+		@Override
+		public void apply() {
+			this.manager.erase(this.neuron);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns every Neuron that matches all of _params, looked up in
+	 * {@link Neuron#index()}. The parameters can be:
+	 * </p>
+	 * <p>
+	 * {@code "type"}: a {@link NeuronType} code.<br>
+	 * {@code "associatedMorpheme"}: the morpheme, or null for Neurons without one.<br>
+	 * {@code "category"}: a category path such as "being", which matches Neurons
+	 * in that category or any category below it.
+	 * </p>
+	 * @see com.ianmann.utils.storage.StorageManageable#get(java.util.HashMap)
+	 */
+	@Override
+	public ArrayList<Neuron> get(HashMap<String, Object> _params) {
+		try {
+			return this.fromStorage(Neuron.index().find(_params));
+		} catch (IOException | ParseException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/** 
+	 * Returns every stored Neuron.
+	 * @see com.ianmann.utils.storage.StorageManageable#getAll()
+	 */
+	@Override
+	public ArrayList<Neuron> getAll() {
+		try {
+			return this.fromStorage(Neuron.index().getAll());
+		} catch (IOException | ParseException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the loaded Neurons with the ids in _ids. Ids of Neurons
+	 * that are no longer stored are skipped.
+	 * @param _ids
+	 * @return
+	 * @throws ParseException
+	 */
+	private ArrayList<Neuron> fromStorage(ArrayList<Long> _ids) throws ParseException {
+		ArrayList<Neuron> neurons = new ArrayList<Neuron>(_ids.size());
+		for (long id : _ids) {
+			try {
+				neurons.add(Neuron.fromStorage(id));
+			} catch (FileNotFoundException e) {
+				// Deleted since it was indexed.
+			}
+		}
+		return neurons;
+	}
+	
+}
@@ -0,0 +1,459 @@
+package com.ianmann.mind;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.json.simple.parser.ParseException;
+
+/**
+ * <p>
+ * Fixed-width binary layout of a Neuron file. Records are small, so the
+ * whole file is read into a heap buffer with one open and one read, and
+ * looking up the type or a single pathway of a Neuron only decodes the
+ * few bytes that hold it.
+ * </p>
+ * <p>
+ * Layout:<br>
+ * {@code [magic:int][version:short][reserved:short][type:int][groupCount:int][morphemeLength:int]}<br>
+ * {@code groupCount x [firstPathway:int][pathwayCount:int]}<br>
+ * {@code pathwayCount x [pathwayId:long]}<br>
+ * {@code [morpheme:utf-8]}
+ * </p>
+ * <p>
+ * In a version {@value #VERSION} record pathways are stored as their id
+ * and the rest of each pathway is in its own file. A version
+ * {@value #INLINE_VERSION} record holds the whole pathway instead:<br>
+ * {@code pathwayCount x [pathwayId:long][recieverId:long][connectionSize:double]}<br>
+ * so binding the Neuron loads its entire axon in one read. A morpheme
+ * length of -1 means the Neuron has no associated morpheme.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+class NeuronRecord {
+
+	/**
+	 * First four bytes of every binary Neuron file ("NRNB").
+	 */
+	static final int MAGIC = 0x4E524E42;
+
+	/**
+	 * Version of the layout written by {@link NeuronRecord#encode(Neuron)}.
+	 */
+	static final short VERSION = 1;
+
+	/**
+	 * Version of the layout written by {@link NeuronRecord#encodeInline(Neuron, NeuronRecord)}.
+	 */
+	static final short INLINE_VERSION = 2;
+
+	static final int HEADER_SIZE = 20;
+	static final int GROUP_ENTRY_SIZE = 8;
+	static final int PATHWAY_ENTRY_SIZE = 8;
+	static final int INLINE_PATHWAY_ENTRY_SIZE = 8 + 8 + 8;
+
+	private static final int VERSION_OFFSET = 4;
+	private static final int TYPE_OFFSET = 8;
+	private static final int GROUP_COUNT_OFFSET = 12;
+	private static final int MORPHEME_LENGTH_OFFSET = 16;
+
+	/**
+	 * The contents of the Neuron file.
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Read the record in _contents.
+	 * @param _contents
+	 */
+	private NeuronRecord(byte[] _contents) {
+		this.buffer = ByteBuffer.wrap(_contents);
+	}
+
+	/**
+	 * Read the binary Neuron stored at _neuronFile. Only the first four
+	 * bytes of a file that is not a record, such as a json Neuron that
+	 * has not been converted yet, are read.
+	 * @param _neuronFile
+	 * @return The record, or null if the file is not a binary Neuron.
+	 * @throws FileNotFoundException if the file does not exist.
+	 * @throws IOException
+	 */
+	static NeuronRecord read(File _neuronFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(_neuronFile, "r");
+		try {
+			long length = file.length();
+			if (length < HEADER_SIZE || length > Integer.MAX_VALUE || file.readInt() != MAGIC) {
+				return null;
+			}
+			byte[] contents = new byte[(int) length];
+			ByteBuffer.wrap(contents).putInt(MAGIC);
+			file.readFully(contents, 4, contents.length - 4);
+			return new NeuronRecord(contents);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Read the binary Neuron in _contents, which have not been written
+	 * to its file yet.
+	 * @param _contents
+	 * @return
+	 * @throws FileNotFoundException if _contents are not a binary Neuron.
+	 */
+	static NeuronRecord wrap(byte[] _contents) throws FileNotFoundException {
+		NeuronRecord record = new NeuronRecord(_contents);
+		if (_contents.length < HEADER_SIZE || record.buffer.getInt(0) != MAGIC) {
+			throw new FileNotFoundException("Not a binary neuron record.");
+		}
+		return record;
+	}
+
+	/**
+	 * Returns the version of the layout this record was written in.
+	 * @return
+	 */
+	short getVersion() {
+		return this.buffer.getShort(VERSION_OFFSET);
+	}
+
+	/**
+	 * Returns whether the pathways are stored in this record instead of
+	 * in their own files.
+	 * @return
+	 */
+	boolean isInline() {
+		return this.getVersion() == INLINE_VERSION;
+	}
+
+	/**
+	 * Returns the {@link com.ianmann.mind.storage.organization.NeuronType} code stored in this record.
+	 * @return
+	 */
+	int getType() {
+		return this.buffer.getInt(TYPE_OFFSET);
+	}
+
+	/**
+	 * Returns the number of dendrite groups in the axon.
+	 * @return
+	 */
+	int getDendriteGroupCount() {
+		return this.buffer.getInt(GROUP_COUNT_OFFSET);
+	}
+
+	/**
+	 * Returns the number of pathways in the dendrite group at _group.
+	 * @param _group
+	 * @return
+	 */
+	int getPathwayCount(int _group) {
+		return this.buffer.getInt(HEADER_SIZE + _group * GROUP_ENTRY_SIZE + 4);
+	}
+
+	/**
+	 * Returns the id of the pathway at _index in the dendrite group at _group.
+	 * @param _group
+	 * @param _index
+	 * @return
+	 */
+	long getPathwayId(int _group, int _index) {
+		return this.buffer.getLong(this.entryOffset(_group, _index));
+	}
+
+	/**
+	 * Returns the id of the Neuron that the pathway at _index in the
+	 * dendrite group at _group leads to. Only inline records hold it.
+	 * @param _group
+	 * @param _index
+	 * @return
+	 */
+	long getRecieverId(int _group, int _index) {
+		return this.buffer.getLong(this.entryOffset(_group, _index) + 8);
+	}
+
+	/**
+	 * Returns the stored connection size of the pathway at _index in the
+	 * dendrite group at _group. Only inline records hold it.
+	 * @param _group
+	 * @param _index
+	 * @return
+	 */
+	double getConnectionSize(int _group, int _index) {
+		return this.buffer.getDouble(this.entryOffset(_group, _index) + 16);
+	}
+
+	/**
+	 * Load the receiver and connection size stored inline for _pathway
+	 * into it.
+	 * @param _pathway
+	 * @return
+	 * true - if this record holds _pathway inline. <br>
+	 * false - if it does not.
+	 */
+	boolean loadPathway(NeuralPathway _pathway) {
+		int offset = this.entryOffset(_pathway.getId());
+		if (offset < 0) {
+			return false;
+		}
+		_pathway.loadAttributes(this.buffer.getLong(offset + 8), this.buffer.getDouble(offset + 16));
+		return true;
+	}
+
+	/**
+	 * Returns a copy of this record with _connectionSize stored for the
+	 * pathway with _pathwayId, or null if this record does not hold that
+	 * pathway inline.
+	 * @param _pathwayId
+	 * @param _connectionSize
+	 * @return
+	 */
+	byte[] withConnectionSize(long _pathwayId, double _connectionSize) {
+		int offset = this.entryOffset(_pathwayId);
+		if (offset < 0) {
+			return null;
+		}
+		byte[] contents = new byte[this.buffer.capacity()];
+		ByteBuffer view = this.buffer.duplicate();
+		view.clear();
+		view.get(contents);
+		ByteBuffer.wrap(contents).putDouble(offset + 16, _connectionSize);
+		return contents;
+	}
+
+	/**
+	 * Returns the morpheme associated with the Neuron or null if it has none.
+	 * @return
+	 */
+	String getAssociatedMorpheme() {
+		int length = this.buffer.getInt(MORPHEME_LENGTH_OFFSET);
+		if (length < 0) {
+			return null;
+		}
+		byte[] morpheme = new byte[length];
+		ByteBuffer view = this.buffer.duplicate();
+		view.position(this.morphemeOffset());
+		view.get(morpheme);
+		return new String(morpheme, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Set the attributes of _neuron from this record, which was read
+	 * after {@link SynapseWriteBehind#generation()} returned _generation.
+	 * @param _neuron
+	 * @param _generation
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
+	void bind(Neuron _neuron, long _generation) throws FileNotFoundException, ParseException {
+		_neuron.type = this.getType();
+		_neuron.associatedMorpheme = this.getAssociatedMorpheme();
+
+		boolean inline = this.isInline();
+		_neuron.axon = new ArrayList<ArrayList<NeuralPathway>>();
+		for (int i = 0; i < this.getDendriteGroupCount(); i++) {
+			int count = this.getPathwayCount(i);
+			ArrayList<NeuralPathway> group = new ArrayList<NeuralPathway>(count);
+			for (int j = 0; j < count; j++) {
+				NeuralPathway pathway = _neuron.pathway(this.getPathwayId(i, j));
+				if (inline && !pathway.isLoaded()) {
+					// A loaded handle may hold changes that are newer than this record.
+					Double size = NeuralPathway.writeBehind.connectionSize(pathway.getId(), this.getConnectionSize(i, j), _generation);
+					if (size == null) {
+						// A flush finished since this record was read.
+						pathway.loadAttributes();
+					} else {
+						pathway.loadAttributes(this.getRecieverId(i, j), size);
+					}
+				}
+				group.add(pathway);
+			}
+			_neuron.axon.add(group);
+		}
+	}
+
+	/**
+	 * Returns the stored connection size of every pathway held inline
+	 * in this record by the pathway's id.
+	 * @return
+	 */
+	private HashMap<Long, Double> connectionSizes() {
+		HashMap<Long, Double> sizes = new HashMap<Long, Double>();
+		if (!this.isInline()) {
+			return sizes;
+		}
+		for (int i = 0; i < this.getDendriteGroupCount(); i++) {
+			for (int j = 0; j < this.getPathwayCount(i); j++) {
+				sizes.put(this.getPathwayId(i, j), this.getConnectionSize(i, j));
+			}
+		}
+		return sizes;
+	}
+
+	/**
+	 * Position of the first pathway id.
+	 * @return
+	 */
+	private int pathwaysOffset() {
+		return HEADER_SIZE + this.getDendriteGroupCount() * GROUP_ENTRY_SIZE;
+	}
+
+	/**
+	 * Size of each pathway entry in this record.
+	 * @return
+	 */
+	private int entrySize() {
+		return this.isInline() ? INLINE_PATHWAY_ENTRY_SIZE : PATHWAY_ENTRY_SIZE;
+	}
+
+	/**
+	 * Position of the entry of the pathway at _index in the dendrite group at _group.
+	 * @param _group
+	 * @param _index
+	 * @return
+	 */
+	private int entryOffset(int _group, int _index) {
+		int first = this.buffer.getInt(HEADER_SIZE + _group * GROUP_ENTRY_SIZE);
+		return this.pathwaysOffset() + (first + _index) * this.entrySize();
+	}
+
+	/**
+	 * Position of the inline entry of the pathway with _pathwayId or -1
+	 * if this record does not hold it inline.
+	 * @param _pathwayId
+	 * @return
+	 */
+	private int entryOffset(long _pathwayId) {
+		if (!this.isInline()) {
+			return -1;
+		}
+		for (int i = 0; i < this.getDendriteGroupCount(); i++) {
+			for (int j = 0; j < this.getPathwayCount(i); j++) {
+				int offset = this.entryOffset(i, j);
+				if (this.buffer.getLong(offset) == _pathwayId) {
+					return offset;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Position of the first byte of the morpheme.
+	 * @return
+	 */
+	private int morphemeOffset() {
+		int groups = this.getDendriteGroupCount();
+		int pathways = 0;
+		if (groups > 0) {
+			pathways = this.buffer.getInt(HEADER_SIZE + (groups - 1) * GROUP_ENTRY_SIZE)
+					+ this.getPathwayCount(groups - 1);
+		}
+		return this.pathwaysOffset() + pathways * this.entrySize();
+	}
+
+	/**
+	 * Encode _neuron in the binary layout.
+	 * @param _neuron
+	 * @return
+	 */
+	static byte[] encode(Neuron _neuron) {
+		return NeuronRecord.encode(_neuron, VERSION, null, null);
+	}
+
+	/**
+	 * Encode _neuron in the inline layout. Pathways that _previous holds
+	 * keep the connection size stored there, since the size of a loaded
+	 * pathway includes changes {@link NeuralPathway#writeBehind} has not
+	 * written yet. Other pathways are stored with their size less those changes.
+	 * @param _neuron
+	 * @param _previous The record _neuron is stored in now or null.
+	 * @return
+	 * @throws IOException if a pathway that is not held inline yet could not be loaded.
+	 */
+	static byte[] encodeInline(Neuron _neuron, NeuronRecord _previous) throws IOException {
+		HashMap<Long, Double> stored = _previous == null ? new HashMap<Long, Double>() : _previous.connectionSizes();
+		ArrayList<Long> recievers = new ArrayList<Long>();
+		ArrayList<Double> sizes = new ArrayList<Double>();
+		for (ArrayList<NeuralPathway> group : _neuron.axon) {
+			for (NeuralPathway pathway : group) {
+				try {
+					recievers.add(pathway.getRecieverId());
+				} catch (ParseException e) {
+					throw new IOException(e.getMessage());
+				}
+				Double size = stored.get(pathway.getId());
+				if (size == null) {
+					size = pathway.getConnectionSize() - NeuralPathway.writeBehind.pendingDelta(pathway.getId());
+				}
+				sizes.add(size);
+			}
+		}
+		return NeuronRecord.encode(_neuron, INLINE_VERSION, recievers, sizes);
+	}
+
+	/**
+	 * Encode _neuron in the layout of _version. _recievers and
+	 * _connectionSizes hold the inline attributes of each pathway in
+	 * axon order and are only used by {@link NeuronRecord#INLINE_VERSION}.
+	 * @param _neuron
+	 * @param _version
+	 * @param _recievers
+	 * @param _connectionSizes
+	 * @return
+	 */
+	private static byte[] encode(Neuron _neuron, short _version, ArrayList<Long> _recievers, ArrayList<Double> _connectionSizes) {
+		byte[] morpheme = null;
+		if (_neuron.associatedMorpheme != null) {
+			morpheme = _neuron.associatedMorpheme.getBytes(StandardCharsets.UTF_8);
+		}
+
+		int pathways = 0;
+		for (ArrayList<NeuralPathway> group : _neuron.axon) {
+			pathways += group.size();
+		}
+		boolean inline = _version == INLINE_VERSION;
+
+		ByteBuffer record = ByteBuffer.allocate(
+				HEADER_SIZE
+				+ _neuron.axon.size() * GROUP_ENTRY_SIZE
+				+ pathways * (inline ? INLINE_PATHWAY_ENTRY_SIZE : PATHWAY_ENTRY_SIZE)
+				+ (morpheme == null ? 0 : morpheme.length)
+		);
+		record.putInt(MAGIC);
+		record.putShort(_version);
+		record.putShort((short) 0);
+		record.putInt(_neuron.type);
+		record.putInt(_neuron.axon.size());
+		record.putInt(morpheme == null ? -1 : morpheme.length);
+
+		int first = 0;
+		for (ArrayList<NeuralPathway> group : _neuron.axon) {
+			record.putInt(first);
+			record.putInt(group.size());
+			first += group.size();
+		}
+		int k = 0;
+		for (ArrayList<NeuralPathway> group : _neuron.axon) {
+			for (NeuralPathway pathway : group) {
+				record.putLong(pathway.getId());
+				if (inline) {
+					record.putLong(_recievers.get(k));
+					record.putDouble(_connectionSizes.get(k));
+				}
+				k++;
+			}
+		}
+		if (morpheme != null) {
+			record.put(morpheme);
+		}
+		return record.array();
+	}
+}
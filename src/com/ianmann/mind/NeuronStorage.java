@@ -0,0 +1,92 @@
+package com.ianmann.mind;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.utils.storage.StorageManageable;
+
+/**
+ * <p>
+ * Where Neurons are stored. Returned by
+ * {@link StorageEngine#createNeuronStorage()} and kept in
+ * {@link Neuron#storage} while its engine is in use.
+ * </p>
+ * <p>
+ * Besides the CRUD operations of {@link StorageManageable} the mind
+ * needs to read a Neuron into an instance it already has, tell whether
+ * an id is stored without reading it and list every stored id when ids
+ * and labels are checked on open.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public interface NeuronStorage extends StorageManageable<Neuron> {
+
+	/**
+	 * Read the data stored for _object into its attributes.
+	 * @param _object
+	 * @throws FileNotFoundException if nothing is stored for _object.
+	 * @throws ParseException
+	 */
+	public void load(Neuron _object) throws FileNotFoundException, ParseException;
+
+	/**
+	 * Returns whether the Neuron with _id is stored, counting a save or
+	 * delete of it buffered in the unit of work open on this thread.
+	 * Nothing is read.
+	 * @param _id
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean isStored(long _id) throws IOException;
+
+	/**
+	 * Returns the id of every Neuron stored and adds the path of every
+	 * labeled Neuron with no recorded id to _unrecorded.
+	 * @param _unrecorded
+	 * @return
+	 * @throws IOException
+	 */
+	public ArrayList<Long> listIds(ArrayList<String> _unrecorded) throws IOException;
+
+	/**
+	 * Returns the data stored for _object. May be called for different
+	 * Neurons on many threads at once, so it must not change anything.
+	 * @param _object
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] encode(Neuron _object) throws IOException;
+
+	/**
+	 * Store _object, already encoded as _data by
+	 * {@link NeuronStorage#encode(Neuron)}, without recording it in the
+	 * index. Inside a unit of work the write is buffered like a save.
+	 * @param _object
+	 * @param _data
+	 */
+	public void saveEncoded(Neuron _object, byte[] _data);
+
+	/**
+	 * Returns whether Neurons are written through {@link Neuron#journal()}.
+	 * @return
+	 */
+	public boolean usesJournal();
+
+	/**
+	 * Make everything stored so far durable. Called when a unit of work
+	 * is committed.
+	 * @throws IOException
+	 */
+	public void sync() throws IOException;
+
+	/**
+	 * Close anything kept open. Called by {@link StorageEngine} when it
+	 * stops using this storage.
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+}
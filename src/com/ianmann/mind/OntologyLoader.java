@@ -0,0 +1,619 @@
+package com.ianmann.mind;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.core.Constants;
+import com.ianmann.mind.storage.organization.NeuronType;
+import com.ianmann.utils.utilities.JSONReader;
+
+/**
+ * <p>
+ * Seeds a mind with the entity structures, attribute structures and
+ * descriptions of an ontology described in one json file. Creating them
+ * one at a time with {@code EntityStructure.create} and
+ * {@code addAttribute} writes every Neuron and pathway on its own and
+ * parses the network again after each change. This writes the same
+ * Neurons and pathways with none of that:
+ * </p>
+ * <ol>
+ * <li>The file is read and every label is resolved, either to another
+ * definition in the file or to a Neuron already stored with that
+ * morpheme and type. Nothing is written if a label can not be resolved.</li>
+ * <li>Ids for every Neuron and every pathway are taken from the
+ * {@link com.ianmann.utils.storage.IdAllocator}s in one block each.</li>
+ * <li>Neurons and pathways are built and encoded for the
+ * {@link StorageEngine} in use on a {@link ForkJoinPool}.</li>
+ * <li>The encoded records are written on one thread, {@link OntologyLoader#batchSize}
+ * Neurons to a unit of work, so each batch costs one sync of the journal.</li>
+ * <li>{@link Neuron#index()} and {@link Neuron#incoming()} are updated
+ * for everything written and synced once.</li>
+ * </ol>
+ * <p>
+ * The file holds three lists. Labels become the associated morpheme of
+ * the Neuron, which is how definitions refer to each other and to
+ * Neurons already in the mind:
+ * </p>
+ * <pre>
+ * {
+ *     "attributes": [
+ *         {"label": "color"},
+ *         {"label": "eye color", "parent": "color"}
+ *     ],
+ *     "descriptions": [
+ *         {"label": "red", "attribute": "color"}
+ *     ],
+ *     "entities": [
+ *         {"label": "animal", "attributes": ["color"]},
+ *         {"label": "dog", "parent": "animal", "attributes": ["eye color"]}
+ *     ]
+ * }
+ * </pre>
+ * <p>
+ * Every Neuron written has two dendrite groups. {@link OntologyLoader#NETWORK_GROUP}
+ * holds an entity's attributes, an attribute's descriptions or a
+ * description's attribute, and {@link OntologyLoader#PARENT_GROUP} holds
+ * the pathway to the parent structure if there is one. Neurons are
+ * stored under their id rather than their label, so they are found by
+ * morpheme through {@link NeuronManager#get(HashMap)}.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class OntologyLoader {
+
+	/**
+	 * Number of Neurons written in each unit of work.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+
+	/**
+	 * Number of definitions each task builds before it stops splitting.
+	 */
+	public static final int DEFAULT_THRESHOLD = 64;
+
+	public static final int NETWORK_GROUP = 0;
+	public static final int PARENT_GROUP = 1;
+
+	/*
+	 * Keys of the lists in the input file.
+	 */
+	public static final String ENTITIES = "entities";
+	public static final String ATTRIBUTES = "attributes";
+	public static final String DESCRIPTIONS = "descriptions";
+
+	/**
+	 * One entity, attribute or description read from the input file.
+	 */
+	private static class Definition {
+
+		final int type;
+		String label;
+		String parent;
+
+		/**
+		 * Labels of an entity's attributes or a description's attribute.
+		 */
+		ArrayList<String> links = new ArrayList<String>();
+
+		long id;
+		long parentId = -1;
+
+		/**
+		 * Ids of the Neurons the pathways in {@link OntologyLoader#NETWORK_GROUP} lead to.
+		 */
+		ArrayList<Long> network = new ArrayList<Long>();
+
+		long firstPathwayId;
+
+		Neuron neuron;
+		byte[] data;
+
+		/**
+		 * Encoded pathways in the order they are in the axon, or null if
+		 * pathways are stored with their Neuron.
+		 */
+		byte[][] pathwayData;
+
+		Definition(int _type) {
+			this.type = _type;
+		}
+
+		int pathwayCount() {
+			return this.network.size() + (this.parentId < 0 ? 0 : 1);
+		}
+	}
+
+	private ForkJoinPool pool;
+
+	/**
+	 * Number of Neurons written in each unit of work.
+	 */
+	private int batchSize;
+
+	/**
+	 * Ids of stored Neurons found by label during the current load.
+	 */
+	private HashMap<String, Long> stored;
+
+	/**
+	 * Creates a loader that builds on every available processor and writes
+	 * {@link OntologyLoader#DEFAULT_BATCH_SIZE} Neurons at a time.
+	 */
+	public OntologyLoader() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Creates a loader that builds on _parallelism threads and writes
+	 * _batchSize Neurons at a time.
+	 * @param _parallelism
+	 * @param _batchSize
+	 */
+	public OntologyLoader(int _parallelism, int _batchSize) {
+		this.pool = new ForkJoinPool(_parallelism);
+		this.batchSize = _batchSize;
+	}
+
+	/**
+	 * Load every definition in _file.
+	 * @param _file
+	 * @return The id of the Neuron written for each labeled definition, by label.
+	 * @throws IOException
+	 * @throws ParseException if _file is not valid json.
+	 * @throws IllegalArgumentException if a definition is not valid or
+	 * a label can not be resolved. Nothing has been written.
+	 */
+	public synchronized LinkedHashMap<String, Long> load(File _file) throws IOException, ParseException {
+		this.stored = new HashMap<String, Long>();
+		ArrayList<Definition> definitions = OntologyLoader.read(_file);
+
+		LinkedHashMap<String, Definition> byLabel = new LinkedHashMap<String, Definition>();
+		for (Definition definition : definitions) {
+			if (definition.label != null && byLabel.put(definition.label, definition) != null) {
+				throw new IllegalArgumentException(definition.label + " is defined more than once.");
+			}
+		}
+
+		long firstNeuronId = definitions.isEmpty() ? 0 : StorageIds.newNeuronIds(definitions.size());
+		for (int i = 0; i < definitions.size(); i++) {
+			definitions.get(i).id = firstNeuronId + i;
+		}
+		LinkedHashMap<Long, ArrayList<Long>> possibilities = this.resolve(definitions, byLabel);
+
+		long pathwayCount = 0;
+		for (Definition definition : definitions) {
+			pathwayCount += definition.pathwayCount();
+		}
+		for (ArrayList<Long> descriptions : possibilities.values()) {
+			pathwayCount += descriptions.size();
+		}
+		long nextPathwayId = pathwayCount == 0 ? 0 : StorageIds.newPathwayIds(pathwayCount);
+		for (Definition definition : definitions) {
+			definition.firstPathwayId = nextPathwayId;
+			nextPathwayId += definition.pathwayCount();
+		}
+
+		this.build(definitions);
+		this.write(definitions);
+		this.addPossibilities(possibilities, nextPathwayId);
+		OntologyLoader.index(definitions);
+
+		LinkedHashMap<String, Long> ids = new LinkedHashMap<String, Long>();
+		for (Entry<String, Definition> definition : byLabel.entrySet()) {
+			ids.put(definition.getKey(), definition.getValue().id);
+		}
+		return ids;
+	}
+
+	/**
+	 * Stop the threads definitions are built on.
+	 */
+	public void close() {
+		this.pool.shutdown();
+	}
+
+	/**
+	 * Resolve the parent and links of every definition in _definitions to ids.
+	 * @param _definitions
+	 * @param _byLabel
+	 * @return The ids of the descriptions in _definitions that are
+	 * possibilities of each attribute already stored.
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private LinkedHashMap<Long, ArrayList<Long>> resolve(ArrayList<Definition> _definitions, HashMap<String, Definition> _byLabel) throws IOException, ParseException {
+		LinkedHashMap<Long, ArrayList<Long>> possibilities = new LinkedHashMap<Long, ArrayList<Long>>();
+		for (Definition definition : _definitions) {
+			if (definition.parent != null) {
+				definition.parentId = this.resolve(definition.parent, _byLabel, definition.type);
+			}
+			if (definition.type == NeuronType.NOUN_DEFINITION) {
+				for (String link : definition.links) {
+					definition.network.add(this.resolve(link, _byLabel, NeuronType.ATTRIBUTE, NeuronType.NOUN_DEFINITION));
+				}
+			} else if (definition.type == NeuronType.DESCRIPTION) {
+				if (definition.links.isEmpty()) {
+					throw new IllegalArgumentException("Description " + definition.label + " has no attribute.");
+				}
+				String label = definition.links.get(0);
+				long attributeId = this.resolve(label, _byLabel, NeuronType.ATTRIBUTE);
+				definition.network.add(attributeId);
+
+				// The attribute has a pathway back to each of its descriptions.
+				Definition attribute = _byLabel.get(label);
+				if (attribute != null) {
+					attribute.network.add(definition.id);
+				} else {
+					ArrayList<Long> descriptions = possibilities.get(attributeId);
+					if (descriptions == null) {
+						descriptions = new ArrayList<Long>();
+						possibilities.put(attributeId, descriptions);
+					}
+					descriptions.add(definition.id);
+				}
+			}
+		}
+		return possibilities;
+	}
+
+	/**
+	 * Returns the id of the definition labeled _label in _byLabel, or of
+	 * the stored Neuron with _label as its morpheme, if it is one of _types.
+	 * @param _label
+	 * @param _byLabel
+	 * @param _types
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private long resolve(String _label, HashMap<String, Definition> _byLabel, int... _types) throws IOException, ParseException {
+		Definition definition = _byLabel.get(_label);
+		if (definition != null) {
+			for (int type : _types) {
+				if (definition.type == type) {
+					return definition.id;
+				}
+			}
+			throw new IllegalArgumentException(_label + " can not be used here because of its type.");
+		}
+
+		Long id = this.stored.get(_label);
+		if (id == null) {
+			for (int type : _types) {
+				HashMap<String, Object> params = new HashMap<String, Object>();
+				params.put(NeuronIndex.MORPHEME, _label);
+				params.put(NeuronIndex.TYPE, type);
+				ArrayList<Long> ids = Neuron.index().find(params);
+				if (ids.size() > 1) {
+					throw new IllegalArgumentException(ids.size() + " stored neurons are labeled " + _label + ".");
+				}
+				if (ids.size() == 1) {
+					id = ids.get(0);
+					break;
+				}
+			}
+			if (id == null) {
+				throw new IllegalArgumentException(_label + " is not defined or stored.");
+			}
+			this.stored.put(_label, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Build and encode the Neuron and pathways of every definition in
+	 * _definitions on {@link OntologyLoader#pool}.
+	 * @param _definitions
+	 * @throws IOException
+	 */
+	private void build(final ArrayList<Definition> _definitions) throws IOException {
+		final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+		this.pool.invoke(new Build(_definitions, 0, _definitions.size(), failure));
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+	}
+
+	/**
+	 * Build and encode the Neuron and pathways of _definition.
+	 * @param _definition
+	 * @throws IOException
+	 */
+	private static void build(Definition _definition) throws IOException {
+		Neuron neuron = new Neuron(StorageIds.neuronPath(_definition.id), _definition.type, _definition.label);
+		neuron.axon.add(new ArrayList<NeuralPathway>());
+		neuron.axon.add(new ArrayList<NeuralPathway>());
+
+		long pathwayId = _definition.firstPathwayId;
+		for (long recieverId : _definition.network) {
+			neuron.axon.get(NETWORK_GROUP).add(OntologyLoader.pathway(pathwayId++, recieverId));
+		}
+		if (_definition.parentId >= 0) {
+			neuron.axon.get(PARENT_GROUP).add(OntologyLoader.pathway(pathwayId++, _definition.parentId));
+		}
+
+		if (!NeuralPathway.storage.isStoredWithNeuron()) {
+			_definition.pathwayData = new byte[_definition.pathwayCount()][];
+			int i = 0;
+			for (ArrayList<NeuralPathway> dendriteGroup : neuron.axon) {
+				for (NeuralPathway pathway : dendriteGroup) {
+					_definition.pathwayData[i++] = NeuralPathway.storage.encode(pathway);
+				}
+			}
+		}
+		_definition.data = Neuron.storage.encode(neuron);
+		_definition.neuron = neuron;
+	}
+
+	/**
+	 * Returns a new pathway with _id that leads to the Neuron with _recieverId.
+	 * @param _id
+	 * @param _recieverId
+	 * @return
+	 */
+	private static NeuralPathway pathway(long _id, long _recieverId) {
+		NeuralPathway pathway;
+		try {
+			pathway = new NeuralPathway(_id, false);
+		} catch (IOException | ParseException e) {
+			// Nothing is read when the attributes are not loaded.
+			throw new IllegalStateException(e);
+		}
+		pathway.loadAttributes(_recieverId, NeuralPathway.INITIAL_CONNECTION_SIZE);
+		return pathway;
+	}
+
+	/**
+	 * Write the encoded Neurons and pathways of _definitions,
+	 * {@link OntologyLoader#batchSize} Neurons to a unit of work.
+	 * @param _definitions
+	 */
+	private void write(ArrayList<Definition> _definitions) {
+		for (int from = 0; from < _definitions.size(); from += this.batchSize) {
+			int to = Math.min(from + this.batchSize, _definitions.size());
+			Neuron.storage.begin();
+			try {
+				for (Definition definition : _definitions.subList(from, to)) {
+					if (definition.pathwayData != null) {
+						int i = 0;
+						for (ArrayList<NeuralPathway> dendriteGroup : definition.neuron.axon) {
+							for (NeuralPathway pathway : dendriteGroup) {
+								NeuralPathway.storage.saveEncoded(pathway, definition.pathwayData[i++]);
+							}
+						}
+					}
+					Neuron.storage.saveEncoded(definition.neuron, definition.data);
+					definition.data = null;
+					definition.pathwayData = null;
+				}
+			} finally {
+				Neuron.storage.commit();
+			}
+		}
+	}
+
+	/**
+	 * Give each stored attribute in _possibilities a pathway to each of
+	 * the new descriptions that are possibilities of it.
+	 * @param _possibilities
+	 * @param _firstPathwayId First of the ids set aside for the pathways.
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private void addPossibilities(LinkedHashMap<Long, ArrayList<Long>> _possibilities, long _firstPathwayId) throws IOException, ParseException {
+		if (_possibilities.isEmpty()) {
+			return;
+		}
+		long pathwayId = _firstPathwayId;
+		Neuron.storage.begin();
+		try {
+			for (Entry<Long, ArrayList<Long>> possibility : _possibilities.entrySet()) {
+				Neuron attribute = Neuron.fromStorage(possibility.getKey());
+				while (attribute.axon.size() <= NETWORK_GROUP) {
+					attribute.axon.add(new ArrayList<NeuralPathway>());
+				}
+				for (long descriptionId : possibility.getValue()) {
+					NeuralPathway pathway = OntologyLoader.pathway(pathwayId++, descriptionId);
+					attribute.axon.get(NETWORK_GROUP).add(pathway);
+					if (!NeuralPathway.storage.isStoredWithNeuron()) {
+						NeuralPathway.storage.saveEncoded(pathway, NeuralPathway.storage.encode(pathway));
+					}
+					Neuron.incoming().add(descriptionId, pathway.getId(), attribute.getId());
+				}
+				attribute.save();
+			}
+		} finally {
+			Neuron.storage.commit();
+		}
+	}
+
+	/**
+	 * Record every Neuron in _definitions in {@link Neuron#index()} and
+	 * {@link Neuron#categories()} and its pathways in
+	 * {@link Neuron#incoming()}, then sync both indexes.
+	 * @param _definitions
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private static void index(ArrayList<Definition> _definitions) throws IOException, ParseException {
+		HashMap<Long, ArrayList<Long>> incoming = new HashMap<Long, ArrayList<Long>>();
+		NeuronIndex index = Neuron.index();
+		for (Definition definition : _definitions) {
+			index.put(definition.neuron);
+			NeuronIndex.categorize(definition.neuron);
+			for (ArrayList<NeuralPathway> dendriteGroup : definition.neuron.axon) {
+				for (NeuralPathway pathway : dendriteGroup) {
+					long recieverId = pathway.getRecieverId();
+					ArrayList<Long> entries = incoming.get(recieverId);
+					if (entries == null) {
+						entries = new ArrayList<Long>();
+						incoming.put(recieverId, entries);
+					}
+					entries.add(pathway.getId());
+					entries.add(definition.id);
+				}
+			}
+		}
+		index.sync();
+
+		IncomingIndex incomingIndex = Neuron.incoming();
+		for (Entry<Long, ArrayList<Long>> record : incoming.entrySet()) {
+			ArrayList<Long> entries = record.getValue();
+			long[] pathwayIds = new long[entries.size() / 2];
+			long[] senderIds = new long[entries.size() / 2];
+			for (int i = 0; i < pathwayIds.length; i++) {
+				pathwayIds[i] = entries.get(2 * i);
+				senderIds[i] = entries.get(2 * i + 1);
+			}
+			incomingIndex.addAll(record.getKey(), pathwayIds, senderIds);
+		}
+		incomingIndex.sync();
+	}
+
+	/**
+	 * Read every definition in _file in the order they appear.
+	 * @param _file
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private static ArrayList<Definition> read(File _file) throws IOException, ParseException {
+		ArrayList<Definition> definitions = new ArrayList<Definition>();
+		JSONReader reader = new JSONReader(new InputStreamReader(new FileInputStream(_file), StandardCharsets.UTF_8));
+		try {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String key = reader.nextName();
+				int type;
+				if (key.equals(ENTITIES)) {
+					type = NeuronType.NOUN_DEFINITION;
+				} else if (key.equals(ATTRIBUTES)) {
+					type = NeuronType.ATTRIBUTE;
+				} else if (key.equals(DESCRIPTIONS)) {
+					type = NeuronType.DESCRIPTION;
+				} else {
+					reader.skipValue();
+					continue;
+				}
+				reader.beginArray();
+				while (reader.hasNext()) {
+					definitions.add(OntologyLoader.readDefinition(reader, type));
+				}
+				reader.endArray();
+			}
+			reader.endObject();
+		} finally {
+			reader.close();
+		}
+		return definitions;
+	}
+
+	/**
+	 * Read one definition of _type from _reader.
+	 * @param _reader
+	 * @param _type
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private static Definition readDefinition(JSONReader _reader, int _type) throws IOException, ParseException {
+		Definition definition = new Definition(_type);
+		_reader.beginObject();
+		while (_reader.hasNext()) {
+			String key = _reader.nextName();
+			if (key.equals("label")) {
+				definition.label = _reader.nextString();
+			} else if (key.equals("parent") && _type != NeuronType.DESCRIPTION) {
+				definition.parent = _reader.nextString();
+			} else if (key.equals("attribute") && _type == NeuronType.DESCRIPTION) {
+				definition.links.add(_reader.nextString());
+			} else if (key.equals("attributes") && _type == NeuronType.NOUN_DEFINITION) {
+				_reader.beginArray();
+				while (_reader.hasNext()) {
+					definition.links.add(_reader.nextString());
+				}
+				_reader.endArray();
+			} else {
+				_reader.skipValue();
+			}
+		}
+		_reader.endObject();
+		return definition;
+	}
+
+	/**
+	 * Builds the definitions from {@link Build#from} up to {@link Build#to},
+	 * splitting until there are at most {@link OntologyLoader#DEFAULT_THRESHOLD}.
+	 */
+	private static class Build extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ArrayList<Definition> definitions;
+		private final int from;
+		private final int to;
+
+		/**
+		 * First failure of any task.
+		 */
+		private final AtomicReference<IOException> failure;
+
+		Build(ArrayList<Definition> _definitions, int _from, int _to, AtomicReference<IOException> _failure) {
+			this.definitions = _definitions;
+			this.from = _from;
+			this.to = _to;
+			this.failure = _failure;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= DEFAULT_THRESHOLD) {
+				for (int i = this.from; i < this.to && this.failure.get() == null; i++) {
+					try {
+						OntologyLoader.build(this.definitions.get(i));
+					} catch (IOException e) {
+						this.failure.compareAndSet(null, e);
+					}
+				}
+				return;
+			}
+			int middle = (this.from + this.to) >>> 1;
+			RecursiveAction.invokeAll(
+					new Build(this.definitions, this.from, middle, this.failure),
+					new Build(this.definitions, middle, this.to, this.failure)
+			);
+		}
+	}
+
+	/**
+	 * Load the ontology in the file named by the first argument into the
+	 * store named in constants.json.
+	 * @param _args
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static void main(String[] _args) throws IOException, ParseException {
+		Constants.readStorageVariables();
+		OntologyLoader loader = new OntologyLoader();
+		try {
+			long start = System.currentTimeMillis();
+			int count = loader.load(new File(_args[0])).size();
+			System.out.println("Loaded " + count + " definitions in " + (System.currentTimeMillis() - start) + " ms");
+		} finally {
+			loader.close();
+		}
+	}
+}
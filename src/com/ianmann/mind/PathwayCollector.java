@@ -0,0 +1,332 @@
+package com.ianmann.mind;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.core.Constants;
+
+/**
+ * <p>
+ * Background task that removes NeuralPathways nothing can reach any more.
+ * Deleting a Neuron only deletes the pathways in its own axon, and
+ * replacing a structure leaves the old pathway behind, so without this
+ * the pathway folder only ever grows.
+ * </p>
+ * <p>
+ * Each pass marks every pathway that is in the axon of a stored Neuron.
+ * While marking, pathways that lead to a Neuron that no longer exists, or
+ * whose file is gone, are removed from their axon. Then every pathway
+ * file in {@link Constants#PATHWAY_ROOT} that was not marked is deleted.
+ * </p>
+ * <p>
+ * Neurons are read around {@link Neuron#cache} and an axon is changed on
+ * that copy and saved through {@link Neuron#storage}, so the collector
+ * never touches an instance the rest of the program holds. A Neuron that
+ * is in the cache is in use, so its dead pathways are kept and marked
+ * until a pass finds it out of the cache. Saving the copy can still undo
+ * a change made to the same Neuron while it is being collected, which is
+ * why collecting is only done when {@link Constants#COLLECT_PATHWAYS} is set.
+ * </p>
+ * <p>
+ * Work is done in batches of {@link PathwayCollector#batchSize} Neurons
+ * or files. Each batch is written in one unit of work, and the collector
+ * sleeps for {@link PathwayCollector#pause} milliseconds between batches
+ * so it does not compete with the rest of the program for the disk.
+ * Pathways created after a pass starts, or written during the grace
+ * period before it, are never deleted by that pass.
+ * </p>
+ * <p>
+ * {@link StorageEngine#use(String)} runs one on its own thread for the
+ * engines that store pathways in {@link Constants#PATHWAY_ROOT}, if
+ * {@link Constants#COLLECT_PATHWAYS} is set, and stops it with
+ * {@link PathwayCollector#terminate()} before the engine is switched or
+ * shut down.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class PathwayCollector implements Runnable {
+
+	/**
+	 * Default milliseconds between passes.
+	 */
+	public static final long DEFAULT_INTERVAL = 10L * 60L * 1000L;
+
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	public static final long DEFAULT_PAUSE = 50;
+
+	/**
+	 * Pathway files written this many milliseconds before a pass starts
+	 * are left alone in case the Neuron that holds them is still being saved.
+	 */
+	public static final long GRACE_PERIOD = 60L * 1000L;
+
+	private volatile boolean running = true;
+
+	/**
+	 * Milliseconds to wait between passes.
+	 */
+	private long interval;
+
+	/**
+	 * Number of Neurons or pathway files handled in each batch.
+	 */
+	private int batchSize;
+
+	/**
+	 * Milliseconds to wait between batches.
+	 */
+	private long pause;
+
+	private volatile long collectedPathways = 0;
+	private volatile long removedEdges = 0;
+
+	/**
+	 * Creates a collector that runs every _interval milliseconds with
+	 * {@link PathwayCollector#DEFAULT_BATCH_SIZE} and
+	 * {@link PathwayCollector#DEFAULT_PAUSE}.
+	 * @param _interval
+	 */
+	public PathwayCollector(long _interval) {
+		this(_interval, DEFAULT_BATCH_SIZE, DEFAULT_PAUSE);
+	}
+
+	/**
+	 * Creates a collector that runs every _interval milliseconds.
+	 * @param _interval
+	 * @param _batchSize
+	 * @param _pause
+	 */
+	public PathwayCollector(long _interval, int _batchSize, long _pause) {
+		this.interval = _interval;
+		this.batchSize = _batchSize;
+		this.pause = _pause;
+	}
+
+	/**
+	 * Collect until {@link PathwayCollector#terminate()} is called.
+	 */
+	@Override
+	public void run() {
+		while (this.running) {
+			try {
+				synchronized (this) {
+					if (this.running) {
+						// Woken rather than interrupted, since an interrupt during a
+						// pass would close the files it is reading.
+						this.wait(this.interval);
+					}
+				}
+				if (this.running) {
+					this.collect();
+				}
+			} catch (InterruptedException e) {
+				this.running = false;
+			} catch (IOException | ParseException | RuntimeException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Stop collecting after the current batch.
+	 */
+	public void terminate() {
+		this.running = false;
+		synchronized (this) {
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Returns the number of pathway files deleted because nothing led to them.
+	 * @return
+	 */
+	public long getCollectedPathways() {
+		return this.collectedPathways;
+	}
+
+	/**
+	 * Returns the number of pathways removed from an axon because the
+	 * Neuron they lead to or their own file was gone.
+	 * @return
+	 */
+	public long getRemovedEdges() {
+		return this.removedEdges;
+	}
+
+	/**
+	 * Run one mark and sweep pass.
+	 * @throws IOException
+	 * @throws ParseException
+	 * @throws InterruptedException
+	 */
+	public synchronized void collect() throws IOException, ParseException, InterruptedException {
+		// Ids are handed out in order, so every pathway created from here
+		// on has an id at least this large.
+		long watermark = StorageIds.newPathwayId();
+		long start = System.currentTimeMillis();
+
+		ArrayList<Long> neuronIds = StorageIds.listNeuronIds();
+		HashSet<Long> marked = this.mark(neuronIds);
+		if (this.running) {
+			this.sweep(marked, watermark, start - GRACE_PERIOD);
+		}
+	}
+
+	/**
+	 * Returns the id of every pathway in the axon of a Neuron in
+	 * _neuronIds that leads to a stored Neuron. Pathways that do not are
+	 * removed from their axon.
+	 * @param _neuronIds
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 * @throws InterruptedException
+	 */
+	private HashSet<Long> mark(ArrayList<Long> _neuronIds) throws IOException, ParseException, InterruptedException {
+		HashSet<Long> live = new HashSet<Long>(_neuronIds);
+		HashSet<Long> marked = new HashSet<Long>();
+		for (int from = 0; from < _neuronIds.size() && this.running; from += this.batchSize) {
+			int to = Math.min(from + this.batchSize, _neuronIds.size());
+			Neuron.storage.begin();
+			try {
+				for (long id : _neuronIds.subList(from, to)) {
+					this.mark(id, live, marked);
+				}
+			} finally {
+				Neuron.storage.commit();
+			}
+			Thread.sleep(this.pause);
+		}
+		return marked;
+	}
+
+	/**
+	 * Mark the pathways of the Neuron with _id.
+	 * @param _id
+	 * @param _live Ids of the Neurons that were stored when the pass started.
+	 * @param _marked
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private void mark(long _id, HashSet<Long> _live, HashSet<Long> _marked) throws IOException, ParseException {
+		Neuron neuron;
+		try {
+			// Read around the cache so the pass does not evict the working set.
+			neuron = Neuron.detached(_id);
+		} catch (FileNotFoundException e) {
+			return;
+		}
+
+		boolean inUse = Neuron.cache.contains(_id);
+		boolean changed = false;
+		ArrayList<ArrayList<NeuralPathway>> axon = neuron.getAxon();
+		for (int g = 0; g < axon.size(); g++) {
+			ArrayList<NeuralPathway> group = axon.get(g);
+			for (int j = group.size() - 1; j >= 0; j--) {
+				NeuralPathway handle = group.get(j);
+				if (inUse || this.leadsToStoredNeuron(handle.getId(), _live)) {
+					_marked.add(handle.getId());
+				} else {
+					this.removeEdge(neuron, g, j);
+					changed = true;
+				}
+			}
+		}
+		if (changed) {
+			Neuron.storage.save(neuron);
+		}
+	}
+
+	/**
+	 * Returns whether the pathway with _pathwayId is stored and leads to
+	 * a Neuron that is stored.
+	 * @param _pathwayId
+	 * @param _live
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private boolean leadsToStoredNeuron(long _pathwayId, HashSet<Long> _live) throws IOException, ParseException {
+		long recieverId;
+		try {
+			recieverId = new NeuralPathway(_pathwayId, true).getRecieverId();
+		} catch (FileNotFoundException e) {
+			return false;
+		}
+		// Neurons created since the pass started are not in _live.
+		return _live.contains(recieverId) || Neuron.storage.isStored(recieverId);
+	}
+
+	/**
+	 * Remove pathway _indexInGroup of dendrite group _dendriteGroup from
+	 * _neuron, a copy read around the cache, and delete it. The caller
+	 * saves _neuron.
+	 * @param _neuron
+	 * @param _dendriteGroup
+	 * @param _indexInGroup
+	 */
+	private void removeEdge(Neuron _neuron, int _dendriteGroup, int _indexInGroup) {
+		NeuralPathway pathway = _neuron.getAxon().get(_dendriteGroup).remove(_indexInGroup);
+		NeuralPathway.storage.delete(pathway);
+		Neuron.inheritedAttributes.pathwayRemoved(_neuron, _dendriteGroup);
+		this.removedEdges++;
+	}
+
+	/**
+	 * Delete every pathway file that is not in _marked, has an id below
+	 * _watermark and was last written before _writtenBefore.
+	 * @param _marked
+	 * @param _watermark
+	 * @param _writtenBefore
+	 * @throws ParseException
+	 * @throws InterruptedException
+	 */
+	private void sweep(HashSet<Long> _marked, long _watermark, long _writtenBefore) throws ParseException, InterruptedException {
+		File[] files = new File(Constants.PATHWAY_ROOT).listFiles();
+		if (files == null) {
+			return;
+		}
+		ArrayList<Long> orphans = new ArrayList<Long>();
+		for (File file : files) {
+			if (!file.getName().endsWith(StorageIds.PATHWAY_EXTENSION)) {
+				continue;
+			}
+			long id;
+			try {
+				id = StorageIds.pathwayId(file.getName());
+			} catch (IllegalArgumentException e) {
+				continue;
+			}
+			if (id < _watermark && !_marked.contains(id) && file.lastModified() < _writtenBefore) {
+				orphans.add(id);
+			}
+		}
+
+		for (int from = 0; from < orphans.size() && this.running; from += this.batchSize) {
+			int to = Math.min(from + this.batchSize, orphans.size());
+			NeuralPathway.storage.begin();
+			try {
+				for (long id : orphans.subList(from, to)) {
+					try {
+						NeuralPathway.storage.delete(NeuralPathway.handle(id));
+						this.collectedPathways++;
+					} catch (FileNotFoundException e) {
+						// Already gone.
+					}
+				}
+			} finally {
+				NeuralPathway.storage.commit();
+			}
+			Thread.sleep(this.pause);
+		}
+	}
+}
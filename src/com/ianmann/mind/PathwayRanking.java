@@ -0,0 +1,149 @@
+package com.ianmann.mind;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+import org.json.simple.parser.ParseException;
+
+/**
+ * <p>
+ * The pathways of one dendrite group ordered by connection size, strongest
+ * first, so the strongest few can be taken without sorting the group.
+ * Each Neuron keeps one for a dendrite group the first time
+ * {@link Neuron#getStrongestPathways(int, int)} is called on it.
+ * </p>
+ * <p>
+ * A pathway belongs to at most one ranking. When its connection size
+ * changes it moves itself, see {@link NeuralPathway#grow(double)}. If
+ * the same pathway is ranked by a second copy of its Neuron, the first
+ * ranking is marked stale and built again the next time it is used.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+class PathwayRanking {
+
+	/**
+	 * Orders pathways strongest first. Pathways of the same size are
+	 * ordered by id so no two are equal.
+	 */
+	private static final Comparator<NeuralPathway> strongestFirst = new Comparator<NeuralPathway>() {
+
+		@Override
+		public int compare(NeuralPathway _a, NeuralPathway _b) {
+			int bySize = Double.compare(_b.getConnectionSize(), _a.getConnectionSize());
+			if (bySize != 0) {
+				return bySize;
+			}
+			return _a.getId() < _b.getId() ? -1 : (_a.getId() == _b.getId() ? 0 : 1);
+		}
+	};
+
+	/**
+	 * The dendrite group this ranks. The ranking no longer applies once
+	 * the Neuron's axon holds a different list.
+	 */
+	private final ArrayList<NeuralPathway> dendriteGroup;
+
+	private final TreeSet<NeuralPathway> ranked = new TreeSet<NeuralPathway>(strongestFirst);
+
+	private boolean stale = false;
+
+	/**
+	 * Rank every pathway in _dendriteGroup. The attributes of pathways
+	 * that have not been loaded are read, but none of the Neurons they
+	 * lead to are.
+	 * @param _dendriteGroup
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
+	PathwayRanking(ArrayList<NeuralPathway> _dendriteGroup) throws FileNotFoundException, ParseException {
+		this.dendriteGroup = _dendriteGroup;
+		for (NeuralPathway pathway : _dendriteGroup) {
+			this.add(pathway);
+		}
+	}
+
+	/**
+	 * Returns whether this ranking still holds exactly the pathways in _dendriteGroup.
+	 * @param _dendriteGroup
+	 * @return
+	 */
+	synchronized boolean ranks(ArrayList<NeuralPathway> _dendriteGroup) {
+		return !this.stale && this.dendriteGroup == _dendriteGroup && this.ranked.size() == _dendriteGroup.size();
+	}
+
+	/**
+	 * Returns the _k strongest pathways, strongest first.
+	 * @param _k
+	 * @return
+	 */
+	synchronized ArrayList<NeuralPathway> strongest(int _k) {
+		ArrayList<NeuralPathway> strongest = new ArrayList<NeuralPathway>(Math.max(0, Math.min(_k, this.ranked.size())));
+		Iterator<NeuralPathway> pathways = this.ranked.iterator();
+		while (strongest.size() < _k && pathways.hasNext()) {
+			strongest.add(pathways.next());
+		}
+		return strongest;
+	}
+
+	/**
+	 * Rank _pathway, loading its attributes first if they have not been.
+	 * @param _pathway
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
+	void add(NeuralPathway _pathway) throws FileNotFoundException, ParseException {
+		if (!_pathway.isLoaded()) {
+			_pathway.loadAttributes();
+		}
+		PathwayRanking previous = _pathway.ranking;
+		if (previous != null && previous != this) {
+			previous.invalidate();
+		}
+		synchronized (this) {
+			_pathway.ranking = this;
+			this.ranked.add(_pathway);
+		}
+	}
+
+	/**
+	 * Stop ranking _pathway.
+	 * @param _pathway
+	 */
+	synchronized void remove(NeuralPathway _pathway) {
+		if (_pathway.ranking == this) {
+			_pathway.ranking = null;
+		}
+		this.ranked.remove(_pathway);
+	}
+
+	/**
+	 * Take _pathway out of the order while its connection size changes.
+	 * The caller must hold the lock on this ranking until it calls
+	 * {@link PathwayRanking#attach(NeuralPathway)}.
+	 * @param _pathway
+	 * @return Whether _pathway was ranked.
+	 */
+	synchronized boolean detach(NeuralPathway _pathway) {
+		return this.ranked.remove(_pathway);
+	}
+
+	/**
+	 * Put _pathway back in the order after {@link PathwayRanking#detach(NeuralPathway)}.
+	 * @param _pathway
+	 */
+	synchronized void attach(NeuralPathway _pathway) {
+		this.ranked.add(_pathway);
+	}
+
+	/**
+	 * Mark this ranking to be built again before it is used.
+	 */
+	private synchronized void invalidate() {
+		this.stale = true;
+	}
+}
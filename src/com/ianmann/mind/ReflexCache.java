@@ -0,0 +1,290 @@
+package com.ianmann.mind;
+
+import java.io.FileNotFoundException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.simple.parser.ParseException;
+
+/**
+ * <p>
+ * Automatic responses, as described in memory_prioritization.txt. Once
+ * a chain of thought from a stimulus has been followed so often that
+ * the connection sizes along it add up to {@link ReflexCache#threshold},
+ * the Neuron the chain ends at is remembered as the reaction to that
+ * stimulus. The next time the stimulus occurs the mind can go straight
+ * to the reaction with {@link ReflexCache#react(Neuron)} instead of
+ * walking the chain again.
+ * </p>
+ * <p>
+ * {@link SpreadingActivation#follow(Neuron)} asks for a reaction before
+ * it walks a chain and records the chain it walked with
+ * {@link ReflexCache#learn(Neuron, List)}. Firing a pathway only makes
+ * it stronger, so a reflex is kept while its pathways change and is
+ * forgotten once their sizes add up to less than the threshold or one
+ * of them is deleted.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class ReflexCache {
+
+	/**
+	 * Connection size a chain must add up to until
+	 * {@link com.ianmann.mind.core.Constants#REFLEX_THRESHOLD} is read.
+	 */
+	public static final double DEFAULT_THRESHOLD = 0.001;
+
+	/**
+	 * Returned by {@link ReflexCache#getReaction(long)} for a stimulus
+	 * with no reflex.
+	 */
+	public static final long NO_REFLEX = -1;
+
+	/**
+	 * A reaction, the pathways that led to it and their sizes.
+	 */
+	private static final class Reflex {
+
+		final long reactionId;
+		final long[] chain;
+		final double[] sizes;
+		double strength;
+
+		Reflex(long _reactionId, long[] _chain) {
+			this.reactionId = _reactionId;
+			this.chain = _chain;
+			this.sizes = new double[_chain.length];
+		}
+	}
+
+	/**
+	 * Reflexes by the id of their stimulus.
+	 */
+	private final ConcurrentHashMap<Long, Reflex> reflexes = new ConcurrentHashMap<Long, Reflex>();
+
+	/**
+	 * Ids of the stimuli whose chain goes through each pathway, by the
+	 * pathway's id.
+	 */
+	private final ConcurrentHashMap<Long, Set<Long>> stimuliByPathway = new ConcurrentHashMap<Long, Set<Long>>();
+
+	/**
+	 * Connection size a chain must add up to for its end to become a reflex.
+	 */
+	private volatile double threshold;
+
+	public ReflexCache() {
+		this(DEFAULT_THRESHOLD);
+	}
+
+	public ReflexCache(double _threshold) {
+		this.threshold = _threshold;
+	}
+
+	public double getThreshold() {
+		return this.threshold;
+	}
+
+	/**
+	 * Set the connection size a chain must add up to. Every reflex
+	 * learned with the old threshold is forgotten.
+	 * @param _threshold
+	 */
+	public synchronized void setThreshold(double _threshold) {
+		this.threshold = _threshold;
+		this.clear();
+	}
+
+	/**
+	 * Returns the id of the reaction to the stimulus with _stimulusId
+	 * or {@link ReflexCache#NO_REFLEX} if it has none.
+	 * @param _stimulusId
+	 * @return
+	 */
+	public long getReaction(long _stimulusId) {
+		Reflex reflex = this.reflexes.get(_stimulusId);
+		return reflex == null ? NO_REFLEX : reflex.reactionId;
+	}
+
+	/**
+	 * Returns the reaction to _stimulus or null if it has none and the
+	 * chain of thought has to be followed.
+	 * @param _stimulus
+	 * @return
+	 */
+	public Neuron react(Neuron _stimulus) {
+		long reactionId = this.getReaction(_stimulus.getId());
+		if (reactionId == NO_REFLEX) {
+			return null;
+		}
+		try {
+			return Neuron.fromStorage(reactionId);
+		} catch (FileNotFoundException e) {
+			// The reaction has been deleted since it was learned.
+			this.forget(_stimulus.getId());
+			return null;
+		} catch (ParseException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Record that _chain was followed from _stimulus. If the connection
+	 * sizes of the pathways in _chain add up to at least
+	 * {@link ReflexCache#threshold}, the Neuron the last pathway leads to
+	 * becomes the reaction to _stimulus. Otherwise any reflex _stimulus
+	 * had is forgotten.
+	 * @param _stimulus
+	 * @param _chain The pathways followed, in order.
+	 * @return Whether _stimulus now has a reflex.
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
+	public synchronized boolean learn(Neuron _stimulus, List<NeuralPathway> _chain) throws FileNotFoundException, ParseException {
+		long stimulusId = _stimulus.getId();
+		this.forget(stimulusId);
+		if (_chain.isEmpty()) {
+			return false;
+		}
+		long reactionId = NO_REFLEX;
+		for (NeuralPathway pathway : _chain) {
+			// Loads the size of a pathway that has not been loaded yet.
+			reactionId = pathway.getRecieverId();
+		}
+		double strength = ReflexCache.strength(_chain);
+		if (strength < this.threshold) {
+			return false;
+		}
+
+		long[] chain = new long[_chain.size()];
+		for (int i = 0; i < chain.length; i++) {
+			chain[i] = _chain.get(i).getId();
+			Set<Long> stimuli = this.stimuliByPathway.get(chain[i]);
+			if (stimuli == null) {
+				stimuli = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+				this.stimuliByPathway.put(chain[i], stimuli);
+			}
+			stimuli.add(stimulusId);
+		}
+		Reflex reflex = new Reflex(reactionId, chain);
+		this.reflexes.put(stimulusId, reflex);
+
+		// Read the sizes again now the chain is registered. A pathway that
+		// changes from here on waits for this lock in pathwayChanged.
+		for (int i = 0; i < chain.length; i++) {
+			reflex.sizes[i] = _chain.get(i).getConnectionSize();
+			reflex.strength += reflex.sizes[i];
+		}
+		if (reflex.strength < this.threshold) {
+			this.forget(stimulusId);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Forget the reflex of the stimulus with _stimulusId if it has one.
+	 * @param _stimulusId
+	 */
+	public synchronized void forget(long _stimulusId) {
+		Reflex reflex = this.reflexes.remove(_stimulusId);
+		if (reflex == null) {
+			return;
+		}
+		for (long pathwayId : reflex.chain) {
+			Set<Long> stimuli = this.stimuliByPathway.get(pathwayId);
+			if (stimuli != null) {
+				stimuli.remove(_stimulusId);
+				if (stimuli.isEmpty()) {
+					this.stimuliByPathway.remove(pathwayId);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forget every reflex.
+	 */
+	public synchronized void clear() {
+		this.reflexes.clear();
+		this.stimuliByPathway.clear();
+	}
+
+	/**
+	 * Returns the number of stimuli with a reflex.
+	 * @return
+	 */
+	public int size() {
+		return this.reflexes.size();
+	}
+
+	/**
+	 * Record that the pathway with _pathwayId is now _connectionSize and
+	 * forget every reflex through it whose chain no longer adds up to
+	 * {@link ReflexCache#threshold}. Called whenever the size of a
+	 * pathway changes.
+	 * @param _pathwayId
+	 * @param _connectionSize
+	 */
+	void pathwayChanged(long _pathwayId, double _connectionSize) {
+		if (this.stimuliByPathway.isEmpty() || !this.stimuliByPathway.containsKey(_pathwayId)) {
+			return;
+		}
+		synchronized (this) {
+			Set<Long> stimuli = this.stimuliByPathway.get(_pathwayId);
+			if (stimuli == null) {
+				return;
+			}
+			for (Long stimulusId : stimuli.toArray(new Long[0])) {
+				Reflex reflex = this.reflexes.get(stimulusId);
+				for (int i = 0; i < reflex.chain.length; i++) {
+					if (reflex.chain[i] == _pathwayId) {
+						reflex.strength += _connectionSize - reflex.sizes[i];
+						reflex.sizes[i] = _connectionSize;
+					}
+				}
+				if (reflex.strength < this.threshold) {
+					this.forget(stimulusId);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forget every reflex whose chain goes through the pathway with
+	 * _pathwayId. Called when the pathway is deleted.
+	 * @param _pathwayId
+	 */
+	void pathwayDeleted(long _pathwayId) {
+		if (this.stimuliByPathway.isEmpty() || !this.stimuliByPathway.containsKey(_pathwayId)) {
+			return;
+		}
+		synchronized (this) {
+			Set<Long> stimuli = this.stimuliByPathway.get(_pathwayId);
+			if (stimuli == null) {
+				return;
+			}
+			for (Long stimulusId : stimuli.toArray(new Long[0])) {
+				this.forget(stimulusId);
+			}
+		}
+	}
+
+	/**
+	 * Returns the sum of the connection sizes of _chain.
+	 * @param _chain
+	 * @return
+	 */
+	private static double strength(List<NeuralPathway> _chain) {
+		double strength = 0;
+		for (NeuralPathway pathway : _chain) {
+			strength += pathway.getConnectionSize();
+		}
+		return strength;
+	}
+}
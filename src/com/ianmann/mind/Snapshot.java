@@ -0,0 +1,271 @@
+package com.ianmann.mind;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.parser.ParseException;
+
+/**
+ * <p>
+ * Consistent view of every Neuron and NeuralPathway as of the newest
+ * commit that had finished when the snapshot was opened. Saves and
+ * deletes committed after that, whether made one at a time or in a
+ * {@link com.ianmann.utils.storage.UnitOfWork}, are not seen, so a
+ * thought process can walk the network for as long as it needs while
+ * other threads keep learning.
+ * </p>
+ * <p>
+ * Reads never take a lock. Each Neuron or pathway read is remembered
+ * so reading it again is cheap. The versions a snapshot may read are
+ * kept by {@link Neuron#versions()} until it is closed, so close it as
+ * soon as the thought is done:
+ * </p>
+ * <pre>
+ * Snapshot snapshot = Snapshot.open();
+ * try {
+ *     Snapshot.NeuronState neuron = snapshot.getNeuron(id);
+ *     ...
+ * } finally {
+ *     snapshot.close();
+ * }
+ * </pre>
+ * <p>
+ * The threads working on one thought, such as the tasks of
+ * {@link SpreadingActivation}, may read from the same snapshot at once.
+ * It must not be closed until they are done.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class Snapshot implements AutoCloseable, Comparable<Snapshot> {
+
+	/**
+	 * Orders snapshots that pinned the same commit.
+	 */
+	private static final AtomicLong serials = new AtomicLong();
+
+	private final long serial = serials.incrementAndGet();
+
+	private final VersionStore store;
+
+	/**
+	 * Commit this snapshot reads as of.
+	 */
+	private volatile long version;
+
+	private final ConcurrentHashMap<Long, NeuronState> neurons = new ConcurrentHashMap<Long, NeuronState>();
+	private final ConcurrentHashMap<Long, PathwayState> pathways = new ConcurrentHashMap<Long, PathwayState>();
+
+	/**
+	 * Ids read that were not stored as of {@link Snapshot#version}.
+	 */
+	private final Set<Long> missingNeurons = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+	private final Set<Long> missingPathways = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+	private volatile boolean closed = false;
+
+	private Snapshot(VersionStore _store) {
+		this.store = _store;
+	}
+
+	/**
+	 * Open a snapshot of the newest commit.
+	 * @return
+	 */
+	public static Snapshot open() {
+		Snapshot snapshot = new Snapshot(Neuron.versions());
+		snapshot.store.pin(snapshot);
+		return snapshot;
+	}
+
+	/**
+	 * Returns the number of the commit this snapshot reads as of.
+	 * @return
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	void setVersion(long _version) {
+		this.version = _version;
+	}
+
+	/**
+	 * Returns the Neuron with _id as it was when this snapshot was
+	 * opened or null if it was not stored then.
+	 * @param _id
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public NeuronState getNeuron(long _id) throws IOException, ParseException {
+		this.checkOpen();
+		NeuronState neuron = this.neurons.get(_id);
+		if (neuron != null || this.missingNeurons.contains(_id)) {
+			return neuron;
+		}
+		neuron = this.store.readNeuron(_id, this.version);
+		if (neuron == null) {
+			this.missingNeurons.add(_id);
+		} else {
+			this.neurons.put(_id, neuron);
+		}
+		return neuron;
+	}
+
+	/**
+	 * Returns the NeuralPathway with _id as it was when this snapshot
+	 * was opened or null if it was not stored then.
+	 * @param _id
+	 * @return
+	 * @throws ParseException
+	 */
+	public PathwayState getPathway(long _id) throws ParseException {
+		this.checkOpen();
+		PathwayState pathway = this.pathways.get(_id);
+		if (pathway != null || this.missingPathways.contains(_id)) {
+			return pathway;
+		}
+		pathway = this.store.readPathway(_id, this.version);
+		if (pathway == null) {
+			this.missingPathways.add(_id);
+		} else {
+			this.pathways.put(_id, pathway);
+		}
+		return pathway;
+	}
+
+	/**
+	 * Release the versions held for this snapshot. Reading from it
+	 * afterwards throws an IllegalStateException.
+	 */
+	@Override
+	public void close() {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		this.neurons.clear();
+		this.pathways.clear();
+		this.missingNeurons.clear();
+		this.missingPathways.clear();
+		this.store.unpin(this);
+	}
+
+	/**
+	 * Orders snapshots by the commit they read as of, oldest first.
+	 */
+	@Override
+	public int compareTo(Snapshot _other) {
+		if (this.version != _other.version) {
+			return this.version < _other.version ? -1 : 1;
+		}
+		if (this.serial != _other.serial) {
+			return this.serial < _other.serial ? -1 : 1;
+		}
+		return 0;
+	}
+
+	private void checkOpen() {
+		if (this.closed) {
+			throw new IllegalStateException("Snapshot " + this.serial + " has been closed.");
+		}
+	}
+
+	/**
+	 * The stored attributes of a Neuron at one commit. Pathways are
+	 * held by id and read with {@link Snapshot#getPathway(long)}.
+	 */
+	public static final class NeuronState {
+
+		private final long id;
+		private final int type;
+		private final String associatedMorpheme;
+
+		/**
+		 * Ids of the pathways in each dendrite group of the axon.
+		 */
+		private final long[][] pathwayIds;
+
+		NeuronState(Neuron _neuron) {
+			this.id = _neuron.getId();
+			this.type = _neuron.getType();
+			this.associatedMorpheme = _neuron.getAssociatedMorpheme();
+			ArrayList<ArrayList<NeuralPathway>> axon = _neuron.axon;
+			this.pathwayIds = new long[axon == null ? 0 : axon.size()][];
+			for (int g = 0; g < this.pathwayIds.length; g++) {
+				ArrayList<NeuralPathway> dendriteGroup = axon.get(g);
+				this.pathwayIds[g] = new long[dendriteGroup.size()];
+				for (int i = 0; i < this.pathwayIds[g].length; i++) {
+					this.pathwayIds[g][i] = dendriteGroup.get(i).getId();
+				}
+			}
+		}
+
+		public long getId() {
+			return this.id;
+		}
+
+		public int getType() {
+			return this.type;
+		}
+
+		public String getAssociatedMorpheme() {
+			return this.associatedMorpheme;
+		}
+
+		public int getDendriteGroupCount() {
+			return this.pathwayIds.length;
+		}
+
+		public int getPathwayCount(int _dendriteGroup) {
+			return this.pathwayIds[_dendriteGroup].length;
+		}
+
+		public long getPathwayId(int _dendriteGroup, int _indexInGroup) {
+			return this.pathwayIds[_dendriteGroup][_indexInGroup];
+		}
+
+		/**
+		 * Returns a copy of the ids of the pathways in _dendriteGroup.
+		 * @param _dendriteGroup
+		 * @return
+		 */
+		public long[] getPathwayIds(int _dendriteGroup) {
+			return this.pathwayIds[_dendriteGroup].clone();
+		}
+	}
+
+	/**
+	 * The stored attributes of a NeuralPathway at one commit.
+	 */
+	public static final class PathwayState {
+
+		private final long id;
+		private final long recieverId;
+		private final double connectionSize;
+
+		PathwayState(NeuralPathway _pathway) throws FileNotFoundException, ParseException {
+			this.id = _pathway.getId();
+			this.recieverId = _pathway.getRecieverId();
+			this.connectionSize = _pathway.getConnectionSize();
+		}
+
+		public long getId() {
+			return this.id;
+		}
+
+		public long getRecieverId() {
+			return this.recieverId;
+		}
+
+		public double getConnectionSize() {
+			return this.connectionSize;
+		}
+	}
+}
@@ -0,0 +1,522 @@
+package com.ianmann.mind;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.json.simple.parser.ParseException;
+
+/**
+ * <p>
+ * Finds the Neurons most strongly related to a set of seed Neurons, such
+ * as the Neurons for the morphemes in a {@link Stimulant}, by spreading
+ * activation out along the axon. Each seed starts with an activation.
+ * A Neuron that is active passes {@link SpreadingActivation#decay} of its
+ * activation down each of its dendrite groups, split between the
+ * pathways in the group by their connection size, so the pathways fired
+ * most often carry the most.
+ * </p>
+ * <p>
+ * To keep a thought from reaching the whole mind:
+ * </p>
+ * <ul>
+ * <li>Only the {@link SpreadingActivation#fanOut} strongest pathways in
+ * each dendrite group are followed.</li>
+ * <li>A Neuron only fires on if the activation it received in a step is
+ * at least {@link SpreadingActivation#threshold}.</li>
+ * <li>Activation spreads at most {@link SpreadingActivation#maxDepth}
+ * steps from the seeds.</li>
+ * <li>Each call has a budget in milliseconds. When it runs out no more
+ * Neurons fire and the activation reached so far is returned.</li>
+ * </ul>
+ * <p>
+ * Activation spreads one step at a time. The Neurons firing in a step
+ * are split between tasks on a {@link ForkJoinPool} and what they send
+ * is summed once every task is done. The network is read through one
+ * {@link Snapshot} so nothing learned while the thought runs changes it
+ * and no pathway is fired by it.
+ * </p>
+ * <p>
+ * {@link SpreadingActivation#follow(Neuron)} walks a single chain of
+ * thought instead, firing the strongest pathway of each Neuron along it.
+ * It goes straight to the reaction if the stimulus has a reflex in
+ * {@link Neuron#reflexes} and teaches the chain it walked to them
+ * otherwise.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class SpreadingActivation {
+
+	public static final double DEFAULT_DECAY = 0.5;
+
+	public static final double DEFAULT_THRESHOLD = 0.01;
+
+	public static final int DEFAULT_FAN_OUT = 16;
+
+	public static final int DEFAULT_MAX_DEPTH = 4;
+
+	/**
+	 * Number of firing Neurons each task reads before it stops splitting.
+	 */
+	public static final int SPLIT_THRESHOLD = 32;
+
+	/**
+	 * Activation given to each seed when none is specified.
+	 */
+	public static final double SEED_ACTIVATION = 1.0;
+
+	/**
+	 * How much activation a Neuron reached, and how many steps from the
+	 * seeds it was when it was first reached.
+	 */
+	public static final class Activation {
+
+		private final long neuronId;
+		private final double activation;
+		private final int depth;
+
+		Activation(long _neuronId, double _activation, int _depth) {
+			this.neuronId = _neuronId;
+			this.activation = _activation;
+			this.depth = _depth;
+		}
+
+		public long getNeuronId() {
+			return this.neuronId;
+		}
+
+		public double getActivation() {
+			return this.activation;
+		}
+
+		public int getDepth() {
+			return this.depth;
+		}
+
+		@Override
+		public String toString() {
+			return this.neuronId + "=" + this.activation;
+		}
+	}
+
+	/**
+	 * Orders activations weakest first.
+	 */
+	private static final Comparator<Activation> weakestFirst = new Comparator<Activation>() {
+		@Override
+		public int compare(Activation _a, Activation _b) {
+			return Double.compare(_a.activation, _b.activation);
+		}
+	};
+
+	/**
+	 * Orders pathways weakest first.
+	 */
+	private static final Comparator<Snapshot.PathwayState> weakestPathwayFirst = new Comparator<Snapshot.PathwayState>() {
+		@Override
+		public int compare(Snapshot.PathwayState _a, Snapshot.PathwayState _b) {
+			return Double.compare(_a.getConnectionSize(), _b.getConnectionSize());
+		}
+	};
+
+	private ForkJoinPool pool;
+
+	/**
+	 * Fraction of a Neuron's activation passed down each dendrite group.
+	 */
+	private double decay;
+
+	/**
+	 * Least activation received in one step for a Neuron to fire on.
+	 */
+	private double threshold;
+
+	/**
+	 * Most pathways followed in each dendrite group.
+	 */
+	private int fanOut;
+
+	/**
+	 * Most steps activation spreads from the seeds.
+	 */
+	private int maxDepth;
+
+	/**
+	 * Creates an engine with the default limits that runs on every
+	 * available processor.
+	 */
+	public SpreadingActivation() {
+		this(DEFAULT_DECAY, DEFAULT_THRESHOLD, DEFAULT_FAN_OUT, DEFAULT_MAX_DEPTH, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates an engine that runs on _parallelism threads.
+	 * @param _decay Fraction of a Neuron's activation passed down each dendrite group.
+	 * @param _threshold Least activation received in one step for a Neuron to fire on.
+	 * @param _fanOut Most pathways followed in each dendrite group.
+	 * @param _maxDepth Most steps activation spreads from the seeds.
+	 * @param _parallelism
+	 */
+	public SpreadingActivation(double _decay, double _threshold, int _fanOut, int _maxDepth, int _parallelism) {
+		if (_decay <= 0 || _decay >= 1) {
+			throw new IllegalArgumentException("Decay must be between 0 and 1, not " + _decay + ".");
+		}
+		if (_fanOut < 1) {
+			throw new IllegalArgumentException("Fan out must be at least 1, not " + _fanOut + ".");
+		}
+		this.decay = _decay;
+		this.threshold = _threshold;
+		this.fanOut = _fanOut;
+		this.maxDepth = _maxDepth;
+		this.pool = new ForkJoinPool(_parallelism);
+	}
+
+	/**
+	 * Returns the ids of every Neuron associated with one of _morphemes,
+	 * to be used as seeds.
+	 * @param _morphemes
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static long[] seeds(String... _morphemes) throws IOException, ParseException {
+		ArrayList<Long> ids = new ArrayList<Long>();
+		for (String morpheme : _morphemes) {
+			HashMap<String, Object> params = new HashMap<String, Object>();
+			params.put(NeuronIndex.MORPHEME, morpheme);
+			ids.addAll(Neuron.index().find(params));
+		}
+		long[] seeds = new long[ids.size()];
+		for (int i = 0; i < seeds.length; i++) {
+			seeds[i] = ids.get(i);
+		}
+		return seeds;
+	}
+
+	/**
+	 * Spread activation from _seedIds, each starting with
+	 * {@link SpreadingActivation#SEED_ACTIVATION}.
+	 * @param _seedIds
+	 * @param _k
+	 * @param _budgetMillis
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 * @see SpreadingActivation#activate(HashMap, int, long)
+	 */
+	public ArrayList<Activation> activate(long[] _seedIds, int _k, long _budgetMillis) throws IOException, ParseException {
+		HashMap<Long, Double> seeds = new HashMap<Long, Double>();
+		for (long id : _seedIds) {
+			seeds.put(id, SEED_ACTIVATION);
+		}
+		return this.activate(seeds, _k, _budgetMillis);
+	}
+
+	/**
+	 * Spread activation from each seed in _seeds and return the _k
+	 * Neurons other than the seeds that were activated most, strongest
+	 * first.
+	 * @param _seeds Activation of each seed by its id.
+	 * @param _k
+	 * @param _budgetMillis Time activation may spread for. What has been
+	 * reached when it runs out is returned.
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public ArrayList<Activation> activate(HashMap<Long, Double> _seeds, int _k, long _budgetMillis) throws IOException, ParseException {
+		long deadline = System.nanoTime() + _budgetMillis * 1000000L;
+
+		/*
+		 * Total activation and depth first reached of every Neuron.
+		 */
+		HashMap<Long, Double> totals = new HashMap<Long, Double>();
+		HashMap<Long, Integer> depths = new HashMap<Long, Integer>();
+
+		HashMap<Long, Double> frontier = new HashMap<Long, Double>(_seeds);
+		Snapshot snapshot = Snapshot.open();
+		try {
+			for (int depth = 1; depth <= this.maxDepth && !frontier.isEmpty() && System.nanoTime() < deadline; depth++) {
+				HashMap<Long, Double> received = this.step(snapshot, frontier, deadline);
+
+				frontier = new HashMap<Long, Double>();
+				for (Entry<Long, Double> neuron : received.entrySet()) {
+					Long id = neuron.getKey();
+					double activation = neuron.getValue();
+					Double total = totals.get(id);
+					totals.put(id, total == null ? activation : total + activation);
+					if (!depths.containsKey(id)) {
+						depths.put(id, depth);
+					}
+					if (activation >= this.threshold) {
+						frontier.put(id, activation);
+					}
+				}
+			}
+		} finally {
+			snapshot.close();
+		}
+
+		return this.strongest(totals, depths, _seeds.keySet(), _k);
+	}
+
+	/**
+	 * Follow the chain of thought from _stimulus and return the Neuron
+	 * it ends at. If _stimulus has a reflex its reaction is returned
+	 * without walking the chain. Otherwise the strongest pathway of each
+	 * Neuron is fired, at most {@link SpreadingActivation#maxDepth} times,
+	 * until a Neuron with no pathway to a Neuron not yet on the chain is
+	 * reached, and the chain is learned by {@link Neuron#reflexes}.
+	 * @param _stimulus
+	 * @return The reaction, or _stimulus itself if it has no pathways.
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
+	public Neuron follow(Neuron _stimulus) throws FileNotFoundException, ParseException {
+		Neuron reaction = Neuron.reflexes.react(_stimulus);
+		if (reaction != null) {
+			return reaction;
+		}
+
+		ArrayList<NeuralPathway> chain = new ArrayList<NeuralPathway>();
+		HashSet<Long> visited = new HashSet<Long>();
+		visited.add(_stimulus.getId());
+		Neuron current = _stimulus;
+		while (chain.size() < this.maxDepth) {
+			NeuralPathway strongest = null;
+			for (ArrayList<NeuralPathway> dendriteGroup : current.getAxon()) {
+				for (NeuralPathway pathway : dendriteGroup) {
+					// Loads the size of a pathway that has not been loaded yet.
+					if (visited.contains(pathway.getRecieverId())) {
+						continue;
+					}
+					if (strongest == null || pathway.getConnectionSize() > strongest.getConnectionSize()) {
+						strongest = pathway;
+					}
+				}
+			}
+			if (strongest == null) {
+				break;
+			}
+			Neuron next = strongest.fireSynapse();
+			if (next == null) {
+				break;
+			}
+			chain.add(strongest);
+			visited.add(next.getId());
+			current = next;
+		}
+		Neuron.reflexes.learn(_stimulus, chain);
+		return current;
+	}
+
+	/**
+	 * Stop the threads activation is spread on.
+	 */
+	public void close() {
+		this.pool.shutdown();
+	}
+
+	/**
+	 * Fire every Neuron in _firing once.
+	 * @param _snapshot
+	 * @param _firing Activation of each firing Neuron by its id.
+	 * @param _deadline
+	 * @return The activation received by each Neuron reached, by its id.
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private HashMap<Long, Double> step(Snapshot _snapshot, HashMap<Long, Double> _firing, long _deadline) throws IOException, ParseException {
+		long[] ids = new long[_firing.size()];
+		double[] activations = new double[ids.length];
+		int i = 0;
+		for (Entry<Long, Double> neuron : _firing.entrySet()) {
+			ids[i] = neuron.getKey();
+			activations[i] = neuron.getValue();
+			i++;
+		}
+
+		AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		HashMap<Long, Double> received = this.pool.invoke(new Step(this, _snapshot, ids, activations, 0, ids.length, _deadline, failure));
+		Exception e = failure.get();
+		if (e instanceof IOException) {
+			throw (IOException) e;
+		}
+		if (e instanceof ParseException) {
+			throw (ParseException) e;
+		}
+		return received;
+	}
+
+	/**
+	 * Fire the Neuron with _id and add what it sends to _received. The
+	 * {@link SpreadingActivation#fanOut} strongest pathways of each group
+	 * are kept in a heap as the group is read, so no group is sorted and
+	 * at most that many states are held at once.
+	 * @param _snapshot
+	 * @param _id
+	 * @param _activation
+	 * @param _received
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private void fire(Snapshot _snapshot, long _id, double _activation, HashMap<Long, Double> _received) throws IOException, ParseException {
+		Snapshot.NeuronState neuron = _snapshot.getNeuron(_id);
+		if (neuron == null) {
+			return;
+		}
+		double sent = _activation * this.decay;
+		PriorityQueue<Snapshot.PathwayState> dendriteGroup = null;
+		for (int g = 0; g < neuron.getDendriteGroupCount(); g++) {
+			int pathwayCount = neuron.getPathwayCount(g);
+			if (pathwayCount == 0) {
+				continue;
+			}
+			if (dendriteGroup == null) {
+				dendriteGroup = new PriorityQueue<Snapshot.PathwayState>(Math.min(pathwayCount, this.fanOut) + 1, weakestPathwayFirst);
+			} else {
+				dendriteGroup.clear();
+			}
+			for (int p = 0; p < pathwayCount; p++) {
+				Snapshot.PathwayState pathway = _snapshot.getPathway(neuron.getPathwayId(g, p));
+				if (pathway == null) {
+					continue;
+				}
+				if (dendriteGroup.size() < this.fanOut) {
+					dendriteGroup.add(pathway);
+				} else if (pathway.getConnectionSize() > dendriteGroup.peek().getConnectionSize()) {
+					dendriteGroup.poll();
+					dendriteGroup.add(pathway);
+				}
+			}
+			if (dendriteGroup.isEmpty()) {
+				continue;
+			}
+
+			double groupSize = 0;
+			for (Snapshot.PathwayState pathway : dendriteGroup) {
+				groupSize += pathway.getConnectionSize();
+			}
+			for (Snapshot.PathwayState pathway : dendriteGroup) {
+				double share = groupSize > 0
+						? pathway.getConnectionSize() / groupSize
+						: 1.0 / dendriteGroup.size();
+				Long reciever = pathway.getRecieverId();
+				Double before = _received.get(reciever);
+				_received.put(reciever, before == null ? sent * share : before + sent * share);
+			}
+		}
+	}
+
+	/**
+	 * Returns the _k Neurons in _totals with the most activation that
+	 * are not in _seeds, strongest first.
+	 * @param _totals
+	 * @param _depths
+	 * @param _seeds
+	 * @param _k
+	 * @return
+	 */
+	private ArrayList<Activation> strongest(HashMap<Long, Double> _totals, HashMap<Long, Integer> _depths, Set<Long> _seeds, int _k) {
+		ArrayList<Activation> strongest = new ArrayList<Activation>();
+		if (_k < 1) {
+			return strongest;
+		}
+		HashSet<Long> seeds = new HashSet<Long>(_seeds);
+		PriorityQueue<Activation> heap = new PriorityQueue<Activation>(_k, weakestFirst);
+		for (Entry<Long, Double> neuron : _totals.entrySet()) {
+			if (seeds.contains(neuron.getKey())) {
+				continue;
+			}
+			if (heap.size() < _k) {
+				heap.add(new Activation(neuron.getKey(), neuron.getValue(), _depths.get(neuron.getKey())));
+			} else if (neuron.getValue() > heap.peek().activation) {
+				heap.poll();
+				heap.add(new Activation(neuron.getKey(), neuron.getValue(), _depths.get(neuron.getKey())));
+			}
+		}
+		Activation[] sorted = heap.toArray(new Activation[heap.size()]);
+		Arrays.sort(sorted, Collections.reverseOrder(weakestFirst));
+		strongest.addAll(Arrays.asList(sorted));
+		return strongest;
+	}
+
+	/**
+	 * Fires the Neurons from {@link Step#from} up to {@link Step#to},
+	 * splitting until there are at most {@link SpreadingActivation#SPLIT_THRESHOLD}.
+	 * Neurons are not fired once the deadline has passed.
+	 */
+	private static class Step extends RecursiveTask<HashMap<Long, Double>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final SpreadingActivation engine;
+		private final Snapshot snapshot;
+		private final long[] ids;
+		private final double[] activations;
+		private final int from;
+		private final int to;
+		private final long deadline;
+
+		/**
+		 * First failure of any task.
+		 */
+		private final AtomicReference<Exception> failure;
+
+		Step(SpreadingActivation _engine, Snapshot _snapshot, long[] _ids, double[] _activations, int _from, int _to, long _deadline, AtomicReference<Exception> _failure) {
+			this.engine = _engine;
+			this.snapshot = _snapshot;
+			this.ids = _ids;
+			this.activations = _activations;
+			this.from = _from;
+			this.to = _to;
+			this.deadline = _deadline;
+			this.failure = _failure;
+		}
+
+		@Override
+		protected HashMap<Long, Double> compute() {
+			if (this.to - this.from <= SPLIT_THRESHOLD) {
+				HashMap<Long, Double> received = new HashMap<Long, Double>();
+				for (int i = this.from; i < this.to && this.failure.get() == null && System.nanoTime() < this.deadline; i++) {
+					try {
+						this.engine.fire(this.snapshot, this.ids[i], this.activations[i], received);
+					} catch (IOException e) {
+						this.failure.compareAndSet(null, e);
+					} catch (ParseException e) {
+						this.failure.compareAndSet(null, e);
+					}
+				}
+				return received;
+			}
+			int middle = (this.from + this.to) >>> 1;
+			Step left = new Step(this.engine, this.snapshot, this.ids, this.activations, this.from, middle, this.deadline, this.failure);
+			Step right = new Step(this.engine, this.snapshot, this.ids, this.activations, middle, this.to, this.deadline, this.failure);
+			left.fork();
+			HashMap<Long, Double> received = right.compute();
+			HashMap<Long, Double> other = left.join();
+			if (other.size() > received.size()) {
+				HashMap<Long, Double> swap = received;
+				received = other;
+				other = swap;
+			}
+			for (Entry<Long, Double> neuron : other.entrySet()) {
+				Double before = received.get(neuron.getKey());
+				received.put(neuron.getKey(), before == null ? neuron.getValue() : before + neuron.getValue());
+			}
+			return received;
+		}
+	}
+}
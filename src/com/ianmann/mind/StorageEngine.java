@@ -0,0 +1,383 @@
+package com.ianmann.mind;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+import com.ianmann.mind.core.Constants;
+import com.ianmann.utils.storage.IdAllocator;
+import com.ianmann.utils.storage.MemoryRecordStore;
+import com.ianmann.utils.storage.RecordStore;
+import com.ianmann.utils.storage.SegmentLog;
+
+/**
+ * <p>
+ * Decides where Neurons, NeuralPathways and everything kept alongside
+ * them (ids, labels and indexes) are stored. The engine in use is picked
+ * by name with {@link StorageEngine#use(String)}, which
+ * {@link Constants#readStorageVariables()} calls with the
+ * {@code STORAGE.ENGINE} entry of constants.json.
+ * </p>
+ * <p>
+ * The engines that come with the program are:
+ * </p>
+ * <p>
+ * {@value #FILE}: one json file per Neuron and pathway, written through
+ * {@link Neuron#journal()}. This is the default.<br>
+ * {@value #BINARY}: Neurons in the binary layout of {@link NeuronRecord},
+ * pathways in json files.<br>
+ * {@value #INLINE}: Neurons in the binary layout of {@link NeuronRecord}
+ * with their pathways packed into the same record.<br>
+ * {@value #LOG}: Neurons and pathways appended to {@link SegmentLog}s in
+ * {@link Constants#SEGMENT_ROOT}.<br>
+ * {@value #MEMORY}: everything on the heap. Nothing is read from or
+ * written to disk and the mind is gone when the program exits.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public abstract class StorageEngine {
+
+	public static final String FILE = "file";
+	public static final String BINARY = "binary";
+	public static final String INLINE = "inline";
+	public static final String LOG = "log";
+	public static final String MEMORY = "memory";
+
+	private static HashMap<String, StorageEngine> engines = new HashMap<String, StorageEngine>();
+
+	private static StorageEngine current;
+
+	/**
+	 * Removes the pathways nothing leads to from the storage of the engine
+	 * in use, on {@link StorageEngine#collectorThread}. Only run if
+	 * {@link Constants#COLLECT_PATHWAYS} is set, for engines that store
+	 * pathways in files.
+	 */
+	private static PathwayCollector collector;
+
+	private static Thread collectorThread;
+
+	static {
+		StorageEngine.register(new StorageEngine() {
+
+			@Override
+			public String getName() {
+				return FILE;
+			}
+
+			@Override
+			protected NeuronStorage createNeuronStorage() {
+				return new NeuronManager();
+			}
+
+			@Override
+			protected NeuralPathwayStorage createNeuralPathwayStorage() {
+				return new NeuralPathwayManager();
+			}
+
+			@Override
+			public boolean storesPathwayFiles() {
+				return true;
+			}
+		});
+		StorageEngine.register(new StorageEngine() {
+
+			@Override
+			public String getName() {
+				return BINARY;
+			}
+
+			@Override
+			protected NeuronStorage createNeuronStorage() {
+				return new BinaryNeuronManager();
+			}
+
+			@Override
+			protected NeuralPathwayStorage createNeuralPathwayStorage() {
+				return new NeuralPathwayManager();
+			}
+
+			@Override
+			public boolean storesPathwayFiles() {
+				return true;
+			}
+		});
+		StorageEngine.register(new StorageEngine() {
+
+			private InlineNeuronManager neurons;
+
+			@Override
+			public String getName() {
+				return INLINE;
+			}
+
+			@Override
+			protected NeuronStorage createNeuronStorage() throws IOException {
+				this.neurons = new InlineNeuronManager(this.openStore(new File(Constants.INDEX_ROOT + "owners/")));
+				return this.neurons;
+			}
+
+			@Override
+			protected NeuralPathwayStorage createNeuralPathwayStorage() {
+				// use() always creates the Neuron manager first.
+				return new InlineNeuralPathwayManager(this.neurons);
+			}
+		});
+		StorageEngine.register(new StorageEngine() {
+
+			@Override
+			public String getName() {
+				return LOG;
+			}
+
+			@Override
+			protected NeuronStorage createNeuronStorage() throws IOException {
+				return new LogStructuredNeuronManager(this.openStore(new File(Constants.SEGMENT_ROOT + "neurons/")));
+			}
+
+			@Override
+			protected NeuralPathwayStorage createNeuralPathwayStorage() throws IOException {
+				return new LogStructuredNeuralPathwayManager(this.openStore(new File(Constants.SEGMENT_ROOT + "pathways/")));
+			}
+		});
+		StorageEngine.register(new MemoryEngine());
+		current = engines.get(FILE);
+		Runtime.getRuntime().addShutdownHook(new Thread("storage-shutdown") {
+
+			@Override
+			public void run() {
+				try {
+					StorageEngine.shutdown();
+				} catch (IOException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the name the engine is picked by.
+	 * @return
+	 */
+	public abstract String getName();
+
+	/**
+	 * Returns the storage Neurons are kept in while this engine is in
+	 * use. Called by {@link StorageEngine#use(String)} before
+	 * {@link StorageEngine#createNeuralPathwayStorage()}.
+	 * @return
+	 * @throws IOException if the storage could not be opened.
+	 */
+	protected abstract NeuronStorage createNeuronStorage() throws IOException;
+
+	/**
+	 * Returns the storage NeuralPathways are kept in while this engine is
+	 * in use.
+	 * @return
+	 * @throws IOException if the storage could not be opened.
+	 */
+	protected abstract NeuralPathwayStorage createNeuralPathwayStorage() throws IOException;
+
+	/**
+	 * Open the {@link RecordStore} kept in _directory. Indexes are
+	 * stored in these. The {@link SegmentLog} is compacted in the
+	 * background until it is closed.
+	 * @param _directory
+	 * @return
+	 * @throws IOException
+	 */
+	public RecordStore openStore(File _directory) throws IOException {
+		SegmentLog log = new SegmentLog(_directory);
+		log.startCompactor(SegmentLog.Compactor.DEFAULT_INTERVAL);
+		return log;
+	}
+
+	/**
+	 * Returns the allocator of ids checkpointed in _checkpointFile.
+	 * @param _checkpointFile
+	 * @return
+	 * @throws IOException
+	 */
+	public IdAllocator idAllocator(File _checkpointFile) throws IOException {
+		return IdAllocator.forFile(_checkpointFile);
+	}
+
+	/**
+	 * Returns whether what is stored outlives the program. Indexes of an
+	 * engine that is not persistent start out empty instead of being
+	 * built from the files on disk.
+	 * @return
+	 */
+	public boolean isPersistent() {
+		return true;
+	}
+
+	/**
+	 * Returns whether pathways are kept one per file in
+	 * {@link Constants#PATHWAY_ROOT}. Those are the only files a
+	 * {@link PathwayCollector} sweeps, so it is only run for engines
+	 * that do.
+	 * @return
+	 */
+	public boolean storesPathwayFiles() {
+		return false;
+	}
+
+	/**
+	 * Make _engine available to {@link StorageEngine#use(String)} under
+	 * its name, replacing any engine with the same name.
+	 * @param _engine
+	 */
+	public static synchronized void register(StorageEngine _engine) {
+		engines.put(_engine.getName(), _engine);
+	}
+
+	/**
+	 * Store everything with the engine called _name from now on. Changes
+	 * waiting in {@link NeuralPathway#writeBehind} are written with the
+	 * previous engine, then its indexes and stores are closed and the
+	 * caches are dropped so nothing stored with it is returned. Labeled
+	 * Neurons the new engine has stored without an id are given one.
+	 * @param _name
+	 * @return The engine now in use.
+	 * @throws IOException if the previous engine could not be closed or
+	 * the new one could not open its storage.
+	 * @throws IllegalArgumentException if no engine is called _name.
+	 */
+	public static synchronized StorageEngine use(String _name) throws IOException {
+		StorageEngine engine = engines.get(_name);
+		if (engine == null) {
+			throw new IllegalArgumentException("There is no storage engine called " + _name);
+		}
+		StorageEngine.stopCollector();
+		NeuralPathway.writeBehind.flush();
+		StorageEngine.closeStorage();
+		NeuronStorage neurons = engine.createNeuronStorage();
+		NeuralPathwayStorage pathways = engine.createNeuralPathwayStorage();
+		current = engine;
+		Neuron.storage = neurons;
+		NeuralPathway.storage = pathways;
+		StorageIds.resetLabels();
+		StorageIds.recordMissingIds();
+		StorageEngine.startCollector();
+		return engine;
+	}
+
+	/**
+	 * Write the changes waiting in {@link NeuralPathway#writeBehind} and
+	 * close everything the engine in use has open. Called when the
+	 * program exits, so the indexes do not have to be rebuilt the next
+	 * time it starts. Nothing can be stored afterwards until
+	 * {@link StorageEngine#use(String)} is called again.
+	 * @throws IOException
+	 */
+	public static synchronized void shutdown() throws IOException {
+		StorageEngine.stopCollector();
+		NeuralPathway.writeBehind.close();
+		StorageEngine.closeStorage();
+	}
+
+	/**
+	 * Start a {@link PathwayCollector} for the engine in use if
+	 * {@link Constants#COLLECT_PATHWAYS} is set and the engine stores
+	 * pathways in files.
+	 */
+	private static void startCollector() {
+		if (!Constants.COLLECT_PATHWAYS || !current.storesPathwayFiles()) {
+			return;
+		}
+		collector = new PathwayCollector(PathwayCollector.DEFAULT_INTERVAL);
+		collectorThread = new Thread(collector, "pathway-collector");
+		collectorThread.setDaemon(true);
+		collectorThread.start();
+	}
+
+	/**
+	 * Stop the running {@link PathwayCollector}, if any, and wait for the
+	 * batch it is on so nothing is collected from a closed store.
+	 */
+	private static void stopCollector() {
+		if (collector == null) {
+			return;
+		}
+		collector.terminate();
+		try {
+			collectorThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		collector = null;
+		collectorThread = null;
+	}
+
+	/**
+	 * Close the indexes and the stores of the Neuron and NeuralPathway
+	 * managers in use and drop the caches.
+	 * @throws IOException
+	 */
+	private static void closeStorage() throws IOException {
+		try {
+			Neuron.resetStorage();
+		} finally {
+			try {
+				Neuron.storage.close();
+			} finally {
+				NeuralPathway.storage.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns the engine in use.
+	 * @return
+	 */
+	public static synchronized StorageEngine current() {
+		return current;
+	}
+
+	/**
+	 * Keeps every Neuron, pathway, id, label and index on the heap.
+	 */
+	private static class MemoryEngine extends StorageEngine {
+
+		private HashMap<String, IdAllocator> allocators = new HashMap<String, IdAllocator>();
+
+		@Override
+		public String getName() {
+			return MEMORY;
+		}
+
+		@Override
+		protected NeuronStorage createNeuronStorage() {
+			return new LogStructuredNeuronManager(new MemoryRecordStore());
+		}
+
+		@Override
+		protected NeuralPathwayStorage createNeuralPathwayStorage() {
+			return new LogStructuredNeuralPathwayManager(new MemoryRecordStore());
+		}
+
+		@Override
+		public RecordStore openStore(File _directory) {
+			return new MemoryRecordStore();
+		}
+
+		@Override
+		public synchronized IdAllocator idAllocator(File _checkpointFile) {
+			String key = _checkpointFile.getAbsolutePath();
+			IdAllocator allocator = this.allocators.get(key);
+			if (allocator == null) {
+				allocator = IdAllocator.inMemory();
+				this.allocators.put(key, allocator);
+			}
+			return allocator;
+		}
+
+		@Override
+		public boolean isPersistent() {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,392 @@
+package com.ianmann.mind;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Scanner;
+
+import com.ianmann.mind.core.Constants;
+import com.ianmann.utils.storage.IdAllocator;
+import com.ianmann.utils.utilities.GeneralUtils;
+
+/**
+ * <p>
+ * Converts between the primitive ids that Neurons and NeuralPathways are
+ * addressed by and the files they are stored in. Paths are only built
+ * here, where an object is read from or written to storage.
+ * </p>
+ * <p>
+ * Neurons and NeuralPathways created without a label are stored in a file
+ * named with their id. Neurons created with a label keep the label as
+ * their file name so they can still be found by it. Their id comes from
+ * the same {@link IdAllocator} as every other Neuron and is recorded in
+ * the labels file in {@link Constants#NEURON_ROOT}, one
+ * {@code id<TAB>label} line per Neuron, when the Neuron is first saved.
+ * Labeled Neurons stored before their id was recorded, such as those
+ * that come with the program, are given one by
+ * {@link StorageIds#recordMissingIds()} when the store is opened.
+ * Reading an id never writes anything.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public final class StorageIds {
+
+	public static final String NEURON_EXTENSION = ".nrn";
+	public static final String PATHWAY_EXTENSION = ".tlink";
+
+	/**
+	 * Ids of labeled Neurons by their path relative to
+	 * {@link Constants#NEURON_ROOT} without the extension.
+	 */
+	private static HashMap<String, Long> labelIds;
+
+	/**
+	 * Reverse of {@link StorageIds#labelIds}.
+	 */
+	private static HashMap<Long, String> idLabels;
+
+	private StorageIds() {}
+
+	/**
+	 * Returns the id of the Neuron stored at _pathFromNeuronRoot. Nothing
+	 * is written, so a labeled Neuron must have been given its id by
+	 * {@link StorageIds#assignNeuronId(String)} when it was saved.
+	 * @param _pathFromNeuronRoot
+	 * @return
+	 * @throws IOException if the labels file could not be read or has no
+	 * id for the Neuron's label.
+	 */
+	public static long neuronId(String _pathFromNeuronRoot) throws IOException {
+		Long id = StorageIds.recordedNeuronId(_pathFromNeuronRoot);
+		if (id == null) {
+			throw new IOException(_pathFromNeuronRoot + " has no id recorded in " + StorageIds.labelsFile().getPath());
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of the Neuron stored at _pathFromNeuronRoot. If the
+	 * Neuron is labeled and has no id yet, one is allocated and recorded
+	 * in the labels file. Only called when a Neuron is saved.
+	 * @param _pathFromNeuronRoot
+	 * @return
+	 * @throws IOException if a new id could not be recorded.
+	 */
+	static long assignNeuronId(String _pathFromNeuronRoot) throws IOException {
+		String name = StorageIds.stripExtension(_pathFromNeuronRoot, NEURON_EXTENSION);
+		if (GeneralUtils.isNumeric(name)) {
+			return Long.parseLong(name);
+		}
+		return StorageIds.assignLabelId(name);
+	}
+
+	/**
+	 * Returns the path of the file that the Neuron with _id is stored in.
+	 * @param _id
+	 * @return
+	 * @throws IOException if the labels file could not be read.
+	 */
+	public static String neuronPath(long _id) throws IOException {
+		String label = StorageIds.label(_id);
+		return Constants.NEURON_ROOT + (label == null ? String.valueOf(_id) : label) + NEURON_EXTENSION;
+	}
+
+	/**
+	 * Returns the id of the pathway stored at _pathFromPathwayRoot.
+	 * @param _pathFromPathwayRoot
+	 * @return
+	 */
+	public static long pathwayId(String _pathFromPathwayRoot) {
+		String name = StorageIds.stripExtension(_pathFromPathwayRoot, PATHWAY_EXTENSION);
+		if (!GeneralUtils.isNumeric(name)) {
+			throw new IllegalArgumentException(_pathFromPathwayRoot + " does not have a numeric pathway id.");
+		}
+		return Long.parseLong(name);
+	}
+
+	/**
+	 * Returns the path of the pathway with _id relative to
+	 * {@link Constants#PATHWAY_ROOT}. This is how pathways are referenced
+	 * in Neuron json.
+	 * @param _id
+	 * @return
+	 */
+	public static String pathwayName(long _id) {
+		return String.valueOf(_id) + PATHWAY_EXTENSION;
+	}
+
+	/**
+	 * Returns the path of the file that the pathway with _id is stored in.
+	 * @param _id
+	 * @return
+	 */
+	public static String pathwayPath(long _id) {
+		return Constants.PATHWAY_ROOT + StorageIds.pathwayName(_id);
+	}
+
+	/**
+	 * Returns the id of every Neuron stored by the {@link StorageEngine}
+	 * in use.
+	 * @return
+	 * @throws IOException if the labels file could not be read or a
+	 * labeled Neuron has no recorded id.
+	 */
+	public static ArrayList<Long> listNeuronIds() throws IOException {
+		ArrayList<String> unrecorded = new ArrayList<String>();
+		ArrayList<Long> ids = StorageIds.listNeuronIds(unrecorded);
+		if (!unrecorded.isEmpty()) {
+			throw new IOException(unrecorded.get(0) + " has no id recorded in " + StorageIds.labelsFile().getPath());
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the id of every stored Neuron that has one and adds the path
+	 * of every labeled Neuron with no recorded id to _unrecorded. Used by
+	 * {@link IntegrityChecker} to find and repair them.
+	 * @param _unrecorded
+	 * @return
+	 * @throws IOException if the labels file could not be read.
+	 */
+	static ArrayList<Long> listNeuronIds(ArrayList<String> _unrecorded) throws IOException {
+		return Neuron.storage.listIds(_unrecorded);
+	}
+
+	/**
+	 * Returns the id of every Neuron file in {@link Constants#NEURON_ROOT}
+	 * and the category folders below it, for the engines that store a
+	 * file per Neuron. Labeled files with no recorded id are added to
+	 * _unrecorded.
+	 * @param _unrecorded
+	 * @return
+	 * @throws IOException if the labels file could not be read.
+	 */
+	static ArrayList<Long> listNeuronFiles(ArrayList<String> _unrecorded) throws IOException {
+		ArrayList<Long> ids = new ArrayList<Long>();
+		StorageIds.collectNeuronIds(new File(Constants.NEURON_ROOT), "", ids, _unrecorded);
+		return ids;
+	}
+
+	/**
+	 * Returns the id of the Neuron stored at _pathFromNeuronRoot, or null
+	 * if it is labeled and has no recorded id.
+	 * @param _pathFromNeuronRoot
+	 * @return
+	 * @throws IOException if the labels file could not be read.
+	 */
+	static Long recordedNeuronId(String _pathFromNeuronRoot) throws IOException {
+		String name = StorageIds.stripExtension(_pathFromNeuronRoot, NEURON_EXTENSION);
+		return GeneralUtils.isNumeric(name) ? Long.valueOf(name) : StorageIds.labelId(name);
+	}
+
+	/**
+	 * Record an id for every labeled Neuron that is stored without one,
+	 * so every stored Neuron has an id that can be read without writing
+	 * anything. Called by {@link StorageEngine#use(String)} once the
+	 * store is open.
+	 * @return The number of ids recorded.
+	 * @throws IOException if the labels file could not be read or written.
+	 */
+	static int recordMissingIds() throws IOException {
+		if (!StorageEngine.current().isPersistent()) {
+			return 0;
+		}
+		ArrayList<String> unrecorded = new ArrayList<String>();
+		StorageIds.listNeuronIds(unrecorded);
+		for (String path : unrecorded) {
+			StorageIds.assignNeuronId(path);
+		}
+		return unrecorded.size();
+	}
+
+	/**
+	 * Returns a new id for a Neuron.
+	 * @return
+	 * @throws IOException
+	 */
+	static long newNeuronId() throws IOException {
+		return StorageEngine.current().idAllocator(new File(Constants.NEURON_ROOT + "ids")).next();
+	}
+
+	/**
+	 * Returns a new id for a NeuralPathway.
+	 * @return
+	 * @throws IOException
+	 */
+	static long newPathwayId() throws IOException {
+		return StorageEngine.current().idAllocator(new File(Constants.PATHWAY_ROOT + "ids")).next();
+	}
+
+	/**
+	 * Returns the first of _count consecutive new ids for Neurons.
+	 * @param _count
+	 * @return
+	 * @throws IOException
+	 */
+	static long newNeuronIds(long _count) throws IOException {
+		return StorageEngine.current().idAllocator(new File(Constants.NEURON_ROOT + "ids")).next(_count);
+	}
+
+	/**
+	 * Returns the first of _count consecutive new ids for NeuralPathways.
+	 * @param _count
+	 * @return
+	 * @throws IOException
+	 */
+	static long newPathwayIds(long _count) throws IOException {
+		return StorageEngine.current().idAllocator(new File(Constants.PATHWAY_ROOT + "ids")).next(_count);
+	}
+
+	/**
+	 * Forget the labels read so far so they are read again for the
+	 * {@link StorageEngine} in use.
+	 */
+	static synchronized void resetLabels() {
+		labelIds = null;
+		idLabels = null;
+	}
+
+	/**
+	 * Returns the id recorded for _label or null if it does not have one.
+	 * @param _label
+	 * @return
+	 * @throws IOException
+	 */
+	private static synchronized Long labelId(String _label) throws IOException {
+		StorageIds.loadLabels();
+		return labelIds.get(_label);
+	}
+
+	/**
+	 * Returns the id recorded for _label, allocating and recording one
+	 * if it does not have one yet.
+	 * @param _label
+	 * @return
+	 * @throws IOException
+	 */
+	private static synchronized long assignLabelId(String _label) throws IOException {
+		StorageIds.loadLabels();
+		Long id = labelIds.get(_label);
+		if (id == null) {
+			id = StorageIds.newNeuronId();
+			StorageIds.appendLabel(id, _label);
+			labelIds.put(_label, id);
+			idLabels.put(id, _label);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the label recorded for _id or null if the Neuron with
+	 * _id is not labeled.
+	 * @param _id
+	 * @return
+	 * @throws IOException
+	 */
+	private static synchronized String label(long _id) throws IOException {
+		StorageIds.loadLabels();
+		return idLabels.get(_id);
+	}
+
+	/**
+	 * Read the labels file the first time it is needed.
+	 * @throws IOException
+	 */
+	private static void loadLabels() throws IOException {
+		if (labelIds != null) {
+			return;
+		}
+		HashMap<String, Long> ids = new HashMap<String, Long>();
+		HashMap<Long, String> labels = new HashMap<Long, String>();
+		File labelsFile = StorageIds.labelsFile();
+		if (StorageEngine.current().isPersistent() && labelsFile.exists()) {
+			Scanner s = new Scanner(labelsFile, "UTF-8");
+			try {
+				while (s.hasNextLine()) {
+					String line = s.nextLine();
+					int tab = line.indexOf('\t');
+					if (tab < 0) {
+						// Torn last line from a crash while recording a label.
+						continue;
+					}
+					long id = Long.parseLong(line.substring(0, tab));
+					String label = line.substring(tab + 1);
+					ids.put(label, id);
+					labels.put(id, label);
+				}
+			} finally {
+				s.close();
+			}
+		}
+		labelIds = ids;
+		idLabels = labels;
+	}
+
+	/**
+	 * Record _label's id at the end of the labels file and force it to disk.
+	 * @param _id
+	 * @param _label
+	 * @throws IOException
+	 */
+	private static void appendLabel(long _id, String _label) throws IOException {
+		if (!StorageEngine.current().isPersistent()) {
+			return;
+		}
+		FileOutputStream out = new FileOutputStream(StorageIds.labelsFile(), true);
+		try {
+			out.write((_id + "\t" + _label + "\n").getBytes(StandardCharsets.UTF_8));
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Add the id of every Neuron file under _folder to _ids.
+	 * @param _folder
+	 * @param _pathFromNeuronRoot Path of _folder relative to {@link Constants#NEURON_ROOT}.
+	 * @param _ids
+	 * @param _unrecorded Paths of labeled Neuron files with no recorded id.
+	 * @throws IOException
+	 */
+	private static void collectNeuronIds(File _folder, String _pathFromNeuronRoot, ArrayList<Long> _ids, ArrayList<String> _unrecorded) throws IOException {
+		File[] files = _folder.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String path = _pathFromNeuronRoot + file.getName();
+			if (file.isDirectory()) {
+				StorageIds.collectNeuronIds(file, path + "/", _ids, _unrecorded);
+			} else if (file.getName().endsWith(NEURON_EXTENSION)) {
+				Long id = StorageIds.recordedNeuronId(path);
+				if (id == null) {
+					_unrecorded.add(path);
+				} else {
+					_ids.add(id);
+				}
+			}
+		}
+	}
+
+	private static File labelsFile() {
+		return new File(Constants.NEURON_ROOT + "labels");
+	}
+
+	/**
+	 * Returns _path without _extension on the end.
+	 * @param _path
+	 * @param _extension
+	 * @return
+	 */
+	private static String stripExtension(String _path, String _extension) {
+		if (_path.endsWith(_extension)) {
+			return _path.substring(0, _path.length() - _extension.length());
+		}
+		return _path;
+	}
+}
@@ -0,0 +1,308 @@
+package com.ianmann.mind;
+
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+import com.ianmann.utils.storage.UnitOfWork;
+
+/**
+ * <p>
+ * Collects the changes that {@link NeuralPathway#fireSynapse()} makes to
+ * {@code connectionSize} in memory instead of saving the pathway every
+ * time it is fired. The changes are written out in batches when
+ * {@link SynapseWriteBehind#maxPending} pathways are waiting, when
+ * {@link SynapseWriteBehind#flushInterval} milliseconds have passed, or
+ * when {@link SynapseWriteBehind#flush()} or
+ * {@link SynapseWriteBehind#close()} is called.
+ * </p>
+ * <p>
+ * A pathway loaded while a change is waiting has the change added to
+ * the stored size, so reads always see the buffered value. A flush
+ * writes its whole batch in one {@link UnitOfWork}. Until that is
+ * committed, a pathway in the batch is loaded with the size the flush
+ * is writing for it, whichever size was read from storage. A load that
+ * started before a flush finished is read again, so a change is never
+ * counted both in storage and in this buffer.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class SynapseWriteBehind implements Runnable {
+
+	/**
+	 * Default milliseconds between timed flushes.
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+	/**
+	 * Default number of waiting pathways that causes a flush.
+	 */
+	public static final int DEFAULT_MAX_PENDING = 512;
+
+	private volatile boolean running = true;
+
+	/**
+	 * Milliseconds between timed flushes.
+	 */
+	private long flushInterval;
+
+	/**
+	 * Number of waiting pathways that causes a flush.
+	 */
+	private int maxPending;
+
+	/**
+	 * Change in connection size waiting to be written for each pathway,
+	 * keyed by the pathway's id.
+	 */
+	private HashMap<Long, Double> pending = new HashMap<Long, Double>();
+
+	/**
+	 * Changes taken out of {@link SynapseWriteBehind#pending} by a flush
+	 * that is currently writing them.
+	 */
+	private HashMap<Long, Double> inFlight = new HashMap<Long, Double>();
+
+	/**
+	 * Connection size the running flush is writing for each pathway in
+	 * {@link SynapseWriteBehind#inFlight} it has read so far.
+	 */
+	private HashMap<Long, Double> staged = new HashMap<Long, Double>();
+
+	/**
+	 * Number of flushes that have finished. A pathway read from storage
+	 * before this last changed may be missing changes that are no
+	 * longer in {@link SynapseWriteBehind#inFlight}.
+	 */
+	private long generation = 0;
+
+	/**
+	 * Whether the flusher has been asked to flush without waiting for
+	 * the interval to pass.
+	 */
+	private boolean flushRequested = false;
+
+	/**
+	 * Thread that does the timed flushes. Started on the first change.
+	 */
+	private Thread flusher;
+
+	/**
+	 * Lock that keeps two flushes from writing at the same time.
+	 */
+	private final Object flushLock = new Object();
+
+	/**
+	 * Creates a write-behind buffer with the default interval and size.
+	 */
+	public SynapseWriteBehind() {
+		this(DEFAULT_FLUSH_INTERVAL, DEFAULT_MAX_PENDING);
+	}
+
+	/**
+	 * Creates a write-behind buffer that flushes every _flushInterval
+	 * milliseconds or once _maxPending pathways are waiting.
+	 * @param _flushInterval
+	 * @param _maxPending
+	 */
+	public SynapseWriteBehind(long _flushInterval, int _maxPending) {
+		this.flushInterval = _flushInterval;
+		this.maxPending = _maxPending;
+	}
+
+	/**
+	 * Record that _pathway's connection size changed by _delta.
+	 * @param _pathway
+	 * @param _delta
+	 */
+	void add(NeuralPathway _pathway, double _delta) {
+		boolean full;
+		synchronized (this) {
+			long key = _pathway.getId();
+			Double current = this.pending.get(key);
+			this.pending.put(key, current == null ? _delta : current + _delta);
+			full = this.pending.size() >= this.maxPending;
+			this.startFlusher();
+			if (full && UnitOfWork.current() != null) {
+				// Writes made here would wait for the caller's unit of work.
+				this.flushRequested = true;
+				this.notifyAll();
+				full = false;
+			}
+		}
+		if (full) {
+			this.flush();
+		}
+	}
+
+	/**
+	 * Returns the number of flushes that have finished. Read it before
+	 * reading a pathway from storage and pass it to
+	 * {@link SynapseWriteBehind#connectionSize(long, double, long)}.
+	 * @return
+	 */
+	synchronized long generation() {
+		return this.generation;
+	}
+
+	/**
+	 * Returns the connection size of the pathway with _id, including every
+	 * change that has not been written yet, given that _storedSize was read
+	 * from storage after {@link SynapseWriteBehind#generation()} returned
+	 * _generation.
+	 * @param _id
+	 * @param _storedSize
+	 * @param _generation
+	 * @return The size, or null if a flush has finished since and the
+	 * pathway must be read from storage again.
+	 */
+	synchronized Double connectionSize(long _id, double _storedSize, long _generation) {
+		if (_generation != this.generation) {
+			return null;
+		}
+		Double size = this.staged.get(_id);
+		if (size == null) {
+			size = _storedSize;
+			Double writing = this.inFlight.get(_id);
+			if (writing != null) {
+				size += writing;
+			}
+		}
+		Double waiting = this.pending.get(_id);
+		if (waiting != null) {
+			size += waiting;
+		}
+		return size;
+	}
+
+	/**
+	 * Record that the running flush is writing _connectionSize for the
+	 * pathway with _id.
+	 * @param _id
+	 * @param _connectionSize
+	 */
+	synchronized void staged(long _id, double _connectionSize) {
+		this.staged.put(_id, _connectionSize);
+	}
+
+	/**
+	 * Returns the change in connection size that has not been written
+	 * yet for the pathway with _id.
+	 * @param _id
+	 * @return
+	 */
+	synchronized double pendingDelta(long _id) {
+		double delta = 0;
+		Double waiting = this.pending.get(_id);
+		if (waiting != null) {
+			delta += waiting;
+		}
+		Double writing = this.inFlight.get(_id);
+		if (writing != null) {
+			delta += writing;
+		}
+		return delta;
+	}
+
+	/**
+	 * Forget any change waiting for the pathway with _id. Used
+	 * when the pathway is deleted.
+	 * @param _id
+	 */
+	synchronized void discard(long _id) {
+		this.pending.remove(_id);
+	}
+
+	/**
+	 * Write every waiting change to storage in one {@link UnitOfWork}.
+	 * If the writes fail, the changes are kept to be written by the next
+	 * flush.
+	 * @throws IllegalStateException if a unit of work is open on this
+	 * thread, since nothing would be written until it is committed.
+	 */
+	public void flush() {
+		if (UnitOfWork.current() != null) {
+			throw new IllegalStateException("Cannot flush pathway changes inside a unit of work.");
+		}
+		synchronized (this.flushLock) {
+			HashMap<Long, Double> batch;
+			synchronized (this) {
+				if (this.pending.isEmpty()) {
+					return;
+				}
+				batch = this.pending;
+				this.inFlight = batch;
+				this.pending = new HashMap<Long, Double>();
+			}
+
+			boolean written = false;
+			try {
+				NeuralPathway.applyStoredDeltas(batch, this);
+				written = true;
+			} finally {
+				synchronized (this) {
+					if (!written) {
+						for (Entry<Long, Double> change : batch.entrySet()) {
+							Double waiting = this.pending.get(change.getKey());
+							this.pending.put(change.getKey(), waiting == null ? change.getValue() : waiting + change.getValue());
+						}
+					}
+					// Every change in the batch is in storage now, or back in pending.
+					this.inFlight = new HashMap<Long, Double>();
+					this.staged = new HashMap<Long, Double>();
+					this.generation++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Flush every waiting change and stop the timed flushes.
+	 */
+	public void close() {
+		synchronized (this) {
+			this.running = false;
+			// Woken rather than interrupted, since an interrupt during a
+			// flush would close the files it is writing.
+			this.notifyAll();
+		}
+		this.flush();
+	}
+
+	/**
+	 * Start the thread that does the timed flushes if it is not running.
+	 */
+	private void startFlusher() {
+		if (this.flusher == null && this.running) {
+			this.flusher = new Thread(this, "synapse-write-behind");
+			this.flusher.setDaemon(true);
+			this.flusher.start();
+		}
+	}
+
+	/**
+	 * Flush every {@link SynapseWriteBehind#flushInterval} milliseconds
+	 * until {@link SynapseWriteBehind#close()} is called.
+	 */
+	@Override
+	public void run() {
+		while (this.running) {
+			synchronized (this) {
+				if (!this.flushRequested && this.running) {
+					try {
+						this.wait(this.flushInterval);
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+				this.flushRequested = false;
+			}
+			try {
+				this.flush();
+			} catch (RuntimeException e) {
+				// The changes are kept for the next flush.
+				e.printStackTrace();
+			}
+		}
+	}
+}
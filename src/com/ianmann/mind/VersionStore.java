@@ -0,0 +1,767 @@
+package com.ianmann.mind;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.json.simple.parser.ParseException;
+
+/**
+ * <p>
+ * Keeps the versions of Neurons and NeuralPathways that open
+ * {@link Snapshot}s may still read. Every save or delete made by
+ * {@link NeuronManager} and {@link NeuralPathwayManager} is published
+ * here with the number of the commit it belongs to before it is written
+ * to storage, and taken back if the write fails. A
+ * {@link com.ianmann.utils.storage.UnitOfWork} is one commit, so its
+ * writes become visible together.
+ * </p>
+ * <p>
+ * Each Neuron or pathway that has been published or read through a
+ * snapshot has a chain of versions, newest first. A snapshot reads the
+ * newest version in the chain that is no newer than the commit it
+ * pinned. Anything not in a chain has not changed since it was last
+ * read, so it is read from storage and becomes the oldest version of a
+ * new chain.
+ * </p>
+ * <p>
+ * Writers publish under a short lock that is never held while a file
+ * is read or written, so commits from many threads still share journal
+ * syncs.
+ * Readers never take it. Pinning a commit, walking a chain and starting
+ * a chain are all done with volatile reads and concurrent collections.
+ * </p>
+ * <p>
+ * When a commit finishes or a snapshot closes, every version older than
+ * the one the oldest open snapshot needs is dropped. Chains that only
+ * hold a deleted Neuron or pathway are dropped with them, and once there
+ * are more than {@link VersionStore#maxChains} chains, chains with a
+ * single version are dropped too since storage holds the same thing.
+ * </p>
+ * <p>
+ * Nothing is published until the first snapshot is opened, so programs
+ * that never open one pay nothing but the commit counter. The first
+ * snapshot waits for the commits that were already running to finish.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+class VersionStore {
+
+	/**
+	 * Default number of chains kept before chains with one version are dropped.
+	 */
+	static final int DEFAULT_MAX_CHAINS = 64 * 1024;
+
+	/**
+	 * One version of a Neuron or pathway.
+	 */
+	private static final class Version {
+
+		final long commit;
+
+		/**
+		 * A {@link Snapshot.NeuronState}, a {@link Snapshot.PathwayState}
+		 * or null if it was deleted in this commit.
+		 */
+		final Object state;
+
+		/**
+		 * The version before this one or null if no open snapshot needs it.
+		 */
+		volatile Version older;
+
+		Version(long _commit, Object _state) {
+			this.commit = _commit;
+			this.state = _state;
+		}
+	}
+
+	/**
+	 * Commit that a thread's writes are published under.
+	 */
+	private static final class Commit {
+		long number;
+		int depth = 0;
+
+		/**
+		 * Whether snapshots were in use when the commit started.
+		 */
+		boolean publishing;
+
+		/**
+		 * Ids of the Neurons and pathways published in this commit.
+		 */
+		final HashSet<Long> neurons = new HashSet<Long>();
+		final HashSet<Long> pathways = new HashSet<Long>();
+	}
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final ThreadLocal<Commit> commits = new ThreadLocal<Commit>();
+
+	private final ConcurrentHashMap<Long, Version> neurons = new ConcurrentHashMap<Long, Version>();
+	private final ConcurrentHashMap<Long, Version> pathways = new ConcurrentHashMap<Long, Version>();
+
+	/**
+	 * Ids of the chains in {@link VersionStore#neurons} and
+	 * {@link VersionStore#pathways} that hold more than one version or a
+	 * deleted one. Guarded by {@link VersionStore#lock}.
+	 */
+	private final HashSet<Long> oldNeurons = new HashSet<Long>();
+	private final HashSet<Long> oldPathways = new HashSet<Long>();
+
+	/**
+	 * Open snapshots ordered by the commit they pinned.
+	 */
+	private final ConcurrentSkipListSet<Snapshot> pinned = new ConcurrentSkipListSet<Snapshot>();
+
+	/**
+	 * Number of the last commit started. Guarded by {@link VersionStore#lock}.
+	 */
+	private long reserved = 0;
+
+	/**
+	 * Commits that have finished after a commit before them that has not.
+	 * Guarded by {@link VersionStore#lock}.
+	 */
+	private final TreeSet<Long> finished = new TreeSet<Long>();
+
+	/**
+	 * Newest commit that it and every commit before it have finished.
+	 */
+	private volatile long latest = 0;
+
+	/**
+	 * Newest commit seen by the last reclaim. A snapshot may only pin a
+	 * commit at least this new, since older versions may be gone.
+	 */
+	private volatile long reclaimed = 0;
+
+	private volatile boolean enabled = false;
+
+	/**
+	 * Last commit started before publishing was turned on.
+	 */
+	private volatile long unpublished = 0;
+
+	private int maxChains;
+
+	/**
+	 * Number of chains removed from {@link VersionStore#neurons} and
+	 * {@link VersionStore#pathways} so far. A state read from storage can
+	 * only start a chain if this has not changed since before it was
+	 * read, since a chain removed in between may have held a newer
+	 * write. Changed under {@link VersionStore#lock}.
+	 */
+	private volatile long removals = 0;
+
+	/**
+	 * What a Neuron was last read from or written to storage as. Kept on
+	 * the Neuron so that the first save after it can start its chain
+	 * without reading storage again.
+	 */
+	static final class Stored {
+
+		final VersionStore store;
+
+		/**
+		 * {@link VersionStore#removals} from before the state was read
+		 * or written.
+		 */
+		final long removals;
+
+		final Snapshot.NeuronState state;
+
+		Stored(VersionStore _store, long _removals, Snapshot.NeuronState _state) {
+			this.store = _store;
+			this.removals = _removals;
+			this.state = _state;
+		}
+	}
+
+	VersionStore() {
+		this(DEFAULT_MAX_CHAINS);
+	}
+
+	VersionStore(int _maxChains) {
+		this.maxChains = _maxChains;
+	}
+
+	/**
+	 * Take back the version this thread's commit published for the
+	 * Neuron with _id, because it could not be written. The commit has
+	 * not ended, so no snapshot has seen it.
+	 * @param _id
+	 */
+	void unpublishNeuron(long _id) {
+		this.unpublish(this.neurons, _id);
+	}
+
+	/**
+	 * Take back the version this thread's commit published for the
+	 * pathway with _id, because it could not be written.
+	 * @param _id
+	 */
+	void unpublishPathway(long _id) {
+		this.unpublish(this.pathways, _id);
+	}
+
+	/**
+	 * Take back every version this thread's commit has published, because
+	 * none of its writes reached storage.
+	 */
+	void rollback() {
+		Commit commit = this.commits.get();
+		if (commit == null || !commit.publishing) {
+			return;
+		}
+		for (long id : commit.neurons.toArray(new Long[0])) {
+			this.unpublish(this.neurons, id);
+		}
+		for (long id : commit.pathways.toArray(new Long[0])) {
+			this.unpublish(this.pathways, id);
+		}
+	}
+
+	/**
+	 * Start publishing writes. Commits started from now on publish.
+	 */
+	private void enable() {
+		this.lock.lock();
+		try {
+			if (!this.enabled) {
+				this.unpublished = this.reserved;
+				this.enabled = true;
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait for the commits that started before publishing was turned on.
+	 * They write files without publishing, so nothing read from storage
+	 * can be trusted until they finish. Only the first snapshot and the
+	 * commits that start while it opens ever wait here.
+	 */
+	private void awaitUnpublished() {
+		while (this.latest < this.unpublished) {
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Pin the newest finished commit for _snapshot.
+	 * @param _snapshot
+	 * @return The commit pinned.
+	 */
+	long pin(Snapshot _snapshot) {
+		if (!this.enabled) {
+			this.enable();
+		}
+		this.awaitUnpublished();
+		while (true) {
+			long commit = this.latest;
+			_snapshot.setVersion(commit);
+			this.pinned.add(_snapshot);
+			// Anything older than the last reclaim may already be gone.
+			if (commit >= this.reclaimed) {
+				return commit;
+			}
+			this.pinned.remove(_snapshot);
+		}
+	}
+
+	/**
+	 * Release the commit pinned by _snapshot.
+	 * @param _snapshot
+	 */
+	void unpin(Snapshot _snapshot) {
+		this.pinned.remove(_snapshot);
+		if (this.lock.tryLock()) {
+			try {
+				this.reclaim();
+			} finally {
+				this.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Start a commit on this thread, or join the one already started.
+	 * The outermost call must be made before the journal batch the
+	 * commit is written in is started, since it may wait for commits
+	 * that still have to write theirs.
+	 */
+	void beginCommit() {
+		Commit commit = this.commits.get();
+		if (commit == null) {
+			commit = new Commit();
+			this.lock.lock();
+			try {
+				commit.number = ++this.reserved;
+				commit.publishing = this.enabled;
+			} finally {
+				this.lock.unlock();
+			}
+			this.commits.set(commit);
+			if (commit.publishing) {
+				this.awaitUnpublished();
+			}
+		}
+		commit.depth++;
+	}
+
+	/**
+	 * End the commit started by the matching {@link VersionStore#beginCommit()}.
+	 * Once the outermost one ends, snapshots opened from then on see
+	 * everything published in it.
+	 */
+	void endCommit() {
+		Commit commit = this.commits.get();
+		if (--commit.depth > 0) {
+			return;
+		}
+		this.commits.remove();
+		this.lock.lock();
+		try {
+			this.finished.add(commit.number);
+			long next = this.latest;
+			while (this.finished.remove(next + 1)) {
+				next++;
+			}
+			this.latest = next;
+			this.reclaim();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the stamp to take before reading or writing a Neuron whose
+	 * state is then passed to {@link VersionStore#stored(Neuron, long)},
+	 * or -1 if nothing read now could start a chain.
+	 * @return
+	 */
+	long stamp() {
+		if (!this.enabled || this.latest < this.unpublished) {
+			return -1;
+		}
+		return this.removals;
+	}
+
+	/**
+	 * Returns what _neuron was just read from or written to storage as,
+	 * given that _stamp was returned by {@link VersionStore#stamp()}
+	 * before, or null if _stamp is -1.
+	 * @param _neuron
+	 * @param _stamp
+	 * @return
+	 */
+	Stored stored(Neuron _neuron, long _stamp) {
+		if (_stamp < 0) {
+			return null;
+		}
+		return new Stored(this, _stamp, new Snapshot.NeuronState(_neuron));
+	}
+
+	/**
+	 * Publish the state _neuron is about to be written with, or that the
+	 * Neuron with _id is about to be deleted if _neuron is null. If
+	 * _neuron still knows what it was last read or written as, that
+	 * starts its chain instead of what is read from storage.
+	 * @param _id
+	 * @param _neuron
+	 */
+	void publishNeuron(long _id, Neuron _neuron) {
+		this.beginCommit();
+		try {
+			if (!this.commits.get().publishing) {
+				return;
+			}
+			Object state = null;
+			Version base = null;
+			long removals = -1;
+			if (_neuron != null) {
+				state = new Snapshot.NeuronState(_neuron);
+				Stored stored = _neuron.stored();
+				if (stored != null && stored.store == this) {
+					base = new Version(0, stored.state);
+					removals = stored.removals;
+				}
+			}
+			this.publish(this.neurons, this.oldNeurons, _id, state, base, removals);
+		} finally {
+			this.endCommit();
+		}
+	}
+
+	/**
+	 * Publish the state _pathway is about to be written with, or that
+	 * the pathway with _id is about to be deleted if _pathway is null.
+	 * @param _id
+	 * @param _pathway
+	 */
+	void publishPathway(long _id, NeuralPathway _pathway) {
+		this.beginCommit();
+		try {
+			if (!this.commits.get().publishing) {
+				return;
+			}
+			Object state = null;
+			if (_pathway != null) {
+				try {
+					state = new Snapshot.PathwayState(_pathway);
+				} catch (FileNotFoundException | ParseException e) {
+					// Only a pathway that was never loaded can not be read,
+					// and nothing writes one.
+					return;
+				}
+			}
+			this.publish(this.pathways, this.oldPathways, _id, state, null, -1);
+		} finally {
+			this.endCommit();
+		}
+	}
+
+	/**
+	 * Returns the state of the Neuron with _id as of _commit or null if
+	 * it did not exist then.
+	 * @param _id
+	 * @param _commit
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	Snapshot.NeuronState readNeuron(long _id, long _commit) throws IOException, ParseException {
+		Version head = this.neurons.get(_id);
+		if (head == null) {
+			head = VersionStore.start(this.neurons, _id, new Version(0, VersionStore.readNeuronState(_id)));
+		}
+		return (Snapshot.NeuronState) VersionStore.find(head, _commit);
+	}
+
+	/**
+	 * Returns the state of the pathway with _id as of _commit or null if
+	 * it did not exist then.
+	 * @param _id
+	 * @param _commit
+	 * @return
+	 * @throws ParseException
+	 */
+	Snapshot.PathwayState readPathway(long _id, long _commit) throws ParseException {
+		Version head = this.pathways.get(_id);
+		if (head == null) {
+			head = VersionStore.start(this.pathways, _id, new Version(0, VersionStore.readPathwayState(_id)));
+		}
+		return (Snapshot.PathwayState) VersionStore.find(head, _commit);
+	}
+
+	/**
+	 * Returns the number of chains kept.
+	 * @return
+	 */
+	int size() {
+		return this.neurons.size() + this.pathways.size();
+	}
+
+	/**
+	 * Put a version of _state at the commit of this thread into the
+	 * chain for _id in _chains. The commit must be started.
+	 * <p>
+	 * A chain that does not exist yet is started with what is stored,
+	 * which is read without holding the lock. If a chain was removed
+	 * while it was read, it may be older than a write that chain held,
+	 * so it is read again.
+	 * </p>
+	 * @param _chains
+	 * @param _old
+	 * @param _id
+	 * @param _state
+	 * @param _base Oldest version to start the chain with if there is none,
+	 * or null to read it from storage.
+	 * @param _removals {@link VersionStore#removals} from before _base was
+	 * read.
+	 */
+	private void publish(ConcurrentHashMap<Long, Version> _chains, HashSet<Long> _old, long _id, Object _state, Version _base, long _removals) {
+		Commit current = this.commits.get();
+		(_chains == this.neurons ? current.neurons : current.pathways).add(_id);
+		long commit = current.number;
+		while (true) {
+			if (_base == null && !_chains.containsKey(_id)) {
+				_removals = this.removals;
+				_base = new Version(0, _chains == this.neurons
+						? VersionStore.loadNeuronState(_id)
+						: VersionStore.loadPathwayState(_id));
+			}
+			this.lock.lock();
+			try {
+				Version head = _chains.get(_id);
+				if (head == null) {
+					if (_base == null || _removals != this.removals) {
+						// Removed since it was checked, or since _base was read.
+						_base = null;
+						continue;
+					}
+					head = VersionStore.start(_chains, _id, _base);
+				}
+				this.insert(_chains, _id, head, new Version(commit, _state));
+				_old.add(_id);
+				return;
+			} finally {
+				this.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Remove the version at the commit of this thread from the chain for
+	 * _id in _chains. A chain left with nothing in it is dropped.
+	 * @param _chains
+	 * @param _id
+	 */
+	private void unpublish(ConcurrentHashMap<Long, Version> _chains, long _id) {
+		Commit current = this.commits.get();
+		if (current == null || !current.publishing) {
+			return;
+		}
+		(_chains == this.neurons ? current.neurons : current.pathways).remove(_id);
+		long commit = current.number;
+		this.lock.lock();
+		try {
+			Version head = _chains.get(_id);
+			if (head == null) {
+				return;
+			}
+			if (head.commit == commit) {
+				if (head.older == null) {
+					_chains.remove(_id);
+					this.removals++;
+				} else {
+					_chains.put(_id, head.older);
+				}
+				return;
+			}
+			Version newer = head;
+			while (newer.older != null && newer.older.commit > commit) {
+				newer = newer.older;
+			}
+			if (newer.older != null && newer.older.commit == commit) {
+				newer.older = newer.older.older;
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Put _version into the chain for _id that starts at _head, in order
+	 * of commit. Must hold {@link VersionStore#lock}.
+	 * @param _chains
+	 * @param _id
+	 * @param _head
+	 * @param _version
+	 */
+	private void insert(ConcurrentHashMap<Long, Version> _chains, long _id, Version _head, Version _version) {
+		long commit = _version.commit;
+		if (_head.commit < commit) {
+			_version.older = _head;
+			_chains.put(_id, _version);
+		} else if (_head.commit == commit) {
+			_version.older = _head.older;
+			_chains.put(_id, _version);
+		} else {
+			// A later commit published first. Slot in behind it.
+			Version newer = _head;
+			while (newer.older != null && newer.older.commit > commit) {
+				newer = newer.older;
+			}
+			if (newer.older != null && newer.older.commit == commit) {
+				_version.older = newer.older.older;
+			} else {
+				_version.older = newer.older;
+			}
+			newer.older = _version;
+		}
+	}
+
+	/**
+	 * Drop the versions no open snapshot can read. Must hold {@link VersionStore#lock}.
+	 */
+	private void reclaim() {
+		long newest = this.latest;
+		// Set before looking at the pins so a snapshot that pins an older
+		// commit after this point sees it and pins again.
+		this.reclaimed = newest;
+		long horizon = newest;
+		if (!this.pinned.isEmpty()) {
+			try {
+				horizon = Math.min(horizon, this.pinned.first().getVersion());
+			} catch (java.util.NoSuchElementException e) {
+				// Closed since it was checked.
+			}
+		}
+		int removed = VersionStore.reclaim(this.neurons, this.oldNeurons, horizon);
+		removed += VersionStore.reclaim(this.pathways, this.oldPathways, horizon);
+
+		int excess = this.size() - this.maxChains;
+		if (excess > 0) {
+			int dropped = VersionStore.dropSingles(this.pathways, this.oldPathways, horizon, excess);
+			removed += dropped;
+			removed += VersionStore.dropSingles(this.neurons, this.oldNeurons, horizon, excess - dropped);
+		}
+		if (removed > 0) {
+			this.removals += removed;
+		}
+	}
+
+	/**
+	 * Cut every chain in _old below the newest version at or before
+	 * _horizon and drop chains left holding only a delete.
+	 * @param _chains
+	 * @param _old
+	 * @param _horizon
+	 * @return The number of chains dropped.
+	 */
+	private static int reclaim(ConcurrentHashMap<Long, Version> _chains, HashSet<Long> _old, long _horizon) {
+		int removed = 0;
+		Iterator<Long> ids = _old.iterator();
+		while (ids.hasNext()) {
+			long id = ids.next();
+			Version head = _chains.get(id);
+			if (head == null) {
+				ids.remove();
+				continue;
+			}
+			Version visible = head;
+			while (visible != null && visible.commit > _horizon) {
+				visible = visible.older;
+			}
+			if (visible == null) {
+				continue;
+			}
+			visible.older = null;
+			if (visible == head) {
+				ids.remove();
+				if (head.state == null && _chains.remove(id, head)) {
+					removed++;
+				}
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Drop up to _count chains from _chains that hold one version at or
+	 * before _horizon.
+	 * @param _chains
+	 * @param _old
+	 * @param _horizon
+	 * @param _count
+	 * @return The number dropped.
+	 */
+	private static int dropSingles(ConcurrentHashMap<Long, Version> _chains, HashSet<Long> _old, long _horizon, int _count) {
+		int dropped = 0;
+		ArrayList<Entry<Long, Version>> chains = new ArrayList<Entry<Long, Version>>();
+		for (Entry<Long, Version> chain : _chains.entrySet()) {
+			if (dropped + chains.size() >= _count) {
+				break;
+			}
+			if (!_old.contains(chain.getKey()) && chain.getValue().commit <= _horizon) {
+				chains.add(chain);
+			}
+		}
+		for (Entry<Long, Version> chain : chains) {
+			if (_chains.remove(chain.getKey(), chain.getValue())) {
+				dropped++;
+			}
+		}
+		return dropped;
+	}
+
+	/**
+	 * Start the chain for _id with _base unless another thread already
+	 * started one, and return the chain.
+	 * @param _chains
+	 * @param _id
+	 * @param _base
+	 * @return
+	 */
+	private static Version start(ConcurrentHashMap<Long, Version> _chains, long _id, Version _base) {
+		Version existing = _chains.putIfAbsent(_id, _base);
+		return existing == null ? _base : existing;
+	}
+
+	/**
+	 * Returns the state of the newest version in the chain from _head
+	 * that is no newer than _commit.
+	 * @param _head
+	 * @param _commit
+	 * @return
+	 */
+	private static Object find(Version _head, long _commit) {
+		Version version = _head;
+		while (version != null && version.commit > _commit) {
+			version = version.older;
+		}
+		if (version == null) {
+			throw new IllegalStateException("Commit " + _commit + " has been reclaimed.");
+		}
+		return version.state;
+	}
+
+	/**
+	 * Returns the stored state of the Neuron with _id or null if it is
+	 * not stored. Reads around {@link Neuron#cache} since cached Neurons
+	 * may have changes that are not saved yet.
+	 * @param _id
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private static Snapshot.NeuronState readNeuronState(long _id) throws IOException, ParseException {
+		try {
+			return new Snapshot.NeuronState(Neuron.detached(_id));
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
+
+	private static Snapshot.PathwayState readPathwayState(long _id) throws ParseException {
+		try {
+			return new Snapshot.PathwayState(new NeuralPathway(_id, true));
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * {@link VersionStore#readNeuronState(long)} for writers, which can
+	 * not throw. A Neuron that can not be read is treated as not stored.
+	 * @param _id
+	 * @return
+	 */
+	private static Snapshot.NeuronState loadNeuronState(long _id) {
+		try {
+			return VersionStore.readNeuronState(_id);
+		} catch (IOException | ParseException e) {
+			return null;
+		}
+	}
+
+	private static Snapshot.PathwayState loadPathwayState(long _id) {
+		try {
+			return VersionStore.readPathwayState(_id);
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+}
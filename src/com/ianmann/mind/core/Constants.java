@@ -2,12 +2,15 @@ package com.ianmann.mind.core;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.HashMap;
 
 import org.json.simple.JSONObject;
 import org.json.simple.parser.ParseException;
 
+import com.ianmann.mind.NeuralPathway;
 import com.ianmann.mind.Neuron;
+import com.ianmann.mind.StorageEngine;
 import com.ianmann.mind.core.navigation.Category;
 import com.ianmann.utils.utilities.Files;
 
@@ -17,16 +20,43 @@ public abstract class Constants {
 	public static String STIMULANT_ROOT;
 	public static String PATHWAY_ROOT;
 	public static String NEURON_ROOT;
+	public static String SEGMENT_ROOT;
+	public static String INDEX_ROOT;
 	public static String CORE_ROOT;
 	public static String PATH_TO_CATEGORIES_FOLDER;
 	public static String PATH_TO_LANGUAGE_FOLDER;
 	
+	/**
+	 * Name of the {@link StorageEngine} that everything is stored with.
+	 */
+	public static String STORAGE_ENGINE;
+	
+	/**
+	 * Whether a {@link com.ianmann.mind.PathwayCollector} removes the
+	 * pathways nothing leads to in the background. Off unless
+	 * {@code STORAGE.COLLECT_PATHWAYS} is true in constants.json.
+	 */
+	public static boolean COLLECT_PATHWAYS = false;
+	
 	/**
 	 * Maximum number of memory elements that should be in
 	 * memory at a time.
 	 */
 	public static int SHORT_TERM_CAPACITY;
 	
+	/**
+	 * Memory budgets in bytes for the caches of loaded Neurons
+	 * and NeuralPathways.
+	 */
+	public static long NEURON_CACHE_BYTES;
+	public static long PATHWAY_CACHE_BYTES;
+	
+	/**
+	 * Connection size a chain of thought must add up to before it
+	 * becomes a reflex in {@link Neuron#reflexes}.
+	 */
+	public static double REFLEX_THRESHOLD;
+	
 	/**
 	 * Map of locations in short term memory and what references them
 	 */
@@ -46,10 +76,28 @@ public abstract class Constants {
 		Constants.STIMULANT_ROOT = Constants.STORAGE_ROOT + (String) ((JSONObject) jsonConstants.get("STORAGE")).get("STIMULANTS");
 		Constants.PATHWAY_ROOT = Constants.STORAGE_ROOT + (String) ((JSONObject) jsonConstants.get("STORAGE")).get("NEURAL_PATHWAYS");
 		Constants.NEURON_ROOT = Constants.STORAGE_ROOT + (String) ((JSONObject) jsonConstants.get("STORAGE")).get("NEURONS");
+		Constants.SEGMENT_ROOT = Constants.STORAGE_ROOT + (String) ((JSONObject) jsonConstants.get("STORAGE")).get("SEGMENTS");
+		Constants.INDEX_ROOT = Constants.STORAGE_ROOT + (String) ((JSONObject) jsonConstants.get("STORAGE")).get("INDEXES");
 		Constants.SHORT_TERM_CAPACITY = (Long.valueOf((long) jsonConstants.get("SHORT_TERM_CAPACITY"))).intValue();
+		Constants.NEURON_CACHE_BYTES = (long) ((JSONObject) jsonConstants.get("CACHE")).get("NEURON_BYTES");
+		Constants.PATHWAY_CACHE_BYTES = (long) ((JSONObject) jsonConstants.get("CACHE")).get("PATHWAY_BYTES");
+		Neuron.cache.setMaximumWeight(Constants.NEURON_CACHE_BYTES);
+		NeuralPathway.cache.setMaximumWeight(Constants.PATHWAY_CACHE_BYTES);
+		Constants.REFLEX_THRESHOLD = ((Number) ((JSONObject) jsonConstants.get("REFLEX")).get("THRESHOLD")).doubleValue();
+		Neuron.reflexes.setThreshold(Constants.REFLEX_THRESHOLD);
 		Constants.SHORT_TERM_MEM_LOCATIONS = (HashMap<String, Integer>) ((JSONObject) jsonConstants.get("MEMORY_LOCATIONS")).get("INPUT_ADDRESSES");
 		Constants.PATH_TO_CATEGORIES_FOLDER = Constants.CORE_ROOT + "categories/";
 		Constants.PATH_TO_LANGUAGE_FOLDER = Constants.CORE_ROOT + "language/";
+		Constants.STORAGE_ENGINE = (String) ((JSONObject) jsonConstants.get("STORAGE")).get("ENGINE");
+		if (Constants.STORAGE_ENGINE == null) {
+			Constants.STORAGE_ENGINE = StorageEngine.FILE;
+		}
+		Constants.COLLECT_PATHWAYS = Boolean.TRUE.equals(((JSONObject) jsonConstants.get("STORAGE")).get("COLLECT_PATHWAYS"));
+		try {
+			StorageEngine.use(Constants.STORAGE_ENGINE);
+		} catch (IOException e) {
+			throw new FileNotFoundException(e.getMessage());
+		}
 	}
 	
 	public static void setConstantCategories() throws FileNotFoundException, ParseException {
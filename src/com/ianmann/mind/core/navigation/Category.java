@@ -2,6 +2,7 @@ package com.ianmann.mind.core.navigation;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 
 import org.json.simple.JSONArray;
@@ -140,13 +141,59 @@ public class Category extends Neuron {
 	}
 	
 	/**
-	 * Delete the folder that this category stores it's neurons in.
+	 * Delete the folder that this category stores it's neurons in
+	 * and remove it from {@link Neuron#categories()}.
 	 */
 	protected void removeCategoryFolder() {
+		try {
+			CategoryIndex index = Neuron.categories();
+			Long category = index.findCategoryAt(this.getCategoryPathFromNeuronRoot());
+			if (category != null) {
+				index.removeCategory(category);
+			}
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
 		new File(this.categoryPath).delete();
 		this.categoryPath = null;
 	}
 	
+	/**
+	 * Returns the paths from {@link Constants#NEURON_ROOT} of every Neuron
+	 * in this category or any category below it, read from
+	 * {@link Neuron#categories()}.
+	 * @return
+	 * @throws IOException
+	 */
+	public ArrayList<String> getMembers() throws IOException {
+		CategoryIndex index = Neuron.categories();
+		Long category = index.findCategoryAt(this.getCategoryPathFromNeuronRoot());
+		return category == null ? new ArrayList<String>() : index.getAllMembers(category);
+	}
+	
+	/**
+	 * Returns true if the Neuron stored at _pathFromNeuronRoot is in this
+	 * category itself, not one below it.
+	 * @param _pathFromNeuronRoot
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean contains(String _pathFromNeuronRoot) throws IOException {
+		CategoryIndex index = Neuron.categories();
+		Long category = index.findCategoryAt(this.getCategoryPathFromNeuronRoot());
+		return category != null && index.isMember(category, _pathFromNeuronRoot.replace(File.separatorChar, '/'));
+	}
+	
+	/**
+	 * Returns the path of this category's folder from
+	 * {@link Constants#NEURON_ROOT}, such as "being/animal".
+	 * @return
+	 */
+	private String getCategoryPathFromNeuronRoot() {
+		return this.categoryPath.substring(Constants.NEURON_ROOT.length());
+	}
+	
 	/**
 	 * Returns true if _category is either equal to or a parent
 	 * category of _category. Otherwise, false is returned.
@@ -169,11 +216,18 @@ public class Category extends Neuron {
 	
 	/**
 	 * @Override
-	 * Add the folder that is represented by this category.
+	 * Add the folder that is represented by this category and record
+	 * the category in {@link Neuron#categories()}.
 	 */
 	public void save() {
 		super.save();
 		new File(this.categoryPath).mkdirs();
+		try {
+			Neuron.categories().createCategoryAt(this.getCategoryPathFromNeuronRoot());
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
 	}
 	
 	/**
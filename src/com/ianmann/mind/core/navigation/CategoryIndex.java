@@ -0,0 +1,593 @@
+package com.ianmann.mind.core.navigation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * <p>
+ * Binary index of the category tree described in
+ * design/written_thoughts/storage_category_file_format.txt. Neuron and
+ * pathway files are stored flat and each category lists the files that
+ * belong to it, so membership and listing are map lookups instead of
+ * walking folders.
+ * </p>
+ * <p>
+ * The whole index is held in memory and written back with
+ * {@link CategoryIndex#save()}. The file layout is:<br>
+ * {@code [memberCount:int] memberCount x [length:short][path:utf-8]}<br>
+ * followed by every root category, each written as<br>
+ * {@code [0x91][id:6 bytes][length:short][label:utf-8][memberCount:int] memberCount x [member:int] [childCount:int] children...}
+ * </p>
+ * <p>
+ * Member paths are written once in the member table and categories refer
+ * to them by their position, so a file shared by several categories is
+ * only stored once.
+ * </p>
+ * <p>
+ * The index in use is {@link com.ianmann.mind.Neuron#categories()}. Every
+ * Neuron that is saved is put in the category of the folder it is stored
+ * in and taken out of every category when it is deleted, and
+ * {@link Category} records the categories it creates and removes here.
+ * It is saved when storage is closed and built again from storage if it
+ * was not.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class CategoryIndex {
+
+	/**
+	 * Byte that starts every category id.
+	 */
+	public static final int CATEGORY_MARKER = 0x91;
+
+	/**
+	 * Largest id that fits in the six bytes after {@link CategoryIndex#CATEGORY_MARKER}.
+	 */
+	public static final long MAX_ID = 0xFFFFFFFFFFFFL;
+
+	/**
+	 * Name of the index file in the folder it is kept in.
+	 */
+	public static final String FILE_NAME = "categories.idx";
+
+	/**
+	 * File that this index is read from and saved to, or null if it is
+	 * only kept in memory.
+	 */
+	private File indexFile;
+
+	/**
+	 * Whether anything has changed since the index was read or saved.
+	 */
+	private boolean changed = false;
+
+	/**
+	 * Every category in the index by id.
+	 */
+	private HashMap<Long, Node> categories = new HashMap<Long, Node>();
+
+	/**
+	 * Ids of the categories that have no parent, in the order they were created.
+	 */
+	private ArrayList<Long> roots = new ArrayList<Long>();
+
+	/**
+	 * Path of every member by its position in the member table.
+	 */
+	private ArrayList<String> members = new ArrayList<String>();
+
+	/**
+	 * Position in the member table of every member path.
+	 */
+	private HashMap<String, Integer> memberRefs = new HashMap<String, Integer>();
+
+	/**
+	 * Ids of every category that each member belongs to.
+	 */
+	private HashMap<Integer, HashSet<Long>> membership = new HashMap<Integer, HashSet<Long>>();
+
+	/**
+	 * Highest id handed out so far.
+	 */
+	private long lastId = 0;
+
+	/**
+	 * Creates an empty index that will be saved to _indexFile.
+	 * @param _indexFile
+	 */
+	private CategoryIndex(File _indexFile) {
+		this.indexFile = _indexFile;
+	}
+
+	/**
+	 * Returns an empty index that will be saved to _indexFile, or one
+	 * that is only kept in memory if _indexFile is null.
+	 * @param _indexFile
+	 * @return
+	 */
+	public static CategoryIndex empty(File _indexFile) {
+		return new CategoryIndex(_indexFile);
+	}
+
+	/**
+	 * Read the index stored in _indexFile. If the file does not exist
+	 * yet, an empty index is returned.
+	 * @param _indexFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static CategoryIndex load(File _indexFile) throws IOException {
+		CategoryIndex index = new CategoryIndex(_indexFile);
+		if (!_indexFile.exists()) {
+			return index;
+		}
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_indexFile)));
+		try {
+			int memberCount = in.readInt();
+			for (int i = 0; i < memberCount; i++) {
+				index.memberRef(CategoryIndex.readString(in));
+			}
+			while (in.available() > 0) {
+				index.roots.add(index.readCategory(in, null));
+			}
+		} finally {
+			in.close();
+		}
+		index.changed = false;
+		return index;
+	}
+
+	/**
+	 * Read one category and all of its children from _in.
+	 * @param _in
+	 * @param _parent
+	 * @return The id of the category that was read.
+	 * @throws IOException
+	 */
+	private long readCategory(DataInputStream _in, Long _parent) throws IOException {
+		int marker = _in.readUnsignedByte();
+		if (marker != CATEGORY_MARKER) {
+			throw new IOException("Expected category marker but found 0x" + Integer.toHexString(marker) + " in " + this.indexFile.getPath());
+		}
+		long id = 0;
+		for (int i = 0; i < 6; i++) {
+			id = (id << 8) | _in.readUnsignedByte();
+		}
+
+		Node node = new Node(id, CategoryIndex.readString(_in), _parent);
+		this.categories.put(id, node);
+		this.lastId = Math.max(this.lastId, id);
+
+		int memberCount = _in.readInt();
+		for (int i = 0; i < memberCount; i++) {
+			this.link(node, _in.readInt());
+		}
+
+		int childCount = _in.readInt();
+		for (int i = 0; i < childCount; i++) {
+			node.children.add(this.readCategory(_in, id));
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the file this index is saved to, or null if it is only
+	 * kept in memory.
+	 * @return
+	 */
+	public File getIndexFile() {
+		return this.indexFile;
+	}
+
+	/**
+	 * Write the index to {@link CategoryIndex#indexFile} if anything has
+	 * changed. It is written to a temporary file first and moved over the
+	 * old index.
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		if (this.indexFile == null || (!this.changed && this.indexFile.exists())) {
+			return;
+		}
+		File temp = new File(this.indexFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(this.members.size());
+			for (String member : this.members) {
+				CategoryIndex.writeString(out, member);
+			}
+			for (long root : this.roots) {
+				this.writeCategory(out, this.categories.get(root));
+			}
+		} finally {
+			out.close();
+		}
+		java.nio.file.Files.move(
+				temp.toPath(),
+				this.indexFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE
+		);
+		this.changed = false;
+	}
+
+	/**
+	 * Write _node and all of its children to _out.
+	 * @param _out
+	 * @param _node
+	 * @throws IOException
+	 */
+	private void writeCategory(DataOutputStream _out, Node _node) throws IOException {
+		_out.writeByte(CATEGORY_MARKER);
+		for (int shift = 40; shift >= 0; shift -= 8) {
+			_out.writeByte((int) (_node.id >>> shift) & 0xFF);
+		}
+		CategoryIndex.writeString(_out, _node.label);
+
+		_out.writeInt(_node.members.size());
+		for (int member : _node.members) {
+			_out.writeInt(member);
+		}
+
+		_out.writeInt(_node.children.size());
+		for (long child : _node.children) {
+			this.writeCategory(_out, this.categories.get(child));
+		}
+	}
+
+	/**
+	 * Add a category called _label under the category with id _parent.
+	 * If _parent is null the category is added as a root category.
+	 * @param _label
+	 * @param _parent
+	 * @return The id of the new category.
+	 */
+	public synchronized long createCategory(String _label, Long _parent) {
+		if (_parent != null && !this.categories.containsKey(_parent)) {
+			throw new IllegalArgumentException("No category with id " + _parent);
+		}
+		if (this.lastId >= MAX_ID) {
+			throw new IllegalStateException("Category ids are exhausted.");
+		}
+
+		long id = ++this.lastId;
+		this.categories.put(id, new Node(id, _label, _parent));
+		if (_parent == null) {
+			this.roots.add(id);
+		} else {
+			this.categories.get(_parent).children.add(id);
+		}
+		this.changed = true;
+		return id;
+	}
+
+	/**
+	 * Returns the id of the category at _path, a path of labels such as
+	 * "being/animal", creating it and any category above it that does
+	 * not exist yet.
+	 * @param _path
+	 * @return
+	 */
+	public synchronized long createCategoryAt(String _path) {
+		Long category = null;
+		for (String label : CategoryIndex.labels(_path)) {
+			Long child = this.findCategory(label, category);
+			category = child == null ? this.createCategory(label, category) : child;
+		}
+		if (category == null) {
+			throw new IllegalArgumentException("A category path needs at least one label.");
+		}
+		return category;
+	}
+
+	/**
+	 * Returns the id of the category at _path, a path of labels such as
+	 * "being/animal", or null if there is none.
+	 * @param _path
+	 * @return
+	 */
+	public synchronized Long findCategoryAt(String _path) {
+		Long category = null;
+		for (String label : CategoryIndex.labels(_path)) {
+			category = this.findCategory(label, category);
+			if (category == null) {
+				return null;
+			}
+		}
+		return category;
+	}
+
+	/**
+	 * Remove _category and every category below it. Their members stay
+	 * in any other category they are in.
+	 * @param _category
+	 */
+	public synchronized void removeCategory(long _category) {
+		Node node = this.node(_category);
+		if (node.parent == null) {
+			this.roots.remove(Long.valueOf(node.id));
+		} else {
+			this.categories.get(node.parent).children.remove(Long.valueOf(node.id));
+		}
+		ArrayList<Long> toRemove = new ArrayList<Long>();
+		toRemove.add(_category);
+		while (!toRemove.isEmpty()) {
+			Node removed = this.categories.remove(toRemove.remove(toRemove.size() - 1));
+			for (int ref : removed.members) {
+				this.membership.get(ref).remove(removed.id);
+			}
+			toRemove.addAll(removed.children);
+		}
+		this.changed = true;
+	}
+
+	/**
+	 * Returns the id of the category with _label directly under _parent,
+	 * or null if there is none. Pass null for _parent to search the root
+	 * categories.
+	 * @param _label
+	 * @param _parent
+	 * @return
+	 */
+	public synchronized Long findCategory(String _label, Long _parent) {
+		ArrayList<Long> candidates = _parent == null ? this.roots : this.node(_parent).children;
+		for (long id : candidates) {
+			if (this.categories.get(id).label.equals(_label)) {
+				return id;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the label of the category with id _category.
+	 * @param _category
+	 * @return
+	 */
+	public synchronized String getLabel(long _category) {
+		return this.node(_category).label;
+	}
+
+	/**
+	 * Returns the id of the parent of _category or null if it is a root category.
+	 * @param _category
+	 * @return
+	 */
+	public synchronized Long getParent(long _category) {
+		return this.node(_category).parent;
+	}
+
+	/**
+	 * Returns the ids of the categories directly under _category.
+	 * @param _category
+	 * @return
+	 */
+	public synchronized ArrayList<Long> getChildren(long _category) {
+		return new ArrayList<Long>(this.node(_category).children);
+	}
+
+	/**
+	 * Put the file at _path in _category.
+	 * @param _category
+	 * @param _path
+	 */
+	public synchronized void addMember(long _category, String _path) {
+		this.link(this.node(_category), this.memberRef(_path));
+	}
+
+	/**
+	 * Take the file at _path out of _category. The path stays in the
+	 * member table until the index is rebuilt.
+	 * @param _category
+	 * @param _path
+	 * @return
+	 * true - if the file was in the category. <br>
+	 * false - if it was not.
+	 */
+	public synchronized boolean removeMember(long _category, String _path) {
+		Integer ref = this.memberRefs.get(_path);
+		if (ref == null || !this.node(_category).members.remove(ref)) {
+			return false;
+		}
+		this.membership.get(ref).remove(_category);
+		this.changed = true;
+		return true;
+	}
+
+	/**
+	 * Take the file at _path out of every category it is in.
+	 * @param _path
+	 */
+	public synchronized void removeFromAll(String _path) {
+		Integer ref = this.memberRefs.get(_path);
+		if (ref == null) {
+			return;
+		}
+		for (long category : this.membership.get(ref)) {
+			this.categories.get(category).members.remove(ref);
+			this.changed = true;
+		}
+		this.membership.get(ref).clear();
+	}
+
+	/**
+	 * Returns whether the file at _path is directly in _category.
+	 * @param _category
+	 * @param _path
+	 * @return
+	 */
+	public synchronized boolean isMember(long _category, String _path) {
+		Integer ref = this.memberRefs.get(_path);
+		return ref != null && this.membership.get(ref).contains(_category);
+	}
+
+	/**
+	 * Returns the paths of every file directly in _category.
+	 * @param _category
+	 * @return
+	 */
+	public synchronized ArrayList<String> getMembers(long _category) {
+		ArrayList<String> paths = new ArrayList<String>();
+		for (int ref : this.node(_category).members) {
+			paths.add(this.members.get(ref));
+		}
+		return paths;
+	}
+
+	/**
+	 * Returns the paths of every file in _category or any category
+	 * below it. Files in more than one of those categories are only
+	 * listed once.
+	 * @param _category
+	 * @return
+	 */
+	public synchronized ArrayList<String> getAllMembers(long _category) {
+		HashSet<Integer> seen = new HashSet<Integer>();
+		ArrayList<String> paths = new ArrayList<String>();
+		ArrayList<Long> toVisit = new ArrayList<Long>();
+		toVisit.add(_category);
+		while (!toVisit.isEmpty()) {
+			Node node = this.node(toVisit.remove(toVisit.size() - 1));
+			for (int ref : node.members) {
+				if (seen.add(ref)) {
+					paths.add(this.members.get(ref));
+				}
+			}
+			toVisit.addAll(node.children);
+		}
+		return paths;
+	}
+
+	/**
+	 * Returns the ids of every category that the file at _path is directly in.
+	 * @param _path
+	 * @return
+	 */
+	public synchronized ArrayList<Long> getCategories(String _path) {
+		Integer ref = this.memberRefs.get(_path);
+		if (ref == null) {
+			return new ArrayList<Long>();
+		}
+		return new ArrayList<Long>(this.membership.get(ref));
+	}
+
+	/**
+	 * Returns the node for _category or throws if there is no such category.
+	 * @param _category
+	 * @return
+	 */
+	private Node node(long _category) {
+		Node node = this.categories.get(_category);
+		if (node == null) {
+			throw new IllegalArgumentException("No category with id " + _category);
+		}
+		return node;
+	}
+
+	/**
+	 * Returns the position of _path in the member table, adding it if needed.
+	 * @param _path
+	 * @return
+	 */
+	private int memberRef(String _path) {
+		Integer ref = this.memberRefs.get(_path);
+		if (ref == null) {
+			ref = this.members.size();
+			this.members.add(_path);
+			this.memberRefs.put(_path, ref);
+			this.membership.put(ref, new HashSet<Long>());
+			this.changed = true;
+		}
+		return ref;
+	}
+
+	/**
+	 * Record that the member at _ref is in _node.
+	 * @param _node
+	 * @param _ref
+	 */
+	private void link(Node _node, int _ref) {
+		if (this.membership.get(_ref).add(_node.id)) {
+			_node.members.add(_ref);
+			this.changed = true;
+		}
+	}
+
+	/**
+	 * Returns the labels in the category path _path.
+	 * @param _path
+	 * @return
+	 */
+	private static ArrayList<String> labels(String _path) {
+		ArrayList<String> labels = new ArrayList<String>();
+		for (String label : _path.split("/")) {
+			if (!label.isEmpty()) {
+				labels.add(label);
+			}
+		}
+		return labels;
+	}
+
+	/**
+	 * Read a short length prefixed utf-8 string from _in.
+	 * @param _in
+	 * @return
+	 * @throws IOException
+	 */
+	private static String readString(DataInputStream _in) throws IOException {
+		byte[] bytes = new byte[_in.readUnsignedShort()];
+		_in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Write _string to _out as a short length prefixed utf-8 string.
+	 * @param _out
+	 * @param _string
+	 * @throws IOException
+	 */
+	private static void writeString(DataOutputStream _out, String _string) throws IOException {
+		byte[] bytes = _string.getBytes(StandardCharsets.UTF_8);
+		_out.writeShort(bytes.length);
+		_out.write(bytes);
+	}
+
+	/**
+	 * A single category in the tree.
+	 */
+	private static class Node {
+
+		private final long id;
+		private final String label;
+		private final Long parent;
+
+		/**
+		 * Ids of the categories directly under this one.
+		 */
+		private final ArrayList<Long> children = new ArrayList<Long>();
+
+		/**
+		 * Positions in the member table of the files in this category.
+		 */
+		private final ArrayList<Integer> members = new ArrayList<Integer>();
+
+		private Node(long _id, String _label, Long _parent) {
+			this.id = _id;
+			this.label = _label;
+			this.parent = _parent;
+		}
+	}
+}
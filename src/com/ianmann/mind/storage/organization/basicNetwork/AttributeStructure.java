@@ -2,19 +2,21 @@ package com.ianmann.mind.storage.organization.basicNetwork;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 
 import org.json.simple.parser.ParseException;
 
 import com.ianmann.mind.NeuralPathway;
 import com.ianmann.mind.Neuron;
+import com.ianmann.mind.OntologyLoader;
 import com.ianmann.mind.core.navigation.Category;
 import com.ianmann.mind.emotions.EmotionUnit;
 import com.ianmann.mind.storage.organization.NeuronType;
 
 public class AttributeStructure extends NeuralNetwork {
 	
-	private ArrayList<File> possibilities = new ArrayList<File>();
+	private ArrayList<NeuralPathway> possibilities = new ArrayList<NeuralPathway>();
 
 	public AttributeStructure(Neuron _root) {
 		super(_root);
@@ -76,15 +78,16 @@ public class AttributeStructure extends NeuralNetwork {
 	/**
 	 * @Override
 	 * All neurons that are network roots of Description are added to this Attribute
-	 * Structures list of possibilities.
+	 * Structures list of possibilities. The pathways are only peeked at so nothing is
+	 * fired or written.
 	 */
 	public void sortNetwork() {
-		// TODO Auto-generated method stub
-		for (File synapseFile : this.root.getSynapticEndings()) {
-			Neuron current = NeuralPathway.deserialize(synapseFile).fireSynapse();
-			if (current.getType() == NeuronType.DESCRIPTION) {
-				this.possibilities.add(synapseFile);
-			}
+		this.possibilities = new ArrayList<NeuralPathway>();
+		try {
+			this.possibilities = this.root.peek(OntologyLoader.NETWORK_GROUP, NeuronType.DESCRIPTION);
+		} catch (IOException | ParseException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
 		}
 	}
 	
@@ -96,10 +99,15 @@ public class AttributeStructure extends NeuralNetwork {
 	 */
 	public boolean hasPossibility(Neuron _descriptionNeuron) {
 		if (_descriptionNeuron.getType() == NeuronType.DESCRIPTION) {
-			for (int i = 0; i < this.possibilities.size(); i++) {
-				if (this.getPossibility(i).fireSynapse().location.equals(_descriptionNeuron.location)) {
-					return true;
+			try {
+				for (NeuralPathway possibility : this.possibilities) {
+					if (possibility.getRecieverId() == _descriptionNeuron.getId()) {
+						return true;
+					}
 				}
+			} catch (FileNotFoundException | ParseException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
 			}
 		}
 		return false;
@@ -112,7 +120,7 @@ public class AttributeStructure extends NeuralNetwork {
 	 * @return
 	 */
 	public NeuralPathway getPossibility(int index) {
-		return NeuralPathway.deserialize(this.possibilities.get(index));
+		return this.possibilities.get(index);
 	}
 	
 	/**
@@ -122,9 +130,15 @@ public class AttributeStructure extends NeuralNetwork {
 	 */
 	public void addPossibility(Neuron _n) {
 		if (_n.getType() == NeuronType.DESCRIPTION) {
-			NeuralPathway synapse = this.root.addNeuralPathway(_n);
-			this.possibilities.add(synapse.location);
-			_n.addNeuralPathway(this.root);
+			while (this.root.getAxon().size() <= OntologyLoader.NETWORK_GROUP) {
+				this.root.getAxon().add(new ArrayList<NeuralPathway>());
+			}
+			while (_n.getAxon().size() <= OntologyLoader.NETWORK_GROUP) {
+				_n.getAxon().add(new ArrayList<NeuralPathway>());
+			}
+			NeuralPathway synapse = this.root.addNeuralPathway(OntologyLoader.NETWORK_GROUP, _n);
+			this.possibilities.add(synapse);
+			_n.addNeuralPathway(OntologyLoader.NETWORK_GROUP, this.root);
 		}
 	}
 	
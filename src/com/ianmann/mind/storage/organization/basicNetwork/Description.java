@@ -1,19 +1,21 @@
 package com.ianmann.mind.storage.organization.basicNetwork;
 
-import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
 
 import org.json.simple.parser.ParseException;
 
 import com.ianmann.mind.NeuralPathway;
 import com.ianmann.mind.Neuron;
+import com.ianmann.mind.OntologyLoader;
 import com.ianmann.mind.core.navigation.Category;
 import com.ianmann.mind.emotions.EmotionUnit;
 import com.ianmann.mind.storage.organization.NeuronType;
 
 public class Description extends NeuralNetwork {
 	
-	private File attributeStructureNeuralPathway;
+	private NeuralPathway attributeStructureNeuralPathway;
 
 	public Description(Neuron _root) {
 		super(_root);
@@ -38,18 +40,25 @@ public class Description extends NeuralNetwork {
 
 	/**
 	 * @Override
-	 * Sets the attribute structure that this description fulfills.
+	 * Sets the attribute structure that this description fulfills. An attribute has this
+	 * description as a possibility if it has a pathway back to it, which is looked up in
+	 * {@link Neuron#incoming()} instead of parsing the attribute. Nothing is fired or written.
 	 */
 	public void sortNetwork() {
-		// TODO Auto-generated method stub
-		for (int i = 0; i < this.root.getSynapticEndings().size(); i ++) {
-			NeuralPathway currentPathway = NeuralPathway.deserialize(this.root.getSynapticEndings().get(i));
-			Neuron current = currentPathway.fireSynapse();
-			if (current.getType() == NeuronType.ATTRIBUTE) {
-				if (((AttributeStructure) current.parsed()).hasPossibility(this.root)) {
-					this.attributeStructureNeuralPathway = currentPathway.location;
+		this.attributeStructureNeuralPathway = null;
+		try {
+			long[] senderIds = Neuron.incoming().getSenderIds(this.root.getId());
+			for (NeuralPathway pathway : this.root.peek(OntologyLoader.NETWORK_GROUP, NeuronType.ATTRIBUTE)) {
+				for (long senderId : senderIds) {
+					if (senderId == pathway.getRecieverId()) {
+						this.attributeStructureNeuralPathway = pathway;
+						break;
+					}
 				}
 			}
+		} catch (IOException | ParseException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
 		}
 	}
 	
@@ -60,10 +69,13 @@ public class Description extends NeuralNetwork {
 	 */
 	public void setStructure(AttributeStructure _structure) {
 		if (this.attributeStructureNeuralPathway != null) {
-			this.root.removeNeuralPathway(NeuralPathway.deserialize(this.attributeStructureNeuralPathway).fireSynapse());
+			this.root.removeNeuralPathway(this.attributeStructureNeuralPathway.getId());
 		}
-		NeuralPathway newPathWay = this.root.addNeuralPathway(_structure.root);
-		this.attributeStructureNeuralPathway = newPathWay.location;
+		while (this.root.getAxon().size() <= OntologyLoader.NETWORK_GROUP) {
+			this.root.getAxon().add(new ArrayList<NeuralPathway>());
+		}
+		NeuralPathway newPathWay = this.root.addNeuralPathway(OntologyLoader.NETWORK_GROUP, _structure.root);
+		this.attributeStructureNeuralPathway = newPathWay;
 		_structure.addPossibility(this.root);
 	}
 	
@@ -72,7 +84,13 @@ public class Description extends NeuralNetwork {
 	 * @return
 	 */
 	public AttributeStructure getStructure() {
-		return ((AttributeStructure) NeuralPathway.deserialize(this.attributeStructureNeuralPathway).fireSynapse().parsed());
+		try {
+			return ((AttributeStructure) Neuron.fromStorage(this.attributeStructureNeuralPathway.getRecieverId()).parsed());
+		} catch (FileNotFoundException | ParseException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			return null;
+		}
 	}
 
 }
@@ -1,13 +1,14 @@
 package com.ianmann.mind.storage.organization.basicNetwork;
 
-import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 
 import org.json.simple.parser.ParseException;
 
 import com.ianmann.mind.NeuralPathway;
 import com.ianmann.mind.Neuron;
+import com.ianmann.mind.OntologyLoader;
 import com.ianmann.mind.core.navigation.Category;
 import com.ianmann.mind.emotions.EmotionUnit;
 import com.ianmann.mind.storage.organization.NeuronType;
@@ -16,18 +17,18 @@ public class EntityInstance extends NeuralNetwork {
 	
 	/**
 	 * Entity Structure that defines how the class is organized.
-	 * The file contains an EntityStructure object.
+	 * The pathway leads to an EntityStructure's root neuron.
 	 */
-	private File structure;
+	private NeuralPathway structure;
 
 	/**
 	 * Any attribute that this entity possesses.
 	 * <br><br>
 	 * Examples may be eyes, color, age, name, etc...
 	 * <br><br>
-	 * Each file contains a thought link to a neuron
+	 * Each is a pathway to the root neuron of a Description
 	 */
-	private ArrayList<File> attributes;
+	private ArrayList<NeuralPathway> attributes;
 	
 	public EntityInstance(Neuron _root) {
 		super(_root);
@@ -53,36 +54,62 @@ public class EntityInstance extends NeuralNetwork {
 	 * @return
 	 */
 	public EntityStructure getStructure() {
-		return ((EntityStructure) NeuralPathway.deserialize(this.structure).fireSynapse().parsed());
+		try {
+			return ((EntityStructure) Neuron.fromStorage(this.structure.getRecieverId()).parsed());
+		} catch (FileNotFoundException | ParseException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			return null;
+		}
 	}
 
 	/**
 	 * @Override
 	 * Sets the structure of which this entity instance is an instance of and sets the attributes that this
-	 * entity instance is related to.
+	 * entity instance is related to. The pathways are only peeked at and neither the structure nor the
+	 * descriptions are parsed, so nothing is fired or written.
 	 */
 	protected void sortNetwork() {
-		this.attributes = new ArrayList<File>();
-		
-		for (int i = 0; i < this.root.getSynapticEndings().size(); i ++) {
-			NeuralPathway currentPathway = NeuralPathway.deserialize(this.root.getSynapticEndings().get(i));
-			Neuron current = currentPathway.fireSynapse();
-			if (current.getType() == NeuronType.NOUN_DEFINITION) {
-				this.structure = currentPathway.location;
-				break;
+		this.structure = null;
+		this.attributes = new ArrayList<NeuralPathway>();
+		try {
+			ArrayList<NeuralPathway> structures = this.root.peek(OntologyLoader.NETWORK_GROUP, NeuronType.NOUN_DEFINITION);
+			if (structures.isEmpty()) {
+				return;
 			}
-		}
-		
-		for (int i = 0; i < this.root.getSynapticEndings().size(); i ++) {
-			NeuralPathway currentPathway = NeuralPathway.deserialize(this.root.getSynapticEndings().get(i));
-			Neuron current = currentPathway.fireSynapse();
-			if (current.getType() == NeuronType.DESCRIPTION) {
-				AttributeStructure currentAttribute = ((Description) current.parsed()).getStructure();
-				if (this.getStructure().hasAttribute(currentAttribute)) {
-					this.attributes.add(currentPathway.location);
+			this.structure = structures.get(0);
+			long structureId = this.structure.getRecieverId();
+			
+			for (NeuralPathway currentPathway : this.root.peek(OntologyLoader.NETWORK_GROUP, NeuronType.DESCRIPTION)) {
+				if (EntityInstance.isAttributeOf(currentPathway.getRecieverId(), structureId)) {
+					this.attributes.add(currentPathway);
 				}
 			}
+		} catch (IOException | ParseException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Returns whether the description with _descriptionId is a possibility of an attribute that the
+	 * entity structure with _structureId has. The attribute of the description is found through
+	 * {@link Neuron#incoming()}, as the attribute neuron with a pathway to it, and checked against
+	 * {@link Neuron#inheritedAttributes}.
+	 * @param _descriptionId
+	 * @param _structureId
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private static boolean isAttributeOf(long _descriptionId, long _structureId) throws IOException, ParseException {
+		for (long senderId : Neuron.incoming().getSenderIds(_descriptionId)) {
+			if (Neuron.index().getType(senderId) == NeuronType.ATTRIBUTE
+					&& Neuron.inheritedAttributes.has(_structureId, senderId)) {
+				return true;
+			}
 		}
+		return false;
 	}
 	
 	/**
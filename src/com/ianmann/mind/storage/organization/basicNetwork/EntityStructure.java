@@ -2,6 +2,7 @@ package com.ianmann.mind.storage.organization.basicNetwork;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 
@@ -9,6 +10,7 @@ import org.json.simple.parser.ParseException;
 
 import com.ianmann.mind.NeuralPathway;
 import com.ianmann.mind.Neuron;
+import com.ianmann.mind.OntologyLoader;
 import com.ianmann.mind.core.Constants;
 import com.ianmann.mind.core.navigation.Category;
 import com.ianmann.mind.emotions.EmotionUnit;
@@ -22,9 +24,9 @@ public class EntityStructure extends NeuralNetwork {
 	 * <br><br>
 	 * Examples may be eyes, color, age, name, etc...
 	 * <br><br>
-	 * Each file contains a thought link to a neuron
+	 * Each is a pathway in {@link OntologyLoader#NETWORK_GROUP} to a neuron
 	 */
-	private ArrayList<File> attributes = new ArrayList<File>();
+	private ArrayList<NeuralPathway> attributes = new ArrayList<NeuralPathway>();
 	
 	/**
 	 * Instantiate an Entity Structure network. This contains multiple attributes and acts
@@ -83,19 +85,15 @@ public class EntityStructure extends NeuralNetwork {
 	/**
 	 * @Override
 	 * Noun definition neurons and Attributes will be put into this networks list of
-	 * attributes.
+	 * attributes. The pathways are only peeked at so nothing is fired or written.
 	 */
 	protected void sortNetwork() {
-		this.attributes = new ArrayList<File>();
-		
-		for (File relatedNeuron : this.root.getSynapticEndings()) {
-			NeuralPathway currentPathway = NeuralPathway.deserialize(relatedNeuron);
-			Neuron current = currentPathway.fireSynapse();
-			if (current.getType() == NeuronType.NOUN_DEFINITION) {
-				this.attributes.add(relatedNeuron);
-			} else if (current.getType() == NeuronType.ATTRIBUTE) {
-				this.attributes.add(relatedNeuron);
-			}
+		this.attributes = new ArrayList<NeuralPathway>();
+		try {
+			this.attributes = this.root.peek(OntologyLoader.NETWORK_GROUP, NeuronType.NOUN_DEFINITION, NeuronType.ATTRIBUTE);
+		} catch (IOException | ParseException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
 		}
 	}
 	
@@ -125,25 +123,22 @@ public class EntityStructure extends NeuralNetwork {
 	}
 	
 	/**
-	 * Returns all attributes in this neurons network as Neuron objects. Only use this if
-	 * you will need to access the data in the neurons as this function reads each neuron
-	 * from its file.
+	 * Returns all attributes in this neurons network and the networks of its parents as
+	 * Neuron objects. Only use this if you will need to access the data in the neurons as
+	 * this function reads each neuron from its file. The attributes are found in
+	 * {@link Neuron#inheritedAttributes} so no parent network is parsed.
 	 * @return
 	 */
 	public ArrayList<Neuron> getAttributes() {
 		ArrayList<Neuron> neurons = new ArrayList<Neuron>();
-		
-		EntityStructure parentNetwork = this.getParentNetwork();
-		if (parentNetwork != null) {
-			for (Neuron neuron : parentNetwork.getAttributes()) {
-				neurons.add(neuron);
+		try {
+			for (long attributeId : Neuron.inheritedAttributes.get(this.root.getId())) {
+				neurons.add(Neuron.fromStorage(attributeId));
 			}
+		} catch (FileNotFoundException | ParseException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
 		}
-		
-		for (File pathwayFile : this.attributes) {
-			neurons.add(NeuralPathway.deserialize(pathwayFile).fireSynapse());
-		}
-		
 		return neurons;
 	}
 	
@@ -155,7 +150,7 @@ public class EntityStructure extends NeuralNetwork {
 	 */
 	public Neuron getAttribute(int index) {
 		try {
-			return Neuron.fromJSON(this.attributes.get(index));
+			return Neuron.fromStorage(this.attributes.get(index).getRecieverId());
 		} catch (FileNotFoundException | ParseException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -169,8 +164,11 @@ public class EntityStructure extends NeuralNetwork {
 	 */
 	public void addAttribute(Neuron _n) {
 		if (_n.getType() == NeuronType.NOUN_DEFINITION || _n.getType() == NeuronType.ATTRIBUTE) {
-			NeuralPathway synapse = this.root.addNeuralPathway(_n);
-			this.sortNetwork();
+			while (this.root.getAxon().size() <= OntologyLoader.NETWORK_GROUP) {
+				this.root.getAxon().add(new ArrayList<NeuralPathway>());
+			}
+			NeuralPathway synapse = this.root.addNeuralPathway(OntologyLoader.NETWORK_GROUP, _n);
+			this.attributes.add(synapse);
 		}
 	}
 	
@@ -196,12 +194,7 @@ public class EntityStructure extends NeuralNetwork {
 	 * @return
 	 */
 	public boolean hasAttribute(EntityStructure _attribute) {
-		for (Neuron neuron : this.getAttributes()) {
-			if (neuron.location.equals(_attribute.root.location)) {
-				return true;
-			}
-		}
-		return false;
+		return this.hasAttribute(_attribute.root);
 	}
 	
 	/**
@@ -211,27 +204,24 @@ public class EntityStructure extends NeuralNetwork {
 	 * @return
 	 */
 	public boolean hasAttribute(AttributeStructure _attribute) {
-		for (Neuron neuron : this.getAttributes()) {
-			if (neuron.location.equals(_attribute.root.location)) {
-				return true;
-			}
-		}
-		return false;
+		return this.hasAttribute(_attribute.root);
 	}
 	
 	/**
 	 * Determines whether or not this entity instance can be assigned an instance of _attribute.
-	 * It is assumed to be true if _attribute is contained in this EntityStructures list of attributes.
+	 * It is assumed to be true if _attribute is contained in this EntityStructures list of attributes
+	 * or that of one of its parents, looked up in {@link Neuron#inheritedAttributes}.
 	 * @param _attribute
 	 * @return
 	 */
 	public boolean hasAttribute(Neuron _attribute) {
-		for (Neuron neuron : this.getAttributes()) {
-			if (neuron.location.equals(_attribute.location)) {
-				return true;
-			}
+		try {
+			return Neuron.inheritedAttributes.has(this.root.getId(), _attribute.getId());
+		} catch (FileNotFoundException | ParseException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			return false;
 		}
-		return false;
 	}
 	
 	/**
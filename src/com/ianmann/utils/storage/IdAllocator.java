@@ -0,0 +1,222 @@
+package com.ianmann.utils.storage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Hands out unique 64-bit ids backed by a checkpoint file. Ids are
+ * reserved on disk a block at a time and then handed out from memory
+ * with an atomic counter, so most calls to {@link IdAllocator#next()}
+ * never touch the file system or take a lock.
+ * </p>
+ * <p>
+ * The checkpoint file holds a single number: the first id that has not
+ * been reserved. It is replaced atomically and forced to disk before any
+ * id in a new block is handed out, so after a crash or restart the
+ * allocator starts after every id it could have returned. Ids left over
+ * in the last block are skipped, never reused.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class IdAllocator {
+
+	/**
+	 * Number of ids reserved each time the checkpoint file is written.
+	 */
+	public static final long DEFAULT_BLOCK_SIZE = 1024;
+
+	/**
+	 * One allocator per checkpoint file so every caller shares the same block.
+	 */
+	private static ConcurrentHashMap<String, IdAllocator> allocators = new ConcurrentHashMap<String, IdAllocator>();
+
+	/**
+	 * File holding the first id that has not been reserved.
+	 */
+	private File checkpointFile;
+
+	/**
+	 * Number of ids reserved at a time.
+	 */
+	private long blockSize;
+
+	/**
+	 * Next id to hand out.
+	 */
+	private AtomicLong next;
+
+	/**
+	 * First id past the reserved block. Only ids below this have been
+	 * made durable in {@link IdAllocator#checkpointFile}.
+	 */
+	private volatile long limit;
+
+	/**
+	 * Creates an allocator that continues from the id stored in
+	 * _checkpointFile. If the file does not exist, ids start at 0. If
+	 * _checkpointFile is null, nothing is ever written.
+	 * @param _checkpointFile
+	 * @param _blockSize
+	 * @throws IOException
+	 */
+	public IdAllocator(File _checkpointFile, long _blockSize) throws IOException {
+		this.checkpointFile = _checkpointFile;
+		this.blockSize = _blockSize;
+
+		long start = 0;
+		if (_checkpointFile != null && _checkpointFile.exists()) {
+			Scanner s = new Scanner(_checkpointFile);
+			try {
+				start = s.nextLong();
+			} finally {
+				s.close();
+			}
+		}
+		this.next = new AtomicLong(start);
+		this.limit = start;
+	}
+
+	/**
+	 * Returns an allocator that starts at 0 and has no checkpoint file.
+	 * Its ids are only unique until the program exits.
+	 * @return
+	 */
+	public static IdAllocator inMemory() {
+		try {
+			return new IdAllocator(null, DEFAULT_BLOCK_SIZE);
+		} catch (IOException e) {
+			// Only reading a checkpoint file can throw.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the shared allocator for _checkpointFile, creating it with
+	 * {@link IdAllocator#DEFAULT_BLOCK_SIZE} the first time it is asked for.
+	 * @param _checkpointFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static IdAllocator forFile(File _checkpointFile) throws IOException {
+		String key = _checkpointFile.getAbsolutePath();
+		IdAllocator allocator = allocators.get(key);
+		if (allocator == null) {
+			allocator = new IdAllocator(_checkpointFile, DEFAULT_BLOCK_SIZE);
+			IdAllocator existing = allocators.putIfAbsent(key, allocator);
+			if (existing != null) {
+				allocator = existing;
+			}
+		}
+		return allocator;
+	}
+
+	/**
+	 * Returns an id that has never been returned before by an allocator
+	 * using the same checkpoint file.
+	 * @return
+	 * @throws IOException if a new block could not be reserved.
+	 */
+	public long next() throws IOException {
+		long id = this.next.getAndIncrement();
+		if (id >= this.limit) {
+			this.reserveThrough(id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the first of _count consecutive ids that have never been
+	 * returned before.
+	 * @param _count
+	 * @return
+	 * @throws IOException if a new block could not be reserved.
+	 */
+	public long next(long _count) throws IOException {
+		long first = this.next.getAndAdd(_count);
+		long last = first + _count - 1;
+		if (last >= this.limit) {
+			this.reserveThrough(last);
+		}
+		return first;
+	}
+
+	/**
+	 * Make sure no id up to and including _id is ever returned. Used to
+	 * repair a checkpoint file that has fallen behind the ids in storage.
+	 * @param _id
+	 * @throws IOException if the checkpoint file could not be written.
+	 */
+	public void skipPast(long _id) throws IOException {
+		long current = this.next.get();
+		while (current <= _id && !this.next.compareAndSet(current, _id + 1)) {
+			current = this.next.get();
+		}
+		this.reserveThrough(_id);
+	}
+
+	/**
+	 * Reserve blocks until _id is below {@link IdAllocator#limit}.
+	 * @param _id
+	 * @throws IOException
+	 */
+	private synchronized void reserveThrough(long _id) throws IOException {
+		if (_id < this.limit) {
+			return;
+		}
+		long newLimit = this.limit;
+		while (newLimit <= _id) {
+			newLimit += this.blockSize;
+		}
+		this.writeCheckpoint(newLimit);
+		this.limit = newLimit;
+	}
+
+	/**
+	 * Replace the checkpoint file with one holding _limit and force it
+	 * and the folder it is in to disk, so the rename cannot be lost.
+	 * @param _limit
+	 * @throws IOException
+	 */
+	private void writeCheckpoint(long _limit) throws IOException {
+		if (this.checkpointFile == null) {
+			return;
+		}
+		File temp = new File(this.checkpointFile.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			out.write(String.valueOf(_limit).getBytes(StandardCharsets.UTF_8));
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		java.nio.file.Files.move(
+				temp.toPath(),
+				this.checkpointFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE
+		);
+		try {
+			FileChannel directory = FileChannel.open(
+					this.checkpointFile.getAbsoluteFile().getParentFile().toPath(),
+					StandardOpenOption.READ
+			);
+			try {
+				directory.force(true);
+			} finally {
+				directory.close();
+			}
+		} catch (IOException e) {
+			// Not every platform can open a folder to force it.
+		}
+	}
+}
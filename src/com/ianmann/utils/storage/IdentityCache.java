@@ -0,0 +1,215 @@
+package com.ianmann.utils.storage;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+/**
+ * <p>
+ * Bounded identity map that keeps the loaded instance of each stored
+ * object so repeat lookups of the same key return the same object
+ * instead of reading and parsing it again.
+ * </p>
+ * <p>
+ * Entries are weighed with a {@link IdentityCache.Weigher} and the least
+ * recently used entries are evicted once the total weight passes the
+ * budget. Hit, miss and eviction counts are kept so the budget can be
+ * tuned.
+ * </p>
+ * @author kirkp1ia
+ *
+ * @param <K> Type of the storage key.
+ * @param <V> Type of the cached objects.
+ */
+public class IdentityCache<K, V> {
+
+	/**
+	 * Estimates the memory used by a cached object.
+	 * @param <V>
+	 */
+	public interface Weigher<V> {
+
+		/**
+		 * Returns the approximate number of bytes held by _value.
+		 * @param _value
+		 * @return
+		 */
+		public long weigh(V _value);
+	}
+
+	/**
+	 * Cached objects in least recently used first order.
+	 */
+	private LinkedHashMap<K, V> entries = new LinkedHashMap<K, V>(16, 0.75f, true);
+
+	/**
+	 * Weight recorded for each cached object when it was added.
+	 */
+	private HashMap<K, Long> weights = new HashMap<K, Long>();
+
+	private Weigher<V> weigher;
+
+	/**
+	 * Total weight allowed before entries are evicted.
+	 */
+	private long maximumWeight;
+
+	private long weightedSize = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * Creates a cache that holds at most _maximumWeight as measured by _weigher.
+	 * @param _maximumWeight
+	 * @param _weigher
+	 */
+	public IdentityCache(long _maximumWeight, Weigher<V> _weigher) {
+		this.maximumWeight = _maximumWeight;
+		this.weigher = _weigher;
+	}
+
+	/**
+	 * Returns the cached object for _key or null if it is not cached.
+	 * @param _key
+	 * @return
+	 */
+	public synchronized V get(K _key) {
+		V value = this.entries.get(_key);
+		if (value == null) {
+			this.misses++;
+		} else {
+			this.hits++;
+		}
+		return value;
+	}
+
+	/**
+	 * Returns whether anything is cached for _key, without counting a
+	 * hit or a miss or marking it as used.
+	 * @param _key
+	 * @return
+	 */
+	public synchronized boolean contains(K _key) {
+		return this.entries.containsKey(_key);
+	}
+
+	/**
+	 * Cache _value under _key, replacing anything cached for it, and
+	 * evict the least recently used entries until the cache is back
+	 * under budget.
+	 * @param _key
+	 * @param _value
+	 */
+	public synchronized void put(K _key, V _value) {
+		this.invalidate(_key);
+		long weight = this.weigher.weigh(_value);
+		this.entries.put(_key, _value);
+		this.weights.put(_key, weight);
+		this.weightedSize += weight;
+		this.evict();
+	}
+
+	/**
+	 * Cache _value under _key unless something is already cached for it.
+	 * @param _key
+	 * @param _value
+	 * @return The object that is cached for _key after the call.
+	 */
+	public synchronized V putIfAbsent(K _key, V _value) {
+		V existing = this.entries.get(_key);
+		if (existing != null) {
+			return existing;
+		}
+		this.put(_key, _value);
+		return _value;
+	}
+
+	/**
+	 * Remove anything cached for _key.
+	 * @param _key
+	 */
+	public synchronized void invalidate(K _key) {
+		if (this.entries.remove(_key) != null) {
+			this.weightedSize -= this.weights.remove(_key);
+		}
+	}
+
+	/**
+	 * Remove every cached object.
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+		this.weights.clear();
+		this.weightedSize = 0;
+	}
+
+	/**
+	 * Change the budget and evict entries if the cache is over it.
+	 * @param _maximumWeight
+	 */
+	public synchronized void setMaximumWeight(long _maximumWeight) {
+		this.maximumWeight = _maximumWeight;
+		this.evict();
+	}
+
+	/**
+	 * Evict least recently used entries until the cache is within budget.
+	 */
+	private void evict() {
+		Iterator<Entry<K, V>> eldest = this.entries.entrySet().iterator();
+		while (this.weightedSize > this.maximumWeight && eldest.hasNext()) {
+			K key = eldest.next().getKey();
+			eldest.remove();
+			this.weightedSize -= this.weights.remove(key);
+			this.evictions++;
+		}
+	}
+
+	/**
+	 * Returns the number of lookups that found a cached object.
+	 * @return
+	 */
+	public synchronized long getHitCount() {
+		return this.hits;
+	}
+
+	/**
+	 * Returns the number of lookups that found nothing cached.
+	 * @return
+	 */
+	public synchronized long getMissCount() {
+		return this.misses;
+	}
+
+	/**
+	 * Returns the number of objects removed to stay within budget.
+	 * @return
+	 */
+	public synchronized long getEvictionCount() {
+		return this.evictions;
+	}
+
+	/**
+	 * Returns the total weight of every cached object.
+	 * @return
+	 */
+	public synchronized long getWeightedSize() {
+		return this.weightedSize;
+	}
+
+	/**
+	 * Returns the number of cached objects.
+	 * @return
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	public String toString() {
+		return "<IdentityCache: size(" + this.size() + ");weight(" + this.getWeightedSize() + "/" + this.maximumWeight
+				+ ");hits(" + this.getHitCount() + ");misses(" + this.getMissCount() + ");evictions(" + this.getEvictionCount() + ")>";
+	}
+}
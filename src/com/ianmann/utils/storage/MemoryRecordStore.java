@@ -0,0 +1,52 @@
+package com.ianmann.utils.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * {@link RecordStore} that keeps every record on the heap. Nothing is
+ * ever written to disk, so the records are gone when the program exits.
+ * @author kirkp1ia
+ *
+ */
+public class MemoryRecordStore implements RecordStore {
+
+	private HashMap<String, byte[]> records = new HashMap<String, byte[]>();
+
+	@Override
+	public synchronized void put(String _key, byte[] _value) {
+		this.records.put(_key, _value.clone());
+	}
+
+	@Override
+	public synchronized boolean remove(String _key) {
+		return this.records.remove(_key) != null;
+	}
+
+	@Override
+	public synchronized byte[] get(String _key) {
+		byte[] value = this.records.get(_key);
+		return value == null ? null : value.clone();
+	}
+
+	@Override
+	public synchronized boolean contains(String _key) {
+		return this.records.containsKey(_key);
+	}
+
+	@Override
+	public synchronized ArrayList<String> keys() {
+		return new ArrayList<String>(this.records.keySet());
+	}
+
+	/**
+	 * Nothing to do since nothing is stored on disk.
+	 */
+	@Override
+	public void sync() {}
+
+	@Override
+	public synchronized void close() {
+		this.records.clear();
+	}
+}
@@ -0,0 +1,61 @@
+package com.ianmann.utils.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Keyed store of byte records. {@link SegmentLog} keeps them on disk
+ * and {@link MemoryRecordStore} keeps them on the heap.
+ * @author kirkp1ia
+ *
+ */
+public interface RecordStore {
+
+	/**
+	 * Store _value as the record for _key. It may not be durable until
+	 * {@link RecordStore#sync()} is called.
+	 * @param _key
+	 * @param _value
+	 * @throws IOException
+	 */
+	public void put(String _key, byte[] _value) throws IOException;
+
+	/**
+	 * Remove the record for _key.
+	 * @param _key
+	 * @return
+	 * true - if _key had a record. <br>
+	 * false - if there was nothing to remove.
+	 * @throws IOException
+	 */
+	public boolean remove(String _key) throws IOException;
+
+	/**
+	 * Returns the record for _key or null if it has none.
+	 * @param _key
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] get(String _key) throws IOException;
+
+	/**
+	 * Returns whether _key has a record.
+	 * @param _key
+	 * @return
+	 */
+	public boolean contains(String _key);
+
+	/**
+	 * Returns a copy of every key that has a record.
+	 * @return
+	 */
+	public ArrayList<String> keys();
+
+	/**
+	 * Make every record stored so far durable.
+	 * @throws IOException
+	 */
+	public void sync() throws IOException;
+
+	public void close() throws IOException;
+}
@@ -0,0 +1,846 @@
+package com.ianmann.utils.storage;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * Append-only store of keyed records spread across a directory of
+ * segment files. Every write is appended to the end of the active
+ * segment and an in-memory index maps each key to the location of
+ * its newest record, so a save never rewrites or truncates a file.
+ * </p>
+ * <p>
+ * Records that have been overwritten or deleted stay in their segment
+ * until {@link SegmentLog#compact()} rewrites a mostly dead segment with
+ * only the records that are still needed.
+ * {@link SegmentLog#startCompactor(long)} does this in the background
+ * until the log is closed.
+ * </p>
+ * <p>
+ * Appending a record does not force it to disk. A record is durable once
+ * {@link SegmentLog#sync()} has been called after it was appended or the
+ * log has been closed.
+ * </p>
+ * <p>
+ * Record layout:<br>
+ * {@code [crc:int][flag:byte][keyLength:int][valueLength:int][key][value]}
+ * <br>
+ * The crc covers everything after itself so a torn write at the tail of
+ * the active segment is detected and cut off when the log is opened. A
+ * record further in that fails its crc is skipped by its lengths and
+ * counted in {@link SegmentLog#getSkippedRecords()}.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class SegmentLog implements RecordStore {
+
+	/**
+	 * Flag stored with a record that holds a value.
+	 */
+	private static final byte FLAG_PUT = 0x01;
+
+	/**
+	 * Flag stored with a record that marks its key as deleted.
+	 */
+	private static final byte FLAG_TOMBSTONE = 0x02;
+
+	/**
+	 * Number of bytes in front of the key of every record.
+	 */
+	private static final int HEADER_SIZE = 4 + 1 + 4 + 4;
+
+	/**
+	 * Extension given to every segment file in the log directory.
+	 */
+	private static final String SEGMENT_EXTENSION = ".seg";
+
+	/**
+	 * Added to the name of a segment while its compacted copy is written.
+	 */
+	private static final String COMPACTING_EXTENSION = ".compacting";
+
+	/**
+	 * Default size at which the active segment is sealed and a new
+	 * one is started.
+	 */
+	public static final long DEFAULT_SEGMENT_SIZE = 16L * 1024L * 1024L;
+
+	/**
+	 * Sealed segments with less than this fraction of live bytes
+	 * are rewritten by {@link SegmentLog#compact()}.
+	 */
+	public static final double DEFAULT_LIVE_RATIO = 0.5;
+
+	/**
+	 * Folder containing every segment of this log.
+	 */
+	private File directory;
+
+	/**
+	 * Size in bytes after which the active segment is sealed.
+	 */
+	private long maxSegmentSize;
+
+	/**
+	 * Open channels for every segment keyed by segment number.
+	 */
+	private TreeMap<Integer, FileChannel> segments = new TreeMap<Integer, FileChannel>();
+
+	/**
+	 * Number of bytes in each segment that still belong to the newest
+	 * record of their key.
+	 */
+	private HashMap<Integer, Long> liveBytes = new HashMap<Integer, Long>();
+
+	/**
+	 * Location of the newest record for every key that has not been
+	 * deleted.
+	 */
+	private HashMap<String, RecordLocation> index = new HashMap<String, RecordLocation>();
+
+	/**
+	 * Number of the segment that new records are appended to.
+	 */
+	private int activeSegment;
+
+	/**
+	 * Compactor started by {@link SegmentLog#startCompactor(long)}, if any.
+	 */
+	private Compactor compactor;
+
+	/**
+	 * Held by {@link SegmentLog#compact()} so only one pass runs at a
+	 * time. Segments are copied under this rather than the lock of the
+	 * log, so reads and writes carry on while a segment is copied.
+	 */
+	private final Object compaction = new Object();
+
+	/**
+	 * Number of corrupt records skipped since the log was opened.
+	 */
+	private int skippedRecords;
+
+	/**
+	 * Opens the log stored in _directory, creating the directory if it
+	 * does not exist yet, and rebuilds the index from every segment
+	 * using {@link SegmentLog#DEFAULT_SEGMENT_SIZE}.
+	 * @param _directory
+	 * @throws IOException
+	 */
+	public SegmentLog(File _directory) throws IOException {
+		this(_directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Opens the log stored in _directory, creating the directory if it
+	 * does not exist yet, and rebuilds the index from every segment.
+	 * @param _directory
+	 * @param _maxSegmentSize
+	 * @throws IOException
+	 */
+	public SegmentLog(File _directory, long _maxSegmentSize) throws IOException {
+		this.directory = _directory;
+		this.maxSegmentSize = _maxSegmentSize;
+		this.directory.mkdirs();
+		this.recover();
+	}
+
+	/**
+	 * Open every segment found in the log directory in order and
+	 * replay them into the index. A partial record at the end of a
+	 * segment is truncated away. Copies left by a compaction that did
+	 * not finish are deleted, since the segment they were copied from is
+	 * still there.
+	 * @throws IOException
+	 */
+	private void recover() throws IOException {
+		File[] unfinished = this.directory.listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(File _dir, String _name) {
+				return _name.endsWith(COMPACTING_EXTENSION);
+			}
+		});
+		for (File copy : unfinished) {
+			copy.delete();
+		}
+		String[] names = this.directory.list(new FilenameFilter() {
+
+			@Override
+			public boolean accept(File _dir, String _name) {
+				return _name.endsWith(SEGMENT_EXTENSION);
+			}
+		});
+
+		ArrayList<Integer> numbers = new ArrayList<Integer>();
+		for (String name : names) {
+			numbers.add(Integer.valueOf(name.substring(0, name.length() - SEGMENT_EXTENSION.length())));
+		}
+		Collections.sort(numbers);
+
+		for (int number : numbers) {
+			FileChannel channel = this.openSegment(number);
+			long validLength = this.replaySegment(number, channel);
+			if (validLength < channel.size()) {
+				System.err.println("Cut off " + (channel.size() - validLength) + " incomplete bytes at the end of " + this.segmentFile(number).getPath());
+				channel.truncate(validLength);
+			}
+		}
+
+		if (this.segments.isEmpty()) {
+			this.openSegment(1);
+		}
+		this.activeSegment = this.segments.lastKey();
+	}
+
+	/**
+	 * Read every record in a segment into the index and return the
+	 * number of bytes up to the end of the last complete record. A
+	 * corrupt record with more of the segment after it is skipped and
+	 * reported. One that ends the segment is treated as a torn write and
+	 * left out of the length returned.
+	 * @param _segment
+	 * @param _channel
+	 * @return
+	 * @throws IOException
+	 */
+	private long replaySegment(int _segment, FileChannel _channel) throws IOException {
+		long position = 0;
+		long size = _channel.size();
+		Record record;
+		while ((record = this.readRecord(_channel, position, size)) != null) {
+			if (!record.intact) {
+				if (position + record.length() == size) {
+					break;
+				}
+				this.skippedRecords++;
+				System.err.println("Skipped a corrupt record at byte " + position + " of " + this.segmentFile(_segment).getPath());
+			} else if (record.flag == FLAG_PUT) {
+				this.track(record.key, new RecordLocation(_segment, position, record.keyLength, record.valueLength));
+			} else {
+				this.track(record.key, null);
+			}
+			position += record.length();
+		}
+		return position;
+	}
+
+	/**
+	 * Returns the number of corrupt records skipped since the log was
+	 * opened. Their keys keep whatever value an older record gave them.
+	 * @return
+	 */
+	public synchronized int getSkippedRecords() {
+		return this.skippedRecords;
+	}
+
+	/**
+	 * Read the header and key of the record at _position in _channel.
+	 * @param _channel
+	 * @param _position
+	 * @param _size Number of bytes in _channel.
+	 * @return The record, or null if there is no complete record at
+	 * _position. A complete record that fails its crc is returned with
+	 * {@link Record#intact} false and no key.
+	 * @throws IOException
+	 */
+	private Record readRecord(FileChannel _channel, long _position, long _size) throws IOException {
+		if (_position + HEADER_SIZE > _size) {
+			return null;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		this.readFully(_channel, header, _position);
+		header.flip();
+		int crc = header.getInt();
+		byte flag = header.get();
+		int keyLength = header.getInt();
+		int valueLength = header.getInt();
+
+		if (keyLength < 0 || valueLength < 0 || _position + HEADER_SIZE + (long) keyLength + valueLength > _size) {
+			return null;
+		}
+
+		ByteBuffer body = ByteBuffer.allocate(keyLength + valueLength);
+		this.readFully(_channel, body, _position + HEADER_SIZE);
+		if (crc != this.checksum(flag, keyLength, valueLength, body.array())) {
+			return new Record(flag, null, keyLength, valueLength, false);
+		}
+		return new Record(flag, new String(body.array(), 0, keyLength, StandardCharsets.UTF_8), keyLength, valueLength, true);
+	}
+
+	/**
+	 * Create or open the segment file with the given number.
+	 * @param _segment
+	 * @return
+	 * @throws IOException
+	 */
+	@SuppressWarnings("resource")
+	private FileChannel openSegment(int _segment) throws IOException {
+		File segmentFile = this.segmentFile(_segment);
+		FileChannel channel = new RandomAccessFile(segmentFile, "rw").getChannel();
+		this.segments.put(_segment, channel);
+		this.liveBytes.put(_segment, 0L);
+		return channel;
+	}
+
+	/**
+	 * Returns the file that stores the segment with the given number.
+	 * @param _segment
+	 * @return
+	 */
+	private File segmentFile(int _segment) {
+		return new File(this.directory, String.format("%08d", _segment) + SEGMENT_EXTENSION);
+	}
+
+	/**
+	 * Point _key at _location in the index and move the live byte
+	 * count from the record it replaces. A null location removes the
+	 * key from the index.
+	 * @param _key
+	 * @param _location
+	 */
+	private void track(String _key, RecordLocation _location) {
+		RecordLocation old;
+		if (_location != null) {
+			old = this.index.put(_key, _location);
+			this.addLiveBytes(_location.segment, _location.length());
+		} else {
+			old = this.index.remove(_key);
+		}
+		if (old != null) {
+			this.addLiveBytes(old.segment, -old.length());
+		}
+	}
+
+	/**
+	 * Add _amount to the live byte count of _segment.
+	 * @param _segment
+	 * @param _amount
+	 */
+	private void addLiveBytes(int _segment, long _amount) {
+		this.liveBytes.put(_segment, this.liveBytes.get(_segment) + _amount);
+	}
+
+	/**
+	 * Append _value as the newest record for _key. The record is not
+	 * forced to disk until {@link SegmentLog#sync()} is called.
+	 * @param _key
+	 * @param _value
+	 * @throws IOException
+	 */
+	public synchronized void put(String _key, byte[] _value) throws IOException {
+		RecordLocation location = this.append(FLAG_PUT, _key, _value);
+		this.track(_key, location);
+	}
+
+	/**
+	 * Append a tombstone for _key so that it is no longer returned by
+	 * {@link SegmentLog#get(String)}.
+	 * @param _key
+	 * @return
+	 * true - if _key was stored in this log. <br>
+	 * false - if there was nothing to remove.
+	 * @throws IOException
+	 */
+	public synchronized boolean remove(String _key) throws IOException {
+		if (!this.index.containsKey(_key)) {
+			return false;
+		}
+		this.append(FLAG_TOMBSTONE, _key, new byte[0]);
+		this.track(_key, null);
+		return true;
+	}
+
+	/**
+	 * Return the newest value stored for _key or null if the key has
+	 * never been written or has been removed.
+	 * @param _key
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized byte[] get(String _key) throws IOException {
+		RecordLocation location = this.index.get(_key);
+		if (location == null) {
+			return null;
+		}
+		ByteBuffer value = ByteBuffer.allocate(location.valueLength);
+		this.readFully(this.segments.get(location.segment), value, location.valueOffset());
+		return value.array();
+	}
+
+	/**
+	 * Returns whether a live record is stored for _key.
+	 * @param _key
+	 * @return
+	 */
+	public synchronized boolean contains(String _key) {
+		return this.index.containsKey(_key);
+	}
+
+	/**
+	 * Returns a copy of every key that currently has a live record.
+	 * @return
+	 */
+	public synchronized ArrayList<String> keys() {
+		return new ArrayList<String>(this.index.keySet());
+	}
+
+	/**
+	 * Write a single record to the end of the active segment, sealing
+	 * it first if it has grown past {@link SegmentLog#maxSegmentSize}.
+	 * @param _flag
+	 * @param _key
+	 * @param _value
+	 * @return
+	 * @throws IOException
+	 */
+	private RecordLocation append(byte _flag, String _key, byte[] _value) throws IOException {
+		FileChannel channel = this.segments.get(this.activeSegment);
+		if (channel.size() >= this.maxSegmentSize) {
+			this.activeSegment++;
+			channel = this.openSegment(this.activeSegment);
+		}
+
+		byte[] key = _key.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + key.length + _value.length);
+		record.putInt(0);
+		record.put(_flag);
+		record.putInt(key.length);
+		record.putInt(_value.length);
+		record.put(key);
+		record.put(_value);
+		record.putInt(0, this.checksum(_flag, key.length, _value.length, record.array(), HEADER_SIZE));
+		record.flip();
+
+		long position = channel.size();
+		while (record.hasRemaining()) {
+			channel.write(record, position + record.position());
+		}
+		return new RecordLocation(this.activeSegment, position, key.length, _value.length);
+	}
+
+	/**
+	 * Force every appended record in the active segment to disk.
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException {
+		this.segments.get(this.activeSegment).force(false);
+	}
+
+	/**
+	 * <p>
+	 * Rewrite every sealed segment whose live bytes have fallen below
+	 * {@link SegmentLog#DEFAULT_LIVE_RATIO} of its size, keeping only its
+	 * live records and the tombstones still needed.
+	 * </p>
+	 * <p>
+	 * A sealed segment is never appended to, so it is copied without the
+	 * lock of the log. The lock is only taken to decide which records are
+	 * live and to swap the copy in, so reads and writes are not held up
+	 * while a segment is copied.
+	 * </p>
+	 * @return The number of segments that were rewritten or removed.
+	 * @throws IOException
+	 */
+	public int compact() throws IOException {
+		synchronized (this.compaction) {
+			int compacted = 0;
+			for (int segment : this.mostlyDeadSegments()) {
+				if (this.rewriteSegment(segment)) {
+					compacted++;
+				}
+			}
+			return compacted;
+		}
+	}
+
+	/**
+	 * Returns every sealed segment whose live bytes are below
+	 * {@link SegmentLog#DEFAULT_LIVE_RATIO} of its size.
+	 * @return
+	 * @throws IOException
+	 */
+	private synchronized ArrayList<Integer> mostlyDeadSegments() throws IOException {
+		ArrayList<Integer> segments = new ArrayList<Integer>();
+		for (Entry<Integer, FileChannel> entry : this.segments.entrySet()) {
+			int segment = entry.getKey();
+			if (segment != this.activeSegment && this.liveBytes.get(segment) < entry.getValue().size() * DEFAULT_LIVE_RATIO) {
+				segments.add(segment);
+			}
+		}
+		return segments;
+	}
+
+	/**
+	 * <p>
+	 * Copy the records of _segment that are still needed into a new file
+	 * and put it in place of the segment, which keeps its number so the
+	 * log replays in the same order. A record is needed if the index
+	 * points at it or, while an older segment is left that may still hold
+	 * a record for its key, if it is a tombstone. The segment is removed
+	 * if nothing in it is needed.
+	 * </p>
+	 * <p>
+	 * A record overwritten or removed while the copy is written is kept
+	 * in the copy. The newer record is in a later segment, so it still
+	 * wins when the log is opened again.
+	 * </p>
+	 * @param _segment
+	 * @return Whether the segment was rewritten or removed. It is left
+	 * alone if every record in it is needed.
+	 * @throws IOException
+	 */
+	private boolean rewriteSegment(int _segment) throws IOException {
+		FileChannel channel;
+		HashMap<Long, String> live = new HashMap<Long, String>();
+		boolean keepTombstones;
+		synchronized (this) {
+			channel = this.segments.get(_segment);
+			if (channel == null) {
+				return false;
+			}
+			for (Entry<String, RecordLocation> entry : this.index.entrySet()) {
+				if (entry.getValue().segment == _segment) {
+					live.put(entry.getValue().offset, entry.getKey());
+				}
+			}
+			keepTombstones = this.segments.firstKey() < _segment;
+		}
+
+		File segmentFile = this.segmentFile(_segment);
+		File copy = new File(this.directory, segmentFile.getName() + COMPACTING_EXTENSION);
+		HashMap<Long, Long> moved = new HashMap<Long, Long>();
+		long copied = 0;
+		boolean dropped = false;
+		try (FileChannel out = FileChannel.open(copy.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			long position = 0;
+			long size = channel.size();
+			Record record;
+			while ((record = this.readRecord(channel, position, size)) != null) {
+				boolean needed = record.intact
+						&& (record.flag == FLAG_PUT ? live.containsKey(position) : keepTombstones);
+				if (needed) {
+					ByteBuffer bytes = ByteBuffer.allocate((int) record.length());
+					this.readFully(channel, bytes, position);
+					bytes.flip();
+					while (bytes.hasRemaining()) {
+						out.write(bytes, copied + bytes.position());
+					}
+					moved.put(position, copied);
+					copied += record.length();
+				} else {
+					dropped = true;
+				}
+				position += record.length();
+			}
+			if (position < size) {
+				dropped = true;
+			}
+			out.force(true);
+		} catch (IOException e) {
+			copy.delete();
+			throw e;
+		}
+		if (!dropped) {
+			copy.delete();
+			return false;
+		}
+
+		synchronized (this) {
+			if (this.segments.get(_segment) != channel) {
+				// The log was closed while the segment was copied.
+				copy.delete();
+				return false;
+			}
+			if (copied == 0) {
+				copy.delete();
+				this.segments.remove(_segment).close();
+				this.liveBytes.remove(_segment);
+				segmentFile.delete();
+				return true;
+			}
+			Files.move(copy.toPath(), segmentFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			channel.close();
+			this.segments.remove(_segment);
+			this.openSegment(_segment);
+			// Nothing is appended to a sealed segment, so every record the
+			// index still points at in it was live when it was copied.
+			for (Entry<String, RecordLocation> entry : this.index.entrySet()) {
+				RecordLocation location = entry.getValue();
+				if (location.segment == _segment) {
+					RecordLocation copiedLocation = new RecordLocation(_segment, moved.get(location.offset), location.keyLength, location.valueLength);
+					entry.setValue(copiedLocation);
+					this.addLiveBytes(_segment, copiedLocation.length());
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compact this log every _interval milliseconds on a background
+	 * thread until it is closed. Nothing happens if a compactor has
+	 * already been started.
+	 * @param _interval
+	 */
+	public synchronized void startCompactor(long _interval) {
+		if (this.compactor == null) {
+			this.compactor = new Compactor(this, _interval).start();
+		}
+	}
+
+	/**
+	 * Stop the compactor, if one was started, force the active segment
+	 * to disk and close every segment in this log.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		Compactor compactor;
+		synchronized (this) {
+			compactor = this.compactor;
+			this.compactor = null;
+		}
+		if (compactor != null) {
+			// Not under the lock, since a pass that is running needs it to finish.
+			compactor.terminate();
+		}
+		synchronized (this) {
+			if (!this.segments.isEmpty()) {
+				this.sync();
+			}
+			for (FileChannel channel : this.segments.values()) {
+				channel.close();
+			}
+			this.segments.clear();
+		}
+	}
+
+	/**
+	 * Fill _buffer from _channel starting at _position.
+	 * @param _channel
+	 * @param _buffer
+	 * @param _position
+	 * @throws IOException
+	 */
+	private void readFully(FileChannel _channel, ByteBuffer _buffer, long _position) throws IOException {
+		while (_buffer.hasRemaining()) {
+			int read = _channel.read(_buffer, _position + _buffer.position());
+			if (read < 0) {
+				throw new IOException("Unexpected end of segment in " + this.directory.getPath());
+			}
+		}
+	}
+
+	/**
+	 * Checksum for a record whose key and value are in _body.
+	 * @param _flag
+	 * @param _keyLength
+	 * @param _valueLength
+	 * @param _body
+	 * @return
+	 */
+	private int checksum(byte _flag, int _keyLength, int _valueLength, byte[] _body) {
+		return this.checksum(_flag, _keyLength, _valueLength, _body, 0);
+	}
+
+	/**
+	 * Checksum for a record whose key and value start at _offset in _bytes.
+	 * @param _flag
+	 * @param _keyLength
+	 * @param _valueLength
+	 * @param _bytes
+	 * @param _offset
+	 * @return
+	 */
+	private int checksum(byte _flag, int _keyLength, int _valueLength, byte[] _bytes, int _offset) {
+		CRC32 crc = new CRC32();
+		ByteBuffer lengths = ByteBuffer.allocate(9);
+		lengths.put(_flag);
+		lengths.putInt(_keyLength);
+		lengths.putInt(_valueLength);
+		crc.update(lengths.array());
+		crc.update(_bytes, _offset, _keyLength + _valueLength);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Header and key of a record read back from a segment.
+	 */
+	private static class Record {
+
+		private final byte flag;
+		private final String key;
+		private final int keyLength;
+		private final int valueLength;
+
+		/**
+		 * Whether the record matched its crc. The key of a record that
+		 * did not is not read.
+		 */
+		private final boolean intact;
+
+		private Record(byte _flag, String _key, int _keyLength, int _valueLength, boolean _intact) {
+			this.flag = _flag;
+			this.key = _key;
+			this.keyLength = _keyLength;
+			this.valueLength = _valueLength;
+			this.intact = _intact;
+		}
+
+		/**
+		 * Returns the total number of bytes used by the record.
+		 * @return
+		 */
+		private long length() {
+			return HEADER_SIZE + (long) this.keyLength + this.valueLength;
+		}
+	}
+
+	/**
+	 * Position of a single record inside a segment.
+	 */
+	private static class RecordLocation {
+
+		private final int segment;
+		private final long offset;
+		private final int keyLength;
+		private final int valueLength;
+
+		private RecordLocation(int _segment, long _offset, int _keyLength, int _valueLength) {
+			this.segment = _segment;
+			this.offset = _offset;
+			this.keyLength = _keyLength;
+			this.valueLength = _valueLength;
+		}
+
+		/**
+		 * Returns the position of the first byte of the value.
+		 * @return
+		 */
+		private long valueOffset() {
+			return this.offset + HEADER_SIZE + this.keyLength;
+		}
+
+		/**
+		 * Returns the total number of bytes used by the record.
+		 * @return
+		 */
+		private long length() {
+			return HEADER_SIZE + this.keyLength + this.valueLength;
+		}
+	}
+
+	/**
+	 * Background task that periodically calls {@link SegmentLog#compact()}.
+	 * Call {@link Compactor#start()} to run it on its own thread and
+	 * {@link Compactor#terminate()} to stop it.
+	 */
+	public static class Compactor implements Runnable {
+
+		/**
+		 * Milliseconds between compaction passes of a compactor started by
+		 * the storage engines.
+		 */
+		public static final long DEFAULT_INTERVAL = 60L * 1000L;
+
+		private volatile boolean running = true;
+
+		/**
+		 * The log to compact.
+		 */
+		private SegmentLog log;
+
+		/**
+		 * Milliseconds to wait between compaction passes.
+		 */
+		private long interval;
+
+		/**
+		 * Thread started by {@link Compactor#start()}, if any.
+		 */
+		private Thread thread;
+
+		/**
+		 * Creates a compactor for _log that runs every _interval milliseconds.
+		 * @param _log
+		 * @param _interval
+		 */
+		public Compactor(SegmentLog _log, long _interval) {
+			this.log = _log;
+			this.interval = _interval;
+		}
+
+		/**
+		 * Run this compactor on a new daemon thread.
+		 * @return This compactor.
+		 */
+		public synchronized Compactor start() {
+			this.thread = new Thread(this, "SegmentLog compactor " + this.log.directory.getPath());
+			this.thread.setDaemon(true);
+			this.thread.start();
+			return this;
+		}
+
+		/**
+		 * Compact the log until {@link Compactor#terminate()} is called.
+		 */
+		@Override
+		public void run() {
+			while (this.running) {
+				try {
+					synchronized (this) {
+						if (this.running) {
+							this.wait(this.interval);
+						}
+					}
+					if (this.running) {
+						this.log.compact();
+					}
+				} catch (InterruptedException e) {
+					this.running = false;
+				} catch (IOException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				}
+			}
+		}
+
+		/**
+		 * Stop compacting. If this compactor was started with
+		 * {@link Compactor#start()}, wait for a pass that is running to
+		 * finish. The thread is woken rather than interrupted, since an
+		 * interrupt would close the segment it is copying.
+		 */
+		public void terminate() {
+			Thread thread;
+			synchronized (this) {
+				this.running = false;
+				this.notifyAll();
+				thread = this.thread;
+			}
+			if (thread != null && thread != Thread.currentThread()) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+}
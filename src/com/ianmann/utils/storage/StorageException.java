@@ -0,0 +1,21 @@
+package com.ianmann.utils.storage;
+
+import java.io.IOException;
+
+/**
+ * Thrown when something could not be written to or read from storage
+ * by a method that cannot throw {@link IOException}, such as the
+ * methods of {@link StorageManageable}. What was being written must be
+ * treated as lost. The cause is the {@link IOException}, or the error
+ * from parsing what was read.
+ * @author kirkp1ia
+ *
+ */
+public class StorageException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public StorageException(String _message, Exception _cause) {
+		super(_message, _cause);
+	}
+}
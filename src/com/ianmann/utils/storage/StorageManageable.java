@@ -7,6 +7,7 @@
 package com.ianmann.utils.storage;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 
 /**
@@ -35,6 +36,28 @@ public interface StorageManageable<T> {
 	 */
 	public void save(T _object);
 	
+	/**
+	 * Save every instance in _objects. The writes are made together
+	 * in one pass instead of one at a time.
+	 * @param _objects
+	 */
+	public void saveAll(Collection<T> _objects);
+	
+	/**
+	 * Start buffering the saves and deletes made on this thread until
+	 * the matching call to {@link StorageManageable#commit()}. Calls
+	 * may be nested.
+	 */
+	public void begin();
+	
+	/**
+	 * End the unit of work started by the matching call to
+	 * {@link StorageManageable#begin()}. When the outermost unit of
+	 * work is committed, every buffered change is written to storage
+	 * in the order it was last made.
+	 */
+	public void commit();
+	
 	/**
 	 * Delete an instance of T specified by _object. This
 	 * will remove this instance from storage.
@@ -0,0 +1,138 @@
+package com.ianmann.utils.storage;
+
+import java.util.LinkedHashMap;
+
+/**
+ * <p>
+ * Buffers the writes a thread makes to storage between
+ * {@link UnitOfWork#begin()} and {@link UnitOfWork#commit()} and applies
+ * them in one pass when the outermost unit of work is committed.
+ * </p>
+ * <p>
+ * Each write is recorded under a key naming the object it writes. A
+ * later write to the same key replaces the earlier one and moves to the
+ * end of the queue, so an object that is saved many times is written
+ * once, after everything it was saved alongside. Writes are applied in
+ * the order their keys were last written.
+ * </p>
+ * <p>
+ * Units of work nest: begin and commit may be called again inside an
+ * open unit of work and only the outermost commit writes anything.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class UnitOfWork {
+
+	/**
+	 * One buffered write.
+	 */
+	public interface Operation {
+
+		/**
+		 * Write the change to storage.
+		 */
+		public void apply();
+	}
+
+	private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<UnitOfWork>();
+
+	/**
+	 * Number of times begin has been called without a matching commit.
+	 */
+	private int depth = 0;
+
+	private LinkedHashMap<String, Operation> pending = new LinkedHashMap<String, Operation>();
+
+	private UnitOfWork() {}
+
+	/**
+	 * Start buffering the writes made by this thread.
+	 */
+	public static void begin() {
+		UnitOfWork unit = CURRENT.get();
+		if (unit == null) {
+			unit = new UnitOfWork();
+			CURRENT.set(unit);
+		}
+		unit.depth++;
+	}
+
+	/**
+	 * End the unit of work started by the matching {@link UnitOfWork#begin()}.
+	 * If it is the outermost one, every buffered write is applied.
+	 * @throws IllegalStateException if no unit of work is open.
+	 */
+	public static void commit() {
+		UnitOfWork unit = CURRENT.get();
+		if (unit == null) {
+			throw new IllegalStateException("No unit of work has been started.");
+		}
+		if (--unit.depth > 0) {
+			return;
+		}
+		CURRENT.remove();
+		unit.flush();
+	}
+
+	/**
+	 * End the unit of work started by the matching {@link UnitOfWork#begin()}
+	 * without writing anything. If it is the outermost one, every buffered
+	 * write is dropped.
+	 * @throws IllegalStateException if no unit of work is open.
+	 */
+	public static void abandon() {
+		UnitOfWork unit = CURRENT.get();
+		if (unit == null) {
+			throw new IllegalStateException("No unit of work has been started.");
+		}
+		if (--unit.depth > 0) {
+			return;
+		}
+		CURRENT.remove();
+		unit.pending.clear();
+	}
+
+	/**
+	 * Returns the unit of work open on this thread or null if writes
+	 * should go straight to storage.
+	 * @return
+	 */
+	public static UnitOfWork current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Buffer _operation as the newest write to _key.
+	 * @param _key
+	 * @param _operation
+	 */
+	public void put(String _key, Operation _operation) {
+		this.pending.remove(_key);
+		this.pending.put(_key, _operation);
+	}
+
+	/**
+	 * Returns the write buffered for _key or null if there is none.
+	 * @param _key
+	 * @return
+	 */
+	public Operation get(String _key) {
+		return this.pending.get(_key);
+	}
+
+	/**
+	 * Returns the number of buffered writes.
+	 * @return
+	 */
+	public int size() {
+		return this.pending.size();
+	}
+
+	private void flush() {
+		for (Operation operation : this.pending.values()) {
+			operation.apply();
+		}
+		this.pending.clear();
+	}
+}
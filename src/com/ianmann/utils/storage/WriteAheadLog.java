@@ -0,0 +1,622 @@
+package com.ianmann.utils.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * Redo log for files that are rewritten whole. Before a file is replaced,
+ * its new contents are appended to the journal and forced to disk. Only
+ * then is the file itself replaced. If the program dies while a file is
+ * being written, the journal still holds the full contents and they are
+ * written again when the journal is next opened.
+ * </p>
+ * <p>
+ * Syncs are shared by group commit. A writer whose record is not durable
+ * yet either forces the journal itself or waits for the force that is
+ * already running, and one force covers every record appended before it
+ * started. Many threads saving at once pay for a few syncs, not one each.
+ * {@link WriteAheadLog#begin()} and {@link WriteAheadLog#commit()} let
+ * a single thread queue many writes behind one sync.
+ * </p>
+ * <p>
+ * The writes of a batch are kept in memory until it is committed. They
+ * are then appended together, followed by a commit record, so replay
+ * either writes every file in a batch or, if the commit record never
+ * reached the disk, none of them.
+ * </p>
+ * <p>
+ * Once the journal grows past its limit, every file written since the
+ * last checkpoint is forced to disk and the journal is emptied.
+ * </p>
+ * <p>
+ * Record layout:<br>
+ * {@code [crc:int][flag:byte][pathLength:int][dataLength:int][path][data]}
+ * <br>
+ * Records of a batch have {@link WriteAheadLog#FLAG_BATCHED} set in their
+ * flag. The commit record has an empty path and no data.
+ * <br>
+ * The crc covers everything after itself, the same as in
+ * {@link SegmentLog}, so a torn record at the tail is ignored on replay.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class WriteAheadLog {
+
+	/**
+	 * Flag of a record that holds the new contents of a file.
+	 */
+	private static final byte FLAG_WRITE = 0x01;
+
+	/**
+	 * Flag of a record that deletes a file.
+	 */
+	private static final byte FLAG_DELETE = 0x02;
+
+	/**
+	 * Flag of the record that ends a batch. The batch's records are only
+	 * replayed if it is in the journal.
+	 */
+	private static final byte FLAG_COMMIT = 0x04;
+
+	/**
+	 * Set in the flag of a write or delete that belongs to a batch.
+	 */
+	private static final byte FLAG_BATCHED = 0x10;
+
+	private static final int HEADER_SIZE = 4 + 1 + 4 + 4;
+
+	/**
+	 * Default size of the journal at which a checkpoint is taken.
+	 */
+	public static final long DEFAULT_CHECKPOINT_SIZE = 16L * 1024L * 1024L;
+
+	/**
+	 * Writes made by one thread between {@link WriteAheadLog#begin()}
+	 * and {@link WriteAheadLog#commit()}.
+	 */
+	private static class Batch {
+		int depth = 0;
+		boolean aborted = false;
+		ArrayList<File> files = new ArrayList<File>();
+		ArrayList<byte[]> contents = new ArrayList<byte[]>();
+	}
+
+	private File journalFile;
+
+	private FileChannel channel;
+
+	private long checkpointSize;
+
+	/**
+	 * Offset after the last record appended.
+	 */
+	private long end = 0;
+
+	/**
+	 * Every record before this offset is on disk. Guarded by {@link WriteAheadLog#syncLock}.
+	 */
+	private long synced = 0;
+
+	/**
+	 * Whether a thread is forcing the journal. Guarded by {@link WriteAheadLog#syncLock}.
+	 */
+	private boolean syncing = false;
+
+	private final Object syncLock = new Object();
+
+	/**
+	 * Writers hold the read lock from appending a record until the file
+	 * has been replaced. A checkpoint holds the write lock so it never
+	 * drops a record whose file has not been written yet.
+	 */
+	private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Files replaced since the last checkpoint, each with the journal
+	 * offset after the last record applied to it. Threads apply a file's
+	 * records while holding its entry, and a record older than the one
+	 * already applied is skipped, so every file ends up as the journal
+	 * would replay it.
+	 */
+	private final ConcurrentHashMap<File, long[]> dirty = new ConcurrentHashMap<File, long[]>();
+
+	private final ThreadLocal<Batch> batches = new ThreadLocal<Batch>();
+
+	/**
+	 * Opens the journal in _directory using
+	 * {@link WriteAheadLog#DEFAULT_CHECKPOINT_SIZE}.
+	 * @param _directory
+	 * @throws IOException
+	 */
+	public WriteAheadLog(File _directory) throws IOException {
+		this(_directory, DEFAULT_CHECKPOINT_SIZE);
+	}
+
+	/**
+	 * Opens the journal in _directory, creating the directory if it does
+	 * not exist yet. Every complete record left in the journal is written
+	 * to its file again and the journal is emptied.
+	 * @param _directory
+	 * @param _checkpointSize
+	 * @throws IOException
+	 */
+	@SuppressWarnings("resource")
+	public WriteAheadLog(File _directory, long _checkpointSize) throws IOException {
+		_directory.mkdirs();
+		this.journalFile = new File(_directory, "journal");
+		this.checkpointSize = _checkpointSize;
+		this.channel = new RandomAccessFile(this.journalFile, "rw").getChannel();
+		this.replay();
+	}
+
+	/**
+	 * Replace the contents of _file with _data. Returns once the change
+	 * is durable.
+	 * @param _file
+	 * @param _data
+	 * @throws IOException
+	 */
+	public void write(File _file, byte[] _data) throws IOException {
+		this.log(FLAG_WRITE, _file, _data);
+	}
+
+	/**
+	 * Delete _file. Returns once the change is durable.
+	 * @param _file
+	 * @return
+	 * true - if _file existed. <br>
+	 * false - if there was nothing to delete.
+	 * @throws IOException
+	 */
+	public boolean delete(File _file) throws IOException {
+		if (!_file.exists() && this.queued(_file) == null) {
+			return false;
+		}
+		this.log(FLAG_DELETE, _file, null);
+		return true;
+	}
+
+	/**
+	 * Returns the contents of _file as they will be once this thread's
+	 * batch is committed, or null if the batch does not write _file or
+	 * deletes it. Lets a file be read and rewritten more than once in
+	 * the same batch.
+	 * @param _file
+	 * @return
+	 */
+	public byte[] queued(File _file) {
+		Batch batch = this.batches.get();
+		if (batch == null) {
+			return null;
+		}
+		for (int i = batch.files.size() - 1; i >= 0; i--) {
+			if (batch.files.get(i).equals(_file)) {
+				return batch.contents.get(i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Queue the writes and deletes this thread makes until the matching
+	 * {@link WriteAheadLog#commit()}. Calls may be nested.
+	 */
+	public void begin() {
+		Batch batch = this.batches.get();
+		if (batch == null) {
+			batch = new Batch();
+			this.batches.set(batch);
+			this.checkpointLock.readLock().lock();
+		}
+		batch.depth++;
+	}
+
+	/**
+	 * End the batch started by the matching {@link WriteAheadLog#begin()}.
+	 * The outermost commit appends every queued change and a commit
+	 * record, forces the journal once and then writes every queued file
+	 * in order.
+	 * @throws IOException if the batch could not be made durable, in
+	 * which case none of it is written, or if it has been aborted.
+	 */
+	public void commit() throws IOException {
+		Batch batch = this.batches.get();
+		if (batch == null) {
+			throw new IllegalStateException("No batch has been started.");
+		}
+		if (--batch.depth > 0) {
+			return;
+		}
+		this.batches.remove();
+		try {
+			if (batch.aborted) {
+				throw new IOException("The batch was aborted so nothing in it was written.");
+			}
+			if (!batch.files.isEmpty()) {
+				long position = this.appendBatch(batch);
+				this.awaitDurable(position);
+				for (int i = 0; i < batch.files.size(); i++) {
+					this.apply(batch.files.get(i), batch.contents.get(i), position);
+				}
+			}
+		} finally {
+			this.checkpointLock.readLock().unlock();
+		}
+		this.checkpointIfFull();
+	}
+
+	/**
+	 * Drop every change queued since the matching {@link WriteAheadLog#begin()}.
+	 * Nothing in the batch is written, even if an outer batch is committed.
+	 */
+	public void abort() {
+		Batch batch = this.batches.get();
+		if (batch == null) {
+			throw new IllegalStateException("No batch has been started.");
+		}
+		batch.aborted = true;
+		if (--batch.depth > 0) {
+			return;
+		}
+		this.batches.remove();
+		this.checkpointLock.readLock().unlock();
+	}
+
+	/**
+	 * Force every file written since the last checkpoint to disk and
+	 * empty the journal.
+	 * @throws IOException
+	 */
+	public void checkpoint() throws IOException {
+		this.checkpointLock.writeLock().lock();
+		try {
+			this.forceDirty();
+			synchronized (this) {
+				this.channel.truncate(0);
+				this.channel.force(true);
+				this.end = 0;
+			}
+			synchronized (this.syncLock) {
+				this.synced = 0;
+			}
+		} finally {
+			this.checkpointLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Take a checkpoint and close the journal.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		this.checkpoint();
+		this.channel.close();
+	}
+
+	/**
+	 * Record one change and either queue it in this thread's batch or
+	 * wait for it to be durable and apply it.
+	 * @param _flag
+	 * @param _file
+	 * @param _data
+	 * @throws IOException
+	 */
+	private void log(byte _flag, File _file, byte[] _data) throws IOException {
+		Batch batch = this.batches.get();
+		if (batch != null) {
+			batch.files.add(_file);
+			batch.contents.add(_data);
+			return;
+		}
+		this.checkpointLock.readLock().lock();
+		try {
+			long position = this.append(WriteAheadLog.record(_flag, _file, _data));
+			this.awaitDurable(position);
+			this.apply(_file, _data, position);
+		} finally {
+			this.checkpointLock.readLock().unlock();
+		}
+		this.checkpointIfFull();
+	}
+
+	/**
+	 * Append every change queued in _batch followed by a commit record,
+	 * without forcing them.
+	 * @param _batch
+	 * @return The offset after the commit record.
+	 * @throws IOException
+	 */
+	private long appendBatch(Batch _batch) throws IOException {
+		ByteBuffer[] records = new ByteBuffer[_batch.files.size() + 1];
+		for (int i = 0; i < _batch.files.size(); i++) {
+			byte[] data = _batch.contents.get(i);
+			byte flag = data == null ? FLAG_DELETE : FLAG_WRITE;
+			records[i] = WriteAheadLog.record((byte) (flag | FLAG_BATCHED), _batch.files.get(i), data);
+		}
+		records[_batch.files.size()] = WriteAheadLog.record(FLAG_COMMIT, null, null);
+		return this.append(records);
+	}
+
+	/**
+	 * Append _records to the journal one after another without forcing them.
+	 * @param _records
+	 * @return The offset after the last record.
+	 * @throws IOException
+	 */
+	private synchronized long append(ByteBuffer... _records) throws IOException {
+		for (ByteBuffer record : _records) {
+			while (record.hasRemaining()) {
+				this.end += this.channel.write(record, this.end);
+			}
+		}
+		return this.end;
+	}
+
+	/**
+	 * Returns the journal record for a change to _file, ready to be written.
+	 * @param _flag
+	 * @param _file Null for a commit record.
+	 * @param _data
+	 * @return
+	 */
+	private static ByteBuffer record(byte _flag, File _file, byte[] _data) {
+		byte[] path = _file == null ? new byte[0] : _file.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+		byte[] data = _data == null ? new byte[0] : _data;
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + path.length + data.length);
+		record.putInt(0);
+		record.put(_flag);
+		record.putInt(path.length);
+		record.putInt(data.length);
+		record.put(path);
+		record.put(data);
+		record.putInt(0, WriteAheadLog.checksum(record.array(), 4, record.capacity() - 4));
+		record.flip();
+		return record;
+	}
+
+	/**
+	 * Wait until every record before _position is on disk. If no other
+	 * thread is forcing the journal, this thread does it for everyone
+	 * that has appended so far.
+	 * @param _position
+	 * @throws IOException
+	 */
+	private void awaitDurable(long _position) throws IOException {
+		synchronized (this.syncLock) {
+			while (this.synced < _position) {
+				if (!this.syncing) {
+					this.syncing = true;
+					break;
+				}
+				try {
+					this.syncLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for the journal to sync.");
+				}
+			}
+			if (this.synced >= _position) {
+				return;
+			}
+		}
+
+		long target;
+		synchronized (this) {
+			target = this.end;
+		}
+		boolean forced = false;
+		try {
+			this.channel.force(false);
+			forced = true;
+		} finally {
+			synchronized (this.syncLock) {
+				if (forced) {
+					this.synced = Math.max(this.synced, target);
+				}
+				this.syncing = false;
+				this.syncLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Replace _file with _data, or delete it if _data is null. The new
+	 * contents are written to a temporary file of their own in the same
+	 * folder and moved over _file so readers never see a partly written
+	 * file. Nothing is done if a record for _file later in the journal
+	 * than _position has already been applied.
+	 * @param _file
+	 * @param _data
+	 * @param _position Offset in the journal after the record of this change.
+	 * @throws IOException
+	 */
+	private void apply(File _file, byte[] _data, long _position) throws IOException {
+		File file = _file.getAbsoluteFile();
+		long[] applied = this.dirty.get(file);
+		if (applied == null) {
+			long[] created = new long[] {-1};
+			applied = this.dirty.putIfAbsent(file, created);
+			if (applied == null) {
+				applied = created;
+			}
+		}
+		synchronized (applied) {
+			if (applied[0] > _position) {
+				return;
+			}
+			if (_data == null) {
+				java.nio.file.Files.deleteIfExists(file.toPath());
+			} else {
+				Path temp = java.nio.file.Files.createTempFile(file.getParentFile().toPath(), file.getName() + ".", ".tmp");
+				boolean moved = false;
+				try {
+					java.nio.file.Files.write(temp, _data);
+					java.nio.file.Files.move(
+							temp,
+							file.toPath(),
+							StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE
+					);
+					moved = true;
+				} finally {
+					if (!moved) {
+						java.nio.file.Files.deleteIfExists(temp);
+					}
+				}
+			}
+			applied[0] = _position;
+		}
+	}
+
+	private void checkpointIfFull() throws IOException {
+		boolean full;
+		synchronized (this) {
+			full = this.end >= this.checkpointSize;
+		}
+		if (full) {
+			this.checkpoint();
+		}
+	}
+
+	/**
+	 * Force every file in {@link WriteAheadLog#dirty} and the folders
+	 * they are in to disk.
+	 * @throws IOException
+	 */
+	private void forceDirty() throws IOException {
+		// Called under the checkpoint write lock, so nothing is applied meanwhile.
+		LinkedHashSet<File> folders = new LinkedHashSet<File>();
+		for (File file : this.dirty.keySet()) {
+			if (file.exists()) {
+				FileChannel written = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+				try {
+					written.force(true);
+				} finally {
+					written.close();
+				}
+			}
+			folders.add(file.getParentFile());
+		}
+		this.dirty.clear();
+		for (File folder : folders) {
+			try {
+				FileChannel directory = FileChannel.open(folder.toPath(), StandardOpenOption.READ);
+				try {
+					directory.force(true);
+				} finally {
+					directory.close();
+				}
+			} catch (IOException e) {
+				// Not every platform can open a folder to force it.
+			}
+		}
+	}
+
+	/**
+	 * Write every complete record in the journal to its file again,
+	 * force them to disk and empty the journal. Records of a batch whose
+	 * commit record is missing are skipped.
+	 * @throws IOException
+	 */
+	private void replay() throws IOException {
+		long position = 0;
+		long size = this.channel.size();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		ArrayList<File> batchFiles = new ArrayList<File>();
+		ArrayList<byte[]> batchContents = new ArrayList<byte[]>();
+
+		while (position + HEADER_SIZE <= size) {
+			header.clear();
+			this.readFully(header, position);
+			header.flip();
+			int crc = header.getInt();
+			byte flag = header.get();
+			int pathLength = header.getInt();
+			int dataLength = header.getInt();
+
+			if (pathLength < 0 || dataLength < 0 || position + HEADER_SIZE + pathLength + dataLength > size) {
+				break;
+			}
+
+			ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + pathLength + dataLength);
+			record.put(header.array());
+			this.readFully(record, position);
+			if (crc != WriteAheadLog.checksum(record.array(), 4, record.capacity() - 4)) {
+				break;
+			}
+
+			position += record.capacity();
+			if (flag == FLAG_COMMIT) {
+				for (int i = 0; i < batchFiles.size(); i++) {
+					this.replay(batchFiles.get(i), batchContents.get(i), position);
+				}
+				batchFiles.clear();
+				batchContents.clear();
+				continue;
+			}
+
+			File file = new File(new String(record.array(), HEADER_SIZE, pathLength, StandardCharsets.UTF_8));
+			byte[] data = null;
+			if ((flag & ~FLAG_BATCHED) == FLAG_WRITE) {
+				data = new byte[dataLength];
+				System.arraycopy(record.array(), HEADER_SIZE + pathLength, data, 0, dataLength);
+			}
+			if ((flag & FLAG_BATCHED) != 0) {
+				batchFiles.add(file);
+				batchContents.add(data);
+			} else {
+				this.replay(file, data, position);
+			}
+		}
+		this.checkpoint();
+	}
+
+	/**
+	 * Write _data to _file again, or delete it if _data is null, while
+	 * the journal is replayed.
+	 * @param _file
+	 * @param _data
+	 * @param _position Offset in the journal after the record.
+	 * @throws IOException
+	 */
+	private void replay(File _file, byte[] _data, long _position) throws IOException {
+		_file.getAbsoluteFile().getParentFile().mkdirs();
+		this.apply(_file, _data, _position);
+	}
+
+	/**
+	 * Fill the rest of _buffer from the journal, where the start of
+	 * _buffer is at _position.
+	 * @param _buffer
+	 * @param _position
+	 * @throws IOException
+	 */
+	private void readFully(ByteBuffer _buffer, long _position) throws IOException {
+		while (_buffer.hasRemaining()) {
+			int read = this.channel.read(_buffer, _position + _buffer.position());
+			if (read < 0) {
+				throw new IOException("Unexpected end of " + this.journalFile.getPath());
+			}
+		}
+	}
+
+	private static int checksum(byte[] _bytes, int _offset, int _length) {
+		CRC32 crc = new CRC32();
+		crc.update(_bytes, _offset, _length);
+		return (int) crc.getValue();
+	}
+}
@@ -4,24 +4,48 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map.Entry;
-import java.util.Scanner;
 
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 public abstract class Files {
 
+	/**
+	 * Parse the json in _jsonFile. The file is streamed through a
+	 * {@link JSONReader} instead of being read into a String first.
+	 * @param _jsonFile
+	 * @return
+	 * @throws FileNotFoundException
+	 * @throws ParseException
+	 */
 	public static Object json(File _jsonFile) throws FileNotFoundException, ParseException {
-		Scanner s = new Scanner(_jsonFile).useDelimiter("\\Z");
-		String rawJson = s.next();
-		s.close();
-		
-		JSONParser jp = new JSONParser();
-		Object json = jp.parse(rawJson);
-		return json;
+		JSONReader reader = Files.jsonReader(_jsonFile);
+		try {
+			return reader.readDocument();
+		} catch (FileNotFoundException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new FileNotFoundException(e.getMessage());
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				// Nothing was written so there is nothing to lose.
+			}
+		}
+	}
+	
+	/**
+	 * Open a {@link JSONReader} over _jsonFile. The caller must close it.
+	 * @param _jsonFile
+	 * @return
+	 * @throws FileNotFoundException
+	 */
+	public static JSONReader jsonReader(File _jsonFile) throws FileNotFoundException {
+		return new JSONReader(new InputStreamReader(new FileInputStream(_jsonFile)));
 	}
 	
 	public static byte[] readFile(File _inputFile) throws IOException {
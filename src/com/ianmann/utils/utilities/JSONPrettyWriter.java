@@ -0,0 +1,346 @@
+package com.ianmann.utils.utilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * <p>
+ * Streaming version of the pretty-printer in {@link JSONUtils}. Output
+ * is collected in a fixed char buffer that is handed to a
+ * {@link Writer}, {@link OutputStream}, {@link ByteBuffer} or
+ * {@link StringBuilder} each time it fills up, so formatting a document takes time proportional to its
+ * size and creates no intermediate strings.
+ * </p>
+ * <p>
+ * Each thread reuses one instance through {@link JSONPrettyWriter#get()}.
+ * The output is the same, byte for byte, as what
+ * {@link JSONUtils#formatJSON(Object, int)} has always produced.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+final class JSONPrettyWriter {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final ThreadLocal<JSONPrettyWriter> WRITERS = new ThreadLocal<JSONPrettyWriter>() {
+
+		@Override
+		protected JSONPrettyWriter initialValue() {
+			return new JSONPrettyWriter();
+		}
+	};
+
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int count = 0;
+
+	private CharsetEncoder encoder;
+
+	/**
+	 * Only one of these is set while a document is being written.
+	 */
+	private Writer writer;
+	private OutputStream stream;
+	private ByteBuffer bytes;
+	private StringBuilder string;
+
+	/**
+	 * UTF-8 of the char buffer on its way to {@link JSONPrettyWriter#stream}.
+	 * Three bytes per char is enough for any char.
+	 */
+	private ByteBuffer streamBytes;
+
+	/**
+	 * Whether this instance is in the middle of writing a document.
+	 */
+	private boolean busy = false;
+
+	private JSONPrettyWriter() {}
+
+	/**
+	 * Returns the writer for the current thread. A new one is returned if
+	 * the thread's writer is already busy, which only happens if a value's
+	 * toString() formats json itself.
+	 * @return
+	 */
+	static JSONPrettyWriter get() {
+		JSONPrettyWriter writer = WRITERS.get();
+		return writer.busy ? new JSONPrettyWriter() : writer;
+	}
+
+	/**
+	 * Write _json to _out.
+	 * @param _json
+	 * @param _level
+	 * @param _out
+	 * @throws IOException
+	 */
+	void write(Object _json, int _level, Writer _out) throws IOException {
+		this.writer = _out;
+		this.run(_json, _level);
+	}
+
+	/**
+	 * Write _json to _out encoded as UTF-8.
+	 * @param _json
+	 * @param _level
+	 * @param _out
+	 * @throws IOException
+	 */
+	void write(Object _json, int _level, OutputStream _out) throws IOException {
+		this.resetEncoder();
+		if (this.streamBytes == null) {
+			this.streamBytes = ByteBuffer.allocate(BUFFER_SIZE * 3);
+		}
+		this.stream = _out;
+		this.run(_json, _level);
+	}
+
+	/**
+	 * Write _json to _out encoded as UTF-8.
+	 * @param _json
+	 * @param _level
+	 * @param _out
+	 * @throws BufferOverflowException if _out does not have room for the document.
+	 */
+	void write(Object _json, int _level, ByteBuffer _out) {
+		this.resetEncoder();
+		this.bytes = _out;
+		try {
+			this.run(_json, _level);
+		} catch (IOException e) {
+			// Only a Writer can throw.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Append _json to _out.
+	 * @param _json
+	 * @param _level
+	 * @param _out
+	 */
+	void write(Object _json, int _level, StringBuilder _out) {
+		this.string = _out;
+		try {
+			this.run(_json, _level);
+		} catch (IOException e) {
+			// Only a Writer can throw.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Write one document to whichever output is set and clear it.
+	 * @param _json
+	 * @param _level
+	 * @throws IOException
+	 */
+	private void run(Object _json, int _level) throws IOException {
+		this.busy = true;
+		try {
+			this.count = 0;
+			this.value(_json, _level);
+			this.flush(true);
+		} finally {
+			this.writer = null;
+			this.stream = null;
+			this.bytes = null;
+			this.string = null;
+			this.count = 0;
+			this.busy = false;
+		}
+	}
+
+	/**
+	 * Same as {@link JSONUtils#formatJSON(Object, int)}.
+	 */
+	void value(Object _json, int _level) throws IOException {
+		if (_json instanceof JSONObject) {
+			this.object((JSONObject) _json, _level + 1);
+		} else if (_json instanceof JSONArray) {
+			this.array((JSONArray) _json, _level + 1);
+		} else {
+			this.other(_json);
+		}
+	}
+
+	/**
+	 * Same as {@link JSONUtils#formatJSONObject(JSONObject, int)}.
+	 */
+	void object(JSONObject _json, int _level) throws IOException {
+		this.append("{\r\n");
+
+		int i = _json.size();
+		for (Object key : _json.keySet()) {
+			this.tabs(_level);
+			this.append('"');
+			this.append(String.valueOf(key));
+			this.append("\": ");
+			this.value(_json.get(key), _level);
+			if (i > 1) {
+				this.append(',');
+			}
+			i--;
+			this.append("\r\n");
+		}
+
+		this.tabs(_level - 1);
+		this.append('}');
+	}
+
+	/**
+	 * Same as {@link JSONUtils#formatJSONArray(JSONArray, int)}.
+	 */
+	void array(JSONArray _json, int _level) throws IOException {
+		this.append("[\r\n");
+
+		int size = _json.size();
+		for (int i = 0; i < size; i++) {
+			this.tabs(_level);
+			this.value(_json.get(i), _level);
+			if (i < size - 1) {
+				this.append(',');
+			}
+			this.append("\r\n");
+		}
+
+		this.tabs(_level - 1);
+		this.append(']');
+	}
+
+	/**
+	 * Same as {@link JSONUtils#formatJSONOther(Object, int)}. Strings are
+	 * quoted, null is written as nothing and anything else is written
+	 * with toString().
+	 */
+	void other(Object _json) throws IOException {
+		if (_json == null) {
+			return;
+		}
+		if (_json.getClass().equals(String.class)) {
+			this.append('"');
+			this.append((String) _json);
+			this.append('"');
+		} else if (_json instanceof Long || _json instanceof Integer) {
+			this.append(((Number) _json).longValue());
+		} else {
+			this.append(_json.toString());
+		}
+	}
+
+	void tabs(int _level) throws IOException {
+		for (int i = 0; i < _level; i++) {
+			this.append('\t');
+		}
+	}
+
+	private void append(char _c) throws IOException {
+		if (this.count == BUFFER_SIZE) {
+			this.flush(false);
+		}
+		this.buffer[this.count++] = _c;
+	}
+
+	private void append(String _s) throws IOException {
+		int length = _s.length();
+		int offset = 0;
+		while (offset < length) {
+			if (this.count == BUFFER_SIZE) {
+				this.flush(false);
+			}
+			int n = Math.min(length - offset, BUFFER_SIZE - this.count);
+			_s.getChars(offset, offset + n, this.buffer, this.count);
+			this.count += n;
+			offset += n;
+		}
+	}
+
+	/**
+	 * Append the decimal digits of _value without making a String.
+	 * @param _value
+	 * @throws IOException
+	 */
+	private void append(long _value) throws IOException {
+		if (_value == Long.MIN_VALUE) {
+			this.append(Long.toString(_value));
+			return;
+		}
+		if (_value < 0) {
+			this.append('-');
+			_value = -_value;
+		}
+		long place = 1;
+		while (place <= _value / 10) {
+			place *= 10;
+		}
+		for (; place > 0; place /= 10) {
+			this.append((char) ('0' + (_value / place) % 10));
+		}
+	}
+
+	/**
+	 * Hand the buffered characters to the output.
+	 * @param _endOfInput Whether this is the last flush of the document.
+	 * @throws IOException
+	 */
+	private void flush(boolean _endOfInput) throws IOException {
+		if (this.writer != null) {
+			this.writer.write(this.buffer, 0, this.count);
+			this.count = 0;
+		} else if (this.string != null) {
+			this.string.append(this.buffer, 0, this.count);
+			this.count = 0;
+		} else if (this.stream != null) {
+			this.streamBytes.clear();
+			this.encode(this.streamBytes, _endOfInput);
+			this.stream.write(this.streamBytes.array(), 0, this.streamBytes.position());
+		} else if (this.bytes != null) {
+			this.encode(this.bytes, _endOfInput);
+		}
+	}
+
+	/**
+	 * Get the UTF-8 encoder ready for a new document.
+	 */
+	private void resetEncoder() {
+		if (this.encoder == null) {
+			this.encoder = StandardCharsets.UTF_8.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+		this.encoder.reset();
+	}
+
+	/**
+	 * Encode the buffered characters into _out.
+	 * A surrogate pair split across two flushes is kept in the buffer
+	 * until its second half arrives.
+	 * @param _out
+	 * @param _endOfInput
+	 */
+	private void encode(ByteBuffer _out, boolean _endOfInput) {
+		CharBuffer chars = CharBuffer.wrap(this.buffer, 0, this.count);
+		CoderResult result = this.encoder.encode(chars, _out, _endOfInput);
+		if (result.isOverflow()) {
+			throw new BufferOverflowException();
+		}
+		if (_endOfInput && this.encoder.flush(_out).isOverflow()) {
+			throw new BufferOverflowException();
+		}
+		int left = chars.remaining();
+		System.arraycopy(this.buffer, chars.position(), this.buffer, 0, left);
+		this.count = left;
+	}
+}
@@ -0,0 +1,566 @@
+package com.ianmann.utils.utilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+/**
+ * <p>
+ * Pull parser that reads json one token at a time from a {@link Reader}
+ * through a fixed buffer. Callers walk the document with
+ * {@link JSONReader#beginObject()}, {@link JSONReader#nextName()},
+ * {@link JSONReader#nextString()} and so on and bind the values they want
+ * straight into their own fields, so no {@link JSONObject} tree and no
+ * String of the whole document is ever built. Values a caller does not
+ * know about can be passed over with {@link JSONReader#skipValue()}.
+ * </p>
+ * <p>
+ * {@link JSONReader#readValue()} builds the same json-simple objects that
+ * {@link org.json.simple.parser.JSONParser} does for callers that do want
+ * the whole tree.
+ * </p>
+ * @author kirkp1ia
+ *
+ */
+public class JSONReader implements Closeable {
+
+	/*
+	 * Tokens returned by peek().
+	 */
+	public static final int BEGIN_OBJECT = 0;
+	public static final int END_OBJECT = 1;
+	public static final int BEGIN_ARRAY = 2;
+	public static final int END_ARRAY = 3;
+	public static final int NAME = 4;
+	public static final int STRING = 5;
+	public static final int NUMBER = 6;
+	public static final int BOOLEAN = 7;
+	public static final int NULL = 8;
+	public static final int END_DOCUMENT = 9;
+
+	private static final int NONE = -1;
+
+	/*
+	 * What the parser is in the middle of, one entry per open object or array.
+	 */
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_OBJECT = 2;
+	private static final int DANGLING_NAME = 3;
+	private static final int NONEMPTY_OBJECT = 4;
+	private static final int EMPTY_ARRAY = 5;
+	private static final int NONEMPTY_ARRAY = 6;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Reader in;
+
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int pos = 0;
+	private int limit = 0;
+
+	/**
+	 * Number of characters read before the start of {@link JSONReader#buffer}.
+	 * Used to report where a parse error happened.
+	 */
+	private long bufferStart = 0;
+
+	private int[] stack = new int[32];
+	private int depth = 0;
+
+	/**
+	 * Token found by the last call to peek() that has not been consumed yet.
+	 */
+	private int peeked = NONE;
+
+	/**
+	 * Reused to collect the characters of strings and numbers.
+	 */
+	private final StringBuilder text = new StringBuilder();
+
+	/**
+	 * Creates a reader that parses the json in _in.
+	 * @param _in
+	 */
+	public JSONReader(Reader _in) {
+		this.in = _in;
+		this.stack[this.depth++] = EMPTY_DOCUMENT;
+	}
+
+	/**
+	 * Returns the type of the next token without consuming it.
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public int peek() throws IOException, ParseException {
+		if (this.peeked != NONE) {
+			return this.peeked;
+		}
+
+		int context = this.stack[this.depth - 1];
+		if (context == EMPTY_ARRAY) {
+			this.stack[this.depth - 1] = NONEMPTY_ARRAY;
+			int c = this.nextNonWhitespace();
+			if (c == ']') {
+				return this.peeked = END_ARRAY;
+			} else if (c != -1) {
+				this.pos--;
+			}
+		} else if (context == NONEMPTY_ARRAY) {
+			int c = this.nextNonWhitespace();
+			if (c == ']') {
+				return this.peeked = END_ARRAY;
+			} else if (c != ',') {
+				throw this.unexpected(c);
+			}
+		} else if (context == EMPTY_OBJECT || context == NONEMPTY_OBJECT) {
+			int c = this.nextNonWhitespace();
+			if (c == '}') {
+				return this.peeked = END_OBJECT;
+			}
+			if (context == NONEMPTY_OBJECT) {
+				if (c != ',') {
+					throw this.unexpected(c);
+				}
+				c = this.nextNonWhitespace();
+			}
+			if (c != '"') {
+				throw this.unexpected(c);
+			}
+			this.stack[this.depth - 1] = DANGLING_NAME;
+			return this.peeked = NAME;
+		} else if (context == DANGLING_NAME) {
+			this.stack[this.depth - 1] = NONEMPTY_OBJECT;
+			int c = this.nextNonWhitespace();
+			if (c != ':') {
+				throw this.unexpected(c);
+			}
+		} else if (context == EMPTY_DOCUMENT) {
+			this.stack[this.depth - 1] = NONEMPTY_DOCUMENT;
+		} else {
+			int c = this.nextNonWhitespace();
+			if (c == -1) {
+				return this.peeked = END_DOCUMENT;
+			}
+			throw this.unexpected(c);
+		}
+
+		int c = this.nextNonWhitespace();
+		switch (c) {
+		case '{':
+			return this.peeked = BEGIN_OBJECT;
+		case '[':
+			return this.peeked = BEGIN_ARRAY;
+		case '"':
+			return this.peeked = STRING;
+		case 't':
+		case 'f':
+			this.pos--;
+			return this.peeked = BOOLEAN;
+		case 'n':
+			this.pos--;
+			return this.peeked = NULL;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				this.pos--;
+				return this.peeked = NUMBER;
+			}
+			throw this.unexpected(c);
+		}
+	}
+
+	/**
+	 * Returns whether the current object or array has another element.
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public boolean hasNext() throws IOException, ParseException {
+		int token = this.peek();
+		return token != END_OBJECT && token != END_ARRAY && token != END_DOCUMENT;
+	}
+
+	public void beginObject() throws IOException, ParseException {
+		this.expect(BEGIN_OBJECT);
+		this.push(EMPTY_OBJECT);
+	}
+
+	public void endObject() throws IOException, ParseException {
+		this.expect(END_OBJECT);
+		this.depth--;
+	}
+
+	public void beginArray() throws IOException, ParseException {
+		this.expect(BEGIN_ARRAY);
+		this.push(EMPTY_ARRAY);
+	}
+
+	public void endArray() throws IOException, ParseException {
+		this.expect(END_ARRAY);
+		this.depth--;
+	}
+
+	/**
+	 * Returns the next key in the current object.
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public String nextName() throws IOException, ParseException {
+		this.expect(NAME);
+		return this.readString();
+	}
+
+	public String nextString() throws IOException, ParseException {
+		this.expect(STRING);
+		return this.readString();
+	}
+
+	public long nextLong() throws IOException, ParseException {
+		this.expect(NUMBER);
+		String number = this.readNumber();
+		if (JSONReader.isIntegral(number)) {
+			return Long.parseLong(number);
+		}
+		double value = Double.parseDouble(number);
+		if (value != (long) value) {
+			throw new ParseException(this.position(), ParseException.ERROR_UNEXPECTED_TOKEN, number);
+		}
+		return (long) value;
+	}
+
+	public double nextDouble() throws IOException, ParseException {
+		this.expect(NUMBER);
+		return Double.parseDouble(this.readNumber());
+	}
+
+	public boolean nextBoolean() throws IOException, ParseException {
+		this.expect(BOOLEAN);
+		if (this.peekChar() == 't') {
+			this.readLiteral("true");
+			return true;
+		}
+		this.readLiteral("false");
+		return false;
+	}
+
+	public void nextNull() throws IOException, ParseException {
+		this.expect(NULL);
+		this.readLiteral("null");
+	}
+
+	/**
+	 * Consume the next value, including everything inside it if it is
+	 * an object or array.
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public void skipValue() throws IOException, ParseException {
+		int open = 0;
+		do {
+			switch (this.peek()) {
+			case BEGIN_OBJECT:
+				this.beginObject();
+				open++;
+				break;
+			case BEGIN_ARRAY:
+				this.beginArray();
+				open++;
+				break;
+			case END_OBJECT:
+				this.endObject();
+				open--;
+				break;
+			case END_ARRAY:
+				this.endArray();
+				open--;
+				break;
+			case NAME:
+				this.peeked = NONE;
+				this.skipString();
+				break;
+			case STRING:
+				this.peeked = NONE;
+				this.skipString();
+				break;
+			case NUMBER:
+				this.peeked = NONE;
+				this.readNumber();
+				break;
+			case BOOLEAN:
+				this.nextBoolean();
+				break;
+			case NULL:
+				this.nextNull();
+				break;
+			default:
+				throw new ParseException(this.position(), ParseException.ERROR_UNEXPECTED_TOKEN, null);
+			}
+		} while (open > 0);
+	}
+
+	/**
+	 * Read the next value into json-simple objects. Objects become
+	 * {@link JSONObject}, arrays {@link JSONArray}, whole numbers
+	 * {@link Long} and other numbers {@link Double}.
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	@SuppressWarnings("unchecked")
+	public Object readValue() throws IOException, ParseException {
+		switch (this.peek()) {
+		case BEGIN_OBJECT:
+			JSONObject object = new JSONObject();
+			this.beginObject();
+			while (this.hasNext()) {
+				String key = this.nextName();
+				object.put(key, this.readValue());
+			}
+			this.endObject();
+			return object;
+		case BEGIN_ARRAY:
+			JSONArray array = new JSONArray();
+			this.beginArray();
+			while (this.hasNext()) {
+				array.add(this.readValue());
+			}
+			this.endArray();
+			return array;
+		case STRING:
+			return this.nextString();
+		case NUMBER:
+			this.peeked = NONE;
+			String number = this.readNumber();
+			if (JSONReader.isIntegral(number)) {
+				return Long.valueOf(number);
+			}
+			return Double.valueOf(number);
+		case BOOLEAN:
+			return this.nextBoolean();
+		case NULL:
+			this.nextNull();
+			return null;
+		default:
+			throw new ParseException(this.position(), ParseException.ERROR_UNEXPECTED_TOKEN, null);
+		}
+	}
+
+	/**
+	 * Read a whole document and make sure nothing but whitespace follows it.
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public Object readDocument() throws IOException, ParseException {
+		Object value = this.readValue();
+		this.expect(END_DOCUMENT);
+		return value;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.in.close();
+	}
+
+	private void push(int _context) {
+		if (this.depth == this.stack.length) {
+			this.stack = java.util.Arrays.copyOf(this.stack, this.depth * 2);
+		}
+		this.stack[this.depth++] = _context;
+	}
+
+	/**
+	 * Consume the peeked token, failing if it is not _token.
+	 * @param _token
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private void expect(int _token) throws IOException, ParseException {
+		if (this.peek() != _token) {
+			throw new ParseException(this.position(), ParseException.ERROR_UNEXPECTED_TOKEN, Integer.valueOf(this.peeked));
+		}
+		this.peeked = NONE;
+	}
+
+	/**
+	 * Make sure there is at least one unread character in the buffer.
+	 * @return false at the end of the input.
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException {
+		if (this.pos < this.limit) {
+			return true;
+		}
+		this.bufferStart += this.limit;
+		this.pos = 0;
+		this.limit = 0;
+		int read = this.in.read(this.buffer, 0, BUFFER_SIZE);
+		if (read <= 0) {
+			return false;
+		}
+		this.limit = read;
+		return true;
+	}
+
+	/**
+	 * Returns the next character without consuming it or -1 at the end
+	 * of the input.
+	 */
+	private int peekChar() throws IOException {
+		if (!this.fill()) {
+			return -1;
+		}
+		return this.buffer[this.pos];
+	}
+
+	private int read() throws IOException {
+		if (!this.fill()) {
+			return -1;
+		}
+		return this.buffer[this.pos++];
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		int c;
+		do {
+			c = this.read();
+		} while (c == ' ' || c == '\t' || c == '\r' || c == '\n');
+		return c;
+	}
+
+	/**
+	 * Read the rest of a string whose opening quote has been consumed.
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private String readString() throws IOException, ParseException {
+		this.text.setLength(0);
+		while (true) {
+			if (!this.fill()) {
+				throw new ParseException(this.position(), ParseException.ERROR_UNEXPECTED_TOKEN, null);
+			}
+			int start = this.pos;
+			while (this.pos < this.limit) {
+				char c = this.buffer[this.pos];
+				if (c == '"' || c == '\\') {
+					break;
+				}
+				this.pos++;
+			}
+			this.text.append(this.buffer, start, this.pos - start);
+			if (this.pos == this.limit) {
+				continue;
+			}
+			if (this.buffer[this.pos++] == '"') {
+				return this.text.toString();
+			}
+			this.text.append(this.readEscape());
+		}
+	}
+
+	/**
+	 * Pass over the rest of a string whose opening quote has been consumed.
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private void skipString() throws IOException, ParseException {
+		while (true) {
+			int c = this.read();
+			if (c == -1) {
+				throw new ParseException(this.position(), ParseException.ERROR_UNEXPECTED_TOKEN, null);
+			} else if (c == '"') {
+				return;
+			} else if (c == '\\') {
+				this.readEscape();
+			}
+		}
+	}
+
+	/**
+	 * Read the character after a backslash in a string.
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private char readEscape() throws IOException, ParseException {
+		int c = this.read();
+		switch (c) {
+		case 'n':
+			return '\n';
+		case 't':
+			return '\t';
+		case 'r':
+			return '\r';
+		case 'b':
+			return '\b';
+		case 'f':
+			return '\f';
+		case 'u':
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				int digit = Character.digit(this.read(), 16);
+				if (digit < 0) {
+					throw new ParseException(this.position(), ParseException.ERROR_UNEXPECTED_CHAR, null);
+				}
+				value = (value << 4) + digit;
+			}
+			return (char) value;
+		case '"':
+		case '\\':
+		case '/':
+			return (char) c;
+		default:
+			throw this.unexpected(c);
+		}
+	}
+
+	/**
+	 * Read the characters of a number.
+	 * @return
+	 * @throws IOException
+	 */
+	private String readNumber() throws IOException {
+		this.text.setLength(0);
+		while (this.fill()) {
+			char c = this.buffer[this.pos];
+			if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+				this.text.append(c);
+				this.pos++;
+			} else {
+				break;
+			}
+		}
+		return this.text.toString();
+	}
+
+	private void readLiteral(String _literal) throws IOException, ParseException {
+		for (int i = 0; i < _literal.length(); i++) {
+			int c = this.read();
+			if (c != _literal.charAt(i)) {
+				throw this.unexpected(c);
+			}
+		}
+	}
+
+	private static boolean isIntegral(String _number) {
+		return _number.indexOf('.') < 0 && _number.indexOf('e') < 0 && _number.indexOf('E') < 0;
+	}
+
+	private int position() {
+		return (int) (this.bufferStart + this.pos);
+	}
+
+	private ParseException unexpected(int _c) {
+		if (_c == -1) {
+			return new ParseException(this.position(), ParseException.ERROR_UNEXPECTED_TOKEN, null);
+		}
+		return new ParseException(this.position(), ParseException.ERROR_UNEXPECTED_CHAR, Character.valueOf((char) _c));
+	}
+}
@@ -1,85 +1,91 @@
 package com.ianmann.utils.utilities;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 public abstract class JSONUtils {
 
+	/**
+	 * Returns _jsonTemp pretty-printed with tabs and \r\n line endings.
+	 * Objects and arrays are indented one tab past _level.
+	 * @param jsonTemp
+	 * @param level
+	 * @return
+	 */
 	public static String formatJSON(Object jsonTemp, int level) {
-		String jsonString = "";
-		
-		if (jsonTemp instanceof JSONObject) {
-			JSONObject json = (JSONObject) jsonTemp;
-			jsonString = jsonString + formatJSONObject(json, level + 1);
-		} else if (jsonTemp instanceof JSONArray) {
-			JSONArray json = (JSONArray) jsonTemp;
-			jsonString = jsonString + formatJSONArray(json, level + 1);
-		} else {
-			jsonString = jsonString + formatJSONOther(jsonTemp, level);
+		StringBuilder jsonString = new StringBuilder();
+		JSONPrettyWriter.get().write(jsonTemp, level, jsonString);
+		return jsonString.toString();
+	}
+	
+	/**
+	 * Write _json to _out exactly as {@link JSONUtils#formatJSON(Object, int)}
+	 * formats it, without building the whole document as a String first.
+	 * @param _json
+	 * @param _level
+	 * @param _out
+	 * @throws IOException
+	 */
+	public static void writeJSON(Object _json, int _level, Writer _out) throws IOException {
+		JSONPrettyWriter.get().write(_json, _level, _out);
+	}
+	
+	/**
+	 * Returns _json formatted as {@link JSONUtils#formatJSON(Object, int)}
+	 * formats it and encoded as UTF-8, without building the whole
+	 * document as a String first.
+	 * @param _json
+	 * @param _level
+	 * @return
+	 */
+	public static byte[] encodeJSON(Object _json, int _level) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			JSONPrettyWriter.get().write(_json, _level, out);
+		} catch (IOException e) {
+			// A ByteArrayOutputStream never throws.
+			throw new IllegalStateException(e);
 		}
-		
-		return jsonString;
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Write _json to _out as UTF-8 exactly as {@link JSONUtils#formatJSON(Object, int)}
+	 * formats it.
+	 * @param _json
+	 * @param _level
+	 * @param _out
+	 * @throws java.nio.BufferOverflowException if _out does not have room for the document.
+	 */
+	public static void writeJSON(Object _json, int _level, ByteBuffer _out) {
+		JSONPrettyWriter.get().write(_json, _level, _out);
 	}
 	
 	public static String tabs(int level) {
-		String tabs = "";
+		StringBuilder tabs = new StringBuilder(level);
 		
 		for (int i = 0; i < level; i++) {
-			tabs = tabs + "\t";
+			tabs.append('\t');
 		}
 		
-		return tabs;
+		return tabs.toString();
 	}
 	
 	public static String formatJSONObject(JSONObject json, int level) {
-		String jsonString = "";
-		
-		jsonString = jsonString + "{\r\n";
-		
-		int i = json.keySet().size();
-		for (Object key : json.keySet()) {
-			Object valueTemp = json.get(key);
-			Object value = formatJSON(valueTemp, level);
-			
-			jsonString = jsonString + tabs(level) + "\"" + key + "\"" + ": " + value;
-			if (i > 1) {
-				jsonString = jsonString + ",";
-			}
-			i --;
-			
-			jsonString = jsonString + "\r\n";
-		}
-		
-		jsonString = jsonString + tabs(level - 1) + "}";
-		
-		return jsonString;
+		return formatJSON(json, level - 1);
 	}
 	
 	public static String formatJSONArray(JSONArray json, int level) {
-		String jsonString = "";
-		
-		jsonString = jsonString + "[\r\n";
-		
-		for (int i = 0; i < json.size(); i++) {
-			Object value = formatJSON(json.get(i), level);
-			
-			jsonString = jsonString + tabs(level) + value;
-			if (i < json.size() - 1) {
-				jsonString = jsonString + ",";
-			}
-			
-			jsonString = jsonString + "\r\n";
-		}
-
-		jsonString = jsonString + tabs(level - 1) + "]";
-		
-		return jsonString;
+		return formatJSON(json, level - 1);
 	}
 	
 	public static String formatJSONOther(Object json, int level) {
@@ -98,15 +104,17 @@ public abstract class JSONUtils {
 	}
 	
 	public static JSONObject json(String jsonString) throws ParseException{
-		JSONObject jsonObject = null;
-		JSONParser parser = new JSONParser();
-		jsonObject = ((JSONObject) parser.parse(jsonString));
-		return jsonObject;
+		JSONReader reader = new JSONReader(new StringReader(jsonString));
+		try {
+			return (JSONObject) reader.readDocument();
+		} catch (IOException e) {
+			// A StringReader never throws.
+			throw new ParseException(ParseException.ERROR_UNEXPECTED_EXCEPTION, e);
+		}
 	}
 	
 	public static JSONObject json(File jsonFile) throws FileNotFoundException, ParseException{
-		Scanner jsonReader = new Scanner(jsonFile).useDelimiter("\\A");
-		return json(jsonReader.next());
+		return (JSONObject) Files.json(jsonFile);
 	}
 
 }
@@ -0,0 +1,70 @@
+package test.ianmann;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import com.ianmann.mind.NeuralPathway;
+import com.ianmann.mind.StorageEngine;
+import com.ianmann.mind.SynapseWriteBehind;
+import com.ianmann.mind.core.Constants;
+
+/**
+ * Helpers shared by the tests. Every test is a main() that prints one
+ * line per check that passed and throws on the first that fails.
+ * @author kirkp1ia
+ *
+ */
+public final class TestSupport {
+
+	private TestSupport() {}
+
+	/**
+	 * Throw with _message unless _condition holds.
+	 * @param _condition
+	 * @param _message
+	 */
+	public static void check(boolean _condition, String _message) {
+		if (!_condition) {
+			throw new IllegalStateException(_message);
+		}
+	}
+
+	/**
+	 * Returns a new empty folder under the system temporary folder.
+	 * @param _prefix
+	 * @return
+	 * @throws IOException
+	 */
+	public static File temporaryFolder(String _prefix) throws IOException {
+		return Files.createTempDirectory(_prefix).toFile();
+	}
+
+	/**
+	 * Close the storage in use and point every storage root in
+	 * {@link Constants} at a new temporary folder stored with _engine.
+	 * The roots are global, so a test that calls this again starts over
+	 * with an empty mind.
+	 * @param _engine
+	 * @return The new storage root.
+	 * @throws IOException
+	 */
+	public static File useTemporaryStorage(String _engine) throws IOException {
+		if (Constants.STORAGE_ROOT != null) {
+			// Finish writing the old mind before its roots move.
+			StorageEngine.shutdown();
+			NeuralPathway.writeBehind = new SynapseWriteBehind();
+		}
+		File root = TestSupport.temporaryFolder("mind");
+		Constants.STORAGE_ROOT = root.getAbsolutePath() + "/";
+		Constants.NEURON_ROOT = Constants.STORAGE_ROOT + "neurons/";
+		Constants.PATHWAY_ROOT = Constants.STORAGE_ROOT + "pathways/";
+		Constants.SEGMENT_ROOT = Constants.STORAGE_ROOT + "segments/";
+		Constants.INDEX_ROOT = Constants.STORAGE_ROOT + "indexes/";
+		new File(Constants.NEURON_ROOT).mkdirs();
+		new File(Constants.PATHWAY_ROOT).mkdirs();
+		StorageEngine.use(_engine);
+		return root;
+	}
+
+}
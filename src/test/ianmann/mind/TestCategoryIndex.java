@@ -0,0 +1,51 @@
+package test.ianmann.mind;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.ianmann.mind.Neuron;
+import com.ianmann.mind.StorageEngine;
+import com.ianmann.mind.core.Constants;
+import com.ianmann.mind.core.navigation.CategoryIndex;
+import com.ianmann.mind.storage.organization.NeuronType;
+import com.ianmann.utils.storage.StorageManageable;
+
+import test.ianmann.TestSupport;
+
+public class TestCategoryIndex {
+
+	public static void main(String[] args) throws IOException {
+		TestSupport.useTemporaryStorage(StorageEngine.FILE);
+
+		// The folder a Category would have made.
+		new File(Constants.NEURON_ROOT + "animal/").mkdirs();
+		StorageManageable<Neuron> neurons = Neuron.storage;
+		neurons.create(NeuronType.NOUN_DEFINITION, "animal/Dog");
+		Neuron cat = neurons.create(NeuronType.NOUN_DEFINITION, "animal/Cat");
+		Long animal = Neuron.categories().findCategoryAt("animal");
+		TestSupport.check(animal != null, "saving a Neuron did not create the category of its folder");
+		TestSupport.check(Neuron.categories().isMember(animal, "animal/Dog.nrn"), "a saved Neuron is not in the category of its folder");
+		System.out.println("Save puts a Neuron in its category: OK");
+
+		neurons.delete(cat);
+		TestSupport.check(!Neuron.categories().isMember(animal, "animal/Cat.nrn"), "a deleted Neuron is still in its category");
+		System.out.println("Delete takes a Neuron out of its category: OK");
+
+		// Closes the index cleanly, so it is read back from its file.
+		StorageEngine.use(StorageEngine.FILE);
+		animal = Neuron.categories().findCategoryAt("animal");
+		TestSupport.check(animal != null && Neuron.categories().getMembers(animal).size() == 1, "the category index was not read back after a clean close");
+		System.out.println("Reopen after a clean close: OK");
+
+		StorageEngine.shutdown();
+		File directory = new File(Constants.INDEX_ROOT + "categories/");
+		new File(directory, "clean").delete();
+		new File(directory, CategoryIndex.FILE_NAME).delete();
+		StorageEngine.use(StorageEngine.FILE);
+		animal = Neuron.categories().findCategoryAt("animal");
+		TestSupport.check(animal != null && Neuron.categories().isMember(animal, "animal/Dog.nrn"), "the category index was not rebuilt from storage");
+		TestSupport.check(!Neuron.categories().isMember(animal, "animal/Cat.nrn"), "the rebuilt category index has a deleted Neuron");
+		System.out.println("Rebuild after an unclean close: OK");
+	}
+
+}
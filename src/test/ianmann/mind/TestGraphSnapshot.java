@@ -0,0 +1,76 @@
+package test.ianmann.mind;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.GraphSnapshot;
+import com.ianmann.mind.NeuralPathway;
+import com.ianmann.mind.Neuron;
+import com.ianmann.mind.StorageEngine;
+import com.ianmann.mind.storage.organization.NeuronType;
+import com.ianmann.utils.storage.StorageManageable;
+
+import test.ianmann.TestSupport;
+
+public class TestGraphSnapshot {
+
+	public static void main(String[] args) throws IOException, ParseException {
+		TestSupport.useTemporaryStorage(StorageEngine.FILE);
+
+		StorageManageable<Neuron> neurons = Neuron.storage;
+		Neuron a = neurons.create(NeuronType.NOUN_INSTANCE, null);
+		Neuron b = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		Neuron c = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		a.getAxon().add(new ArrayList<NeuralPathway>());
+		a.getAxon().add(new ArrayList<NeuralPathway>());
+		b.getAxon().add(new ArrayList<NeuralPathway>());
+		c.getAxon().add(new ArrayList<NeuralPathway>());
+		NeuralPathway ab = a.addNeuralPathway(0, b);
+		a.addNeuralPathway(1, c);
+		b.addNeuralPathway(0, c);
+
+		GraphSnapshot snapshot = GraphSnapshot.build(new long[] {c.getId(), a.getId(), b.getId(), a.getId(), -5});
+		TestSupport.check(snapshot.getNeuronCount() == 3, "the snapshot holds " + snapshot.getNeuronCount() + " Neurons");
+		TestSupport.check(snapshot.getPathwayCount() == 3, "the snapshot holds " + snapshot.getPathwayCount() + " pathways");
+		TestSupport.check(snapshot.indexOf(-5) == -1, "an id that is not stored was given a row");
+
+		int row = snapshot.indexOf(a.getId());
+		TestSupport.check(snapshot.getNeuronId(row) == a.getId(), "the row of a Neuron holds another id");
+		TestSupport.check(snapshot.getType(row) == NeuronType.NOUN_INSTANCE, "the type of a Neuron was not kept");
+		TestSupport.check(snapshot.edgeEnd(row) - snapshot.edgeStart(row) == 2, "a Neuron with two pathways has " + (snapshot.edgeEnd(row) - snapshot.edgeStart(row)));
+		int first = snapshot.edgeStart(row);
+		TestSupport.check(snapshot.getPathwayId(first) == ab.getId(), "pathways are not in axon order");
+		TestSupport.check(snapshot.getRecieverId(first) == b.getId(), "a pathway leads to the wrong Neuron");
+		TestSupport.check(snapshot.getDendriteGroup(first + 1) == 1, "a pathway is in the wrong dendrite group");
+		TestSupport.check(snapshot.getConnectionSize(first) == ab.getConnectionSize(), "a pathway has the wrong connection size");
+
+		final long[] visited = new long[1];
+		snapshot.forEachPathway(b.getId(), new GraphSnapshot.PathwayVisitor() {
+
+			@Override
+			public void visit(int _edge, long _recieverId, int _dendriteGroup, double _connectionSize) {
+				visited[0] = _recieverId;
+			}
+		});
+		TestSupport.check(visited[0] == c.getId(), "forEachPathway did not visit the pathway of b");
+		System.out.println("Build: OK");
+
+		c.addNeuralPathway(0, a);
+		GraphSnapshot refreshed = snapshot.refresh(new long[] {c.getId()});
+		TestSupport.check(snapshot.getPathwayCount() == 3, "refresh changed the old snapshot");
+		TestSupport.check(refreshed.getPathwayCount() == 4, "the refreshed snapshot holds " + refreshed.getPathwayCount() + " pathways");
+		int refreshedRow = refreshed.indexOf(c.getId());
+		TestSupport.check(refreshed.getRecieverId(refreshed.edgeStart(refreshedRow)) == a.getId(), "the new pathway of c was not read");
+		TestSupport.check(refreshed.edgeEnd(refreshed.indexOf(a.getId())) - refreshed.edgeStart(refreshed.indexOf(a.getId())) == 2, "an unchanged row was not copied");
+		System.out.println("Refresh: OK");
+
+		neurons.delete(b);
+		GraphSnapshot withoutB = refreshed.refresh(new long[] {b.getId()});
+		TestSupport.check(withoutB.indexOf(b.getId()) == -1, "a deleted Neuron was kept by refresh");
+		TestSupport.check(withoutB.getNeuronCount() == 2, "refresh left " + withoutB.getNeuronCount() + " Neurons");
+		System.out.println("Refresh after delete: OK");
+	}
+
+}
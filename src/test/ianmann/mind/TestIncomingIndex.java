@@ -0,0 +1,69 @@
+package test.ianmann.mind;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.NeuralPathway;
+import com.ianmann.mind.Neuron;
+import com.ianmann.mind.StorageEngine;
+import com.ianmann.mind.core.Constants;
+import com.ianmann.mind.storage.organization.NeuronType;
+import com.ianmann.utils.storage.StorageManageable;
+
+import test.ianmann.TestSupport;
+
+public class TestIncomingIndex {
+
+	public static void main(String[] args) throws IOException, ParseException {
+		TestSupport.useTemporaryStorage(StorageEngine.FILE);
+
+		StorageManageable<Neuron> neurons = Neuron.storage;
+		Neuron a = neurons.create(NeuronType.NOUN_INSTANCE, null);
+		Neuron b = neurons.create(NeuronType.NOUN_INSTANCE, null);
+		Neuron c = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		a.getAxon().add(new ArrayList<NeuralPathway>());
+		b.getAxon().add(new ArrayList<NeuralPathway>());
+		NeuralPathway first = a.addNeuralPathway(0, c);
+		a.addNeuralPathway(0, c);
+		b.addNeuralPathway(0, c);
+
+		TestSupport.check(c.getIncomingPathways().size() == 3, "c has " + c.getIncomingPathways().size() + " incoming pathways");
+		TestSupport.check(c.getIncomingNeurons().size() == 2, "a sender with two pathways was returned twice");
+		TestSupport.check(a.getIncomingPathways().isEmpty(), "a Neuron nothing leads to has incoming pathways");
+		System.out.println("Who links to a Neuron: OK");
+
+		a.removeNeuralPathway(first.getId());
+		TestSupport.check(c.getIncomingPathways().size() == 2, "a removed pathway is still indexed");
+		System.out.println("Remove a pathway: OK");
+
+		// Closes the index cleanly, so it is read back from its store.
+		StorageEngine.use(StorageEngine.FILE);
+		TestSupport.check(c.getIncomingPathways().size() == 2, "the index was not read back after a clean close");
+		StorageEngine.shutdown();
+		TestIncomingIndex.deleteAll(new File(Constants.INDEX_ROOT + "incoming/"));
+		StorageEngine.use(StorageEngine.FILE);
+		TestSupport.check(c.getIncomingPathways().size() == 2, "the index was not rebuilt from the axons");
+		System.out.println("Reopen and rebuild: OK");
+
+		neurons = Neuron.storage;
+		neurons.delete(Neuron.fromStorage(c.getId()));
+		TestSupport.check(Neuron.fromStorage(a.getId()).getAxon().get(0).isEmpty(), "a pathway to a deleted Neuron was left in its sender");
+		TestSupport.check(Neuron.fromStorage(b.getId()).getAxon().get(0).isEmpty(), "a pathway to a deleted Neuron was left in its sender");
+		TestSupport.check(c.getIncomingPathways().isEmpty(), "a deleted Neuron still has incoming pathways");
+		System.out.println("Cascading delete: OK");
+	}
+
+	private static void deleteAll(File _file) {
+		File[] children = _file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				TestIncomingIndex.deleteAll(child);
+			}
+		}
+		_file.delete();
+	}
+
+}
@@ -0,0 +1,97 @@
+package test.ianmann.mind;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Set;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.InheritedAttributes;
+import com.ianmann.mind.NeuralPathway;
+import com.ianmann.mind.Neuron;
+import com.ianmann.mind.OntologyLoader;
+import com.ianmann.mind.StorageEngine;
+import com.ianmann.mind.storage.organization.NeuronType;
+import com.ianmann.utils.storage.StorageManageable;
+
+import test.ianmann.TestSupport;
+
+public class TestInheritedAttributes {
+
+	public static void main(String[] args) throws IOException, ParseException {
+		TestSupport.useTemporaryStorage(StorageEngine.FILE);
+		InheritedAttributes inherited = Neuron.inheritedAttributes;
+		inherited.clear();
+
+		Neuron grandparent = TestInheritedAttributes.structure(null);
+		Neuron parent = TestInheritedAttributes.structure(grandparent);
+		Neuron child = TestInheritedAttributes.structure(parent);
+		Neuron g = TestInheritedAttributes.attribute(grandparent);
+		NeuralPathway toP = TestInheritedAttributes.attributePathway(parent);
+		Neuron c = TestInheritedAttributes.attribute(child);
+		long p = toP.getRecieverId();
+
+		Set<Long> attributes = inherited.get(child.getId());
+		TestSupport.check(attributes.size() == 3 && attributes.contains(c.getId()) && attributes.contains(p) && attributes.contains(g.getId()), "the child has attributes " + attributes);
+		TestSupport.check(inherited.has(child.getId(), g.getId()), "an attribute two parents up was not inherited");
+		TestSupport.check(!inherited.has(grandparent.getId(), c.getId()), "a parent has the attribute of its child");
+		System.out.println("Flattened attributes: OK");
+
+		Neuron added = TestInheritedAttributes.attribute(grandparent);
+		TestSupport.check(inherited.has(child.getId(), added.getId()), "an attribute added to a parent did not reach the child");
+		parent.removeNeuralPathway(toP.getId());
+		TestSupport.check(!inherited.has(child.getId(), p), "an attribute removed from the parent is still inherited");
+		TestSupport.check(inherited.has(child.getId(), g.getId()), "removing an attribute dropped another");
+		System.out.println("Add and remove attributes: OK");
+
+		Neuron other = TestInheritedAttributes.structure(null);
+		Neuron q = TestInheritedAttributes.attribute(other);
+		child.removeNeuralPathway(child.getAxon().get(OntologyLoader.PARENT_GROUP).get(0).getId());
+		child.addNeuralPathway(OntologyLoader.PARENT_GROUP, other);
+		TestSupport.check(inherited.has(child.getId(), q.getId()), "the attribute of a new parent was not inherited");
+		TestSupport.check(!inherited.has(child.getId(), g.getId()), "an attribute of the old parent is still inherited");
+		System.out.println("Change parent: OK");
+
+		// A cycle of parents ends instead of recursing forever.
+		Neuron x = TestInheritedAttributes.structure(null);
+		Neuron y = TestInheritedAttributes.structure(x);
+		x.addNeuralPathway(OntologyLoader.PARENT_GROUP, y);
+		Neuron onY = TestInheritedAttributes.attribute(y);
+		TestSupport.check(inherited.has(x.getId(), onY.getId()), "a structure in a cycle did not inherit from its parent");
+		System.out.println("Cycle of parents: OK");
+	}
+
+	/**
+	 * Returns a new entity structure whose parent is _parent, or that has
+	 * none if _parent is null.
+	 * @param _parent
+	 * @return
+	 */
+	private static Neuron structure(Neuron _parent) {
+		StorageManageable<Neuron> neurons = Neuron.storage;
+		Neuron structure = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		structure.getAxon().add(new ArrayList<NeuralPathway>());
+		structure.getAxon().add(new ArrayList<NeuralPathway>());
+		if (_parent != null) {
+			structure.addNeuralPathway(OntologyLoader.PARENT_GROUP, _parent);
+		}
+		return structure;
+	}
+
+	/**
+	 * Returns a new attribute of _structure.
+	 * @param _structure
+	 * @return
+	 * @throws ParseException
+	 * @throws IOException
+	 */
+	private static Neuron attribute(Neuron _structure) throws IOException, ParseException {
+		return Neuron.fromStorage(TestInheritedAttributes.attributePathway(_structure).getRecieverId());
+	}
+
+	private static NeuralPathway attributePathway(Neuron _structure) {
+		StorageManageable<Neuron> neurons = Neuron.storage;
+		return _structure.addNeuralPathway(OntologyLoader.NETWORK_GROUP, neurons.create(NeuronType.ATTRIBUTE, null));
+	}
+
+}
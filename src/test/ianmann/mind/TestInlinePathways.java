@@ -0,0 +1,58 @@
+package test.ianmann.mind;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.NeuralPathway;
+import com.ianmann.mind.Neuron;
+import com.ianmann.mind.StorageEngine;
+import com.ianmann.mind.StorageIds;
+import com.ianmann.mind.core.Constants;
+import com.ianmann.mind.storage.organization.NeuronType;
+import com.ianmann.utils.storage.StorageManageable;
+
+import test.ianmann.TestSupport;
+
+public class TestInlinePathways {
+
+	public static void main(String[] args) throws IOException, ParseException {
+		TestSupport.useTemporaryStorage(StorageEngine.INLINE);
+
+		StorageManageable<Neuron> neurons = Neuron.storage;
+		Neuron a = neurons.create(NeuronType.NOUN_INSTANCE, null);
+		Neuron b = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		Neuron c = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		a.getAxon().add(new ArrayList<NeuralPathway>());
+		NeuralPathway ab = a.addNeuralPathway(0, b);
+		NeuralPathway ac = a.addNeuralPathway(0, c);
+		ac.fireSynapse();
+		NeuralPathway.writeBehind.flush();
+
+		String[] pathwayFiles = new File(Constants.PATHWAY_ROOT).list();
+		for (String name : pathwayFiles) {
+			TestSupport.check(!name.endsWith(StorageIds.PATHWAY_EXTENSION), "a pathway was written to its own file: " + name);
+		}
+		System.out.println("No pathway files: OK");
+
+		// Drops every cached Neuron and pathway, so a is read back from its record.
+		StorageEngine.use(StorageEngine.INLINE);
+		Neuron loaded = Neuron.fromStorage(a.getId());
+		ArrayList<NeuralPathway> group = loaded.getAxon().get(0);
+		TestSupport.check(group.size() == 2, "a was read back with " + group.size() + " pathways");
+		TestSupport.check(group.get(0).getId() == ab.getId() && group.get(0).getRecieverId() == b.getId(), "the first pathway of a was not read back");
+		TestSupport.check(group.get(1).getRecieverId() == c.getId(), "the second pathway of a was not read back");
+		TestSupport.check(group.get(1).getConnectionSize() == ac.getConnectionSize(), "the size of a fired pathway was not written into the record of a");
+		TestSupport.check(group.get(1).getConnectionSize() > group.get(0).getConnectionSize(), "firing a pathway did not make it stronger");
+		System.out.println("Read back with the Neuron: OK");
+
+		loaded.removeNeuralPathway(ab.getId());
+		StorageEngine.use(StorageEngine.INLINE);
+		group = Neuron.fromStorage(a.getId()).getAxon().get(0);
+		TestSupport.check(group.size() == 1 && group.get(0).getRecieverId() == c.getId(), "a removed pathway was read back");
+		System.out.println("Remove a pathway: OK");
+	}
+
+}
@@ -0,0 +1,44 @@
+package test.ianmann.mind;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.Neuron;
+import com.ianmann.mind.StorageEngine;
+import com.ianmann.mind.StorageIds;
+import com.ianmann.mind.core.Constants;
+import com.ianmann.mind.storage.organization.NeuronType;
+import com.ianmann.utils.storage.StorageManageable;
+
+import test.ianmann.TestSupport;
+
+public class TestLabelIds {
+
+	public static void main(String[] args) throws IOException, ParseException {
+		TestSupport.useTemporaryStorage(StorageEngine.FILE);
+
+		// A labeled Neuron written before ids were recorded, like the ones shipped in mind/storage.
+		File person = new File(Constants.NEURON_ROOT + "being/Person.nrn");
+		person.getParentFile().mkdirs();
+		Files.write(person.toPath(), "{\"associatedMorpheme\": \"person\", \"type\": 1}".getBytes("UTF-8"));
+		StorageEngine.use(StorageEngine.FILE);
+
+		TestSupport.check(StorageIds.listNeuronIds().size() == 1, "the ids of the stored Neurons could not be listed");
+		long id = StorageIds.neuronId("being/Person.nrn");
+		TestSupport.check(Neuron.fromStorage(id).getId() == id, "the labeled Neuron could not be read by its id");
+		System.out.println("Missing label ids recorded on open: OK");
+
+		StorageManageable<Neuron> neurons = Neuron.storage;
+		Neuron created = neurons.create(NeuronType.NOUN_DEFINITION, "being/Dog");
+		HashSet<Neuron> set = new HashSet<Neuron>();
+		set.add(created);
+		TestSupport.check(set.contains(Neuron.fromStorage(created.getId())), "the same Neuron read again is not equal to the one created");
+		TestSupport.check(!set.contains(Neuron.fromStorage(id)), "different Neurons are equal");
+		System.out.println("Equality by storage location: OK");
+	}
+
+}
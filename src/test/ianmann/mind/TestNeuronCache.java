@@ -0,0 +1,78 @@
+package test.ianmann.mind;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.Neuron;
+import com.ianmann.mind.StorageEngine;
+import com.ianmann.mind.storage.organization.NeuronType;
+import com.ianmann.utils.storage.IdentityCache;
+import com.ianmann.utils.storage.StorageManageable;
+
+import test.ianmann.TestSupport;
+
+public class TestNeuronCache {
+
+	public static void main(String[] args) throws IOException, ParseException {
+		TestNeuronCache.evictsLeastRecentlyUsed();
+
+		TestSupport.useTemporaryStorage(StorageEngine.FILE);
+		StorageManageable<Neuron> neurons = Neuron.storage;
+		Neuron created = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		long id = created.getId();
+
+		Neuron first = Neuron.fromStorage(id);
+		long hits = Neuron.cache.getHitCount();
+		TestSupport.check(Neuron.fromStorage(id) == first, "a repeat lookup loaded the Neuron again");
+		TestSupport.check(Neuron.cache.getHitCount() == hits + 1, "a repeat lookup was not counted as a hit");
+		System.out.println("Repeat lookup: OK");
+
+		neurons.save(first);
+		TestSupport.check(!Neuron.cache.contains(id), "save left the Neuron in the cache");
+		TestSupport.check(Neuron.fromStorage(id) != first, "the Neuron was not loaded again after save");
+		System.out.println("Invalidate on save: OK");
+
+		neurons.delete(Neuron.fromStorage(id));
+		TestSupport.check(!Neuron.cache.contains(id), "delete left the Neuron in the cache");
+		try {
+			Neuron.fromStorage(id);
+			throw new IllegalStateException("a deleted Neuron was returned");
+		} catch (FileNotFoundException e) {
+			// Expected.
+		}
+		System.out.println("Invalidate on delete: OK");
+	}
+
+	/**
+	 * Entries are evicted least recently used first once their weight
+	 * passes the budget.
+	 */
+	private static void evictsLeastRecentlyUsed() {
+		IdentityCache<String, String> cache = new IdentityCache<String, String>(10, new IdentityCache.Weigher<String>() {
+
+			@Override
+			public long weigh(String _value) {
+				return _value.length();
+			}
+		});
+		cache.put("a", "aaaa");
+		cache.put("b", "bbbb");
+		cache.get("a");
+		cache.put("c", "cccc");
+
+		TestSupport.check(cache.contains("a") && cache.contains("c"), "a recently used entry was evicted");
+		TestSupport.check(!cache.contains("b"), "the least recently used entry was kept over budget");
+		TestSupport.check(cache.getEvictionCount() == 1, "evictions counted as " + cache.getEvictionCount());
+		TestSupport.check(cache.getWeightedSize() == 8, "weighted size is " + cache.getWeightedSize());
+		TestSupport.check(cache.get("b") == null && cache.getMissCount() == 1, "a miss was not counted");
+		TestSupport.check(cache.getHitCount() == 1, "hits counted as " + cache.getHitCount());
+		TestSupport.check(cache.putIfAbsent("a", "other").equals("aaaa"), "putIfAbsent replaced a cached entry");
+
+		cache.setMaximumWeight(4);
+		TestSupport.check(cache.size() == 1 && cache.contains("a"), "lowering the budget did not evict down to it");
+		System.out.println("Weighted LRU eviction: OK");
+	}
+
+}
@@ -0,0 +1,103 @@
+package test.ianmann.mind;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.ianmann.mind.Neuron;
+import com.ianmann.mind.NeuronIndex;
+import com.ianmann.mind.StorageEngine;
+import com.ianmann.mind.core.Constants;
+import com.ianmann.mind.storage.organization.NeuronType;
+import com.ianmann.utils.storage.StorageManageable;
+
+import test.ianmann.TestSupport;
+
+public class TestNeuronIndex {
+
+	public static void main(String[] args) throws IOException {
+		TestSupport.useTemporaryStorage(StorageEngine.FILE);
+
+		// The folders a Category would have made.
+		new File(Constants.NEURON_ROOT + "being/animal/").mkdirs();
+		StorageManageable<Neuron> neurons = Neuron.storage;
+		Neuron being = neurons.create(NeuronType.NOUN_DEFINITION, "being/Being");
+		Neuron dog = neurons.create(NeuronType.NOUN_DEFINITION, "being/animal/Dog");
+		Neuron rex = neurons.create(NeuronType.NOUN_INSTANCE, "being/animal/Rex");
+		Neuron unlabeled = neurons.create(NeuronType.NOUN_DEFINITION, null);
+
+		TestNeuronIndex.expect(neurons, TestNeuronIndex.query(NeuronIndex.TYPE, NeuronType.NOUN_DEFINITION), being, dog, unlabeled);
+		TestNeuronIndex.expect(neurons, TestNeuronIndex.query(NeuronIndex.MORPHEME, "being/animal/Rex"), rex);
+		TestNeuronIndex.expect(neurons, TestNeuronIndex.query(NeuronIndex.CATEGORY, "being"), being, dog, rex);
+		TestNeuronIndex.expect(neurons, TestNeuronIndex.query(NeuronIndex.CATEGORY, "being/animal"), dog, rex);
+		HashMap<String, Object> both = TestNeuronIndex.query(NeuronIndex.CATEGORY, "being");
+		both.put(NeuronIndex.TYPE, NeuronType.NOUN_DEFINITION);
+		TestNeuronIndex.expect(neurons, both, being, dog);
+		TestSupport.check(neurons.getAll().size() == 4, "getAll returned " + neurons.getAll().size() + " Neurons");
+		try {
+			neurons.get(TestNeuronIndex.query("connectionSize", 1));
+			throw new IllegalStateException("a query on a key that is not indexed was answered");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		System.out.println("Queries: OK");
+
+		neurons.delete(dog);
+		TestNeuronIndex.expect(neurons, TestNeuronIndex.query(NeuronIndex.CATEGORY, "being/animal"), rex);
+		System.out.println("Delete: OK");
+
+		// Closes the index cleanly, so it is read back from its store.
+		StorageEngine.use(StorageEngine.FILE);
+		TestNeuronIndex.expect(TestNeuronIndex.neurons(), TestNeuronIndex.query(NeuronIndex.TYPE, NeuronType.NOUN_DEFINITION), being, unlabeled);
+		System.out.println("Reopen after a clean close: OK");
+
+		// Without its store or the marker of a clean close the index has
+		// to be built again from the Neurons.
+		StorageEngine.shutdown();
+		TestNeuronIndex.deleteAll(new File(Constants.INDEX_ROOT + "neurons/"));
+		StorageEngine.use(StorageEngine.FILE);
+		TestNeuronIndex.expect(TestNeuronIndex.neurons(), TestNeuronIndex.query(NeuronIndex.CATEGORY, "being"), being, rex);
+		TestNeuronIndex.expect(TestNeuronIndex.neurons(), TestNeuronIndex.query(NeuronIndex.TYPE, NeuronType.NOUN_INSTANCE), rex);
+		System.out.println("Rebuild after an unclean close: OK");
+	}
+
+	private static StorageManageable<Neuron> neurons() {
+		return Neuron.storage;
+	}
+
+	private static HashMap<String, Object> query(String _key, Object _value) {
+		HashMap<String, Object> params = new HashMap<String, Object>();
+		params.put(_key, _value);
+		return params;
+	}
+
+	/**
+	 * Throw unless _params finds exactly _expected.
+	 * @param _neurons
+	 * @param _params
+	 * @param _expected
+	 */
+	private static void expect(StorageManageable<Neuron> _neurons, HashMap<String, Object> _params, Neuron... _expected) {
+		ArrayList<Neuron> found = _neurons.get(_params);
+		ArrayList<String> paths = new ArrayList<String>();
+		for (Neuron neuron : found) {
+			paths.add(neuron.getPath());
+		}
+		TestSupport.check(found.size() == _expected.length, _params + " found " + paths);
+		for (Neuron neuron : _expected) {
+			TestSupport.check(found.contains(neuron), _params + " did not find " + neuron.getPath());
+		}
+	}
+
+	private static void deleteAll(File _file) {
+		File[] children = _file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				TestNeuronIndex.deleteAll(child);
+			}
+		}
+		_file.delete();
+	}
+
+}
@@ -0,0 +1,38 @@
+package test.ianmann.mind;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.NeuralPathway;
+import com.ianmann.mind.Neuron;
+import com.ianmann.mind.StorageEngine;
+import com.ianmann.mind.storage.organization.NeuronType;
+import com.ianmann.utils.storage.StorageManageable;
+
+import test.ianmann.TestSupport;
+
+public class TestNeuronPeek {
+
+	public static void main(String[] args) throws IOException, ParseException {
+		TestSupport.useTemporaryStorage(StorageEngine.FILE);
+
+		StorageManageable<Neuron> neurons = Neuron.storage;
+		neurons.begin();
+		Neuron instance = neurons.create(NeuronType.NOUN_INSTANCE, null);
+		Neuron definition = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		instance.getAxon().add(new ArrayList<NeuralPathway>());
+		NeuralPathway pathway = instance.addNeuralPathway(0, definition);
+
+		TestSupport.check(pathway.peekRecieverType() == NeuronType.NOUN_DEFINITION, "a Neuron saved in an open unit of work was peeked as " + pathway.peekRecieverType());
+		ArrayList<NeuralPathway> peeked = instance.peek(0, NeuronType.NOUN_DEFINITION);
+		TestSupport.check(peeked.size() == 1 && peeked.get(0) == pathway, "peek dropped a pathway to a Neuron saved in an open unit of work");
+		neurons.commit();
+		System.out.println("Peek inside an open unit of work: OK");
+
+		TestSupport.check(instance.peek(0, NeuronType.NOUN_DEFINITION).size() == 1, "peek dropped a pathway once the unit of work was committed");
+		System.out.println("Peek after commit: OK");
+	}
+
+}
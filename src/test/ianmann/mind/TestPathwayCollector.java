@@ -0,0 +1,54 @@
+package test.ianmann.mind;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.NeuralPathway;
+import com.ianmann.mind.Neuron;
+import com.ianmann.mind.PathwayCollector;
+import com.ianmann.mind.StorageEngine;
+import com.ianmann.mind.StorageIds;
+import com.ianmann.mind.core.Constants;
+import com.ianmann.mind.storage.organization.NeuronType;
+import com.ianmann.utils.storage.StorageManageable;
+
+import test.ianmann.TestSupport;
+
+public class TestPathwayCollector {
+
+	public static void main(String[] args) throws IOException, ParseException, InterruptedException {
+		TestSupport.useTemporaryStorage(StorageEngine.FILE);
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			TestSupport.check(!thread.getName().equals("pathway-collector"), "the collector was started without being asked for");
+		}
+		System.out.println("Collector is opt-in: OK");
+
+		StorageManageable<Neuron> neurons = Neuron.storage;
+		Neuron holder = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		Neuron kept = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		Neuron lost = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		holder.getAxon().add(new ArrayList<NeuralPathway>());
+		holder.addNeuralPathway(0, kept);
+		holder.addNeuralPathway(0, lost);
+		// Lost without its incoming pathways being removed, as after a crash.
+		new File(Constants.NEURON_ROOT + lost.getId() + StorageIds.NEURON_EXTENSION).delete();
+
+		Neuron inUse = Neuron.fromStorage(holder.getId());
+		PathwayCollector collector = new PathwayCollector(Long.MAX_VALUE, 16, 0);
+		collector.collect();
+		TestSupport.check(collector.getRemovedEdges() == 0, "the axon of a Neuron in use was changed");
+		TestSupport.check(inUse.getAxon().get(0).size() == 2, "the cached Neuron was changed by the collector");
+		System.out.println("Neuron in use is left alone: OK");
+
+		Neuron.cache.invalidate(holder.getId());
+		collector.collect();
+		TestSupport.check(collector.getRemovedEdges() == 1, "the pathway to a lost Neuron was not removed");
+		ArrayList<NeuralPathway> group = Neuron.fromStorage(holder.getId()).getAxon().get(0);
+		TestSupport.check(group.size() == 1 && group.get(0).getRecieverId() == kept.getId(), "the saved axon is " + group);
+		System.out.println("Pathway to a lost Neuron removed: OK");
+	}
+
+}
@@ -0,0 +1,61 @@
+package test.ianmann.mind;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.NeuralPathway;
+import com.ianmann.mind.Neuron;
+import com.ianmann.mind.ReflexCache;
+import com.ianmann.mind.SpreadingActivation;
+import com.ianmann.mind.StorageEngine;
+import com.ianmann.mind.storage.organization.NeuronType;
+import com.ianmann.utils.storage.StorageManageable;
+
+import test.ianmann.TestSupport;
+
+public class TestReflexCache {
+
+	public static void main(String[] args) throws IOException, ParseException {
+		TestSupport.useTemporaryStorage(StorageEngine.FILE);
+		// Two pathways fired once each add up to this, one does not.
+		Neuron.reflexes.setThreshold(0.00003);
+
+		StorageManageable<Neuron> neurons = Neuron.storage;
+		Neuron stimulus = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		Neuron middle = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		Neuron reaction = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		Neuron weak = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		stimulus.getAxon().add(new ArrayList<NeuralPathway>());
+		middle.getAxon().add(new ArrayList<NeuralPathway>());
+		weak.getAxon().add(new ArrayList<NeuralPathway>());
+		NeuralPathway first = stimulus.addNeuralPathway(0, middle);
+		NeuralPathway second = middle.addNeuralPathway(0, reaction);
+		weak.addNeuralPathway(0, reaction);
+
+		SpreadingActivation thought = new SpreadingActivation();
+		try {
+			TestSupport.check(thought.follow(stimulus).getId() == reaction.getId(), "following the chain did not reach its end");
+			TestSupport.check(Neuron.reflexes.getReaction(stimulus.getId()) == reaction.getId(), "a chain over the threshold was not learned");
+			TestSupport.check(thought.follow(weak).getId() == reaction.getId(), "following the weak chain did not reach its end");
+			TestSupport.check(Neuron.reflexes.getReaction(weak.getId()) == ReflexCache.NO_REFLEX, "a chain under the threshold was learned");
+			System.out.println("Follow learns chains over the threshold: OK");
+
+			first.fireSynapse();
+			TestSupport.check(Neuron.reflexes.getReaction(stimulus.getId()) == reaction.getId(), "firing a pathway forgot a reflex that is still over the threshold");
+			double size = second.getConnectionSize();
+			TestSupport.check(thought.follow(stimulus).getId() == reaction.getId(), "the reflex did not return its reaction");
+			TestSupport.check(second.getConnectionSize() == size, "the chain was walked although the stimulus has a reflex");
+			System.out.println("Reflex is used before walking the chain: OK");
+
+			StorageManageable<NeuralPathway> pathways = NeuralPathway.storage;
+			pathways.delete(second);
+			TestSupport.check(Neuron.reflexes.getReaction(stimulus.getId()) == ReflexCache.NO_REFLEX, "a reflex through a deleted pathway was kept");
+			System.out.println("Deleting a pathway forgets its reflexes: OK");
+		} finally {
+			thought.close();
+		}
+	}
+
+}
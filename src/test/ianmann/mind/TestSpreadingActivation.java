@@ -0,0 +1,94 @@
+package test.ianmann.mind;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.NeuralPathway;
+import com.ianmann.mind.Neuron;
+import com.ianmann.mind.SpreadingActivation;
+import com.ianmann.mind.StorageEngine;
+import com.ianmann.mind.storage.organization.NeuronType;
+import com.ianmann.utils.storage.StorageManageable;
+
+import test.ianmann.TestSupport;
+
+public class TestSpreadingActivation {
+
+	public static void main(String[] args) throws IOException, ParseException {
+		TestSupport.useTemporaryStorage(StorageEngine.FILE);
+
+		StorageManageable<Neuron> neurons = Neuron.storage;
+		Neuron seed = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		Neuron strong = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		Neuron weak = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		Neuron far = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		seed.getAxon().add(new ArrayList<NeuralPathway>());
+		strong.getAxon().add(new ArrayList<NeuralPathway>());
+		NeuralPathway toStrong = seed.addNeuralPathway(0, strong);
+		seed.addNeuralPathway(0, weak);
+		strong.addNeuralPathway(0, far);
+		for (int i = 0; i < 3; i++) {
+			toStrong.fireSynapse();
+		}
+		NeuralPathway.writeBehind.flush();
+		long[] seeds = new long[] {seed.getId()};
+
+		SpreadingActivation thought = new SpreadingActivation(0.5, 0.0001, 16, 4, 2);
+		try {
+			ArrayList<SpreadingActivation.Activation> activated = thought.activate(seeds, 10, 10000);
+			TestSupport.check(activated.size() == 3, "activated " + activated);
+			TestSupport.check(activated.get(0).getNeuronId() == strong.getId(), "the pathway fired most did not carry the most activation: " + activated);
+			for (int i = 1; i < activated.size(); i++) {
+				TestSupport.check(activated.get(i - 1).getActivation() >= activated.get(i).getActivation(), "activations are not strongest first: " + activated);
+			}
+			SpreadingActivation.Activation reachedFar = TestSpreadingActivation.find(activated, far.getId());
+			TestSupport.check(reachedFar != null && reachedFar.getDepth() == 2, "activation did not spread two steps");
+			TestSupport.check(Math.abs(reachedFar.getActivation() - activated.get(0).getActivation() * 0.5) < 1e-9, "activation did not decay by half each step");
+			TestSupport.check(TestSpreadingActivation.find(activated, seed.getId()) == null, "a seed was returned");
+			TestSupport.check(thought.activate(seeds, 1, 10000).size() == 1, "more than k Neurons were returned");
+			System.out.println("Spread and decay: OK");
+		} finally {
+			thought.close();
+		}
+
+		SpreadingActivation narrow = new SpreadingActivation(0.5, 0.0001, 1, 1, 2);
+		try {
+			ArrayList<SpreadingActivation.Activation> activated = narrow.activate(seeds, 10, 10000);
+			TestSupport.check(activated.size() == 1 && activated.get(0).getNeuronId() == strong.getId(), "fan out and depth limits were not kept: " + activated);
+			System.out.println("Fan out and depth limits: OK");
+		} finally {
+			narrow.close();
+		}
+
+		// More seeds than one task reads, so the step is split between tasks.
+		Neuron hub = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		long[] many = new long[SpreadingActivation.SPLIT_THRESHOLD * 3];
+		for (int i = 0; i < many.length; i++) {
+			Neuron sender = neurons.create(NeuronType.NOUN_INSTANCE, null);
+			sender.getAxon().add(new ArrayList<NeuralPathway>());
+			sender.addNeuralPathway(0, hub);
+			many[i] = sender.getId();
+		}
+		SpreadingActivation parallel = new SpreadingActivation(0.5, 0.0001, 16, 1, 4);
+		try {
+			ArrayList<SpreadingActivation.Activation> activated = parallel.activate(many, 1, 10000);
+			TestSupport.check(activated.get(0).getNeuronId() == hub.getId(), "the hub was not activated");
+			TestSupport.check(Math.abs(activated.get(0).getActivation() - many.length * 0.5) < 1e-9, "the activation sent by parallel tasks was not summed: " + activated);
+			System.out.println("Parallel step: OK");
+		} finally {
+			parallel.close();
+		}
+	}
+
+	private static SpreadingActivation.Activation find(ArrayList<SpreadingActivation.Activation> _activated, long _id) {
+		for (SpreadingActivation.Activation activation : _activated) {
+			if (activation.getNeuronId() == _id) {
+				return activation;
+			}
+		}
+		return null;
+	}
+
+}
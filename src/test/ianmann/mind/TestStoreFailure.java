@@ -0,0 +1,53 @@
+package test.ianmann.mind;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.Neuron;
+import com.ianmann.mind.Snapshot;
+import com.ianmann.mind.StorageEngine;
+import com.ianmann.mind.StorageIds;
+import com.ianmann.mind.core.Constants;
+import com.ianmann.mind.storage.organization.NeuronType;
+import com.ianmann.utils.storage.StorageException;
+import com.ianmann.utils.storage.StorageManageable;
+
+import test.ianmann.TestSupport;
+
+public class TestStoreFailure {
+
+	public static void main(String[] args) throws IOException, ParseException {
+		TestSupport.useTemporaryStorage(StorageEngine.FILE);
+
+		StorageManageable<Neuron> neurons = Neuron.storage;
+		Neuron neuron = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		Snapshot before = Snapshot.open();
+		TestSupport.check(before.getNeuron(neuron.getId()).getAssociatedMorpheme() == null, "the snapshot did not read the saved Neuron");
+
+		// A folder with something in it can not be replaced by the new file.
+		File file = new File(Constants.NEURON_ROOT + neuron.getId() + StorageIds.NEURON_EXTENSION);
+		file.delete();
+		new File(file, "blocker").mkdirs();
+		neuron.setAssociatedMorpheme("changed");
+		boolean failed = false;
+		try {
+			neurons.save(neuron);
+		} catch (StorageException e) {
+			failed = true;
+		}
+		TestSupport.check(failed, "a save that could not be written did not throw");
+		System.out.println("Failed save reaches the caller: OK");
+
+		Snapshot after = Snapshot.open();
+		try {
+			TestSupport.check(after.getNeuron(neuron.getId()).getAssociatedMorpheme() == null, "a snapshot sees a save that was never written");
+		} finally {
+			after.close();
+			before.close();
+		}
+		System.out.println("Failed save is not published: OK");
+	}
+
+}
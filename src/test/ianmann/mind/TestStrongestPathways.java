@@ -0,0 +1,59 @@
+package test.ianmann.mind;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.NeuralPathway;
+import com.ianmann.mind.Neuron;
+import com.ianmann.mind.StorageEngine;
+import com.ianmann.mind.storage.organization.NeuronType;
+import com.ianmann.utils.storage.StorageManageable;
+
+import test.ianmann.TestSupport;
+
+public class TestStrongestPathways {
+
+	public static void main(String[] args) throws IOException, ParseException {
+		TestSupport.useTemporaryStorage(StorageEngine.FILE);
+
+		StorageManageable<Neuron> neurons = Neuron.storage;
+		Neuron sender = neurons.create(NeuronType.NOUN_INSTANCE, null);
+		sender.getAxon().add(new ArrayList<NeuralPathway>());
+		NeuralPathway[] pathways = new NeuralPathway[5];
+		for (int i = 0; i < pathways.length; i++) {
+			pathways[i] = sender.addNeuralPathway(0, neurons.create(NeuronType.NOUN_DEFINITION, null));
+			// Pathway i is fired i times, so the last one is the strongest.
+			for (int f = 0; f < i; f++) {
+				pathways[i].fireSynapse();
+			}
+		}
+
+		Neuron.cache.clear();
+		ArrayList<NeuralPathway> strongest = sender.getStrongestPathways(0, 2);
+		TestSupport.check(strongest.size() == 2, "asked for 2 pathways and got " + strongest.size());
+		TestSupport.check(strongest.get(0) == pathways[4] && strongest.get(1) == pathways[3], "the strongest pathways were not returned strongest first");
+		for (NeuralPathway pathway : pathways) {
+			TestSupport.check(!Neuron.cache.contains(pathway.getRecieverId()), "ranking the pathways loaded the Neuron one leads to");
+		}
+		TestSupport.check(sender.getStrongestPathways(0, 10).size() == 5, "asking for more pathways than the group has did not return them all");
+		System.out.println("Strongest first without loading targets: OK");
+
+		for (int f = 0; f < 5; f++) {
+			pathways[0].fireSynapse();
+		}
+		TestSupport.check(sender.getStrongestPathways(0, 1).get(0) == pathways[0], "firing a pathway did not move it up the ranking");
+		System.out.println("Ranking follows fired pathways: OK");
+
+		NeuralPathway added = sender.addNeuralPathway(0, neurons.create(NeuronType.NOUN_DEFINITION, null));
+		for (int f = 0; f < 10; f++) {
+			added.fireSynapse();
+		}
+		TestSupport.check(sender.getStrongestPathways(0, 1).get(0) == added, "an added pathway was not ranked");
+		sender.removeNeuralPathway(added.getId());
+		TestSupport.check(sender.getStrongestPathways(0, 1).get(0) == pathways[0], "a removed pathway was still ranked");
+		System.out.println("Add and remove: OK");
+	}
+
+}
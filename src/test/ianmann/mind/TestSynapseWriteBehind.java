@@ -0,0 +1,77 @@
+package test.ianmann.mind;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.json.simple.parser.ParseException;
+
+import com.ianmann.mind.NeuralPathway;
+import com.ianmann.mind.Neuron;
+import com.ianmann.mind.StorageEngine;
+import com.ianmann.mind.SynapseWriteBehind;
+import com.ianmann.mind.storage.organization.NeuronType;
+import com.ianmann.utils.storage.StorageManageable;
+
+import test.ianmann.TestSupport;
+
+public class TestSynapseWriteBehind {
+
+	private static final int PATHWAYS = 300;
+
+	private static final int FIRES = 3;
+
+	public static void main(String[] args) throws IOException, ParseException, InterruptedException {
+		TestSupport.useTemporaryStorage(StorageEngine.FILE);
+		// Only flushed when asked to.
+		NeuralPathway.writeBehind = new SynapseWriteBehind(Long.MAX_VALUE, Integer.MAX_VALUE);
+
+		StorageManageable<Neuron> neurons = Neuron.storage;
+		final Neuron stimulus = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		Neuron reaction = neurons.create(NeuronType.NOUN_DEFINITION, null);
+		stimulus.getAxon().add(new ArrayList<NeuralPathway>());
+		for (int i = 0; i < PATHWAYS; i++) {
+			stimulus.addNeuralPathway(0, reaction);
+		}
+		for (NeuralPathway pathway : stimulus.getAxon().get(0)) {
+			for (int i = 0; i < FIRES; i++) {
+				pathway.fireSynapse();
+			}
+		}
+		final double expected = stimulus.getAxon().get(0).get(0).getConnectionSize();
+
+		final String[] failure = new String[1];
+		final boolean[] flushing = { true };
+		Thread loader = new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					int loads = 0;
+					while (flushing[0] || loads < 10) {
+						// Read every pathway from storage again, as another thread would.
+						NeuralPathway.cache.clear();
+						Neuron.cache.clear();
+						for (NeuralPathway pathway : Neuron.fromStorage(stimulus.getId()).getAxon().get(0)) {
+							pathway.getRecieverId();
+							if (Math.abs(pathway.getConnectionSize() - expected) > 1e-9) {
+								failure[0] = pathway + " was loaded with " + pathway.getConnectionSize() + ", expected " + expected;
+								return;
+							}
+						}
+						loads++;
+					}
+				} catch (Exception e) {
+					failure[0] = e.toString();
+				}
+			}
+		};
+		loader.start();
+		NeuralPathway.writeBehind.flush();
+		flushing[0] = false;
+		loader.join();
+
+		TestSupport.check(failure[0] == null, failure[0]);
+		System.out.println("Write-behind load during a flush: OK");
+	}
+
+}
@@ -0,0 +1,134 @@
+package test.ianmann.utils.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import com.ianmann.utils.storage.SegmentLog;
+
+import test.ianmann.TestSupport;
+
+public class TestSegmentLog {
+
+	public static void main(String[] args) throws IOException {
+		File directory = TestSupport.temporaryFolder("segmentlog");
+		byte[] value = new byte[40];
+
+		// Tiny segments so every couple of records seals one.
+		SegmentLog log = new SegmentLog(directory, 64);
+		log.put("a", value);
+		log.put("keep", value);
+		// Sealed segment 1 is still mostly live, so it is not compacted
+		// and keeps its record for "a".
+		log.remove("a");
+		log.put("b", value);
+		log.put("b", value);
+		// Segment 2 only holds the tombstone for "a" and an overwritten "b".
+		int removed = log.compact();
+		log.close();
+
+		log = new SegmentLog(directory, 64);
+		System.out.println("Segments compacted: " + removed);
+		TestSupport.check(removed == 1, "segment 2 should have been compacted");
+		TestSupport.check(log.get("a") == null, "a removed key came back after compact and recover");
+		TestSupport.check(log.get("keep") != null, "live key in an old segment was lost");
+		TestSupport.check(log.get("b") != null, "live key in the active segment was lost");
+		log.close();
+		System.out.println("Remove, compact and recover: OK");
+
+		TestSegmentLog.skipsCorruptRecords();
+		TestSegmentLog.compactsWhileWriting();
+	}
+
+	/**
+	 * A damaged record in the middle of a segment only loses that record.
+	 * @throws IOException
+	 */
+	private static void skipsCorruptRecords() throws IOException {
+		File directory = TestSupport.temporaryFolder("segmentlog");
+		SegmentLog log = new SegmentLog(directory);
+		log.put("a", new byte[40]);
+		log.put("b", new byte[40]);
+		log.put("c", new byte[40]);
+		log.close();
+
+		// Record "a" takes 13 header bytes, 1 key byte and 40 value bytes,
+		// so this is in the value of "b".
+		RandomAccessFile segment = new RandomAccessFile(new File(directory, "00000001.seg"), "rw");
+		segment.seek(54 + 13 + 1 + 10);
+		segment.write(1);
+		segment.close();
+
+		log = new SegmentLog(directory);
+		TestSupport.check(log.getSkippedRecords() == 1, "the corrupt record was not reported");
+		TestSupport.check(log.get("b") == null, "the corrupt record was read");
+		TestSupport.check(log.get("a") != null, "the record before the corrupt one was lost");
+		TestSupport.check(log.get("c") != null, "the record after the corrupt one was lost");
+		log.close();
+		System.out.println("Skip corrupt record: OK");
+	}
+
+	/**
+	 * Writes made while segments are compacted are neither lost nor
+	 * overwritten by the records copied out of the old segments.
+	 * @throws IOException
+	 */
+	private static void compactsWhileWriting() throws IOException {
+		File directory = TestSupport.temporaryFolder("segmentlog");
+		final SegmentLog log = new SegmentLog(directory, 256);
+		for (int i = 0; i < 200; i++) {
+			log.put("key" + (i % 20), TestSegmentLog.value(i));
+		}
+
+		final IOException[] failure = new IOException[1];
+		Thread writer = new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					for (int i = 200; i < 400; i++) {
+						log.put("key" + (i % 20), TestSegmentLog.value(i));
+					}
+				} catch (IOException e) {
+					failure[0] = e;
+				}
+			}
+		};
+		writer.start();
+		int compacted = 0;
+		for (int pass = 0; pass < 5; pass++) {
+			compacted += log.compact();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+		compacted += log.compact();
+
+		System.out.println("Segments compacted: " + compacted);
+		TestSupport.check(compacted > 0, "nothing was compacted");
+		for (int i = 380; i < 400; i++) {
+			TestSupport.check(Arrays.equals(log.get("key" + (i % 20)), TestSegmentLog.value(i)), "key" + (i % 20) + " lost its newest value");
+		}
+		log.close();
+
+		SegmentLog reopened = new SegmentLog(directory, 256);
+		for (int i = 380; i < 400; i++) {
+			TestSupport.check(Arrays.equals(reopened.get("key" + (i % 20)), TestSegmentLog.value(i)), "key" + (i % 20) + " lost its newest value after recover");
+		}
+		reopened.close();
+		System.out.println("Compact while writing: OK");
+	}
+
+	private static byte[] value(int _i) {
+		byte[] value = new byte[24];
+		Arrays.fill(value, (byte) _i);
+		return value;
+	}
+
+}
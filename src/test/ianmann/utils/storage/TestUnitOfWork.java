@@ -0,0 +1,48 @@
+package test.ianmann.utils.storage;
+
+import java.util.ArrayList;
+
+import com.ianmann.utils.storage.UnitOfWork;
+
+import test.ianmann.TestSupport;
+
+public class TestUnitOfWork {
+
+	public static void main(String[] args) {
+		final ArrayList<String> applied = new ArrayList<String>();
+
+		UnitOfWork.begin();
+		UnitOfWork.current().put("neuron/1", write(applied, "neuron/1 first"));
+		UnitOfWork.current().put("pathway/7", write(applied, "pathway/7"));
+		UnitOfWork.begin();
+		UnitOfWork.current().put("neuron/1", write(applied, "neuron/1 second"));
+		UnitOfWork.commit();
+		TestSupport.check(applied.isEmpty(), "an inner commit wrote something");
+		UnitOfWork.commit();
+
+		System.out.println(applied);
+		TestSupport.check(applied.size() == 2, "a key saved twice was written twice");
+		TestSupport.check(applied.get(0).equals("pathway/7"), "writes were not applied in the order their keys were last written");
+		TestSupport.check(applied.get(1).equals("neuron/1 second"), "the newest write to a key was not the one applied");
+		TestSupport.check(UnitOfWork.current() == null, "the unit of work is still open after the outermost commit");
+		System.out.println("Unit of work commit ordering: OK");
+
+		applied.clear();
+		UnitOfWork.begin();
+		UnitOfWork.current().put("neuron/2", write(applied, "neuron/2"));
+		UnitOfWork.abandon();
+		TestSupport.check(applied.isEmpty() && UnitOfWork.current() == null, "an abandoned unit of work wrote something");
+		System.out.println("Abandoned unit of work: OK");
+	}
+
+	private static UnitOfWork.Operation write(final ArrayList<String> _applied, final String _name) {
+		return new UnitOfWork.Operation() {
+
+			@Override
+			public void apply() {
+				_applied.add(_name);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,122 @@
+package test.ianmann.utils.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import com.ianmann.utils.storage.WriteAheadLog;
+
+import test.ianmann.TestSupport;
+
+public class TestWriteAheadLog {
+
+	private static final int WRITERS = 8;
+
+	private static final int WRITES = 100;
+
+	public static void main(String[] args) throws IOException {
+		File root = TestSupport.temporaryFolder("wal");
+		File journalFolder = new File(root, "journal");
+		File a = new File(root, "a.nrn");
+		File b = new File(root, "b.nrn");
+
+		WriteAheadLog journal = new WriteAheadLog(journalFolder);
+		journal.begin();
+		journal.write(a, bytes("a1"));
+		journal.write(b, bytes("b1"));
+		journal.commit();
+		// Left open on purpose: closing takes a checkpoint and empties the journal.
+		byte[] committed = Files.readAllBytes(new File(journalFolder, "journal").toPath());
+
+		// Crash after the batch was committed but before its files were written.
+		a.delete();
+		b.delete();
+		crashWith(journalFolder, committed, committed.length);
+		new WriteAheadLog(journalFolder).close();
+		TestSupport.check("a1".equals(read(a)) && "b1".equals(read(b)), "a committed batch was not replayed");
+		System.out.println("Committed batch replayed: OK");
+
+		// Crash while the commit record was being appended.
+		a.delete();
+		b.delete();
+		crashWith(journalFolder, committed, committed.length - 1);
+		new WriteAheadLog(journalFolder).close();
+		TestSupport.check(!a.exists() && !b.exists(), "part of a batch without its commit record was replayed");
+		System.out.println("Uncommitted batch skipped: OK");
+
+		// A single write is its own commit.
+		WriteAheadLog single = new WriteAheadLog(journalFolder);
+		single.write(a, bytes("a2"));
+		byte[] written = Files.readAllBytes(new File(journalFolder, "journal").toPath());
+		a.delete();
+		crashWith(journalFolder, written, written.length);
+		new WriteAheadLog(journalFolder).close();
+		TestSupport.check("a2".equals(read(a)), "a single write was not replayed");
+		System.out.println("Single write replayed: OK");
+
+		// Threads rewriting the same file at once.
+		final WriteAheadLog shared = new WriteAheadLog(journalFolder);
+		final File c = new File(root, "c.nrn");
+		final IOException[] failure = new IOException[1];
+		Thread[] writers = new Thread[WRITERS];
+		for (int t = 0; t < writers.length; t++) {
+			final int writer = t;
+			writers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < WRITES; i++) {
+							shared.write(c, bytes(writer + "-" + i));
+						}
+					} catch (IOException e) {
+						failure[0] = e;
+					}
+				}
+			};
+			writers[t].start();
+		}
+		for (Thread writer : writers) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+		}
+		TestSupport.check(failure[0] == null, "a concurrent write failed: " + failure[0]);
+		for (String name : root.list()) {
+			TestSupport.check(!name.endsWith(".tmp"), "the temporary file " + name + " was left behind");
+		}
+		String last = read(c);
+		byte[] journaled = Files.readAllBytes(new File(journalFolder, "journal").toPath());
+		c.delete();
+		crashWith(journalFolder, journaled, journaled.length);
+		new WriteAheadLog(journalFolder).close();
+		TestSupport.check(last.equals(read(c)), "concurrent writes left " + last + " but the journal replays " + read(c));
+		System.out.println("Concurrent writes applied in journal order: OK");
+	}
+
+	/**
+	 * Leave the first _length bytes of _journal in the journal file as if
+	 * the program died after writing them.
+	 */
+	private static void crashWith(File _journalFolder, byte[] _journal, int _length) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(new File(_journalFolder, "journal"), "rw");
+		try {
+			file.setLength(0);
+			file.write(_journal, 0, _length);
+		} finally {
+			file.close();
+		}
+	}
+
+	private static byte[] bytes(String _text) {
+		return _text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String read(File _file) throws IOException {
+		return _file.exists() ? new String(Files.readAllBytes(_file.toPath()), StandardCharsets.UTF_8) : null;
+	}
+
+}